@@ -0,0 +1,51 @@
+package com.chatapp.broker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+
+import java.util.concurrent.TimeUnit;
+
+// Timestamps for the delivery latency metrics. On the inbound channel it stamps SEND
+// frames with the time they were received; on the outbound channel it records how long
+// a stamped message waited between hand-off and being written to the session.
+public class DeliveryTimingInterceptor implements ExecutorChannelInterceptor {
+
+    public static final String RECEIVED_HEADER = "chatReceivedNanos";
+    public static final String HANDOFF_HEADER = "chatHandoffNanos";
+
+    public static final String TIMER = "chat.delivery.private";
+
+    private final Timer outboundTimer;
+
+    public DeliveryTimingInterceptor(MeterRegistry meterRegistry) {
+        this.outboundTimer = hopTimer(meterRegistry, "outbound");
+    }
+
+    public static Timer hopTimer(MeterRegistry meterRegistry, String hop) {
+        return Timer.builder(TIMER).tag("hop", hop).register(meterRegistry);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor != null && accessor.isMutable() && accessor.getMessageType() == SimpMessageType.MESSAGE) {
+            accessor.setHeader(RECEIVED_HEADER, System.nanoTime());
+        }
+        return message;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        Object handoff = message.getHeaders().get(HANDOFF_HEADER);
+        if (handoff instanceof Long started) {
+            outboundTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.chatapp.broker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+// Channel executor that runs every message on its own virtual thread while messages
+// with the same ordering key (a room, a private pair, a session) run strictly one after
+// another. Each key holds at most keyQueueCapacity waiting messages; beyond that the
+// sending thread blocks, as with the broker lanes. On a runtime without virtual threads
+// it falls back to a cached platform thread pool with the same ordering.
+//
+// Extends ThreadPoolTaskExecutor only because ChannelRegistration accepts nothing else;
+// the inherited single-thread pool is created but never used.
+public class KeyedVirtualThreadExecutor extends ThreadPoolTaskExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyedVirtualThreadExecutor.class);
+
+    private final Function<Message<?>, Object> keyFunction;
+    private final int keyQueueCapacity;
+    private final Map<Object, KeyQueue> queues = new ConcurrentHashMap<>();
+    private ExecutorService workers;
+    private boolean virtualThreads;
+
+    // Pending messages for one key; removed from the map once drained
+    private static class KeyQueue {
+        final Object key;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notFull = lock.newCondition();
+        boolean running;
+        boolean retired;
+
+        KeyQueue(Object key) {
+            this.key = key;
+        }
+    }
+
+    public KeyedVirtualThreadExecutor(Function<Message<?>, Object> keyFunction, int keyQueueCapacity) {
+        this.keyFunction = keyFunction;
+        this.keyQueueCapacity = keyQueueCapacity;
+        setCorePoolSize(1);
+        setMaxPoolSize(1);
+    }
+
+    @Override
+    protected ExecutorService initializeExecutor(ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler) {
+        workers = newVirtualThreadExecutor(getThreadNamePrefix());
+        virtualThreads = workers != null;
+        if (workers == null) {
+            AtomicInteger counter = new AtomicInteger();
+            workers = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, getThreadNamePrefix() + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            log.warn("Virtual threads are not available on this runtime; {} uses platform threads", getThreadNamePrefix());
+        }
+        return super.initializeExecutor(threadFactory, rejectedExecutionHandler);
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Object key = task instanceof MessageHandlingRunnable runnable ? keyFunction.apply(runnable.getMessage()) : null;
+        if (key == null) {
+            workers.execute(task);
+            return;
+        }
+        while (true) {
+            KeyQueue queue = queues.computeIfAbsent(key, KeyQueue::new);
+            boolean start = false;
+            queue.lock.lock();
+            try {
+                while (queue.tasks.size() >= keyQueueCapacity && !queue.retired) {
+                    queue.notFull.await();
+                }
+                if (queue.retired) {
+                    // Drained and removed after we looked it up; use a fresh queue
+                    continue;
+                }
+                queue.tasks.add(task);
+                if (!queue.running) {
+                    queue.running = true;
+                    start = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for key " + key);
+            } finally {
+                queue.lock.unlock();
+            }
+            if (start) {
+                workers.execute(() -> drain(queue));
+            }
+            return;
+        }
+    }
+
+    private void drain(KeyQueue queue) {
+        while (true) {
+            Runnable next;
+            queue.lock.lock();
+            try {
+                next = queue.tasks.poll();
+                if (next == null) {
+                    queue.running = false;
+                    queue.retired = true;
+                    queues.remove(queue.key, queue);
+                    queue.notFull.signalAll();
+                    return;
+                }
+                queue.notFull.signal();
+            } finally {
+                queue.lock.unlock();
+            }
+            try {
+                next.run();
+            } catch (Throwable ex) {
+                log.error("Message handling failed for key {}", queue.key, ex);
+            }
+        }
+    }
+
+    public int getActiveKeyCount() {
+        return queues.size();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // Thread.ofVirtual().name(prefix, 0).factory() via reflection so the class still
+    // compiles for Java 17; returns null when the runtime has no virtual threads
+    private static ExecutorService newVirtualThreadExecutor(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) perTask.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.chatapp.broker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+
+import java.io.IOException;
+
+// Ordering keys for KeyedVirtualThreadExecutor. Chat messages are ordered per room, per
+// private pair, or on the public channel; every other frame is ordered per session.
+public final class MessageOrderingKeys {
+
+    private static final String SEND_DESTINATION = "/app/chat.sendMessage";
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private record RoomKey(String chatRoomId) {
+    }
+
+    private record PairKey(String first, String second) {
+    }
+
+    private record PublicKey() {
+    }
+
+    private static final PublicKey PUBLIC = new PublicKey();
+
+    private MessageOrderingKeys() {
+    }
+
+    public static Object inbound(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) == SimpMessageType.MESSAGE
+                && SEND_DESTINATION.equals(SimpMessageHeaderAccessor.getDestination(headers))
+                && message.getPayload() instanceof byte[] payload) {
+            Object key = chatKey(payload);
+            if (key != null) {
+                return key;
+            }
+        }
+        return SimpMessageHeaderAccessor.getSessionId(headers);
+    }
+
+    public static Object outbound(Message<?> message) {
+        return SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+    }
+
+    // Reads only the top-level routing fields of a chat.sendMessage body
+    private static Object chatKey(byte[] payload) {
+        String chatRoomId = null;
+        String targetUser = null;
+        String username = null;
+        try (JsonParser parser = JSON.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                switch (field) {
+                    case "chatRoomId" -> chatRoomId = parser.getValueAsString();
+                    case "targetUser" -> targetUser = parser.getValueAsString();
+                    case "username" -> username = parser.getValueAsString();
+                    default -> { }
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        // Same precedence as ChatController.sendMessage
+        if (targetUser != null) {
+            String sender = username != null ? username : "";
+            return sender.compareTo(targetUser) <= 0 ? new PairKey(sender, targetUser) : new PairKey(targetUser, sender);
+        }
+        if (chatRoomId != null) {
+            return new RoomKey(chatRoomId);
+        }
+        return PUBLIC;
+    }
+}
@@ -0,0 +1,213 @@
+package com.chatapp.broker;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// In-process broker for exact (non-pattern) destinations. Subscriptions are indexed by
+// destination, so a publish costs one map lookup instead of a walk over every
+// subscription. Delivery runs on a fixed set of single-threaded lanes chosen by
+// destination hash, which keeps per-room ordering while spreading rooms over cores.
+public class ShardedBrokerMessageHandler extends AbstractBrokerMessageHandler implements MeterBinder {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private record Subscription(String sessionId, String subscriptionId) {
+    }
+
+    private final Map<String, Subscription[]> subscribersByDestination = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> destinationsBySession = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicInteger subscriptionCount = new AtomicInteger();
+
+    private final ThreadPoolExecutor[] lanes;
+
+    public ShardedBrokerMessageHandler(SubscribableChannel clientInboundChannel, MessageChannel clientOutboundChannel,
+                                       SubscribableChannel brokerChannel, Collection<String> destinationPrefixes,
+                                       int laneCount, int laneCapacity) {
+        super(clientInboundChannel, clientOutboundChannel, brokerChannel, destinationPrefixes);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = "broker-lane-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(laneCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                // A full lane blocks the publisher rather than dropping or reordering
+                (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        return;
+                    }
+                    try {
+                        executor.getQueue().put(runnable);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        }
+    }
+
+    @Override
+    protected void stopInternal() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    @Override
+    protected void handleMessageInternal(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(headers);
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+
+        // CONNECT is acknowledged by the simple broker that still owns /queue
+        if (SimpMessageType.DISCONNECT.equals(messageType)) {
+            if (sessionId != null) {
+                removeSession(sessionId);
+            }
+            return;
+        }
+
+        if (!checkDestinationPrefix(destination)) {
+            return;
+        }
+
+        if (SimpMessageType.MESSAGE.equals(messageType)) {
+            laneFor(destination).execute(() -> sendMessageToSubscribers(destination, message));
+        } else if (SimpMessageType.SUBSCRIBE.equals(messageType)) {
+            String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+            if (sessionId != null && subscriptionId != null) {
+                subscribe(sessionId, subscriptionId, destination);
+            }
+        } else if (SimpMessageType.UNSUBSCRIBE.equals(messageType)) {
+            String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+            if (sessionId != null && subscriptionId != null) {
+                unsubscribe(sessionId, subscriptionId);
+            }
+        }
+    }
+
+    protected void sendMessageToSubscribers(String destination, Message<?> message) {
+        Subscription[] subscribers = subscribersByDestination.get(destination);
+        if (subscribers == null) {
+            return;
+        }
+        // The payload is already encoded once by the converter; every copy shares it, and
+        // the shared frame lets the STOMP encoder reuse the encoded headers and body
+        Object payload = message.getPayload();
+        SharedFrameStompEncoder.SharedFrame sharedFrame = new SharedFrameStompEncoder.SharedFrame();
+        for (Subscription subscription : subscribers) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setSessionId(subscription.sessionId());
+            accessor.setSubscriptionId(subscription.subscriptionId());
+            accessor.setHeader(SharedFrameStompEncoder.SharedFrame.HEADER, sharedFrame);
+            accessor.copyHeadersIfAbsent(message.getHeaders());
+            accessor.setLeaveMutable(true);
+            try {
+                getClientOutboundChannel().send(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+            } catch (Throwable ex) {
+                logger.error("Failed to send " + message, ex);
+            }
+        }
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        String previous = destinationsBySession
+            .computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+            .put(subscriptionId, destination);
+        if (previous != null) {
+            removeSubscriber(previous, sessionId, subscriptionId);
+        }
+        Subscription subscription = new Subscription(sessionId, subscriptionId);
+        synchronized (lockFor(destination)) {
+            subscribersByDestination.merge(destination, new Subscription[] {subscription}, (current, added) -> {
+                Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = subscription;
+                return updated;
+            });
+        }
+        subscriptionCount.incrementAndGet();
+
+        // A DISCONNECT processed concurrently may already have cleaned up this session
+        Map<String, String> current = destinationsBySession.get(sessionId);
+        if (current == null || !destination.equals(current.get(subscriptionId))) {
+            removeSubscriber(destination, sessionId, subscriptionId);
+        }
+    }
+
+    private void unsubscribe(String sessionId, String subscriptionId) {
+        Map<String, String> subscriptions = destinationsBySession.get(sessionId);
+        String destination = subscriptions != null ? subscriptions.remove(subscriptionId) : null;
+        if (destination != null) {
+            removeSubscriber(destination, sessionId, subscriptionId);
+        }
+    }
+
+    private void removeSession(String sessionId) {
+        Map<String, String> subscriptions = destinationsBySession.remove(sessionId);
+        if (subscriptions != null) {
+            subscriptions.forEach((subscriptionId, destination) ->
+                removeSubscriber(destination, sessionId, subscriptionId));
+        }
+    }
+
+    private void removeSubscriber(String destination, String sessionId, String subscriptionId) {
+        synchronized (lockFor(destination)) {
+            subscribersByDestination.computeIfPresent(destination, (key, current) -> {
+                for (int i = 0; i < current.length; i++) {
+                    if (current[i].sessionId().equals(sessionId) && current[i].subscriptionId().equals(subscriptionId)) {
+                        subscriptionCount.decrementAndGet();
+                        if (current.length == 1) {
+                            return null;
+                        }
+                        Subscription[] updated = new Subscription[current.length - 1];
+                        System.arraycopy(current, 0, updated, 0, i);
+                        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                        return updated;
+                    }
+                }
+                return current;
+            });
+        }
+    }
+
+    private Object lockFor(String destination) {
+        return locks[(destination.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    private ThreadPoolExecutor laneFor(String destination) {
+        return lanes[(destination.hashCode() & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.broker.subscriptions", subscriptionCount, AtomicInteger::get).register(registry);
+        Gauge.builder("chat.broker.destinations", subscribersByDestination, Map::size).register(registry);
+        Gauge.builder("chat.broker.lane.queue", lanes, l -> Arrays.stream(l).mapToInt(e -> e.getQueue().size()).sum())
+            .register(registry);
+    }
+}
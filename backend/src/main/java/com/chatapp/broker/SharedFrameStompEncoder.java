@@ -0,0 +1,122 @@
+package com.chatapp.broker;
+
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// STOMP encoder for broadcast fan-out. MESSAGE frames produced by the sharded broker
+// carry a SharedFrame header; the first session to encode one writes every header that
+// is the same for all subscribers plus the body, and each session after that only
+// writes its own subscription and message-id lines in front of those shared bytes.
+public class SharedFrameStompEncoder extends StompEncoder {
+
+    private static final byte[] MESSAGE_LINE = "MESSAGE\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUBSCRIPTION_KEY = "subscription:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE_ID_KEY = "message-id:".getBytes(StandardCharsets.UTF_8);
+
+    // Set once per published message and shared by every per-subscriber copy
+    public static class SharedFrame {
+        public static final String HEADER = "chatSharedFrame";
+
+        private volatile byte[] encoded;
+    }
+
+    @Override
+    public byte[] encode(Map<String, Object> headers, byte[] payload) {
+        byte[] frame = encodeFrame(headers, payload);
+        SlowConsumerGuard.frameEncoded(frame);
+        return frame;
+    }
+
+    private byte[] encodeFrame(Map<String, Object> headers, byte[] payload) {
+        Object holder = headers.get(SharedFrame.HEADER);
+        if (!(holder instanceof SharedFrame frame) || StompHeaderAccessor.getCommand(headers) != StompCommand.MESSAGE) {
+            return super.encode(headers, payload);
+        }
+
+        byte[] shared = frame.encoded;
+        if (shared == null) {
+            // Concurrent first encodes produce identical bytes, so the race is harmless
+            shared = super.encode(withoutPerSessionHeaders(headers), payload);
+            frame.encoded = shared;
+        }
+
+        byte[] subscription = headerValue(headers, StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER);
+        byte[] messageId = headerValue(headers, StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER);
+
+        int tailLength = shared.length - MESSAGE_LINE.length;
+        byte[] result = new byte[MESSAGE_LINE.length
+            + SUBSCRIPTION_KEY.length + subscription.length + 1
+            + MESSAGE_ID_KEY.length + messageId.length + 1
+            + tailLength];
+        int pos = put(result, 0, MESSAGE_LINE);
+        pos = put(result, pos, SUBSCRIPTION_KEY);
+        pos = put(result, pos, subscription);
+        result[pos++] = '\n';
+        pos = put(result, pos, MESSAGE_ID_KEY);
+        pos = put(result, pos, messageId);
+        result[pos++] = '\n';
+        System.arraycopy(shared, MESSAGE_LINE.length, result, pos, tailLength);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> withoutPerSessionHeaders(Map<String, Object> headers) {
+        Map<String, List<String>> nativeHeaders =
+            (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        Map<String, List<String>> sharedNative = nativeHeaders != null ? new LinkedHashMap<>(nativeHeaders) : new LinkedHashMap<>();
+        sharedNative.remove(StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER);
+        sharedNative.remove(StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER);
+
+        Map<String, Object> copy = new HashMap<>(headers);
+        copy.put(NativeMessageHeaderAccessor.NATIVE_HEADERS, sharedNative);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] headerValue(Map<String, Object> headers, String name) {
+        Map<String, List<String>> nativeHeaders =
+            (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        List<String> values = nativeHeaders != null ? nativeHeaders.get(name) : null;
+        String value = values != null && !values.isEmpty() ? values.get(0) : "";
+        return escape(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // STOMP 1.2 header value escaping
+    private static String escape(String value) {
+        StringBuilder sb = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = switch (c) {
+                case '\\' -> "\\\\";
+                case ':' -> "\\c";
+                case '\n' -> "\\n";
+                case '\r' -> "\\r";
+                default -> null;
+            };
+            if (replacement != null && sb == null) {
+                sb = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (sb != null) {
+                if (replacement != null) {
+                    sb.append(replacement);
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb != null ? sb.toString() : value;
+    }
+
+    private static int put(byte[] target, int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, target, pos, bytes.length);
+        return pos + bytes.length;
+    }
+}
@@ -0,0 +1,342 @@
+package com.chatapp.broker;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Per-session backpressure on top of the transport's send-time and buffer limits.
+// Every frame handed to clientOutboundChannel for a session counts as pending until the
+// session has written it, or until the channel has handled it without producing a frame.
+// Frames are matched to writes by the identity of their encoded bytes, so frames written
+// to the session directly (errors from the protocol handler) don't count either way.
+// Once a session has soft-limit frames pending, non-critical
+// frames (presence, typing) are dropped, coalesced to the latest per destination, or
+// the session is disconnected, depending on the configured policy. At the hard limit
+// the session is always disconnected.
+@Component
+public class SlowConsumerGuard implements ExecutorChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(SlowConsumerGuard.class);
+
+    public enum NonCriticalPolicy { DROP, COALESCE, DISCONNECT }
+
+    // The outbound frame being handled on this thread, so its encoding can be recognised
+    // when the session writes it
+    private static final ThreadLocal<Handling> HANDLING = ThreadLocal.withInitial(Handling::new);
+
+    // Published whenever a frame for a session is discarded, so its producer can resync
+    public record FrameDiscardedEvent(String sessionId, Principal user, String destination) {
+    }
+
+    @Autowired
+    @Lazy
+    @Qualifier("clientOutboundChannel")
+    private MessageChannel clientOutboundChannel;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.websocket.slow-consumer.soft-limit:100}")
+    private int softLimit;
+
+    @Value("${chat.websocket.slow-consumer.hard-limit:1000}")
+    private int hardLimit;
+
+    @Value("${chat.websocket.slow-consumer.policy:COALESCE}")
+    private NonCriticalPolicy policy;
+
+    @Value("${chat.websocket.slow-consumer.non-critical-destinations:/user/queue/presence}")
+    private List<String> nonCriticalDestinations;
+
+    @Value("${chat.websocket.slow-consumer.sample-interval-ms:1000}")
+    private long sampleIntervalMs;
+
+    private final Map<String, SessionState> sessions = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService sampler;
+    private DistributionSummary depthSummary;
+    private Counter droppedCounter;
+    private Counter coalescedCounter;
+    private Counter disconnectedCounter;
+
+    private class SessionState {
+        final WebSocketSession session;
+        final AtomicInteger pending = new AtomicInteger();
+        // Encoded pending frames not yet written; arrays compare by identity
+        final Set<byte[]> encoded = ConcurrentHashMap.newKeySet();
+        // Latest held-back non-critical frame per destination (COALESCE policy)
+        final Map<String, Message<?>> coalesced = new ConcurrentHashMap<>();
+        final AtomicBoolean closing = new AtomicBoolean();
+
+        SessionState(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+
+    private static class Handling {
+        SessionState state;
+        boolean encoded;
+    }
+
+    @PostConstruct
+    public void init() {
+        depthSummary = DistributionSummary.builder("chat.websocket.session.queue.depth")
+            .description("Frames pending per session, sampled")
+            .serviceLevelObjectives(1, 10, softLimit, hardLimit)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        droppedCounter = Counter.builder("chat.websocket.slow.dropped").register(meterRegistry);
+        coalescedCounter = Counter.builder("chat.websocket.slow.coalesced").register(meterRegistry);
+        disconnectedCounter = Counter.builder("chat.websocket.slow.disconnected").register(meterRegistry);
+        Gauge.builder("chat.websocket.session.queue.depth.max", this, SlowConsumerGuard::getMaxDepth)
+            .register(meterRegistry);
+
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "slow-consumer-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, sampleIntervalMs, sampleIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        sampler.shutdown();
+    }
+
+    // Registered through WebSocketTransportRegistration.addDecoratorFactory
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                SessionState state = new SessionState(session);
+                sessions.put(session.getId(), state);
+                super.afterConnectionEstablished(new CountingSession(session, state));
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SessionState state = stateOf(message);
+        if (state == null) {
+            return message;
+        }
+        if (state.closing.get()) {
+            return null;
+        }
+
+        int depth = state.pending.get();
+        if (depth >= hardLimit) {
+            disconnect(state, "hard limit");
+            return null;
+        }
+        if (depth >= softLimit) {
+            String destination = destinationOf(message);
+            if (isNonCritical(message, destination)) {
+                switch (policy) {
+                    case DROP -> {
+                        droppedCounter.increment();
+                        discarded(state, destination);
+                        return null;
+                    }
+                    case COALESCE -> {
+                        if (state.coalesced.put(destination, message) != null) {
+                            discarded(state, destination);
+                        }
+                        coalescedCounter.increment();
+                        return null;
+                    }
+                    case DISCONNECT -> {
+                        disconnect(state, "soft limit");
+                        return null;
+                    }
+                }
+            }
+        }
+        state.pending.incrementAndGet();
+        return message;
+    }
+
+    @Override
+    public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+        // Never reached the handler
+        if (!sent || ex != null) {
+            SessionState state = stateOf(message);
+            if (state != null) {
+                sent(state);
+            }
+        }
+    }
+
+    @Override
+    public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+        Handling handling = HANDLING.get();
+        handling.state = stateOf(message);
+        handling.encoded = false;
+        return message;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        Handling handling = HANDLING.get();
+        SessionState state = handling.state;
+        handling.state = null;
+        // No frame will be written for this message
+        if (state != null && !handling.encoded) {
+            sent(state);
+        }
+    }
+
+    // Called by SharedFrameStompEncoder with every frame it encodes
+    static void frameEncoded(byte[] frame) {
+        Handling handling = HANDLING.get();
+        if (handling.state != null && !handling.encoded) {
+            handling.encoded = true;
+            handling.state.encoded.add(frame);
+        }
+    }
+
+    public int getMaxDepth() {
+        int max = 0;
+        for (SessionState state : sessions.values()) {
+            max = Math.max(max, state.pending.get());
+        }
+        return max;
+    }
+
+    private SessionState stateOf(Message<?> message) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        return sessionId != null ? sessions.get(sessionId) : null;
+    }
+
+    private void sample() {
+        for (SessionState state : sessions.values()) {
+            depthSummary.record(state.pending.get());
+        }
+    }
+
+    // Called once a pending frame has been written, or won't be
+    private void sent(SessionState state) {
+        int depth = state.pending.updateAndGet(value -> value > 0 ? value - 1 : 0);
+        // Release held-back frames once the backlog is well under the soft limit
+        if (depth <= softLimit / 2 && !state.coalesced.isEmpty()) {
+            for (String destination : List.copyOf(state.coalesced.keySet())) {
+                Message<?> held = state.coalesced.remove(destination);
+                if (held != null) {
+                    clientOutboundChannel.send(held);
+                }
+            }
+        }
+    }
+
+    private void disconnect(SessionState state, String reason) {
+        if (!state.closing.compareAndSet(false, true)) {
+            return;
+        }
+        disconnectedCounter.increment();
+        log.warn("Closing slow WebSocket session {} ({} frames pending, {})",
+            state.session.getId(), state.pending.get(), reason);
+        try {
+            state.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            log.debug("Failed to close session {}", state.session.getId(), e);
+        }
+    }
+
+    private void discarded(SessionState state, String destination) {
+        eventPublisher.publishEvent(new FrameDiscardedEvent(state.session.getId(), state.session.getPrincipal(), destination));
+    }
+
+    private boolean isNonCritical(Message<?> message, String destination) {
+        return SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE
+            && destination != null
+            && nonCriticalDestinations.stream().anyMatch(destination::startsWith);
+    }
+
+    // User destinations are matched by what the client subscribed to (/user/queue/...)
+    private static String destinationOf(Message<?> message) {
+        Object original = message.getHeaders().get(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION);
+        return original instanceof String value ? value : SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+    }
+
+    // Sits under Spring's ConcurrentWebSocketSessionDecorator and sees each frame as it
+    // is actually written
+    private class CountingSession extends WebSocketSessionDecorator {
+        private final SessionState state;
+
+        CountingSession(WebSocketSession session, SessionState state) {
+            super(session);
+            this.state = state;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            try {
+                super.sendMessage(message);
+            } finally {
+                byte[] frame = frameOf(message);
+                if (frame != null && state.encoded.remove(frame)) {
+                    sent(state);
+                }
+            }
+        }
+
+        // The protocol handler wraps the encoder's array without copying it
+        private static byte[] frameOf(WebSocketMessage<?> message) {
+            if (message instanceof TextMessage text) {
+                return text.asBytes();
+            }
+            if (message instanceof BinaryMessage binary && binary.getPayload().hasArray()) {
+                return binary.getPayload().array();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.chatapp.broker;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.dto.ChatEvent;
+import com.chatapp.service.CatchUpService;
+import com.chatapp.service.PresenceService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+// Username -> sessions subscribed to /user/queue/private. Private messages are delivered
+// straight to those sessions on the outbound channel instead of going through the
+// user destination resolver and the broker: the payload is serialized once, the STOMP
+// frame is encoded once, and each session only gets its own write. In cluster mode the
+// serialized payload is also sent to the other nodes by the node that keeps the
+// recipient's inbox (see CatchUpService).
+@Component
+public class UserSessionRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(UserSessionRegistry.class);
+
+    public static final String PRIVATE_DESTINATION = "/user/queue/private";
+
+    private record Target(String sessionId, String subscriptionId) {
+    }
+
+    @Autowired
+    @Qualifier("clientOutboundChannel")
+    private MessageChannel clientOutboundChannel;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Autowired
+    private CatchUpService catchUpService;
+
+    // Copy-on-write target arrays, replaced under the map's per-key compute
+    private final Map<String, Target[]> targetsByUser = new ConcurrentHashMap<>();
+    // Session id -> username, for unsubscribe and disconnect
+    private final Map<String, String> usersBySession = new ConcurrentHashMap<>();
+
+    private Timer inboundTimer;
+    private Timer fanoutTimer;
+    private Counter deliveredCounter;
+    private Counter undeliveredCounter;
+
+    @PostConstruct
+    public void init() {
+        inboundTimer = DeliveryTimingInterceptor.hopTimer(meterRegistry, "inbound");
+        fanoutTimer = DeliveryTimingInterceptor.hopTimer(meterRegistry, "fanout");
+        deliveredCounter = Counter.builder("chat.delivery.private.writes").register(meterRegistry);
+        undeliveredCounter = Counter.builder("chat.delivery.private.undelivered").register(meterRegistry);
+        Gauge.builder("chat.delivery.private.sessions", usersBySession, Map::size).register(meterRegistry);
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        Principal user = event.getUser();
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        if (user == null || sessionId == null || subscriptionId == null
+                || !PRIVATE_DESTINATION.equals(accessor.getDestination())) {
+            return;
+        }
+        String username = user.getName();
+        usersBySession.put(sessionId, username);
+        Target target = new Target(sessionId, subscriptionId);
+        targetsByUser.merge(username, new Target[] {target}, (current, added) -> {
+            Target[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = target;
+            return updated;
+        });
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        String username = sessionId != null ? usersBySession.get(sessionId) : null;
+        if (username != null && subscriptionId != null) {
+            removeTargets(username, target ->
+                target.sessionId().equals(sessionId) && target.subscriptionId().equals(subscriptionId));
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        String sessionId = event.getSessionId();
+        String username = usersBySession.remove(sessionId);
+        if (username != null) {
+            removeTargets(username, target -> target.sessionId().equals(sessionId));
+        }
+    }
+
+    // Deliver a private event to every private-queue session of the given users, except
+    // the session it originated from. Each user's copy gets the next seq of that user's
+    // inbox, so users without a live session find it there when they reconnect.
+    // receivedNanos is when the originating frame arrived, or null if unknown.
+    public int deliver(ChatEvent event, Collection<String> usernames, String originSessionId, Long receivedNanos) {
+        long start = System.nanoTime();
+        if (receivedNanos != null) {
+            inboundTimer.record(start - receivedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        int delivered = 0;
+        for (String username : usernames.stream().distinct().toList()) {
+            if (clusterService.isLocalInbox(username)) {
+                delivered += deliverToInbox(username, originSessionId, event);
+            } else {
+                clusterService.forwardInboxMessage(new ClusterService.InboxMessage(username, originSessionId, event));
+            }
+        }
+        fanoutTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return delivered;
+    }
+
+    // Private events sent by other nodes to this node as the recipient's inbox node
+    @EventListener
+    public void onInboxMessage(ClusterService.InboxMessageReceived event) {
+        ClusterService.InboxMessage message = event.message();
+        deliverToInbox(message.username(), message.originSessionId(), message.event());
+    }
+
+    // Private frame relayed by the user's inbox node
+    @EventListener
+    public void onUserFrameReceived(ClusterService.UserFrameReceived event) {
+        catchUpService.recordUserEvent(event.username(), event.payload());
+        send(event.payload(), targetsOf(event.username(), event.skipSession()));
+    }
+
+    private int deliverToInbox(String username, String originSessionId, ChatEvent event) {
+        List<Target> targets = targetsOf(username, originSessionId);
+        if (targets.isEmpty() && (!clusterService.isEnabled() || presenceService.getRemoteNodes(username).isEmpty())) {
+            undeliveredCounter.increment();
+        }
+
+        // Every other node gets the frame too: it delivers to the user's sessions there
+        // and keeps a replica of the inbox, so catch-up works wherever the user reconnects
+        int[] delivered = new int[1];
+        catchUpService.publishUserEvent(username, event, body -> {
+            clusterService.sendToUser(null, username, originSessionId, body);
+            delivered[0] = send(body, targets);
+        });
+        return delivered[0];
+    }
+
+    private List<Target> targetsOf(String username, String skipSessionId) {
+        Target[] userTargets = targetsByUser.get(username);
+        if (userTargets == null) {
+            return List.of();
+        }
+        List<Target> targets = new ArrayList<>(userTargets.length);
+        for (Target target : userTargets) {
+            if (!target.sessionId().equals(skipSessionId)) {
+                targets.add(target);
+            }
+        }
+        return targets;
+    }
+
+    private int send(byte[] body, List<Target> targets) {
+        SharedFrameStompEncoder.SharedFrame sharedFrame = new SharedFrameStompEncoder.SharedFrame();
+        int delivered = 0;
+        for (Target target : targets) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setSessionId(target.sessionId());
+            accessor.setSubscriptionId(target.subscriptionId());
+            accessor.setDestination(PRIVATE_DESTINATION);
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            accessor.setHeader(SharedFrameStompEncoder.SharedFrame.HEADER, sharedFrame);
+            accessor.setHeader(DeliveryTimingInterceptor.HANDOFF_HEADER, System.nanoTime());
+            try {
+                clientOutboundChannel.send(MessageBuilder.createMessage(body, accessor.getMessageHeaders()));
+                delivered++;
+            } catch (Exception e) {
+                log.error("Failed to deliver private message to session {}", target.sessionId(), e);
+            }
+        }
+        deliveredCounter.increment(delivered);
+        return delivered;
+    }
+
+    private void removeTargets(String username, Predicate<Target> match) {
+        targetsByUser.computeIfPresent(username, (key, current) -> {
+            Target[] remaining = Arrays.stream(current).filter(match.negate()).toArray(Target[]::new);
+            return remaining.length == 0 ? null : remaining;
+        });
+    }
+}
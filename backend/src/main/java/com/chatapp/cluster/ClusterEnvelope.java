@@ -0,0 +1,34 @@
+package com.chatapp.cluster;
+
+// Unit of traffic between nodes. The payload is opaque to the transport: a JSON frame
+// body for TOPIC and USER, a serialized ClusterService record for the others. skipSession is a session that must not get a USER frame (the one the
+// message was sent from), or null.
+public record ClusterEnvelope(Type type, String origin, String destination, String skipSession, byte[] payload) {
+
+    public enum Type {
+        // Frame for a /topic destination, handed to each node's local broker
+        TOPIC,
+        // Private-queue frame for one user; destination is the username
+        USER,
+        // Group message sent to the room's owner node
+        ROOM,
+        // Membership notice for a group, sent to the room's owner node to publish
+        ROOM_MEMBERSHIP,
+        // Private message for one user, sent to the node that keeps that user's inbox
+        INBOX,
+        // Users that came online or went offline on the origin node
+        PRESENCE,
+        // Private message sent to the node that persists the conversation
+        PRIVATE,
+        // A room's members changed on the origin node
+        MEMBERSHIP,
+        // Messages of these rooms were persisted on the origin node
+        HISTORY,
+        // Two users became or stopped being contacts on the origin node
+        CONTACT,
+        // Room message counts and read markers moved on the origin node
+        READ_STATE,
+        // Messages persisted on the origin node, for the search index
+        SEARCH
+    }
+}
@@ -0,0 +1,437 @@
+package com.chatapp.cluster;
+
+import com.chatapp.dto.ChatEvent;
+import com.chatapp.dto.MembershipEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Cluster mode. This node joins the others over a ClusterTransport and
+// - relays every /topic frame published here to the other nodes, which hand it to their
+//   local broker (this class is installed as an interceptor on the broker channel),
+// - sends private messages to the node that keeps the recipient's inbox, which sequences
+//   them and relays the frames to the other nodes,
+// - exchanges presence with the other nodes, and
+// - gives every room an owner node by consistent hashing; group messages go through the
+//   owner, so every node sees a room's messages in the same order,
+// - persists each private conversation on one node, so a room's ids come from one
+//   node's sequence blocks and follow send order, and
+// - tells the other nodes about committed changes to what they cache: room members,
+//   room history, contacts, read state and the search index.
+// Inbound traffic other than /topic frames is published as application events. With
+// chat.cluster.enabled=false this node is a cluster of one and nothing is relayed.
+@Component
+public class ClusterService implements ChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterService.class);
+
+    // Set on frames received from another node so they are not relayed again
+    public static final String RELAYED_HEADER = "chatRelayedFrom";
+
+    private static final String TOPIC_PREFIX = "/topic/";
+
+    private static final int LOCK_STRIPES = 64;
+
+    public record RoomMessage(String sender, Long chatRoomId, String content, String messageType, long timestamp) {
+    }
+
+    public record PresenceEntry(long userId, String username) {
+    }
+
+    // Local presence changes of one node; a full update replaces everything known about it
+    public record PresenceUpdate(List<PresenceEntry> online, List<PresenceEntry> offline, boolean full) {
+    }
+
+    public record NodesChanged(Set<String> nodes, Set<String> joined, Set<String> left) {
+    }
+
+    public record PresenceReceived(String origin, PresenceUpdate update) {
+    }
+
+    public record UserFrameReceived(String username, String skipSession, byte[] payload) {
+    }
+
+    // Private message on its way to the node that keeps the recipient's inbox
+    public record InboxMessage(String username, String originSessionId, ChatEvent event) {
+    }
+
+    public record InboxMessageReceived(InboxMessage message) {
+    }
+
+    // /topic frame relayed from another node, published before it goes to the local broker
+    public record TopicFrameReceived(String destination, byte[] payload) {
+    }
+
+    public record RoomMessageReceived(RoomMessage message) {
+    }
+
+    public record RoomMembershipReceived(MembershipEvent event) {
+    }
+
+    // Private message on its way to the node that persists the conversation
+    public record PrivateMessage(String sender, String targetUser, String content, String messageType, long timestamp) {
+    }
+
+    public record PrivateMessageReceived(PrivateMessage message) {
+    }
+
+    // Committed changes on another node, published as events where they are received
+    public record MembershipChanged(Long chatRoomId) {
+    }
+
+    public record HistoryChanged(List<Long> chatRoomIds) {
+    }
+
+    public record ContactChanged(long userId, long contactId, boolean added) {
+    }
+
+    // Absolute values, so a receiver can apply them in any state and only move forward
+    public record RoomCount(long chatRoomId, long messageCount, long lastMessageId) {
+    }
+
+    public record ReadPosition(long userId, long chatRoomId, long readCount, long lastReadMessageId) {
+    }
+
+    public record ReadStateChanged(List<RoomCount> rooms, List<ReadPosition> markers) {
+    }
+
+    public record SearchDocument(long id, long chatRoomId, String content) {
+    }
+
+    public record MessagesIndexed(List<SearchDocument> documents) {
+    }
+
+    @Autowired(required = false)
+    private ClusterTransport transport;
+
+    @Autowired
+    @Lazy
+    @Qualifier("brokerChannel")
+    private MessageChannel brokerChannel;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.cluster.node-id:}")
+    private String nodeId;
+
+    @Value("${chat.cluster.virtual-nodes:128}")
+    private int virtualNodes;
+
+    private volatile ConsistentHashRing ring;
+
+    private final ReentrantLock[] topicLocks = new ReentrantLock[LOCK_STRIPES];
+
+    private final Map<ClusterEnvelope.Type, Counter> sentCounters = new EnumMap<>(ClusterEnvelope.Type.class);
+    private final Map<ClusterEnvelope.Type, Counter> receivedCounters = new EnumMap<>(ClusterEnvelope.Type.class);
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            topicLocks[i] = new ReentrantLock();
+        }
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = UUID.randomUUID().toString().substring(0, 8);
+        }
+        ring = new ConsistentHashRing(Set.of(nodeId), virtualNodes);
+        if (enabled && transport == null) {
+            throw new IllegalStateException("chat.cluster.enabled is set but no ClusterTransport is configured");
+        }
+
+        for (ClusterEnvelope.Type type : ClusterEnvelope.Type.values()) {
+            sentCounters.put(type, Counter.builder("chat.cluster.envelopes")
+                .tag("direction", "out").tag("type", type.name()).register(meterRegistry));
+            receivedCounters.put(type, Counter.builder("chat.cluster.envelopes")
+                .tag("direction", "in").tag("type", type.name()).register(meterRegistry));
+        }
+        Gauge.builder("chat.cluster.nodes", this, service -> service.getNodes().size()).register(meterRegistry);
+    }
+
+    // Joined once the context is up, so inbound traffic finds the brokers started and the
+    // event listeners registered
+    @EventListener(ApplicationReadyEvent.class)
+    public void join() {
+        if (!enabled) {
+            return;
+        }
+        transport.join(nodeId, new ClusterTransport.Listener() {
+            @Override
+            public void onEnvelope(ClusterEnvelope envelope) {
+                receive(envelope);
+            }
+
+            @Override
+            public void onMembersChanged(Set<String> nodeIds) {
+                membersChanged(nodeIds);
+            }
+        });
+        log.info("Node {} joined the cluster", nodeId);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (enabled) {
+            transport.leave();
+        }
+    }
+
+    // Relays /topic frames published on this node; frames from other nodes pass through.
+    // The broker channel hands frames to the broker on the sending thread, so holding the
+    // destination's lock until afterSendCompletion makes the relay order match the local
+    // delivery order when several threads publish to one destination.
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String destination = relayedDestination(message);
+        if (destination == null) {
+            return message;
+        }
+        ReentrantLock lock = lockFor(destination);
+        lock.lock();
+        try {
+            send(null, new ClusterEnvelope(ClusterEnvelope.Type.TOPIC, nodeId, destination, null,
+                (byte[]) message.getPayload()));
+        } catch (RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        return message;
+    }
+
+    @Override
+    public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+        String destination = relayedDestination(message);
+        if (destination != null) {
+            lockFor(destination).unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Set<String> getNodes() {
+        return ring.nodes();
+    }
+
+    public String ownerOf(Long chatRoomId) {
+        return ring.ownerOf(chatRoomId);
+    }
+
+    public boolean isLocal(Long chatRoomId) {
+        return !enabled || nodeId.equals(ring.ownerOf(chatRoomId));
+    }
+
+    // The node that sequences and keeps a user's private-queue inbox
+    public String inboxNodeOf(String username) {
+        return ring.ownerOf(username);
+    }
+
+    public boolean isLocalInbox(String username) {
+        return !enabled || nodeId.equals(ring.ownerOf(username));
+    }
+
+    // The node that persists the private conversation between two users
+    public String conversationNodeOf(String username1, String username2) {
+        return ring.ownerOf(conversationKey(username1, username2));
+    }
+
+    public boolean isLocalConversation(String username1, String username2) {
+        return !enabled || nodeId.equals(conversationNodeOf(username1, username2));
+    }
+
+    // Hands a group message to the room's owner node
+    public void forwardRoomMessage(RoomMessage message) {
+        send(ownerOf(message.chatRoomId()), new ClusterEnvelope(ClusterEnvelope.Type.ROOM, nodeId, null, null,
+            write(message)));
+    }
+
+    // Hands a group's membership notice to the room's owner node
+    public void forwardRoomMembership(MembershipEvent event) {
+        send(ownerOf(event.chatRoomId()), new ClusterEnvelope(ClusterEnvelope.Type.ROOM_MEMBERSHIP, nodeId, null,
+            null, write(event)));
+    }
+
+    // Hands a private message to the node that keeps the recipient's inbox
+    public void forwardInboxMessage(InboxMessage message) {
+        send(inboxNodeOf(message.username()), new ClusterEnvelope(ClusterEnvelope.Type.INBOX, nodeId, null, null,
+            write(message)));
+    }
+
+    // Hands a private message to the node that persists the conversation
+    public void forwardPrivateMessage(PrivateMessage message) {
+        send(conversationNodeOf(message.sender(), message.targetUser()), new ClusterEnvelope(
+            ClusterEnvelope.Type.PRIVATE, nodeId, null, null, write(message)));
+    }
+
+    // The relay methods below are called once the change has been committed
+    public void relayMembershipChanged(Long chatRoomId) {
+        send(null, new ClusterEnvelope(ClusterEnvelope.Type.MEMBERSHIP, nodeId, null, null,
+            write(new MembershipChanged(chatRoomId))));
+    }
+
+    public void relayHistoryChanged(List<Long> chatRoomIds) {
+        if (!chatRoomIds.isEmpty()) {
+            send(null, new ClusterEnvelope(ClusterEnvelope.Type.HISTORY, nodeId, null, null,
+                write(new HistoryChanged(chatRoomIds))));
+        }
+    }
+
+    public void relayContactChanged(long userId, long contactId, boolean added) {
+        send(null, new ClusterEnvelope(ClusterEnvelope.Type.CONTACT, nodeId, null, null,
+            write(new ContactChanged(userId, contactId, added))));
+    }
+
+    public void relayReadStateChanged(List<RoomCount> rooms, List<ReadPosition> markers) {
+        if (!rooms.isEmpty() || !markers.isEmpty()) {
+            send(null, new ClusterEnvelope(ClusterEnvelope.Type.READ_STATE, nodeId, null, null,
+                write(new ReadStateChanged(rooms, markers))));
+        }
+    }
+
+    public void relayMessagesIndexed(List<SearchDocument> documents) {
+        if (!documents.isEmpty()) {
+            send(null, new ClusterEnvelope(ClusterEnvelope.Type.SEARCH, nodeId, null, null,
+                write(new MessagesIndexed(documents))));
+        }
+    }
+
+    // To one node, or to every other node when targetNode is null
+    public void sendToUser(String targetNode, String username, String skipSession, byte[] payload) {
+        send(targetNode, new ClusterEnvelope(ClusterEnvelope.Type.USER, nodeId, username, skipSession, payload));
+    }
+
+    // To one node, or to every other node when targetNode is null
+    public void sendPresence(String targetNode, PresenceUpdate update) {
+        send(targetNode, new ClusterEnvelope(ClusterEnvelope.Type.PRESENCE, nodeId, null, null, write(update)));
+    }
+
+    // The destination of a /topic frame published on this node, or null
+    private String relayedDestination(Message<?> message) {
+        if (!enabled || message.getHeaders().containsKey(RELAYED_HEADER)
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || !(message.getPayload() instanceof byte[])) {
+            return null;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        return destination != null && destination.startsWith(TOPIC_PREFIX) ? destination : null;
+    }
+
+    // Either order of the two users gives the same key
+    private static String conversationKey(String username1, String username2) {
+        return username1.compareTo(username2) <= 0 ? username1 + "\n" + username2 : username2 + "\n" + username1;
+    }
+
+    private ReentrantLock lockFor(String destination) {
+        return topicLocks[(destination.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    private void send(String targetNode, ClusterEnvelope envelope) {
+        if (!enabled) {
+            return;
+        }
+        if (targetNode == null) {
+            transport.broadcast(envelope);
+        } else {
+            transport.send(targetNode, envelope);
+        }
+        sentCounters.get(envelope.type()).increment();
+    }
+
+    private void receive(ClusterEnvelope envelope) {
+        receivedCounters.get(envelope.type()).increment();
+        switch (envelope.type()) {
+            case TOPIC -> {
+                eventPublisher.publishEvent(new TopicFrameReceived(envelope.destination(), envelope.payload()));
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+                accessor.setDestination(envelope.destination());
+                accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+                accessor.setHeader(RELAYED_HEADER, envelope.origin());
+                brokerChannel.send(MessageBuilder.createMessage(envelope.payload(), accessor.getMessageHeaders()));
+            }
+            case USER -> eventPublisher.publishEvent(
+                new UserFrameReceived(envelope.destination(), envelope.skipSession(), envelope.payload()));
+            case ROOM -> eventPublisher.publishEvent(new RoomMessageReceived(read(envelope.payload(), RoomMessage.class)));
+            case ROOM_MEMBERSHIP -> eventPublisher.publishEvent(
+                new RoomMembershipReceived(read(envelope.payload(), MembershipEvent.class)));
+            case INBOX -> eventPublisher.publishEvent(new InboxMessageReceived(read(envelope.payload(), InboxMessage.class)));
+            case PRESENCE -> eventPublisher.publishEvent(
+                new PresenceReceived(envelope.origin(), read(envelope.payload(), PresenceUpdate.class)));
+            case PRIVATE -> eventPublisher.publishEvent(
+                new PrivateMessageReceived(read(envelope.payload(), PrivateMessage.class)));
+            case MEMBERSHIP -> eventPublisher.publishEvent(read(envelope.payload(), MembershipChanged.class));
+            case HISTORY -> eventPublisher.publishEvent(read(envelope.payload(), HistoryChanged.class));
+            case CONTACT -> eventPublisher.publishEvent(read(envelope.payload(), ContactChanged.class));
+            case READ_STATE -> eventPublisher.publishEvent(read(envelope.payload(), ReadStateChanged.class));
+            case SEARCH -> eventPublisher.publishEvent(read(envelope.payload(), MessagesIndexed.class));
+        }
+    }
+
+    private void membersChanged(Set<String> nodeIds) {
+        Set<String> previous = ring.nodes();
+        Set<String> joined = new HashSet<>(nodeIds);
+        joined.removeAll(previous);
+        Set<String> left = new HashSet<>(previous);
+        left.removeAll(nodeIds);
+        ring = new ConsistentHashRing(nodeIds, virtualNodes);
+        log.info("Cluster members: {} (joined {}, left {})", nodeIds, joined, left);
+        eventPublisher.publishEvent(new NodesChanged(Set.copyOf(nodeIds), joined, left));
+    }
+
+    private byte[] write(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize cluster envelope", e);
+        }
+    }
+
+    private <T> T read(byte[] payload, Class<T> type) {
+        try {
+            return objectMapper.readValue(payload, type);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read cluster envelope", e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.chatapp.cluster;
+
+import java.util.Set;
+
+// Moves envelopes between the nodes of a cluster. Envelopes from one node must reach
+// another node in the order they were sent, and every member is told the new member
+// set whenever a node joins or leaves.
+public interface ClusterTransport {
+
+    interface Listener {
+        void onEnvelope(ClusterEnvelope envelope);
+
+        // Current node ids, this node included
+        void onMembersChanged(Set<String> nodeIds);
+    }
+
+    void join(String nodeId, Listener listener);
+
+    void leave();
+
+    // To every other node
+    void broadcast(ClusterEnvelope envelope);
+
+    // To one node; dropped if that node is not a member
+    void send(String nodeId, ClusterEnvelope envelope);
+}
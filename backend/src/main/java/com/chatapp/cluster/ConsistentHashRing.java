@@ -0,0 +1,80 @@
+package com.chatapp.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Consistent hashing of keys (room ids, usernames) onto nodes. Each node is placed at
+// virtualNodes points on a 64-bit ring and a key belongs to the first point at or after
+// its hash, so adding or removing a node only moves the keys next to that node's points.
+// Immutable; membership changes build a new ring.
+public final class ConsistentHashRing {
+
+    private final long[] points;
+    private final String[] owners;
+    private final Set<String> nodes;
+
+    public ConsistentHashRing(Collection<String> nodeIds, int virtualNodes) {
+        nodes = Set.copyOf(new TreeSet<>(nodeIds));
+        int count = nodes.size() * virtualNodes;
+        long[][] placed = new long[count][];
+        String[] names = nodes.toArray(String[]::new);
+        Arrays.sort(names);
+        int i = 0;
+        for (int node = 0; node < names.length; node++) {
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                placed[i++] = new long[] {hash(names[node] + "#" + replica), node};
+            }
+        }
+        // Ties (practically impossible) go to the lower node name so every node agrees
+        Arrays.sort(placed, Comparator.<long[]>comparingLong(point -> point[0]).thenComparingLong(point -> point[1]));
+        points = new long[count];
+        owners = new String[count];
+        for (i = 0; i < count; i++) {
+            points[i] = placed[i][0];
+            owners[i] = names[(int) placed[i][1]];
+        }
+    }
+
+    public String ownerOf(long key) {
+        if (points.length == 0) {
+            throw new IllegalStateException("Ring has no nodes");
+        }
+        int at = Arrays.binarySearch(points, mix(key));
+        if (at < 0) {
+            at = -at - 1;
+        }
+        return owners[at == points.length ? 0 : at];
+    }
+
+    public String ownerOf(String key) {
+        return ownerOf(hash(key));
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    // 64-bit FNV-1a, finished with a mix so nearby names spread over the ring
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // MurmurHash3 finalizer
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb93fe53b1a4fL;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,121 @@
+package com.chatapp.cluster;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// In-process transport: the nodes are the application contexts in this JVM that joined
+// the same named hub. Each node has its own delivery thread, so envelopes reach it in
+// the order they were sent. Used to run several contexts as one cluster in tests and
+// benchmarks; a networked transport implements the same interface.
+@Component
+@ConditionalOnExpression("${chat.cluster.enabled:false} and '${chat.cluster.transport:loopback}' == 'loopback'")
+public class LoopbackClusterTransport implements ClusterTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(LoopbackClusterTransport.class);
+
+    private static final Map<String, Map<String, Member>> HUBS = new ConcurrentHashMap<>();
+
+    @Value("${chat.cluster.loopback.name:default}")
+    private String hubName;
+
+    private Map<String, Member> hub;
+    private Member self;
+
+    private static class Member {
+        final String nodeId;
+        final Listener listener;
+        final ExecutorService inbox;
+
+        Member(String nodeId, Listener listener) {
+            this.nodeId = nodeId;
+            this.listener = listener;
+            this.inbox = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cluster-loopback-" + nodeId);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void deliver(Runnable action) {
+            try {
+                inbox.execute(() -> {
+                    try {
+                        action.run();
+                    } catch (Exception e) {
+                        log.error("Cluster delivery to node {} failed", nodeId, e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // The node is shutting down
+                log.debug("Dropped envelope for node {}", nodeId, e);
+            }
+        }
+    }
+
+    @Override
+    public void join(String nodeId, Listener listener) {
+        hub = HUBS.computeIfAbsent(hubName, name -> new ConcurrentHashMap<>());
+        self = new Member(nodeId, listener);
+        synchronized (hub) {
+            if (hub.putIfAbsent(nodeId, self) != null) {
+                throw new IllegalStateException("Node " + nodeId + " already joined cluster " + hubName);
+            }
+            announceMembers();
+        }
+    }
+
+    @Override
+    @PreDestroy
+    public void leave() {
+        if (self == null) {
+            return;
+        }
+        synchronized (hub) {
+            if (hub.remove(self.nodeId, self)) {
+                announceMembers();
+            }
+        }
+        self.inbox.shutdown();
+        try {
+            self.inbox.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void broadcast(ClusterEnvelope envelope) {
+        for (Member member : hub.values()) {
+            if (member != self) {
+                member.deliver(() -> member.listener.onEnvelope(envelope));
+            }
+        }
+    }
+
+    @Override
+    public void send(String nodeId, ClusterEnvelope envelope) {
+        Member member = hub.get(nodeId);
+        if (member != null && member != self) {
+            member.deliver(() -> member.listener.onEnvelope(envelope));
+        }
+    }
+
+    // Called with the hub locked so every member sees membership changes in one order
+    private void announceMembers() {
+        Set<String> nodeIds = Set.copyOf(hub.keySet());
+        for (Member member : hub.values()) {
+            member.deliver(() -> member.listener.onMembersChanged(nodeIds));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.chatapp.config;
+
+import com.chatapp.service.AdmissionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// Admission control for the REST endpoints hit when clients reconnect: catch-up ahead of
+// the room list, room summaries, contacts, history and search
+@Configuration
+public class AdmissionConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private AdmissionService admissionService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new RestAdmissionInterceptor(admissionService, objectMapper,
+                AdmissionService.Priority.SYNC))
+                .addPathPatterns("/api/chat/sync");
+        registry.addInterceptor(new RestAdmissionInterceptor(admissionService, objectMapper,
+                AdmissionService.Priority.BACKFILL))
+                .addPathPatterns("/api/chat/rooms", "/api/chat/rooms/summary", "/api/chat/rooms/*/messages",
+                        "/api/chat/contacts", "/api/chat/search/**", "/api/chat/online-users");
+    }
+}
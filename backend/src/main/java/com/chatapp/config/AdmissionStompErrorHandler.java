@@ -0,0 +1,27 @@
+package com.chatapp.config;
+
+import com.chatapp.service.AdmissionService;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.web.socket.messaging.StompSubProtocolErrorHandler;
+
+// Adds a retry-after-ms header to the ERROR frame sent for a rejected CONNECT or SEND, so
+// the client waits that long before reconnecting
+public class AdmissionStompErrorHandler extends StompSubProtocolErrorHandler {
+
+    public static final String RETRY_AFTER_HEADER = "retry-after-ms";
+
+    @Override
+    protected Message<byte[]> handleInternal(StompHeaderAccessor errorHeaderAccessor, byte[] errorPayload,
+                                             Throwable cause, StompHeaderAccessor clientHeaderAccessor) {
+        Throwable rejection = cause;
+        while (rejection != null && !(rejection instanceof AdmissionService.RejectedException)) {
+            rejection = rejection.getCause();
+        }
+        if (rejection instanceof AdmissionService.RejectedException rejected) {
+            errorHeaderAccessor.setMessage(rejected.getMessage());
+            errorHeaderAccessor.setNativeHeader(RETRY_AFTER_HEADER, String.valueOf(rejected.getRetryAfterMs()));
+        }
+        return super.handleInternal(errorHeaderAccessor, errorPayload, cause, clientHeaderAccessor);
+    }
+}
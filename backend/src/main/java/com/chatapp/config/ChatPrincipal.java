@@ -0,0 +1,13 @@
+package com.chatapp.config;
+
+import java.security.Principal;
+
+// Identity attached to a STOMP session on CONNECT; the name is the username so
+// user destinations (/user/{username}/...) resolve to the session
+public record ChatPrincipal(Long userId, String username) implements Principal {
+
+    @Override
+    public String getName() {
+        return username;
+    }
+}
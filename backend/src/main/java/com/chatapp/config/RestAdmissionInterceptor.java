@@ -0,0 +1,53 @@
+package com.chatapp.config;
+
+import com.chatapp.dto.BusyResponse;
+import com.chatapp.service.AdmissionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+// Admission for the REST endpoints a reconnecting client calls, registered per priority
+// class in AdmissionConfig. A rejected request gets 429 with Retry-After.
+public class RestAdmissionInterceptor implements HandlerInterceptor {
+
+    private final AdmissionService admissionService;
+    private final ObjectMapper objectMapper;
+    private final AdmissionService.Priority priority;
+
+    public RestAdmissionInterceptor(AdmissionService admissionService, ObjectMapper objectMapper,
+                                    AdmissionService.Priority priority) {
+        this.admissionService = admissionService;
+        this.objectMapper = objectMapper;
+        this.priority = priority;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if ("OPTIONS".equals(request.getMethod())) {
+            return true;
+        }
+        try {
+            admissionService.admit(priority, userId(request));
+            return true;
+        } catch (AdmissionService.RejectedException e) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf((e.getRetryAfterMs() + 999) / 1000));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getOutputStream(), new BusyResponse(false, e.getMessage(), e.getRetryAfterMs()));
+            return false;
+        }
+    }
+
+    private static Long userId(HttpServletRequest request) {
+        String userId = request.getHeader("User-Id");
+        try {
+            return userId != null ? Long.valueOf(userId.trim()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
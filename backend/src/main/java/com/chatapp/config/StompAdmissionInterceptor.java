@@ -0,0 +1,46 @@
+package com.chatapp.config;
+
+import com.chatapp.service.AdmissionService;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+
+// Admission for STOMP frames, ahead of the other inbound interceptors: CONNECT and SEND
+// frames need a token, in their priority classes. A rejected frame is not handled; the
+// client gets an ERROR frame with a retry-after-ms header, which closes the session, and
+// reconnects after that long. Sends are only turned away once the node is down to the
+// last tenth of its burst.
+public class StompAdmissionInterceptor implements ChannelInterceptor {
+
+    private final AdmissionService admissionService;
+
+    public StompAdmissionInterceptor(AdmissionService admissionService) {
+        this.admissionService = admissionService;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null) {
+            return message;
+        }
+        if (accessor.getCommand() == StompCommand.CONNECT) {
+            admissionService.admit(AdmissionService.Priority.CONNECT, userId(accessor));
+        } else if (accessor.getCommand() == StompCommand.SEND) {
+            admissionService.admit(AdmissionService.Priority.SEND, null);
+        }
+        return message;
+    }
+
+    private static Long userId(StompHeaderAccessor accessor) {
+        String userId = accessor.getFirstNativeHeader(StompUserInterceptor.USER_ID_HEADER);
+        try {
+            return userId != null ? Long.valueOf(userId.trim()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.chatapp.config;
+
+import com.chatapp.repository.UserRepository;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+
+// Resolves the "user-id" header of a STOMP CONNECT frame to a ChatPrincipal. Sessions
+// connecting without one stay anonymous and are not tracked by presence.
+public class StompUserInterceptor implements ChannelInterceptor {
+
+    public static final String USER_ID_HEADER = "user-id";
+
+    private final UserRepository userRepository;
+
+    public StompUserInterceptor(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() != StompCommand.CONNECT) {
+            return message;
+        }
+        String userId = accessor.getFirstNativeHeader(USER_ID_HEADER);
+        if (userId != null && !userId.isBlank()) {
+            try {
+                Long id = Long.valueOf(userId.trim());
+                userRepository.findById(id)
+                    .ifPresent(user -> accessor.setUser(new ChatPrincipal(user.getId(), user.getUsername())));
+            } catch (NumberFormatException e) {
+                // Unknown id format; leave the session anonymous
+            }
+        }
+        return message;
+    }
+}
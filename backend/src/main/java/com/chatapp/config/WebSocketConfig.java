@@ -1,19 +1,88 @@
 package com.chatapp.config;
 
+import com.chatapp.broker.DeliveryTimingInterceptor;
+import com.chatapp.broker.KeyedVirtualThreadExecutor;
+import com.chatapp.broker.MessageOrderingKeys;
+import com.chatapp.broker.ShardedBrokerMessageHandler;
+import com.chatapp.broker.SlowConsumerGuard;
+import com.chatapp.broker.SharedFrameStompEncoder;
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.repository.UserRepository;
+import com.chatapp.service.AdmissionService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.*;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.List;
+import java.util.function.Function;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Autowired
+    private SlowConsumerGuard slowConsumerGuard;
+    
+    @Autowired
+    private ClusterService clusterService;
+    
+    @Autowired
+    private AdmissionService admissionService;
+    
+    @Value("${chat.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+    
+    @Value("${chat.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+    
+    @Value("${chat.websocket.message-size-limit:65536}")
+    private int messageSizeLimit;
+    
+    private DeliveryTimingInterceptor deliveryTimingInterceptor;
+    
+    @Value("${chat.broker.sharded.enabled:true}")
+    private boolean shardedBrokerEnabled;
+    
+    @Value("${chat.messaging.virtual-threads.enabled:false}")
+    private boolean virtualThreadsEnabled;
+    
+    @Value("${chat.messaging.key-queue-capacity:1000}")
+    private int keyQueueCapacity;
+    
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Enable a simple memory-based message broker
-        config.enableSimpleBroker("/topic");
+        // Enable a simple memory-based message broker for user queues; /topic goes to the
+        // sharded broker below unless it is disabled
+        if (shardedBrokerEnabled) {
+            config.enableSimpleBroker("/queue");
+        } else {
+            config.enableSimpleBroker("/topic", "/queue");
+        }
         // Set application destination prefix
         config.setApplicationDestinationPrefixes("/app");
+        // In cluster mode /topic frames published here are relayed to the other nodes
+        config.configureBrokerChannel().interceptors(clusterService);
     }
     
     @Override
@@ -22,5 +91,79 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
+        // Tells clients turned away by admission control when to reconnect
+        registry.setErrorHandler(new AdmissionStompErrorHandler());
+    }
+    
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // A session that can't take a frame within the time limit, or whose unsent
+        // buffer exceeds the size limit, is closed by the transport
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setMessageSizeLimit(messageSizeLimit)
+                .addDecoratorFactory(slowConsumerGuard::decorate);
+    }
+    
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Admit CONNECTs before anything looks them up, then identify the user of each
+        // session from its CONNECT frame
+        registration.interceptors(new StompAdmissionInterceptor(admissionService),
+                new StompUserInterceptor(userRepository), deliveryTimingInterceptor());
+        // Opt-in: handlers on virtual threads, ordered per room / private pair / session
+        if (virtualThreadsEnabled) {
+            registration.taskExecutor(keyedExecutor("inbound", MessageOrderingKeys::inbound));
+        }
+    }
+    
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(slowConsumerGuard, deliveryTimingInterceptor());
+        // Writes to a session stay in order
+        if (virtualThreadsEnabled) {
+            registration.taskExecutor(keyedExecutor("outbound", MessageOrderingKeys::outbound));
+        }
+    }
+    
+    private KeyedVirtualThreadExecutor keyedExecutor(String channel, Function<Message<?>, Object> keyFunction) {
+        KeyedVirtualThreadExecutor executor = new KeyedVirtualThreadExecutor(keyFunction, keyQueueCapacity);
+        Gauge.builder("chat.messaging.ordering.keys", executor, KeyedVirtualThreadExecutor::getActiveKeyCount)
+                .tag("channel", channel)
+                .register(meterRegistry);
+        return executor;
+    }
+    
+    // Shared by both channels: stamps inbound frames and times outbound writes
+    private DeliveryTimingInterceptor deliveryTimingInterceptor() {
+        if (deliveryTimingInterceptor == null) {
+            deliveryTimingInterceptor = new DeliveryTimingInterceptor(meterRegistry);
+        }
+        return deliveryTimingInterceptor;
+    }
+    
+    @Bean
+    @ConditionalOnProperty(name = "chat.broker.sharded.enabled", havingValue = "true", matchIfMissing = true)
+    public ShardedBrokerMessageHandler shardedBrokerMessageHandler(
+            @Qualifier("clientInboundChannel") SubscribableChannel clientInboundChannel,
+            @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+            @Qualifier("brokerChannel") SubscribableChannel brokerChannel,
+            @Value("${chat.broker.lanes:4}") int lanes,
+            @Value("${chat.broker.lane-capacity:10000}") int laneCapacity) {
+        return new ShardedBrokerMessageHandler(clientInboundChannel, clientOutboundChannel, brokerChannel,
+                List.of("/topic"), lanes, laneCapacity);
+    }
+    
+    // Install the fan-out aware encoder on the STOMP protocol handler
+    @Bean
+    public SmartInitializingSingleton sharedFrameEncoderInstaller(
+            @Qualifier("subProtocolWebSocketHandler") WebSocketHandler webSocketHandler) {
+        return () -> {
+            if (webSocketHandler instanceof SubProtocolWebSocketHandler subProtocolHandler) {
+                subProtocolHandler.getProtocolHandlers().stream()
+                        .filter(StompSubProtocolHandler.class::isInstance)
+                        .forEach(handler -> ((StompSubProtocolHandler) handler).setEncoder(new SharedFrameStompEncoder()));
+            }
+        };
     }
 }
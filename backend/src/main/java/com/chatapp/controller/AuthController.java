@@ -1,14 +1,15 @@
 package com.chatapp.controller;
 
+import com.chatapp.dto.AuthResponse;
+import com.chatapp.dto.AvailabilityResponse;
+import com.chatapp.dto.StatusResponse;
+import com.chatapp.dto.UserProfile;
 import com.chatapp.model.User;
 import com.chatapp.service.AuthService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.HashMap;
-import java.util.Map;
-
 @RestController
 @RequestMapping("/api/auth")
 @CrossOrigin(origins = "*")
@@ -27,17 +28,9 @@ public class AuthController {
                 request.getPassword()
             );
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "User registered successfully");
-            response.put("user", createUserResponse(user));
-            
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(new AuthResponse(true, "User registered successfully", UserProfile.from(user)));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
@@ -46,60 +39,30 @@ public class AuthController {
         try {
             User user = authService.login(request.getUsernameOrPhone(), request.getPassword());
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "Login successful");
-            response.put("user", createUserResponse(user));
-            
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(new AuthResponse(true, "Login successful", UserProfile.from(user)));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
     @PostMapping("/logout/{userId}")
     public ResponseEntity<?> logout(@PathVariable Long userId) {
-        authService.logout(userId);
-        
-        Map<String, Object> response = new HashMap<>();
-        response.put("success", true);
-        response.put("message", "Logout successful");
-        
-        return ResponseEntity.ok(response);
+        // Nothing to persist; closing the WebSocket sessions takes the user offline
+        return ResponseEntity.ok(StatusResponse.ok("Logout successful"));
     }
     
     @GetMapping("/check-username/{username}")
     public ResponseEntity<?> checkUsername(@PathVariable String username) {
         boolean available = authService.isUsernameAvailable(username);
         
-        Map<String, Object> response = new HashMap<>();
-        response.put("available", available);
-        
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(new AvailabilityResponse(available));
     }
     
     @GetMapping("/check-phone/{phoneNumber}")
     public ResponseEntity<?> checkPhone(@PathVariable String phoneNumber) {
         boolean available = authService.isPhoneNumberAvailable(phoneNumber);
         
-        Map<String, Object> response = new HashMap<>();
-        response.put("available", available);
-        
-        return ResponseEntity.ok(response);
-    }
-    
-    private Map<String, Object> createUserResponse(User user) {
-        Map<String, Object> userResponse = new HashMap<>();
-        userResponse.put("id", user.getId());
-        userResponse.put("username", user.getUsername());
-        userResponse.put("name", user.getName());
-        userResponse.put("phoneNumber", user.getPhoneNumber());
-        userResponse.put("isOnline", user.isOnline());
-        userResponse.put("createdAt", user.getCreatedAt());
-        return userResponse;
+        return ResponseEntity.ok(new AvailabilityResponse(available));
     }
     
     // Request DTOs
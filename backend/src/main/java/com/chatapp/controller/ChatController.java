@@ -1,26 +1,58 @@
 package com.chatapp.controller;
 
+import com.chatapp.broker.DeliveryTimingInterceptor;
+import com.chatapp.broker.UserSessionRegistry;
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.dto.ChatEvent;
+import com.chatapp.dto.ChatRoomResponse;
+import com.chatapp.dto.ChatRoomsResponse;
+import com.chatapp.dto.ContactResponse;
+import com.chatapp.dto.ContactsResponse;
+import com.chatapp.dto.InboxResponse;
+import com.chatapp.dto.InboxRoom;
+import com.chatapp.dto.MembershipChangeResponse;
+import com.chatapp.dto.MembershipEvent;
+import com.chatapp.dto.MessageSearchResponse;
+import com.chatapp.dto.MessagesResponse;
+import com.chatapp.dto.OnlineUsersResponse;
+import com.chatapp.dto.PresenceEvent;
+import com.chatapp.dto.SequencedEvent;
+import com.chatapp.dto.StatusResponse;
+import com.chatapp.dto.UserSummary;
+import com.chatapp.dto.UsersResponse;
 import com.chatapp.model.ChatRoom;
 import com.chatapp.model.Message;
 import com.chatapp.model.User;
+import com.chatapp.service.CatchUpService;
 import com.chatapp.service.ChatService;
 import com.chatapp.service.ContactService;
+import com.chatapp.service.MessageSearchService;
+import com.chatapp.service.MessageSnapshot;
+import com.chatapp.service.MessageWriteBehindService;
+import com.chatapp.service.PresenceService;
+import com.chatapp.service.RoomSummaryService;
+import com.chatapp.util.InboxCursor;
+import com.chatapp.util.MessageCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 @RestController
 @RequestMapping("/api/chat")
-@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3000/frontend", "http://127.0.0.1:3000", "http://127.0.0.1:3000/frontend"}, allowCredentials = "true")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3000/frontend", "http://127.0.0.1:3000", "http://127.0.0.1:3000/frontend"})
 public class ChatController {
     
     @Autowired
@@ -29,60 +61,138 @@ public class ChatController {
     @Autowired
     private ContactService contactService;
     
+    @Autowired
+    private MessageWriteBehindService messageWriteBehindService;
+    
+    @Autowired
+    private PresenceService presenceService;
+    
+    @Autowired
+    private RoomSummaryService roomSummaryService;
+    
+    @Autowired
+    private MessageSearchService messageSearchService;
+    
+    @Autowired
+    private UserSessionRegistry userSessionRegistry;
+    
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
     
+    @Autowired
+    private ClusterService clusterService;
+    
+    @Autowired
+    private CatchUpService catchUpService;
+    
     // WebSocket endpoints for real-time messaging
     @MessageMapping("/chat.sendMessage")
-    public void sendMessage(@Payload Map<String, Object> message) {
+    public void sendMessage(@Payload Map<String, Object> message, SimpMessageHeaderAccessor headerAccessor) {
         String messageType = message.get("messageType").toString();
         String content = message.get("content").toString();
         String senderUsername = message.get("username").toString();
+        long timestamp = System.currentTimeMillis();
         
-        // Create response message
-        Map<String, Object> response = new HashMap<>();
-        response.put("username", senderUsername);
-        response.put("content", content);
-        response.put("messageType", messageType);
-        response.put("timestamp", System.currentTimeMillis());
+        // Refused before it is broadcast, since it could not be persisted
+        if (content.length() > Message.MAX_CONTENT_LENGTH) {
+            throw new RuntimeException("Message is longer than " + Message.MAX_CONTENT_LENGTH + " characters");
+        }
         
         // Check if it's a private message
         if (message.containsKey("targetUser")) {
             String targetUser = message.get("targetUser").toString();
-            response.put("targetUser", targetUser);
-            response.put("isPrivate", true);
+            ChatEvent response = ChatEvent.privateMessage(senderUsername, content, messageType, timestamp, targetUser);
             
-            // Send to both sender and recipient
-            messagingTemplate.convertAndSendToUser(senderUsername, "/queue/private", response);
-            messagingTemplate.convertAndSendToUser(targetUser, "/queue/private", response);
+            // Send to the recipient's sessions and the sender's other sessions; the
+            // sending session already shows the message
+            userSessionRegistry.deliver(response, List.of(senderUsername, targetUser), headerAccessor.getSessionId(),
+                (Long) headerAccessor.getHeader(DeliveryTimingInterceptor.RECEIVED_HEADER));
+            
+            // Persist after broadcasting, on the node that persists the conversation
+            ClusterService.PrivateMessage privateMessage = new ClusterService.PrivateMessage(
+                senderUsername, targetUser, content, messageType, timestamp);
+            if (clusterService.isLocalConversation(senderUsername, targetUser)) {
+                persistPrivateMessage(privateMessage);
+            } else {
+                clusterService.forwardPrivateMessage(privateMessage);
+            }
         }
         // Check if it's a group message
         else if (message.containsKey("chatRoomId")) {
             Long chatRoomId = Long.valueOf(message.get("chatRoomId").toString());
-            response.put("chatRoomId", chatRoomId);
-            response.put("isGroup", true);
+            ClusterService.RoomMessage roomMessage = new ClusterService.RoomMessage(
+                senderUsername, chatRoomId, content, messageType, timestamp);
             
-            // Send to group topic
-            messagingTemplate.convertAndSend("/topic/group/" + chatRoomId, response);
+            // The room's owner node publishes it, so every node sees one order per room
+            if (clusterService.isLocal(chatRoomId)) {
+                publishGroupMessage(roomMessage);
+            } else {
+                clusterService.forwardRoomMessage(roomMessage);
+            }
         }
         // Default to public message
         else {
-            messagingTemplate.convertAndSend("/topic/public", response);
+            messagingTemplate.convertAndSend("/topic/public",
+                ChatEvent.publicMessage(senderUsername, content, messageType, timestamp));
         }
     }
     
+    // Group messages sent by other nodes to this node as the room's owner
+    @EventListener
+    public void onRoomMessage(ClusterService.RoomMessageReceived event) {
+        publishGroupMessage(event.message());
+    }
+    
+    // Private messages sent by other nodes to this node to persist
+    @EventListener
+    public void onPrivateMessage(ClusterService.PrivateMessageReceived event) {
+        persistPrivateMessage(event.message());
+    }
+    
+    private void persistPrivateMessage(ClusterService.PrivateMessage message) {
+        messageWriteBehindService.enqueue(new MessageWriteBehindService.QueuedMessage(
+            message.sender(), null, message.targetUser(), message.content(), message.messageType(), message.timestamp()));
+    }
+    
+    private void publishGroupMessage(ClusterService.RoomMessage message) {
+        ChatEvent response = ChatEvent.groupMessage(message.sender(), message.content(), message.messageType(),
+            message.timestamp(), message.chatRoomId());
+        
+        // Send to group topic with the room's next seq, keeping the event for catch-up
+        publishRoomEvent(message.chatRoomId(), response);
+        
+        // Persist after broadcasting
+        messageWriteBehindService.enqueue(new MessageWriteBehindService.QueuedMessage(
+            message.sender(), message.chatRoomId(), null, message.content(), message.messageType(), message.timestamp()));
+    }
+    
+    // Membership notices sent by other nodes to this node as the room's owner
+    @EventListener
+    public void onRoomMembership(ClusterService.RoomMembershipReceived event) {
+        publishRoomMembership(event.event());
+    }
+    
+    private void publishRoomMembership(MembershipEvent event) {
+        publishRoomEvent(event.chatRoomId(), event);
+    }
+    
+    private void publishRoomEvent(Long chatRoomId, SequencedEvent event) {
+        String destination = "/topic/group/" + chatRoomId;
+        catchUpService.publishRoomEvent(chatRoomId, event, payload -> {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            accessor.setLeaveMutable(true);
+            messagingTemplate.send(destination, MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+        });
+    }
+    
     @MessageMapping("/chat.addUser")
     public void addUser(@Payload Map<String, Object> payload) {
         String username = payload.get("username").toString();
-        onlineUsers.add(username);
         
-        // Send join message to public
-        Map<String, Object> response = new HashMap<>();
-        response.put("username", username);
-        response.put("content", username + " joined the chat");
-        response.put("messageType", "JOIN");
-        response.put("timestamp", System.currentTimeMillis());
-        response.put("onlineCount", onlineUsers.size());
+        // Send join message to public; who is online is tracked by PresenceService
+        PresenceEvent response = new PresenceEvent(username, username + " joined the chat", "JOIN",
+            System.currentTimeMillis(), presenceService.getOnlineCount());
         
         messagingTemplate.convertAndSend("/topic/public", response);
     }
@@ -93,16 +203,9 @@ public class ChatController {
         try {
             ChatRoom chatRoom = chatService.createOrGetPrivateChat(userId1, userId2);
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("chatRoom", createChatRoomResponse(chatRoom));
-            
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(new ChatRoomResponse(chatRoom));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
@@ -116,16 +219,9 @@ public class ChatController {
                 request.getParticipantIds()
             );
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("chatRoom", createChatRoomResponse(chatRoom));
-            
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(new ChatRoomResponse(chatRoom));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
@@ -134,37 +230,72 @@ public class ChatController {
         try {
             List<ChatRoom> chatRooms = chatService.getUserChatRooms(userId);
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("chatRooms", chatRooms.stream().map(this::createChatRoomResponse).toList());
+            return ResponseEntity.ok(new ChatRoomsResponse(chatRooms));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
+        }
+    }
+    
+    // Inbox: every room with its latest message and unread count, most recent first
+    @GetMapping("/rooms/summary")
+    public ResponseEntity<?> getRoomSummaries(@RequestParam(required = false) String cursor,
+                                              @RequestParam(defaultValue = "50") int size,
+                                              @RequestHeader("User-Id") Long userId) {
+        try {
+            Slice<InboxRoom> page = roomSummaryService.getInbox(userId, InboxCursor.decode(cursor), size);
+            List<InboxRoom> rooms = page.getContent();
+            
+            String nextCursor = page.hasNext() && !rooms.isEmpty()
+                ? InboxCursor.encode(rooms.get(rooms.size() - 1).lastActivityAt(), rooms.get(rooms.size() - 1).id())
+                : null;
+            
+            return ResponseEntity.ok(new InboxResponse(true, rooms, page.hasNext(), nextCursor));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/rooms/{chatRoomId}/read")
+    public ResponseEntity<?> markRoomRead(@PathVariable Long chatRoomId, @RequestHeader("User-Id") Long userId) {
+        try {
+            roomSummaryService.markRead(chatRoomId, userId);
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(StatusResponse.ok("Marked as read"));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
     @GetMapping("/rooms/{chatRoomId}/messages")
     public ResponseEntity<?> getChatMessages(@PathVariable Long chatRoomId, 
-                                           @RequestParam(defaultValue = "0") int page,
+                                           @RequestParam(required = false) String before,
+                                           @RequestParam(required = false) String after,
                                            @RequestParam(defaultValue = "50") int size,
                                            @RequestHeader("User-Id") Long userId) {
         try {
-            List<Message> messages = chatService.getChatMessages(chatRoomId, page, size);
+            if (before != null && after != null) {
+                throw new RuntimeException("Only one of before or after may be given");
+            }
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("messages", messages.stream().map(this::createMessageResponse).toList());
+            ChatService.MessageHistory history = chatService.getChatMessages(
+                chatRoomId, MessageCursor.decode(before), MessageCursor.decode(after), size);
+            List<MessageSnapshot> messages = history.messages();
             
-            return ResponseEntity.ok(response);
+            // Cursors point at the oldest and newest message returned; the newer cursor
+            // falls back to the request's cursor so clients can keep polling an empty tail
+            String olderCursor = history.hasOlder() && !messages.isEmpty()
+                ? MessageCursor.encode(messages.get(0).id()) : null;
+            String newerCursor = !messages.isEmpty()
+                ? MessageCursor.encode(messages.get(messages.size() - 1).id()) : after;
+            
+            // History may come from memory; presence is always current
+            Map<Long, PresenceService.Presence> presence = presenceService.getPresence(
+                messages.stream().map(MessageSnapshot::senderId).distinct().toList());
+            
+            return ResponseEntity.ok(new MessagesResponse(messages, history.hasOlder(), history.hasNewer(),
+                olderCursor, newerCursor, presence));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
@@ -175,16 +306,38 @@ public class ChatController {
         try {
             ChatRoom chatRoom = chatService.addParticipantToGroupChat(chatRoomId, participantId, userId);
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("chatRoom", createChatRoomResponse(chatRoom));
+            return ResponseEntity.ok(new ChatRoomResponse(chatRoom));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
+        }
+    }
+    
+    // Bulk add/remove, e.g. for importing a roster; members see one MEMBERSHIP event
+    @PostMapping("/rooms/{chatRoomId}/participants")
+    public ResponseEntity<?> updateGroupParticipants(@PathVariable Long chatRoomId,
+                                                     @RequestBody UpdateParticipantsRequest request,
+                                                     @RequestHeader("User-Id") Long userId) {
+        try {
+            ChatService.MembershipChange change = chatService.updateGroupParticipants(
+                chatRoomId, request.getAdd(), request.getRemove(), userId);
+            
+            if (!change.isEmpty()) {
+                String content = change.added().size() + " member(s) added, " + change.removed().size() + " removed";
+                MembershipEvent event = new MembershipEvent(userId, content, "MEMBERSHIP", System.currentTimeMillis(),
+                    chatRoomId, change.added(), change.removed(), change.membershipVersion(), null);
+                
+                // Sequenced by the room's owner node with the room's messages
+                if (clusterService.isLocal(chatRoomId)) {
+                    publishRoomMembership(event);
+                } else {
+                    clusterService.forwardRoomMembership(event);
+                }
+            }
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(new MembershipChangeResponse(true, chatRoomId, change.added(), change.removed(),
+                change.membershipVersion()));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
@@ -194,16 +347,9 @@ public class ChatController {
         try {
             User contact = contactService.addContactByPhone(userId, phoneNumber);
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("contact", createUserResponse(contact));
-            
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(new ContactResponse(true, UserSummary.from(contact)));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
@@ -212,131 +358,68 @@ public class ChatController {
         try {
             contactService.removeContact(userId, contactId);
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "Contact removed successfully");
-            
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(StatusResponse.ok("Contact removed successfully"));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
     @GetMapping("/contacts")
     public ResponseEntity<?> getUserContacts(@RequestHeader("User-Id") Long userId) {
         try {
-            Set<User> contacts = contactService.getUserContacts(userId);
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("contacts", contacts.stream().map(this::createUserResponse).toList());
+            List<User> contacts = contactService.getUserContacts(userId);
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(new ContactsResponse(true, contacts.stream().map(UserSummary::from).toList()));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
     @GetMapping("/search/users")
-    public ResponseEntity<?> searchUsers(@RequestParam String query) {
+    public ResponseEntity<?> searchUsers(@RequestParam String query,
+                                         @RequestParam(defaultValue = "20") int limit) {
         try {
-            List<User> users = contactService.searchUsers(query);
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("users", users.stream().map(this::createUserResponse).toList());
+            List<User> users = contactService.searchUsers(query, limit);
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(new UsersResponse(true, users.stream().map(UserSummary::from).toList()));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", false);
-            response.put("message", e.getMessage());
-            return ResponseEntity.badRequest().body(response);
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
         }
     }
     
-    // Simple online users tracking (in-memory for demo)
-    private static final Set<String> onlineUsers = java.util.concurrent.ConcurrentHashMap.newKeySet();
-    
-    @MessageMapping("/chat.userOnline")
-    public void userOnline(@Payload Map<String, Object> payload) {
-        String username = payload.get("username").toString();
-        onlineUsers.add(username);
-        
-        Map<String, Object> response = new HashMap<>();
-        response.put("username", username);
-        response.put("content", username + " is now online");
-        response.put("messageType", "ONLINE");
-        response.put("timestamp", System.currentTimeMillis());
-        response.put("onlineCount", onlineUsers.size());
-        response.put("onlineUsers", new java.util.ArrayList<>(onlineUsers));
-        
-        messagingTemplate.convertAndSend("/topic/public", response);
+    // Search message content in the caller's rooms, or in one room with roomId
+    @GetMapping("/search/messages")
+    public ResponseEntity<?> searchMessages(@RequestParam String query,
+                                            @RequestParam(required = false) Long roomId,
+                                            @RequestParam(required = false) String cursor,
+                                            @RequestParam(defaultValue = "20") int size,
+                                            @RequestHeader("User-Id") Long userId) {
+        try {
+            MessageSearchService.SearchPage page = messageSearchService.search(
+                userId, query, roomId, MessageCursor.decode(cursor), size);
+            
+            return ResponseEntity.ok(new MessageSearchResponse(true, page.hits(), page.hasMore(),
+                MessageCursor.encode(page.nextBeforeId())));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
+        }
     }
     
-    @MessageMapping("/chat.userOffline")
-    public void userOffline(@Payload Map<String, Object> payload) {
-        String username = payload.get("username").toString();
-        onlineUsers.remove(username);
-        
-        Map<String, Object> response = new HashMap<>();
-        response.put("username", username);
-        response.put("content", username + " went offline");
-        response.put("messageType", "OFFLINE");
-        response.put("timestamp", System.currentTimeMillis());
-        response.put("onlineCount", onlineUsers.size());
-        response.put("onlineUsers", new java.util.ArrayList<>(onlineUsers));
-        
-        messagingTemplate.convertAndSend("/topic/public", response);
+    // Reconnect catch-up: the events missed since the given seqs, per room and for the
+    // private inbox
+    @PostMapping("/sync")
+    public ResponseEntity<?> sync(@RequestBody SyncRequest request, @RequestHeader("User-Id") Long userId) {
+        try {
+            return ResponseEntity.ok(catchUpService.catchUp(userId, request.getRooms(), request.getInbox()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(StatusResponse.error(e.getMessage()));
+        }
     }
     
     @GetMapping("/online-users")
     public ResponseEntity<?> getOnlineUsers() {
-        Map<String, Object> response = new HashMap<>();
-        response.put("success", true);
-        response.put("onlineUsers", new java.util.ArrayList<>(onlineUsers));
-        response.put("count", onlineUsers.size());
-        
-        return ResponseEntity.ok(response);
-    }
-    
-    // Helper methods to create response objects
-    private Map<String, Object> createChatRoomResponse(ChatRoom chatRoom) {
-        Map<String, Object> response = new HashMap<>();
-        response.put("id", chatRoom.getId());
-        response.put("name", chatRoom.getName());
-        response.put("type", chatRoom.getType());
-        response.put("description", chatRoom.getDescription());
-        response.put("createdAt", chatRoom.getCreatedAt());
-        response.put("participants", chatRoom.getParticipants().stream().map(this::createUserResponse).toList());
-        return response;
-    }
-    
-    private Map<String, Object> createMessageResponse(Message message) {
-        Map<String, Object> response = new HashMap<>();
-        response.put("id", message.getId());
-        response.put("content", message.getContent());
-        response.put("messageType", message.getMessageType());
-        response.put("timestamp", message.getTimestamp());
-        response.put("sender", createUserResponse(message.getSender()));
-        return response;
-    }
-    
-    private Map<String, Object> createUserResponse(User user) {
-        Map<String, Object> response = new HashMap<>();
-        response.put("id", user.getId());
-        response.put("username", user.getUsername());
-        response.put("name", user.getName());
-        response.put("phoneNumber", user.getPhoneNumber());
-        response.put("isOnline", user.isOnline());
-        response.put("lastSeen", user.getLastSeen());
-        return response;
+        List<String> users = presenceService.getOnlineUsernames();
+        return ResponseEntity.ok(new OnlineUsersResponse(true, users, users.size()));
     }
     
     // Request DTOs
@@ -355,4 +438,29 @@ public class ChatController {
         public List<Long> getParticipantIds() { return participantIds; }
         public void setParticipantIds(List<Long> participantIds) { this.participantIds = participantIds; }
     }
+    
+    public static class UpdateParticipantsRequest {
+        private List<Long> add;
+        private List<Long> remove;
+        
+        // Getters and setters
+        public List<Long> getAdd() { return add; }
+        public void setAdd(List<Long> add) { this.add = add; }
+        
+        public List<Long> getRemove() { return remove; }
+        public void setRemove(List<Long> remove) { this.remove = remove; }
+    }
+    
+    public static class SyncRequest {
+        // Room id -> last seq seen
+        private Map<Long, Long> rooms;
+        private Long inbox;
+        
+        // Getters and setters
+        public Map<Long, Long> getRooms() { return rooms; }
+        public void setRooms(Map<Long, Long> rooms) { this.rooms = rooms; }
+        
+        public Long getInbox() { return inbox; }
+        public void setInbox(Long inbox) { this.inbox = inbox; }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,4 @@
+package com.chatapp.dto;
+
+public record AuthResponse(boolean success, String message, UserProfile user) {
+}
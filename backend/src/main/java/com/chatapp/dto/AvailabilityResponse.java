@@ -0,0 +1,4 @@
+package com.chatapp.dto;
+
+public record AvailabilityResponse(boolean available) {
+}
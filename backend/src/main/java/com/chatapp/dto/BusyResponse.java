@@ -0,0 +1,6 @@
+package com.chatapp.dto;
+
+// 429 reply from admission control; retryAfterMs is also sent as Retry-After (seconds),
+// which browsers don't expose to cross-origin scripts
+public record BusyResponse(boolean success, String message, long retryAfterMs) {
+}
@@ -0,0 +1,39 @@
+package com.chatapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Real-time chat message as broadcast over STOMP; exactly one of the private
+// (targetUser) or group (chatRoomId) fields is set, or neither for public messages.
+// seq is the message's position in its room (group) or in the recipient's inbox
+// (private), for reconnect catch-up; public messages have none.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ChatEvent(String username,
+                        String content,
+                        String messageType,
+                        long timestamp,
+                        String targetUser,
+                        @JsonProperty("isPrivate") Boolean isPrivate,
+                        Long chatRoomId,
+                        @JsonProperty("isGroup") Boolean isGroup,
+                        Long seq) implements SequencedEvent {
+
+    public static ChatEvent publicMessage(String username, String content, String messageType, long timestamp) {
+        return new ChatEvent(username, content, messageType, timestamp, null, null, null, null, null);
+    }
+
+    public static ChatEvent privateMessage(String username, String content, String messageType, long timestamp,
+                                           String targetUser) {
+        return new ChatEvent(username, content, messageType, timestamp, targetUser, true, null, null, null);
+    }
+
+    public static ChatEvent groupMessage(String username, String content, String messageType, long timestamp,
+                                         Long chatRoomId) {
+        return new ChatEvent(username, content, messageType, timestamp, null, null, chatRoomId, true, null);
+    }
+
+    @Override
+    public ChatEvent withSeq(long seq) {
+        return new ChatEvent(username, content, messageType, timestamp, targetUser, isPrivate, chatRoomId, isGroup, seq);
+    }
+}
@@ -0,0 +1,76 @@
+package com.chatapp.dto;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+// Hand-written JsonGenerator code shared by the streaming room and message serializers.
+// Users are written once per response in a top-level "users" object keyed by id;
+// rooms and messages refer to them by id.
+final class ChatJson {
+
+    private ChatJson() {
+    }
+
+    static void writeDateTime(JsonGenerator gen, String field, LocalDateTime value) throws IOException {
+        if (value == null) {
+            gen.writeNullField(field);
+        } else {
+            gen.writeStringField(field, DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(value));
+        }
+    }
+
+    static void writeNumberOrNull(JsonGenerator gen, String field, Long value) throws IOException {
+        if (value == null) {
+            gen.writeNullField(field);
+        } else {
+            gen.writeNumberField(field, value);
+        }
+    }
+
+    // Writes the room and records its participants in the users map
+    static void writeRoom(JsonGenerator gen, ChatRoom room, Map<Long, User> users) throws IOException {
+        gen.writeStartObject();
+        writeNumberOrNull(gen, "id", room.getId());
+        gen.writeStringField("name", room.getName());
+        gen.writeStringField("type", room.getType() != null ? room.getType().name() : null);
+        gen.writeStringField("description", room.getDescription());
+        writeDateTime(gen, "createdAt", room.getCreatedAt());
+        gen.writeNumberField("membershipVersion", room.getMembershipVersion());
+        gen.writeArrayFieldStart("participantIds");
+        for (User participant : room.getParticipants()) {
+            gen.writeNumber(participant.getId());
+            users.putIfAbsent(participant.getId(), participant);
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    static void writeUsers(JsonGenerator gen, Map<Long, User> users) throws IOException {
+        gen.writeObjectFieldStart("users");
+        for (User user : users.values()) {
+            gen.writeFieldName(String.valueOf(user.getId()));
+            writeUser(gen, user.getId(), user.getUsername(), user.getName(), user.getPhoneNumber(),
+                user.isOnline(), user.getLastSeen());
+        }
+        gen.writeEndObject();
+    }
+
+    // Same fields as UserSummary
+    static void writeUser(JsonGenerator gen, Long id, String username, String name, String phoneNumber,
+                          boolean online, LocalDateTime lastSeen) throws IOException {
+        gen.writeStartObject();
+        writeNumberOrNull(gen, "id", id);
+        gen.writeStringField("username", username);
+        gen.writeStringField("name", name);
+        gen.writeStringField("phoneNumber", phoneNumber);
+        gen.writeBooleanField("isOnline", online);
+        writeDateTime(gen, "lastSeen", lastSeen);
+        gen.writeEndObject();
+    }
+}
@@ -0,0 +1,34 @@
+package com.chatapp.dto;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@JsonSerialize(using = ChatRoomResponse.Serializer.class)
+public record ChatRoomResponse(ChatRoom chatRoom) {
+
+    public static class Serializer extends StdSerializer<ChatRoomResponse> {
+
+        public Serializer() {
+            super(ChatRoomResponse.class);
+        }
+
+        @Override
+        public void serialize(ChatRoomResponse value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            Map<Long, User> users = new LinkedHashMap<>();
+            gen.writeStartObject();
+            gen.writeBooleanField("success", true);
+            gen.writeFieldName("chatRoom");
+            ChatJson.writeRoom(gen, value.chatRoom(), users);
+            ChatJson.writeUsers(gen, users);
+            gen.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.chatapp.dto;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Room list streamed straight from the entities, with participants deduplicated
+@JsonSerialize(using = ChatRoomsResponse.Serializer.class)
+public record ChatRoomsResponse(List<ChatRoom> chatRooms) {
+
+    public static class Serializer extends StdSerializer<ChatRoomsResponse> {
+
+        public Serializer() {
+            super(ChatRoomsResponse.class);
+        }
+
+        @Override
+        public void serialize(ChatRoomsResponse value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            Map<Long, User> users = new LinkedHashMap<>();
+            gen.writeStartObject();
+            gen.writeBooleanField("success", true);
+            gen.writeArrayFieldStart("chatRooms");
+            for (ChatRoom room : value.chatRooms()) {
+                ChatJson.writeRoom(gen, room, users);
+            }
+            gen.writeEndArray();
+            ChatJson.writeUsers(gen, users);
+            gen.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package com.chatapp.dto;
+
+public record ContactResponse(boolean success, UserSummary contact) {
+}
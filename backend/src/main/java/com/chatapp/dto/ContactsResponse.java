@@ -0,0 +1,6 @@
+package com.chatapp.dto;
+
+import java.util.List;
+
+public record ContactsResponse(boolean success, List<UserSummary> contacts) {
+}
@@ -0,0 +1,6 @@
+package com.chatapp.dto;
+
+import java.util.List;
+
+public record InboxResponse(boolean success, List<InboxRoom> rooms, boolean hasMore, String nextCursor) {
+}
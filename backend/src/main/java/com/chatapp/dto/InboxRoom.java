@@ -0,0 +1,19 @@
+package com.chatapp.dto;
+
+import com.chatapp.model.ChatRoom;
+
+import java.time.LocalDateTime;
+
+// One row of a user's inbox, built directly by the summary query
+public record InboxRoom(Long id,
+                        String name,
+                        ChatRoom.ChatType type,
+                        String description,
+                        Long lastMessageId,
+                        String lastMessageSnippet,
+                        Long lastSenderId,
+                        String lastSenderUsername,
+                        LocalDateTime lastActivityAt,
+                        long unreadCount,
+                        int participantCount) {
+}
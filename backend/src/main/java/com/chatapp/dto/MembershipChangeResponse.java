@@ -0,0 +1,10 @@
+package com.chatapp.dto;
+
+import java.util.List;
+
+public record MembershipChangeResponse(boolean success,
+                                       Long chatRoomId,
+                                       List<Long> added,
+                                       List<Long> removed,
+                                       long membershipVersion) {
+}
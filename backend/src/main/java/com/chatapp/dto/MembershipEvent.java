@@ -0,0 +1,25 @@
+package com.chatapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+// One consolidated MEMBERSHIP notice per bulk change, published on the room's stream to
+// /topic/group/{id}; seq is its position in the room, like a group message's
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record MembershipEvent(Long changedBy,
+                              String content,
+                              String messageType,
+                              long timestamp,
+                              Long chatRoomId,
+                              List<Long> added,
+                              List<Long> removed,
+                              long membershipVersion,
+                              Long seq) implements SequencedEvent {
+
+    @Override
+    public MembershipEvent withSeq(long seq) {
+        return new MembershipEvent(changedBy, content, messageType, timestamp, chatRoomId, added, removed,
+            membershipVersion, seq);
+    }
+}
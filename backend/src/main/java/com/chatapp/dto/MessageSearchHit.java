@@ -0,0 +1,17 @@
+package com.chatapp.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// A search result; highlights are [start, end) character offsets of matched terms in content
+public record MessageSearchHit(Long id,
+                               Long chatRoomId,
+                               String content,
+                               LocalDateTime timestamp,
+                               Long senderId,
+                               String senderUsername,
+                               List<Highlight> highlights) {
+
+    public record Highlight(int start, int end) {
+    }
+}
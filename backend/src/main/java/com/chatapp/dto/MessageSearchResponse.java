@@ -0,0 +1,6 @@
+package com.chatapp.dto;
+
+import java.util.List;
+
+public record MessageSearchResponse(boolean success, List<MessageSearchHit> results, boolean hasMore, String nextCursor) {
+}
@@ -0,0 +1,66 @@
+package com.chatapp.dto;
+
+import com.chatapp.service.MessageSnapshot;
+import com.chatapp.service.PresenceService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A page of chat history; each sender is written once in "users", with their presence
+// as of the request (senderPresence, by sender id)
+@JsonSerialize(using = MessagesResponse.Serializer.class)
+public record MessagesResponse(List<MessageSnapshot> messages,
+                               boolean hasOlder,
+                               boolean hasNewer,
+                               String olderCursor,
+                               String newerCursor,
+                               Map<Long, PresenceService.Presence> senderPresence) {
+
+    public static class Serializer extends StdSerializer<MessagesResponse> {
+
+        public Serializer() {
+            super(MessagesResponse.class);
+        }
+
+        @Override
+        public void serialize(MessagesResponse value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            Map<Long, MessageSnapshot> senders = new LinkedHashMap<>();
+            gen.writeStartObject();
+            gen.writeBooleanField("success", true);
+            gen.writeArrayFieldStart("messages");
+            for (MessageSnapshot message : value.messages()) {
+                gen.writeStartObject();
+                ChatJson.writeNumberOrNull(gen, "id", message.id());
+                gen.writeStringField("content", message.content());
+                gen.writeStringField("messageType", message.messageType());
+                ChatJson.writeDateTime(gen, "timestamp", message.timestamp());
+                ChatJson.writeNumberOrNull(gen, "senderId", message.senderId());
+                gen.writeEndObject();
+                senders.putIfAbsent(message.senderId(), message);
+            }
+            gen.writeEndArray();
+
+            gen.writeObjectFieldStart("users");
+            for (MessageSnapshot sender : senders.values()) {
+                PresenceService.Presence presence = value.senderPresence().get(sender.senderId());
+                gen.writeFieldName(String.valueOf(sender.senderId()));
+                ChatJson.writeUser(gen, sender.senderId(), sender.senderUsername(), sender.senderName(),
+                    sender.senderPhoneNumber(), presence != null && presence.online(),
+                    presence != null ? presence.lastSeen() : null);
+            }
+            gen.writeEndObject();
+
+            gen.writeBooleanField("hasOlder", value.hasOlder());
+            gen.writeBooleanField("hasNewer", value.hasNewer());
+            gen.writeStringField("olderCursor", value.olderCursor());
+            gen.writeStringField("newerCursor", value.newerCursor());
+            gen.writeEndObject();
+        }
+    }
+}
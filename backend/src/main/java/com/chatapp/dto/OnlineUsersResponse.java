@@ -0,0 +1,6 @@
+package com.chatapp.dto;
+
+import java.util.List;
+
+public record OnlineUsersResponse(boolean success, List<String> onlineUsers, int count) {
+}
@@ -0,0 +1,8 @@
+package com.chatapp.dto;
+
+import java.util.List;
+
+// Contacts that came online or went offline since the previous batch, sent to
+// /user/queue/presence. A snapshot replaces the client's set instead of patching it.
+public record PresenceDelta(List<Long> joined, List<Long> left, boolean snapshot) {
+}
@@ -0,0 +1,9 @@
+package com.chatapp.dto;
+
+// JOIN notice broadcast to /topic/public
+public record PresenceEvent(String username,
+                            String content,
+                            String messageType,
+                            long timestamp,
+                            int onlineCount) {
+}
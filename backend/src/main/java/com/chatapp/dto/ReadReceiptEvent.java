@@ -0,0 +1,14 @@
+package com.chatapp.dto;
+
+import java.util.List;
+
+// RECEIPT notice broadcast to /topic/group/{id}: every member that read further since
+// the last one, with the id of the last message they have read
+public record ReadReceiptEvent(String messageType,
+                               long timestamp,
+                               Long chatRoomId,
+                               List<Receipt> receipts) {
+
+    public record Receipt(Long userId, Long lastReadMessageId) {
+    }
+}
@@ -0,0 +1,8 @@
+package com.chatapp.dto;
+
+// Event published on a catch-up stream (a room or a user's inbox); the stream stamps it
+// with its position when it is published
+public interface SequencedEvent {
+
+    SequencedEvent withSeq(long seq);
+}
@@ -0,0 +1,13 @@
+package com.chatapp.dto;
+
+// Plain success/failure reply, also used for every error response
+public record StatusResponse(boolean success, String message) {
+
+    public static StatusResponse ok(String message) {
+        return new StatusResponse(true, message);
+    }
+
+    public static StatusResponse error(String message) {
+        return new StatusResponse(false, message);
+    }
+}
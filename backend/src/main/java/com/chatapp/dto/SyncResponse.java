@@ -0,0 +1,17 @@
+package com.chatapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import java.util.List;
+
+// Reconnect catch-up: per room, and for the private inbox, the events after the seq the
+// client sent. On reset the missed events are no longer buffered (or the seq is from an
+// earlier server run); the client reloads that stream and continues from seq, if given.
+public record SyncResponse(boolean success, List<StreamDelta> rooms, StreamDelta inbox) {
+
+    // events are the serialized ChatEvents, oldest first
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record StreamDelta(Long chatRoomId, Long seq, boolean reset, List<RawValue> events) {
+    }
+}
@@ -0,0 +1,20 @@
+package com.chatapp.dto;
+
+import com.chatapp.model.User;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.LocalDateTime;
+
+// The signed-in user's own account, as returned by the auth endpoints
+public record UserProfile(Long id,
+                          String username,
+                          String name,
+                          String phoneNumber,
+                          @JsonProperty("isOnline") boolean isOnline,
+                          LocalDateTime createdAt) {
+
+    public static UserProfile from(User user) {
+        return new UserProfile(user.getId(), user.getUsername(), user.getName(),
+            user.getPhoneNumber(), user.isOnline(), user.getCreatedAt());
+    }
+}
@@ -0,0 +1,19 @@
+package com.chatapp.dto;
+
+import com.chatapp.model.User;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.LocalDateTime;
+
+public record UserSummary(Long id,
+                          String username,
+                          String name,
+                          String phoneNumber,
+                          @JsonProperty("isOnline") boolean isOnline,
+                          LocalDateTime lastSeen) {
+
+    public static UserSummary from(User user) {
+        return new UserSummary(user.getId(), user.getUsername(), user.getName(),
+            user.getPhoneNumber(), user.isOnline(), user.getLastSeen());
+    }
+}
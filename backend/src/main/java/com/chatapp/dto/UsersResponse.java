@@ -0,0 +1,6 @@
+package com.chatapp.dto;
+
+import java.util.List;
+
+public record UsersResponse(boolean success, List<UserSummary> users) {
+}
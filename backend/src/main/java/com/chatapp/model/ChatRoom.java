@@ -7,9 +7,11 @@ import java.util.Set;
 
 @Entity
 @Table(name = "chat_rooms")
+@NamedEntityGraph(name = "ChatRoom.participants", attributeNodes = @NamedAttributeNode("participants"))
 public class ChatRoom {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chat_room_seq")
+    @SequenceGenerator(name = "chat_room_seq", sequenceName = "chat_rooms_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false)
@@ -23,7 +25,7 @@ public class ChatRoom {
     @JoinColumn(name = "created_by")
     private User createdBy;
     
-    @ManyToMany(fetch = FetchType.EAGER)
+    @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(
         name = "chat_room_participants",
         joinColumns = @JoinColumn(name = "chat_room_id"),
@@ -43,6 +45,10 @@ public class ChatRoom {
     @Column
     private LocalDateTime updatedAt;
     
+    // Bumped once per membership change, however many members it touched
+    @Column(nullable = false)
+    private long membershipVersion = 0;
+    
     public enum ChatType {
         PRIVATE, GROUP
     }
@@ -88,6 +94,9 @@ public class ChatRoom {
     public LocalDateTime getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
     
+    public long getMembershipVersion() { return membershipVersion; }
+    public void setMembershipVersion(long membershipVersion) { this.membershipVersion = membershipVersion; }
+    
     // Helper methods
     public void addParticipant(User user) {
         this.participants.add(user);
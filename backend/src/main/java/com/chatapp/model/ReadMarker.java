@@ -0,0 +1,62 @@
+package com.chatapp.model;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+// How far a member has read in a room, as a position in the room's message count. A
+// marker exists for every participant, so unread = summary.messageCount - readCount.
+@Entity
+@Table(name = "read_markers")
+@IdClass(ReadMarker.Key.class)
+public class ReadMarker {
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+    
+    @Id
+    @Column(name = "chat_room_id")
+    private Long chatRoomId;
+    
+    @Column(nullable = false)
+    private long readCount = 0;
+    
+    @Column
+    private Long lastReadMessageId;
+    
+    public static class Key implements Serializable {
+        private Long userId;
+        private Long chatRoomId;
+        
+        public Key() {
+        }
+        
+        public Key(Long userId, Long chatRoomId) {
+            this.userId = userId;
+            this.chatRoomId = chatRoomId;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && Objects.equals(userId, other.userId) && Objects.equals(chatRoomId, other.chatRoomId);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, chatRoomId);
+        }
+    }
+    
+    // Getters and Setters
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+    
+    public Long getChatRoomId() { return chatRoomId; }
+    public void setChatRoomId(Long chatRoomId) { this.chatRoomId = chatRoomId; }
+    
+    public long getReadCount() { return readCount; }
+    public void setReadCount(long readCount) { this.readCount = readCount; }
+    
+    public Long getLastReadMessageId() { return lastReadMessageId; }
+    public void setLastReadMessageId(Long lastReadMessageId) { this.lastReadMessageId = lastReadMessageId; }
+}
@@ -0,0 +1,71 @@
+package com.chatapp.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+// Denormalized per-room state for the inbox: the latest message and the running message
+// count, updated as messages are persisted rather than computed when the inbox is read
+@Entity
+@Table(name = "chat_room_summaries",
+       indexes = @Index(name = "idx_room_summaries_activity", columnList = "last_activity_at, chat_room_id"))
+public class RoomSummary {
+    @Id
+    @Column(name = "chat_room_id")
+    private Long chatRoomId;
+    
+    @Column
+    private Long lastMessageId;
+    
+    @Column(length = 200)
+    private String lastMessageSnippet;
+    
+    @Column
+    private Long lastSenderId;
+    
+    @Column
+    private String lastSenderUsername;
+    
+    @Column(name = "last_activity_at", nullable = false)
+    private LocalDateTime lastActivityAt;
+    
+    @Column(nullable = false)
+    private long messageCount = 0;
+    
+    @Column(nullable = false)
+    private int participantCount = 0;
+    
+    // Constructors
+    public RoomSummary() {
+    }
+    
+    public RoomSummary(Long chatRoomId, int participantCount, LocalDateTime lastActivityAt) {
+        this.chatRoomId = chatRoomId;
+        this.participantCount = participantCount;
+        this.lastActivityAt = lastActivityAt;
+    }
+    
+    // Getters and Setters
+    public Long getChatRoomId() { return chatRoomId; }
+    public void setChatRoomId(Long chatRoomId) { this.chatRoomId = chatRoomId; }
+    
+    public Long getLastMessageId() { return lastMessageId; }
+    public void setLastMessageId(Long lastMessageId) { this.lastMessageId = lastMessageId; }
+    
+    public String getLastMessageSnippet() { return lastMessageSnippet; }
+    public void setLastMessageSnippet(String lastMessageSnippet) { this.lastMessageSnippet = lastMessageSnippet; }
+    
+    public Long getLastSenderId() { return lastSenderId; }
+    public void setLastSenderId(Long lastSenderId) { this.lastSenderId = lastSenderId; }
+    
+    public String getLastSenderUsername() { return lastSenderUsername; }
+    public void setLastSenderUsername(String lastSenderUsername) { this.lastSenderUsername = lastSenderUsername; }
+    
+    public LocalDateTime getLastActivityAt() { return lastActivityAt; }
+    public void setLastActivityAt(LocalDateTime lastActivityAt) { this.lastActivityAt = lastActivityAt; }
+    
+    public long getMessageCount() { return messageCount; }
+    public void setMessageCount(long messageCount) { this.messageCount = messageCount; }
+    
+    public int getParticipantCount() { return participantCount; }
+    public void setParticipantCount(int participantCount) { this.participantCount = participantCount; }
+}
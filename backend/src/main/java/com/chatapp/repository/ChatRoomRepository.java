@@ -2,26 +2,57 @@ package com.chatapp.repository;
 
 import com.chatapp.model.ChatRoom;
 import com.chatapp.model.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
     
+    @EntityGraph("ChatRoom.participants")
+    @Query("SELECT cr FROM ChatRoom cr WHERE cr.id = :id")
+    Optional<ChatRoom> findWithParticipantsById(@Param("id") Long id);
+    
+    @EntityGraph("ChatRoom.participants")
     @Query("SELECT cr FROM ChatRoom cr JOIN cr.participants p WHERE p = :user")
     List<ChatRoom> findByParticipant(@Param("user") User user);
     
+    @EntityGraph("ChatRoom.participants")
     @Query("SELECT cr FROM ChatRoom cr WHERE cr.type = 'PRIVATE' AND :user1 MEMBER OF cr.participants AND :user2 MEMBER OF cr.participants")
     Optional<ChatRoom> findPrivateChatBetweenUsers(@Param("user1") User user1, @Param("user2") User user2);
     
+    @EntityGraph("ChatRoom.participants")
     @Query("SELECT cr FROM ChatRoom cr WHERE cr.type = 'GROUP' AND :user MEMBER OF cr.participants")
     List<ChatRoom> findGroupChatsByParticipant(@Param("user") User user);
     
+    @EntityGraph("ChatRoom.participants")
     @Query("SELECT cr FROM ChatRoom cr WHERE cr.type = 'PRIVATE' AND :user MEMBER OF cr.participants")
     List<ChatRoom> findPrivateChatsByParticipant(@Param("user") User user);
+    
+    @Query("SELECT p.id FROM ChatRoom cr JOIN cr.participants p WHERE cr.id = :chatRoomId")
+    List<Long> findParticipantIds(@Param("chatRoomId") Long chatRoomId);
+    
+    @Query("SELECT cr.id FROM ChatRoom cr JOIN cr.participants p WHERE p.id = :userId")
+    List<Long> findRoomIdsByParticipantId(@Param("userId") Long userId);
+    
+    @Query("SELECT p.id FROM ChatRoom cr JOIN cr.participants p WHERE cr.id = :chatRoomId AND p.id IN :userIds")
+    List<Long> findParticipantIdsIn(@Param("chatRoomId") Long chatRoomId, @Param("userIds") Collection<Long> userIds);
+    
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE ChatRoom cr SET cr.membershipVersion = cr.membershipVersion + 1, cr.updatedAt = :now WHERE cr.id = :id")
+    int bumpMembershipVersion(@Param("id") Long id, @Param("now") LocalDateTime now);
+    
+    @Query("SELECT cr.membershipVersion FROM ChatRoom cr WHERE cr.id = :id")
+    long findMembershipVersion(@Param("id") Long id);
+    
+    @Query("SELECT COALESCE(MAX(cr.id), 0) FROM ChatRoom cr")
+    long findHighestId();
 }
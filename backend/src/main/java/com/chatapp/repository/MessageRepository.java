@@ -2,13 +2,15 @@ package com.chatapp.repository;
 
 import com.chatapp.model.ChatRoom;
 import com.chatapp.model.Message;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -16,10 +18,21 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     
     List<Message> findByChatRoomOrderByTimestampAsc(ChatRoom chatRoom);
     
-    Page<Message> findByChatRoomOrderByTimestampDesc(ChatRoom chatRoom, Pageable pageable);
+    // Keyset paging over the (chat_room_id, id) index; Slice avoids the COUNT query
+    @EntityGraph(attributePaths = "sender")
+    Slice<Message> findByChatRoomIdOrderByIdDesc(Long chatRoomId, Pageable pageable);
     
-    @Query("SELECT m FROM Message m WHERE m.chatRoom = :chatRoom ORDER BY m.timestamp DESC")
-    List<Message> findLatestMessagesByChatRoom(@Param("chatRoom") ChatRoom chatRoom, Pageable pageable);
+    @EntityGraph(attributePaths = "sender")
+    Slice<Message> findByChatRoomIdAndIdLessThanOrderByIdDesc(Long chatRoomId, Long beforeId, Pageable pageable);
+    
+    @EntityGraph(attributePaths = "sender")
+    Slice<Message> findByChatRoomIdAndIdGreaterThanOrderByIdAsc(Long chatRoomId, Long afterId, Pageable pageable);
+    
+    @EntityGraph(attributePaths = "sender")
+    List<Message> findByIdIn(Collection<Long> ids);
+    
+    @EntityGraph(attributePaths = "sender")
+    Slice<Message> findByIdGreaterThanOrderByIdAsc(Long afterId, Pageable pageable);
     
     @Query("SELECT COUNT(m) FROM Message m WHERE m.chatRoom = :chatRoom")
     long countByChatRoom(@Param("chatRoom") ChatRoom chatRoom);
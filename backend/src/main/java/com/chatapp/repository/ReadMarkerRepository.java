@@ -0,0 +1,13 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.ReadMarker;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ReadMarkerRepository extends JpaRepository<ReadMarker, ReadMarker.Key> {
+    
+    List<ReadMarker> findByChatRoomId(Long chatRoomId);
+}
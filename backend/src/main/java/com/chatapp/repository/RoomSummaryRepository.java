@@ -0,0 +1,48 @@
+package com.chatapp.repository;
+
+import com.chatapp.dto.InboxRoom;
+import com.chatapp.model.RoomSummary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface RoomSummaryRepository extends JpaRepository<RoomSummary, Long> {
+    
+    String INBOX_SELECT = "SELECT new com.chatapp.dto.InboxRoom(cr.id, cr.name, cr.type, cr.description, "
+        + "s.lastMessageId, s.lastMessageSnippet, s.lastSenderId, s.lastSenderUsername, s.lastActivityAt, "
+        + "s.messageCount - r.readCount, s.participantCount) "
+        + "FROM ReadMarker r, RoomSummary s, ChatRoom cr "
+        + "WHERE r.userId = :userId AND s.chatRoomId = r.chatRoomId AND cr.id = r.chatRoomId ";
+    
+    String INBOX_ORDER = "ORDER BY s.lastActivityAt DESC, s.chatRoomId DESC";
+    
+    // Keyset paging by (lastActivityAt, chatRoomId), newest first; Slice avoids the COUNT query
+    @Query(INBOX_SELECT + INBOX_ORDER)
+    Slice<InboxRoom> findInbox(@Param("userId") Long userId, Pageable pageable);
+    
+    @Query(INBOX_SELECT
+        + "AND (s.lastActivityAt < :at OR (s.lastActivityAt = :at AND s.chatRoomId < :chatRoomId)) "
+        + INBOX_ORDER)
+    Slice<InboxRoom> findInboxAfter(@Param("userId") Long userId, @Param("at") LocalDateTime at,
+                                    @Param("chatRoomId") Long chatRoomId, Pageable pageable);
+    
+    @Modifying
+    @Query("UPDATE RoomSummary s SET s.messageCount = s.messageCount + :count, s.lastMessageId = :messageId, "
+        + "s.lastMessageSnippet = :snippet, s.lastSenderId = :senderId, s.lastSenderUsername = :senderUsername, "
+        + "s.lastActivityAt = :at WHERE s.chatRoomId = :chatRoomId")
+    int recordMessages(@Param("chatRoomId") Long chatRoomId, @Param("count") long count,
+                       @Param("messageId") Long messageId, @Param("snippet") String snippet,
+                       @Param("senderId") Long senderId, @Param("senderUsername") String senderUsername,
+                       @Param("at") LocalDateTime at);
+    
+    @Modifying
+    @Query("UPDATE RoomSummary s SET s.participantCount = s.participantCount + :delta WHERE s.chatRoomId = :chatRoomId")
+    int adjustParticipantCount(@Param("chatRoomId") Long chatRoomId, @Param("delta") int delta);
+}
@@ -1,11 +1,15 @@
 package com.chatapp.repository;
 
 import com.chatapp.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,17 +20,43 @@ public interface UserRepository extends JpaRepository<User, Long> {
     
     Optional<User> findByPhoneNumber(String phoneNumber);
     
+    List<User> findByUsernameIn(Collection<String> usernames);
+    
+    @Query("SELECT u.id FROM User u WHERE u.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+    
     @Query("SELECT u FROM User u WHERE u.username = :identifier OR u.phoneNumber = :identifier")
     Optional<User> findByUsernameOrPhoneNumber(@Param("identifier") String identifier);
     
+    // (id, last seen) pairs
+    @Query("SELECT u.id, u.lastSeen FROM User u WHERE u.id IN :ids")
+    List<Object[]> findLastSeen(@Param("ids") Collection<Long> ids);
+    
     @Query("SELECT u FROM User u WHERE u.isOnline = true")
     List<User> findOnlineUsers();
     
-    @Query("SELECT u FROM User u WHERE u.name LIKE %:name% OR u.username LIKE %:name%")
-    List<User> findByNameContainingIgnoreCase(@Param("name") String name);
+    // Searchable fields (id, username, name, phone number) in id order, for the search index
+    @Query("SELECT u.id, u.username, u.name, u.phoneNumber FROM User u WHERE u.id > :afterId ORDER BY u.id")
+    List<Object[]> findSearchFieldsAfter(@Param("afterId") Long afterId, Pageable pageable);
+    
+    @Query("SELECT c.id FROM User u JOIN u.contacts c WHERE u.id = :userId")
+    List<Long> findContactIds(@Param("userId") Long userId);
+    
+    // (owner id, contact id) pairs for every user that has one of the given users as a contact
+    @Query("SELECT u.id, c.id FROM User u JOIN u.contacts c WHERE c.id IN :contactIds")
+    List<Object[]> findContactOwnerPairs(@Param("contactIds") Collection<Long> contactIds);
+    
+    // (owner id, contact id) pairs for the contacts of the given users
+    @Query("SELECT u.id, c.id FROM User u JOIN u.contacts c WHERE u.id IN :ownerIds")
+    List<Object[]> findContactPairs(@Param("ownerIds") Collection<Long> ownerIds);
+    
+    @Modifying
+    @Query("UPDATE User u SET u.isOnline = true WHERE u.id IN :ids")
+    int markOnline(@Param("ids") Collection<Long> ids);
     
-    @Query("SELECT u FROM User u WHERE u.phoneNumber LIKE %:phone%")
-    List<User> findByPhoneNumberContaining(@Param("phone") String phone);
+    @Modifying
+    @Query("UPDATE User u SET u.isOnline = false, u.lastSeen = :lastSeen WHERE u.id IN :ids")
+    int markOffline(@Param("ids") Collection<Long> ids, @Param("lastSeen") LocalDateTime lastSeen);
     
     boolean existsByUsername(String username);
     
@@ -0,0 +1,161 @@
+package com.chatapp.service;
+
+import com.chatapp.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Admission control for reconnect storms. Work is admitted against a node-wide token
+// bucket in priority classes: each class may only take tokens while its share of the
+// burst is left for the classes ahead of it. Catch-up (SYNC) of a session that got in
+// may empty the bucket, message sends leave a tenth of it, a new session (STOMP CONNECT)
+// a quarter and history backfill half, so live traffic goes ahead of new sessions and
+// both go ahead of backfill, and nothing runs the bucket into debt. The work one client
+// can repeat (connects, catch-up, backfill) is also admitted against a bucket of the
+// caller's own per class, so one client retrying connects does not use up its catch-up.
+// The node bucket is checked first and its token is handed back when the user is over
+// its limit, so neither bucket is charged for work that is turned away. A rejected
+// caller gets a retry-after hint that works like a ticket: rejected callers are handed
+// successive slots at the node rate, so they come back spread over the time the node
+// needs to admit them all instead of together, plus a little jitter.
+@Service
+public class AdmissionService {
+
+    public enum Priority {
+        SYNC(true, 0),
+        SEND(false, 0.1),
+        CONNECT(true, 0.25),
+        BACKFILL(true, 0.5);
+
+        private final boolean perUser;
+        // Share of the node bucket's burst left for higher classes
+        private final double reserve;
+
+        Priority(boolean perUser, double reserve) {
+            this.perUser = perUser;
+            this.reserve = reserve;
+        }
+    }
+
+    public static class RejectedException extends RuntimeException {
+        private final long retryAfterMs;
+
+        public RejectedException(long retryAfterMs) {
+            super("Server busy, retry in " + retryAfterMs + " ms");
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        public long getRetryAfterMs() {
+            return retryAfterMs;
+        }
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.admission.node-rate:2000}")
+    private double nodeRate;
+
+    @Value("${chat.admission.node-burst:4000}")
+    private double nodeBurst;
+
+    @Value("${chat.admission.user-rate:2}")
+    private double userRate;
+
+    @Value("${chat.admission.user-burst:10}")
+    private double userBurst;
+
+    @Value("${chat.admission.max-users:100000}")
+    private int maxUsers;
+
+    @Value("${chat.admission.jitter-ms:250}")
+    private long jitterMs;
+
+    @Value("${chat.admission.max-retry-ms:30000}")
+    private long maxRetryMs;
+
+    private TokenBucket nodeBucket;
+    private final Map<Priority, Map<Long, TokenBucket>> userBuckets = new EnumMap<>(Priority.class);
+
+    // The latest retry slot handed out
+    private long lastSlotNanos = System.nanoTime();
+
+    private final Map<Priority, Counter> admittedCounters = new EnumMap<>(Priority.class);
+    private final Map<Priority, Counter> rejectedCounters = new EnumMap<>(Priority.class);
+
+    @PostConstruct
+    public void init() {
+        nodeBucket = new TokenBucket(nodeRate, nodeBurst);
+        for (Priority priority : Priority.values()) {
+            if (priority.perUser) {
+                userBuckets.put(priority, new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Long, TokenBucket> eldest) {
+                        return size() > maxUsers;
+                    }
+                });
+            }
+            String tag = priority.name().toLowerCase();
+            admittedCounters.put(priority,
+                Counter.builder("chat.admission.admitted").tag("priority", tag).register(meterRegistry));
+            rejectedCounters.put(priority,
+                Counter.builder("chat.admission.rejected").tag("priority", tag).register(meterRegistry));
+        }
+        Gauge.builder("chat.admission.tokens", nodeBucket, TokenBucket::getTokens).register(meterRegistry);
+    }
+
+    // Admits one unit of work or throws RejectedException. userId may be null for work
+    // that can't be attributed to a user; it then only counts against the node.
+    public void admit(Priority priority, Long userId) {
+        if (!enabled) {
+            return;
+        }
+        long waitNanos = nodeBucket.tryTake(priority.reserve * nodeBucket.getBurst());
+        if (waitNanos > 0) {
+            reject(priority, waitNanos, true);
+        }
+        if (priority.perUser && userId != null) {
+            Map<Long, TokenBucket> buckets = userBuckets.get(priority);
+            TokenBucket userBucket;
+            synchronized (buckets) {
+                userBucket = buckets.computeIfAbsent(userId, id -> new TokenBucket(userRate, userBurst));
+            }
+            waitNanos = userBucket.tryTake(0);
+            if (waitNanos > 0) {
+                nodeBucket.refund();
+                // Only this client is over its limit; no need to spread it with the others
+                reject(priority, waitNanos, false);
+            }
+        }
+        admittedCounters.get(priority).increment();
+    }
+
+    private void reject(Priority priority, long waitNanos, boolean spread) {
+        rejectedCounters.get(priority).increment();
+        long delayNanos = spread ? nextSlot(waitNanos) : waitNanos;
+        long retryAfterMs = TimeUnit.NANOSECONDS.toMillis(delayNanos)
+            + ThreadLocalRandom.current().nextLong(jitterMs + 1);
+        throw new RejectedException(Math.min(maxRetryMs, retryAfterMs));
+    }
+
+    private synchronized long nextSlot(long waitNanos) {
+        long now = System.nanoTime();
+        long slot = Math.max(lastSlotNanos + (long) (1_000_000_000 / nodeRate), now + waitNanos);
+        // Past the longest hint callers would all get the same one; stop handing out slots
+        lastSlotNanos = Math.min(slot, now + TimeUnit.MILLISECONDS.toNanos(maxRetryMs));
+        return lastSlotNanos - now;
+    }
+}
@@ -13,6 +13,9 @@ public class AuthService {
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+    
     public User signup(String username, String name, String phoneNumber, String password) {
         // Check if user already exists
         if (userRepository.existsByUsername(username)) {
@@ -24,8 +27,9 @@ public class AuthService {
         }
         
         // Create new user
-        User user = new User(username, name, phoneNumber, password);
-        return userRepository.save(user);
+        User user = userRepository.save(new User(username, name, phoneNumber, password));
+        userSearchIndex.index(user);
+        return user;
     }
     
     public User login(String usernameOrPhone, String password) {
@@ -42,22 +46,10 @@ public class AuthService {
             throw new RuntimeException("Invalid password");
         }
         
-        // Set user online
-        user.setOnline(true);
-        userRepository.save(user);
-        
+        // Online state follows the user's WebSocket sessions (see PresenceService)
         return user;
     }
     
-    public void logout(Long userId) {
-        Optional<User> userOpt = userRepository.findById(userId);
-        if (userOpt.isPresent()) {
-            User user = userOpt.get();
-            user.setOnline(false);
-            userRepository.save(user);
-        }
-    }
-    
     public User findUserById(Long userId) {
         return userRepository.findById(userId).orElse(null);
     }
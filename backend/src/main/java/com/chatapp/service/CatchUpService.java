@@ -0,0 +1,358 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.dto.ChatEvent;
+import com.chatapp.dto.SequencedEvent;
+import com.chatapp.dto.SyncResponse;
+import com.chatapp.repository.UserRepository;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Sequenced recent events for reconnect catch-up. Every group event gets the next seq of
+// its room and every private event the next seq of the recipient's inbox; the serialized
+// event is kept in a bounded ring per stream, so a client that reconnects with the last
+// seq it saw gets only what it missed, without reading history from the message store.
+// Room rings are shared by the room's members. Inboxes are per user and also fill while
+// the user is offline. A stream starts at the current time in microseconds, so seqs keep
+// increasing across restarts and evictions and an older seq shows up as a gap, which
+// the client handles by reloading (reset). Streams are evicted least recently used once
+// the total size exceeds the memory budget.
+//
+// In cluster mode a room is sequenced by its owner node and an inbox by the node the
+// username hashes to; other nodes keep replica rings from the frames relayed to them.
+@Service
+public class CatchUpService {
+
+    private static final String GROUP_TOPIC_PREFIX = "/topic/group/";
+
+    // Rough per-event and per-stream overhead on top of the payload bytes
+    private static final int EVENT_OVERHEAD = 32;
+    private static final int STREAM_OVERHEAD = 128;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MembershipCache membershipCache;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.sync.room-events:256}")
+    private int roomEvents;
+
+    @Value("${chat.sync.user-events:100}")
+    private int userEvents;
+
+    @Value("${chat.sync.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${chat.sync.max-rooms-per-request:500}")
+    private int maxRoomsPerRequest;
+
+    // Exactly one of chatRoomId and username is set
+    private record Key(Long chatRoomId, String username) {
+    }
+
+    private final LinkedHashMap<Key, Stream> streams = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private Counter deltaCounter;
+    private Counter resetCounter;
+
+    @PostConstruct
+    public void init() {
+        deltaCounter = Counter.builder("chat.sync.streams").tag("result", "delta").register(meterRegistry);
+        resetCounter = Counter.builder("chat.sync.streams").tag("result", "reset").register(meterRegistry);
+        Gauge.builder("chat.sync.bytes", this, CatchUpService::getTotalBytes).register(meterRegistry);
+        Gauge.builder("chat.sync.streams.cached", this, CatchUpService::getStreamCount).register(meterRegistry);
+    }
+
+    // Assigns the room's next seq and hands the serialized event to send. Called on the
+    // room's owner node; send runs under the stream's lock, so frames leave in seq order.
+    public void publishRoomEvent(long chatRoomId, SequencedEvent event, Consumer<byte[]> send) {
+        publish(new Key(chatRoomId, null), roomEvents, event, send);
+    }
+
+    // Same for a private event in the user's inbox, on the inbox's node
+    public void publishUserEvent(String username, ChatEvent event, Consumer<byte[]> send) {
+        publish(new Key(null, username), userEvents, event, send);
+    }
+
+    // Replica of another node's room stream, fed by the /topic frames relayed here
+    @EventListener
+    public void onTopicFrame(ClusterService.TopicFrameReceived event) {
+        if (event.destination().startsWith(GROUP_TOPIC_PREFIX)) {
+            Long seq = readSeq(event.payload());
+            if (seq != null) {
+                Long chatRoomId = Long.valueOf(event.destination().substring(GROUP_TOPIC_PREFIX.length()));
+                record(new Key(chatRoomId, null), roomEvents, seq, event.payload());
+            }
+        }
+    }
+
+    // Replica of a user's inbox on a node where the user has sessions
+    public void recordUserEvent(String username, byte[] payload) {
+        Long seq = readSeq(payload);
+        if (seq != null) {
+            record(new Key(null, username), userEvents, seq, payload);
+        }
+    }
+
+    // Events after the given seqs, for the rooms the user is a member of and for the
+    // user's inbox when inboxSeq is given. Rooms the user is not a member of are skipped.
+    public SyncResponse catchUp(Long userId, Map<Long, Long> rooms, Long inboxSeq) {
+        if (rooms != null && rooms.size() > maxRoomsPerRequest) {
+            throw new RuntimeException("At most " + maxRoomsPerRequest + " rooms may be synced at once");
+        }
+        List<SyncResponse.StreamDelta> roomDeltas = new ArrayList<>();
+        if (rooms != null) {
+            for (Map.Entry<Long, Long> room : rooms.entrySet()) {
+                Long chatRoomId = room.getKey();
+                if (!membershipCache.isMember(chatRoomId, userId)) {
+                    continue;
+                }
+                roomDeltas.add(read(new Key(chatRoomId, null), roomEvents, clusterService.isLocal(chatRoomId),
+                    room.getValue()));
+            }
+        }
+        SyncResponse.StreamDelta inbox = null;
+        if (inboxSeq != null) {
+            String username = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("User not found"))
+                .getUsername();
+            inbox = read(new Key(null, username), userEvents, clusterService.isLocalInbox(username), inboxSeq);
+        }
+        return new SyncResponse(true, roomDeltas, inbox);
+    }
+
+    public long getTotalBytes() {
+        synchronized (streams) {
+            return totalBytes;
+        }
+    }
+
+    public int getStreamCount() {
+        synchronized (streams) {
+            return streams.size();
+        }
+    }
+
+    private void publish(Key key, int capacity, SequencedEvent event, Consumer<byte[]> send) {
+        Stream stream = stream(key, capacity, true);
+        long added;
+        synchronized (stream) {
+            long before = stream.bytes;
+            // Take over the stream as its sequencer; a replica may have missed frames, so
+            // start past anything the previous owner could have handed out
+            if (!stream.owned) {
+                stream.owned = true;
+                stream.restart(Math.max(stream.lastSeq, startSeq()));
+            }
+            long seq = stream.lastSeq + 1;
+            byte[] payload;
+            try {
+                payload = objectMapper.writeValueAsBytes(event.withSeq(seq));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to serialize chat event", e);
+            }
+            stream.add(seq, payload);
+            added = stream.bytes - before;
+            send.accept(payload);
+        }
+        account(stream, added);
+    }
+
+    private void record(Key key, int capacity, long seq, byte[] payload) {
+        Stream stream = stream(key, capacity, true);
+        long added;
+        synchronized (stream) {
+            if (seq <= stream.lastSeq) {
+                return;
+            }
+            long before = stream.bytes;
+            // Another node sequences this stream now. A missed frame leaves a gap the
+            // ring cannot answer for.
+            stream.owned = false;
+            if (seq != stream.lastSeq + 1) {
+                stream.restart(seq - 1);
+            }
+            stream.add(seq, payload);
+            added = stream.bytes - before;
+        }
+        account(stream, added);
+    }
+
+    private SyncResponse.StreamDelta read(Key key, int capacity, boolean local, Long since) {
+        // Only the sequencing node may start a stream; a replica that has seen nothing
+        // yet doesn't know the current seq
+        Stream stream = stream(key, capacity, local);
+        SyncResponse.StreamDelta delta;
+        if (stream == null) {
+            delta = new SyncResponse.StreamDelta(key.chatRoomId(), null, true, List.of());
+        } else {
+            synchronized (stream) {
+                if (stream.lastSeq == 0) {
+                    stream.owned = true;
+                    stream.restart(startSeq());
+                }
+                if (since == null || since < stream.floor || since > stream.lastSeq) {
+                    delta = new SyncResponse.StreamDelta(key.chatRoomId(), stream.lastSeq, true, List.of());
+                } else {
+                    delta = new SyncResponse.StreamDelta(key.chatRoomId(), stream.lastSeq, false, stream.after(since));
+                }
+            }
+        }
+        (delta.reset() ? resetCounter : deltaCounter).increment();
+        return delta;
+    }
+
+    private Stream stream(Key key, int capacity, boolean create) {
+        synchronized (streams) {
+            Stream stream = streams.get(key);
+            if (stream == null && create) {
+                stream = new Stream(capacity);
+                streams.put(key, stream);
+                totalBytes += STREAM_OVERHEAD;
+            }
+            return stream;
+        }
+    }
+
+    // Adds a stream's change in size to the total and evicts streams over the budget
+    private void account(Stream stream, long added) {
+        if (added == 0) {
+            return;
+        }
+        synchronized (streams) {
+            if (stream.evicted) {
+                return;
+            }
+            totalBytes += added;
+            Iterator<Stream> eldest = streams.values().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Stream evicted = eldest.next();
+                if (evicted == stream) {
+                    break;
+                }
+                eldest.remove();
+                synchronized (evicted) {
+                    evicted.evicted = true;
+                    totalBytes -= evicted.bytes + STREAM_OVERHEAD;
+                }
+            }
+        }
+    }
+
+    private static long startSeq() {
+        return System.currentTimeMillis() * 1000;
+    }
+
+    // The top-level "seq" field of a serialized event, or null
+    private Long readSeq(byte[] payload) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("seq".equals(field)) {
+                    return value == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Ring of the latest events of one stream. floor is the seq just before the oldest
+    // event the ring can still answer for: a client at floor or later misses nothing.
+    // Guarded by its own monitor.
+    private static final class Stream {
+        final int capacity;
+        long[] seqs;
+        byte[][] payloads;
+        int head;
+        int size;
+        long lastSeq;
+        long floor;
+        long bytes;
+        boolean owned;
+        boolean evicted;
+
+        Stream(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(long seq, byte[] payload) {
+            if (seqs == null) {
+                seqs = new long[capacity];
+                payloads = new byte[capacity][];
+            }
+            int slot = (head + size) % capacity;
+            if (size == capacity) {
+                floor = seqs[slot];
+                bytes -= payloads[slot].length + EVENT_OVERHEAD;
+                head = (head + 1) % capacity;
+            } else {
+                size++;
+            }
+            seqs[slot] = seq;
+            payloads[slot] = payload;
+            bytes += payload.length + EVENT_OVERHEAD;
+            lastSeq = seq;
+        }
+
+        // Drops every event; the stream continues after seq
+        void restart(long seq) {
+            if (payloads != null) {
+                Arrays.fill(payloads, null);
+            }
+            head = 0;
+            size = 0;
+            bytes = 0;
+            lastSeq = seq;
+            floor = seq;
+        }
+
+        List<RawValue> after(long since) {
+            List<RawValue> events = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                int slot = (head + i) % capacity;
+                if (seqs[slot] > since) {
+                    events.add(new RawValue(new String(payloads[slot], StandardCharsets.UTF_8)));
+                }
+            }
+            return events;
+        }
+    }
+}
@@ -1,33 +1,89 @@
 package com.chatapp.service;
 
+import com.chatapp.cluster.ClusterService;
 import com.chatapp.model.ChatRoom;
 import com.chatapp.model.Message;
 import com.chatapp.model.User;
 import com.chatapp.repository.ChatRoomRepository;
-import com.chatapp.repository.MessageRepository;
 import com.chatapp.repository.UserRepository;
+import com.chatapp.store.MessageStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Service
 public class ChatService {
     
+    private static final Logger log = LoggerFactory.getLogger(ChatService.class);
+    
+    private static final int MAX_PAGE_SIZE = 200;
+    
+    // Upper bound on ids in a single IN clause
+    private static final int ID_QUERY_CHUNK = 1000;
+    
     @Autowired
     private ChatRoomRepository chatRoomRepository;
     
     @Autowired
-    private MessageRepository messageRepository;
+    private MessageStore messageStore;
     
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private MembershipCache membershipCache;
+    
+    @Autowired
+    private HotMessageCache hotMessageCache;
+    
+    @Autowired
+    private RoomSummaryService roomSummaryService;
+    
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+    
+    @Autowired
+    private ClusterService clusterService;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    @Value("${chat.group.insert-batch-size:500}")
+    private int insertBatchSize;
+    
+    @Value("${chat.group.max-bulk-participants:10000}")
+    private int maxBulkParticipants;
+    
     // Create or get private chat between two users
+    @Transactional
     public ChatRoom createOrGetPrivateChat(Long user1Id, Long user2Id) {
         User user1 = userRepository.findById(user1Id).orElse(null);
         User user2 = userRepository.findById(user2Id).orElse(null);
@@ -53,34 +109,61 @@ public class ChatService {
         chatRoom.addParticipant(user1);
         chatRoom.addParticipant(user2);
         
-        return chatRoomRepository.save(chatRoom);
+        ChatRoom saved = chatRoomRepository.save(chatRoom);
+        roomSummaryService.roomCreated(saved.getId(), new LinkedHashSet<>(List.of(user1.getId(), user2.getId())),
+            saved.getCreatedAt());
+        invalidateMembershipAfterCommit(saved.getId());
+        return saved;
     }
     
-    // Create group chat
+    // Create group chat. Participants are resolved with one id-only query per chunk and
+    // written as batched join-row inserts, so no User is loaded until the response needs it.
+    @Transactional
     public ChatRoom createGroupChat(String name, String description, Long createdByUserId, List<Long> participantIds) {
-        User createdBy = userRepository.findById(createdByUserId).orElse(null);
-        if (createdBy == null) {
+        long start = System.nanoTime();
+        if (!userRepository.existsById(createdByUserId)) {
             throw new RuntimeException("Creator user not found");
         }
         
+        // Creator first; unknown ids are skipped as before
+        Set<Long> requested = new LinkedHashSet<>();
+        requested.add(createdByUserId);
+        requested.addAll(distinctIds(participantIds));
+        List<Long> requestedIds = new ArrayList<>(requested);
+        Set<Long> existing = new HashSet<>();
+        forEachChunk(requestedIds, ids -> existing.addAll(userRepository.findExistingIds(ids)));
+        List<Long> memberIds = requestedIds.stream().filter(existing::contains).toList();
+        long resolved = recordGroupStep("resolve", start);
+        
         ChatRoom chatRoom = new ChatRoom();
         chatRoom.setName(name);
         chatRoom.setDescription(description);
         chatRoom.setType(ChatRoom.ChatType.GROUP);
-        chatRoom.setCreatedBy(createdBy);
+        chatRoom.setCreatedBy(userRepository.getReferenceById(createdByUserId));
+        ChatRoom saved = chatRoomRepository.saveAndFlush(chatRoom);
+        long roomInserted = recordGroupStep("insert-room", resolved);
         
-        // Add creator as participant
-        chatRoom.addParticipant(createdBy);
+        insertParticipants(saved.getId(), memberIds);
+        roomSummaryService.roomCreated(saved.getId(), memberIds, saved.getCreatedAt());
+        long participantsInserted = recordGroupStep("insert-participants", roomInserted);
         
-        // Add other participants
-        for (Long participantId : participantIds) {
-            User participant = userRepository.findById(participantId).orElse(null);
-            if (participant != null) {
-                chatRoom.addParticipant(participant);
-            }
-        }
+        // The join rows were written behind Hibernate's back; reload the room with them
+        entityManager.detach(saved);
+        ChatRoom created = chatRoomRepository.findWithParticipantsById(saved.getId())
+            .orElseThrow(() -> new RuntimeException("Chat room not found"));
+        recordGroupStep("load", participantsInserted);
+        recordGroupStep("total", start);
         
-        return chatRoomRepository.save(chatRoom);
+        invalidateMembershipAfterCommit(created.getId());
+        return created;
+    }
+    
+    private long recordGroupStep(String step, long startNanos) {
+        long now = System.nanoTime();
+        Timer.builder("chat.group.create").tag("step", step).register(meterRegistry)
+            .record(now - startNanos, TimeUnit.NANOSECONDS);
+        log.debug("createGroupChat {} took {} us", step, (now - startNanos) / 1000);
+        return now;
     }
     
     // Get user's chat rooms
@@ -114,71 +197,193 @@ public class ChatService {
     }
     
     // Send message to chat room
+    @Transactional
     public Message sendMessage(Long chatRoomId, Long senderId, String content, String messageType) {
-        ChatRoom chatRoom = chatRoomRepository.findById(chatRoomId).orElse(null);
-        User sender = userRepository.findById(senderId).orElse(null);
-        
-        if (chatRoom == null || sender == null) {
-            throw new RuntimeException("Chat room or sender not found");
-        }
-        
-        // Check if sender is a participant
-        if (!chatRoom.hasParticipant(sender)) {
+        // Check if sender is a participant; a member implies both the room and the user exist
+        if (!membershipCache.isMember(chatRoomId, senderId)) {
+            if (!chatRoomRepository.existsById(chatRoomId) || !userRepository.existsById(senderId)) {
+                throw new RuntimeException("Chat room or sender not found");
+            }
             throw new RuntimeException("User is not a participant in this chat");
         }
         
-        Message message = new Message(sender, chatRoom, content, messageType);
-        return messageRepository.save(message);
+        Message message = new Message(
+            userRepository.getReferenceById(senderId),
+            chatRoomRepository.getReferenceById(chatRoomId),
+            content,
+            messageType
+        );
+        List<MessageSnapshot> persisted = messageStore.saveAll(List.of(message));
+        roomSummaryService.messagesPersisted(persisted);
+        messageSearchIndex.enqueue(persisted);
+        // The sender is an uninitialized reference here, so drop the room's ring rather than append
+        hotMessageCache.invalidate(chatRoomId);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                clusterService.relayHistoryChanged(List.of(chatRoomId));
+            }
+        });
+        return message;
     }
     
-    // Get messages from chat room
-    public List<Message> getChatMessages(Long chatRoomId, int page, int size) {
-        ChatRoom chatRoom = chatRoomRepository.findById(chatRoomId).orElse(null);
-        if (chatRoom == null) {
+    // A window of chat history in chronological order
+    public record MessageHistory(List<MessageSnapshot> messages, boolean hasOlder, boolean hasNewer) {
+    }
+    
+    // Get messages from chat room using keyset paging; at most one of beforeId/afterId is set
+    public MessageHistory getChatMessages(Long chatRoomId, Long beforeId, Long afterId, int size) {
+        size = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        
+        // Recent history is usually served from memory
+        MessageHistory cached = hotMessageCache.read(chatRoomId, beforeId, afterId, size);
+        if (cached != null) {
+            return cached;
+        }
+        
+        if (!chatRoomRepository.existsById(chatRoomId)) {
             throw new RuntimeException("Chat room not found");
         }
         
-        Pageable pageable = PageRequest.of(page, size);
-        Page<Message> messagePage = messageRepository.findByChatRoomOrderByTimestampDesc(chatRoom, pageable);
+        if (afterId != null) {
+            MessageStore.Window window = messageStore.after(chatRoomId, afterId, size);
+            return new MessageHistory(window.messages(), true, window.hasMore());
+        }
+        
+        long seedVersion = hotMessageCache.seedVersion();
+        MessageStore.Window window = beforeId != null
+            ? messageStore.before(chatRoomId, beforeId, size)
+            : messageStore.latest(chatRoomId, size);
         
         // Reverse to get chronological order
-        List<Message> messages = messagePage.getContent();
-        java.util.Collections.reverse(messages);
+        List<MessageSnapshot> messages = new ArrayList<>(window.messages());
+        Collections.reverse(messages);
         
-        return messages;
+        if (beforeId == null) {
+            hotMessageCache.seed(chatRoomId, messages, window.hasMore(), seedVersion);
+        }
+        
+        return new MessageHistory(messages, window.hasMore(), beforeId != null);
     }
     
     // Get latest messages from chat room
-    public List<Message> getLatestMessages(Long chatRoomId, int limit) {
-        ChatRoom chatRoom = chatRoomRepository.findById(chatRoomId).orElse(null);
-        if (chatRoom == null) {
-            throw new RuntimeException("Chat room not found");
-        }
-        
-        Pageable pageable = PageRequest.of(0, limit);
-        return messageRepository.findLatestMessagesByChatRoom(chatRoom, pageable);
+    public List<MessageSnapshot> getLatestMessages(Long chatRoomId, int limit) {
+        return getChatMessages(chatRoomId, null, null, limit).messages();
     }
     
     // Add participant to group chat
+    @Transactional
     public ChatRoom addParticipantToGroupChat(Long chatRoomId, Long userId, Long addedByUserId) {
+        if (!userRepository.existsById(userId)) {
+            throw new RuntimeException("Chat room or user not found");
+        }
+        
+        updateGroupParticipants(chatRoomId, List.of(userId), List.of(), addedByUserId);
+        return chatRoomRepository.findWithParticipantsById(chatRoomId)
+            .orElseThrow(() -> new RuntimeException("Chat room not found"));
+    }
+    
+    public record MembershipChange(Long chatRoomId, List<Long> added, List<Long> removed, long membershipVersion) {
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty();
+        }
+    }
+    
+    // Add and remove many group members at once. Only join rows that actually change are
+    // written, in JDBC batches, and the room's membership version is bumped once. Unknown
+    // users, users that are already members and non-members to remove are skipped.
+    @Transactional
+    public MembershipChange updateGroupParticipants(Long chatRoomId, List<Long> addIds, List<Long> removeIds,
+                                                    Long changedByUserId) {
         ChatRoom chatRoom = chatRoomRepository.findById(chatRoomId).orElse(null);
-        User user = userRepository.findById(userId).orElse(null);
-        User addedBy = userRepository.findById(addedByUserId).orElse(null);
         
-        if (chatRoom == null || user == null || addedBy == null) {
+        if (chatRoom == null || !userRepository.existsById(changedByUserId)) {
             throw new RuntimeException("Chat room or user not found");
         }
         
         if (chatRoom.getType() != ChatRoom.ChatType.GROUP) {
-            throw new RuntimeException("Can only add participants to group chats");
+            throw new RuntimeException("Can only change participants of group chats");
+        }
+        
+        // Check if changedBy is a participant (has permission to change membership)
+        if (!membershipCache.isMember(chatRoomId, changedByUserId)) {
+            throw new RuntimeException("User doesn't have permission to change participants");
+        }
+        
+        Set<Long> toAdd = distinctIds(addIds);
+        Set<Long> toRemove = distinctIds(removeIds);
+        if (toAdd.size() + toRemove.size() > maxBulkParticipants) {
+            throw new RuntimeException("At most " + maxBulkParticipants + " participants can be changed at once");
         }
+        if (!Collections.disjoint(toAdd, toRemove)) {
+            throw new RuntimeException("A user cannot be both added and removed");
+        }
+        
+        Set<Long> existingUsers = new HashSet<>();
+        forEachChunk(new ArrayList<>(toAdd), ids -> existingUsers.addAll(userRepository.findExistingIds(ids)));
+        List<Long> candidates = new ArrayList<>(toAdd);
+        candidates.addAll(toRemove);
+        Set<Long> currentMembers = new HashSet<>();
+        forEachChunk(candidates, ids -> currentMembers.addAll(chatRoomRepository.findParticipantIdsIn(chatRoomId, ids)));
         
-        // Check if addedBy is a participant (has permission to add others)
-        if (!chatRoom.hasParticipant(addedBy)) {
-            throw new RuntimeException("User doesn't have permission to add participants");
+        List<Long> added = toAdd.stream().filter(id -> existingUsers.contains(id) && !currentMembers.contains(id)).toList();
+        List<Long> removed = toRemove.stream().filter(currentMembers::contains).toList();
+        if (added.isEmpty() && removed.isEmpty()) {
+            return new MembershipChange(chatRoomId, added, removed, chatRoom.getMembershipVersion());
         }
         
-        chatRoom.addParticipant(user);
-        return chatRoomRepository.save(chatRoom);
+        insertParticipants(chatRoomId, added);
+        jdbcTemplate.batchUpdate("DELETE FROM chat_room_participants WHERE chat_room_id = ? AND user_id = ?",
+            removed, insertBatchSize, (statement, userId) -> {
+                statement.setLong(1, chatRoomId);
+                statement.setLong(2, userId);
+            });
+        roomSummaryService.membersChanged(chatRoomId, added, removed);
+        chatRoomRepository.bumpMembershipVersion(chatRoomId, LocalDateTime.now());
+        long version = chatRoomRepository.findMembershipVersion(chatRoomId);
+        
+        // Readers must not see (and cache) members that a rollback would take back
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                membershipCache.addMembers(chatRoomId, added);
+                membershipCache.removeMembers(chatRoomId, removed);
+                clusterService.relayMembershipChanged(chatRoomId);
+            }
+        });
+        return new MembershipChange(chatRoomId, added, removed, version);
+    }
+    
+    // A reader between the invalidation and the commit would cache the room without its
+    // members, so drop it only once they are visible
+    private void invalidateMembershipAfterCommit(Long chatRoomId) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                membershipCache.invalidate(chatRoomId);
+            }
+        });
+    }
+    
+    private void insertParticipants(Long chatRoomId, List<Long> userIds) {
+        jdbcTemplate.batchUpdate("INSERT INTO chat_room_participants (chat_room_id, user_id) VALUES (?, ?)",
+            userIds, insertBatchSize, (statement, userId) -> {
+                statement.setLong(1, chatRoomId);
+                statement.setLong(2, userId);
+            });
+    }
+    
+    private static Set<Long> distinctIds(List<Long> ids) {
+        Set<Long> distinct = new LinkedHashSet<>();
+        if (ids != null) {
+            ids.stream().filter(Objects::nonNull).forEach(distinct::add);
+        }
+        return distinct;
+    }
+    
+    private static void forEachChunk(List<Long> ids, Consumer<List<Long>> action) {
+        for (int from = 0; from < ids.size(); from += ID_QUERY_CHUNK) {
+            action.accept(ids.subList(from, Math.min(ids.size(), from + ID_QUERY_CHUNK)));
+        }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,225 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+// User id -> sorted contact ids, loaded per user on first use. Contact checks are a
+// binary search and online-contact queries filter the array against presence, so neither
+// touches JPA. Arrays are copy-on-write: readers never see one that is being modified.
+// Memory is 8 bytes per cached edge (a contact pair is stored once in each user's array
+// when both are cached) plus about 100 bytes per cached user for the map entry, the boxed
+// key and the array header; least recently used users are evicted past max-users.
+// Changes committed on another node are applied here as they are relayed.
+@Service
+public class ContactGraph {
+
+    private static final long[] NONE = new long[0];
+
+    // Upper bound on ids in a single IN clause
+    private static final int QUERY_CHUNK = 1000;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.contacts.max-users:100000}")
+    private int maxUsers;
+
+    private Map<Long, long[]> contactsByUser;
+
+    // Bumped on every contact change so a load that raced with a change is not cached
+    private final AtomicLong modifications = new AtomicLong();
+    // Total length of the cached arrays; guarded by contactsByUser
+    private long edges;
+
+    private Counter hitCounter;
+    private Counter missCounter;
+
+    @PostConstruct
+    public void init() {
+        contactsByUser = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                if (size() > maxUsers) {
+                    edges -= eldest.getValue().length;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        hitCounter = Counter.builder("chat.contacts.cache.hits").register(meterRegistry);
+        missCounter = Counter.builder("chat.contacts.cache.misses").register(meterRegistry);
+        Gauge.builder("chat.contacts.cache.users", this, ContactGraph::size).register(meterRegistry);
+        Gauge.builder("chat.contacts.cache.edges", this, ContactGraph::edgeCount).register(meterRegistry);
+    }
+
+    public boolean areContacts(long userId, long contactId) {
+        return Arrays.binarySearch(getContacts(userId), contactId) >= 0;
+    }
+
+    // Contacts that pass the filter, in ascending id order
+    public long[] filterContacts(long userId, LongPredicate filter) {
+        long[] contacts = getContacts(userId);
+        long[] matching = new long[contacts.length];
+        int count = 0;
+        for (long contactId : contacts) {
+            if (filter.test(contactId)) {
+                matching[count++] = contactId;
+            }
+        }
+        return Arrays.copyOf(matching, count);
+    }
+
+    // Returns the cached, ascending contact ids; callers must not modify the array
+    public long[] getContacts(long userId) {
+        long[] contacts;
+        synchronized (contactsByUser) {
+            contacts = contactsByUser.get(userId);
+        }
+        if (contacts != null) {
+            hitCounter.increment();
+            return contacts;
+        }
+        missCounter.increment();
+
+        long version = modifications.get();
+        List<Long> ids = userRepository.findContactIds(userId);
+        long[] loaded = ids.isEmpty() ? NONE : ids.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+
+        synchronized (contactsByUser) {
+            if (modifications.get() == version && !contactsByUser.containsKey(userId)) {
+                contactsByUser.put(userId, loaded);
+                edges += loaded.length;
+            }
+        }
+        return loaded;
+    }
+
+    // Contacts for several users; users that are not cached are loaded with one query
+    // per chunk of ids instead of one per user
+    public Map<Long, long[]> getContacts(List<Long> userIds) {
+        Map<Long, long[]> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        synchronized (contactsByUser) {
+            for (Long userId : userIds) {
+                long[] contacts = contactsByUser.get(userId);
+                if (contacts != null) {
+                    result.put(userId, contacts);
+                } else {
+                    missing.add(userId);
+                }
+            }
+        }
+        hitCounter.increment(result.size());
+        if (missing.isEmpty()) {
+            return result;
+        }
+        missCounter.increment(missing.size());
+
+        long version = modifications.get();
+        Map<Long, List<Long>> pairs = new HashMap<>();
+        for (int from = 0; from < missing.size(); from += QUERY_CHUNK) {
+            List<Long> chunk = missing.subList(from, Math.min(missing.size(), from + QUERY_CHUNK));
+            for (Object[] pair : userRepository.findContactPairs(chunk)) {
+                pairs.computeIfAbsent((Long) pair[0], id -> new ArrayList<>()).add((Long) pair[1]);
+            }
+        }
+
+        synchronized (contactsByUser) {
+            boolean cache = modifications.get() == version;
+            for (Long userId : missing) {
+                List<Long> ids = pairs.get(userId);
+                long[] loaded = ids == null ? NONE : ids.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+                result.put(userId, loaded);
+                if (cache && !contactsByUser.containsKey(userId)) {
+                    contactsByUser.put(userId, loaded);
+                    edges += loaded.length;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Call after the join rows for both directions have been committed
+    public void contactAdded(long userId, long contactId) {
+        synchronized (contactsByUser) {
+            modifications.incrementAndGet();
+            update(userId, contactId, true);
+            update(contactId, userId, true);
+        }
+    }
+
+    public void contactRemoved(long userId, long contactId) {
+        synchronized (contactsByUser) {
+            modifications.incrementAndGet();
+            update(userId, contactId, false);
+            update(contactId, userId, false);
+        }
+    }
+
+    @EventListener
+    public void onContactChanged(ClusterService.ContactChanged event) {
+        if (event.added()) {
+            contactAdded(event.userId(), event.contactId());
+        } else {
+            contactRemoved(event.userId(), event.contactId());
+        }
+    }
+
+    public int size() {
+        synchronized (contactsByUser) {
+            return contactsByUser.size();
+        }
+    }
+
+    public long edgeCount() {
+        synchronized (contactsByUser) {
+            return edges;
+        }
+    }
+
+    // Users that are not cached are left alone; their next load reads the new rows
+    private void update(long userId, long contactId, boolean add) {
+        long[] current = contactsByUser.get(userId);
+        if (current == null) {
+            return;
+        }
+        int at = Arrays.binarySearch(current, contactId);
+        long[] updated;
+        if (add && at < 0) {
+            int insertAt = -at - 1;
+            updated = new long[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, insertAt);
+            updated[insertAt] = contactId;
+            System.arraycopy(current, insertAt, updated, insertAt + 1, current.length - insertAt);
+        } else if (!add && at >= 0) {
+            updated = new long[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, at);
+            System.arraycopy(current, at + 1, updated, at, current.length - at - 1);
+        } else {
+            return;
+        }
+        edges += updated.length - current.length;
+        contactsByUser.put(userId, updated);
+    }
+}
@@ -1,12 +1,21 @@
 package com.chatapp.service;
 
+import com.chatapp.cluster.ClusterService;
 import com.chatapp.model.User;
 import com.chatapp.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 @Service
 public class ContactService {
@@ -14,12 +23,27 @@ public class ContactService {
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+    
+    @Autowired
+    private ContactGraph contactGraph;
+    
+    @Autowired
+    private PresenceService presenceService;
+    
+    @Autowired
+    private ClusterService clusterService;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
     // Add contact by phone number
+    @Transactional
     public User addContactByPhone(Long userId, String phoneNumber) {
-        User user = userRepository.findById(userId).orElse(null);
         User contactToAdd = userRepository.findByPhoneNumber(phoneNumber).orElse(null);
         
-        if (user == null) {
+        if (!userRepository.existsById(userId)) {
             throw new RuntimeException("User not found");
         }
         
@@ -27,79 +51,106 @@ public class ContactService {
             throw new RuntimeException("User with phone number not found");
         }
         
-        if (user.getId().equals(contactToAdd.getId())) {
+        Long contactId = contactToAdd.getId();
+        if (userId.equals(contactId)) {
             throw new RuntimeException("Cannot add yourself as contact");
         }
         
         // Check if already a contact
-        if (user.getContacts().contains(contactToAdd)) {
+        if (contactGraph.areContacts(userId, contactId)) {
             throw new RuntimeException("User is already a contact");
         }
         
-        // Add bidirectional contact relationship
-        user.addContact(contactToAdd);
-        userRepository.save(user);
-        userRepository.save(contactToAdd);
+        // Add bidirectional contact relationship without loading either contact set
+        jdbcTemplate.update("INSERT INTO user_contacts (user_id, contact_id) VALUES (?, ?), (?, ?)",
+            userId, contactId, contactId, userId);
+        afterCommit(() -> {
+            contactGraph.contactAdded(userId, contactId);
+            clusterService.relayContactChanged(userId, contactId, true);
+        });
         
         return contactToAdd;
     }
     
     // Remove contact
+    @Transactional
     public void removeContact(Long userId, Long contactId) {
-        User user = userRepository.findById(userId).orElse(null);
-        User contactToRemove = userRepository.findById(contactId).orElse(null);
-        
-        if (user == null || contactToRemove == null) {
+        if (!userRepository.existsById(userId) || !userRepository.existsById(contactId)) {
             throw new RuntimeException("User or contact not found");
         }
         
-        user.removeContact(contactToRemove);
-        userRepository.save(user);
-        userRepository.save(contactToRemove);
+        jdbcTemplate.update("DELETE FROM user_contacts WHERE (user_id = ? AND contact_id = ?) OR (user_id = ? AND contact_id = ?)",
+            userId, contactId, contactId, userId);
+        afterCommit(() -> {
+            contactGraph.contactRemoved(userId, contactId);
+            clusterService.relayContactChanged(userId, contactId, false);
+        });
     }
     
     // Get user's contacts
-    public Set<User> getUserContacts(Long userId) {
-        User user = userRepository.findById(userId).orElse(null);
-        if (user == null) {
+    public List<User> getUserContacts(Long userId) {
+        if (!userRepository.existsById(userId)) {
             throw new RuntimeException("User not found");
         }
         
-        return user.getContacts();
+        return loadUsers(contactGraph.getContacts(userId));
     }
     
-    // Search users by name or username
-    public List<User> searchUsers(String searchTerm) {
-        return userRepository.findByNameContainingIgnoreCase(searchTerm);
-    }
+    // Search users by name, username or phone number, best matches first
+    public List<User> searchUsers(String searchTerm, int limit) {
+        List<UserSearchIndex.Match> matches = userSearchIndex.search(searchTerm, limit);
+        if (matches.isEmpty()) {
+            return List.of();
+        }
     
-    // Search users by phone number
-    public List<User> searchUsersByPhone(String phoneNumber) {
-        return userRepository.findByPhoneNumberContaining(phoneNumber);
+        Map<Long, User> users = new HashMap<>();
+        userRepository.findAllById(matches.stream().map(UserSearchIndex.Match::userId).toList())
+            .forEach(user -> users.put(user.getId(), user));
+        List<User> ranked = new ArrayList<>(matches.size());
+        for (UserSearchIndex.Match match : matches) {
+            User user = users.get(match.userId());
+            if (user != null) {
+                ranked.add(user);
+            }
+        }
+        return ranked;
     }
     
     // Get online contacts
-    public Set<User> getOnlineContacts(Long userId) {
-        User user = userRepository.findById(userId).orElse(null);
-        if (user == null) {
+    public List<User> getOnlineContacts(Long userId) {
+        if (!userRepository.existsById(userId)) {
             throw new RuntimeException("User not found");
         }
         
-        Set<User> contacts = user.getContacts();
-        contacts.removeIf(contact -> !contact.isOnline());
-        
-        return contacts;
+        return loadUsers(contactGraph.filterContacts(userId, presenceService::isOnline));
     }
     
     // Check if two users are contacts
     public boolean areContacts(Long userId1, Long userId2) {
-        User user1 = userRepository.findById(userId1).orElse(null);
-        User user2 = userRepository.findById(userId2).orElse(null);
-        
-        if (user1 == null || user2 == null) {
+        if (userId1 == null || userId2 == null) {
             return false;
         }
         
-        return user1.getContacts().contains(user2);
+        return contactGraph.areContacts(userId1, userId2);
+    }
+    
+    // Users for the given ids, in id order
+    private List<User> loadUsers(long[] ids) {
+        if (ids.length == 0) {
+            return List.of();
+        }
+        
+        List<User> users = new ArrayList<>(userRepository.findAllById(Arrays.stream(ids).boxed().toList()));
+        users.sort(Comparator.comparing(User::getId));
+        return users;
+    }
+    
+    private static void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
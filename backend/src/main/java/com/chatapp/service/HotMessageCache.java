@@ -0,0 +1,317 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-room ring of the most recent messages, read before MessageRepository by the
+// history endpoints. A ring always holds every message from its oldest entry onwards,
+// because each persisted message is appended after commit. Messages are persisted on one
+// node per room; when another node persists a room's messages, the ring here is dropped
+// and reseeded from the database on the next read.
+//
+// Each ring is guarded by its own monitor, so rooms don't wait on each other. Rings
+// record their last access, and once the total size exceeds the memory budget one
+// thread at a time drops the least recently used rooms until a tenth of the budget is
+// free again.
+@Service
+public class HotMessageCache {
+
+    // Reads within this long of the last recorded access don't write it again
+    private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.history-cache.messages-per-room:100}")
+    private int messagesPerRoom;
+
+    @Value("${chat.history-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    private final ConcurrentHashMap<Long, RoomRing> rings = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    // Bumped on eviction/invalidation; a seed loaded across an eviction may leave a gap
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private record Candidate(Long chatRoomId, RoomRing ring, long accessedAt) {
+    }
+
+    private Counter hitCounter;
+    private Counter missCounter;
+
+    @PostConstruct
+    public void init() {
+        hitCounter = Counter.builder("chat.history.cache.hits").register(meterRegistry);
+        missCounter = Counter.builder("chat.history.cache.misses").register(meterRegistry);
+        Gauge.builder("chat.history.cache.bytes", this, HotMessageCache::getTotalBytes).register(meterRegistry);
+        Gauge.builder("chat.history.cache.rooms", this, HotMessageCache::getRoomCount).register(meterRegistry);
+        Gauge.builder("chat.history.cache.hit.ratio", this, HotMessageCache::getHitRatio).register(meterRegistry);
+    }
+
+    // Serve a history request from memory, or return null if the ring can't answer it
+    public ChatService.MessageHistory read(Long chatRoomId, Long beforeId, Long afterId, int size) {
+        ChatService.MessageHistory history = null;
+        RoomRing ring = rings.get(chatRoomId);
+        if (ring != null) {
+            ring.touch();
+            synchronized (ring) {
+                if (!ring.dropped) {
+                    history = ring.read(beforeId, afterId, size);
+                }
+            }
+        }
+        if (history != null) {
+            hitCounter.increment();
+        } else {
+            missCounter.increment();
+        }
+        return history;
+    }
+
+    // Version to pass to seed(); capture it before querying the database
+    public long seedVersion() {
+        return evictions.get();
+    }
+
+    // Merge the newest messages loaded from the database (chronological order) into the ring
+    public void seed(Long chatRoomId, List<MessageSnapshot> latest, boolean hasOlder, long version) {
+        if (version != evictions.get()) {
+            return;
+        }
+        while (true) {
+            RoomRing ring = rings.computeIfAbsent(chatRoomId, id -> new RoomRing(messagesPerRoom));
+            ring.touch();
+            synchronized (ring) {
+                // Evictions bump the version before they drop a ring, so this also
+                // catches one that is dropping this ring right now
+                if (version != evictions.get()) {
+                    return;
+                }
+                if (ring.dropped) {
+                    continue;
+                }
+                long before = ring.bytes;
+                for (MessageSnapshot message : latest) {
+                    ring.add(message);
+                }
+                ring.complete = !hasOlder && !ring.truncated;
+                totalBytes.addAndGet(ring.bytes - before);
+            }
+            break;
+        }
+        evictOverBudget(chatRoomId);
+    }
+
+    // Called by the send path once a message has been committed
+    public void append(MessageSnapshot message) {
+        while (true) {
+            RoomRing ring = rings.computeIfAbsent(message.chatRoomId(), id -> new RoomRing(messagesPerRoom));
+            ring.touch();
+            synchronized (ring) {
+                if (ring.dropped) {
+                    // Dropped after we looked it up; use a fresh ring
+                    continue;
+                }
+                long before = ring.bytes;
+                ring.add(message);
+                totalBytes.addAndGet(ring.bytes - before);
+            }
+            break;
+        }
+        evictOverBudget(message.chatRoomId());
+    }
+
+    public void invalidate(Long chatRoomId) {
+        evictions.incrementAndGet();
+        RoomRing ring = rings.remove(chatRoomId);
+        if (ring != null) {
+            drop(ring);
+        }
+    }
+
+    @EventListener
+    public void onHistoryChanged(ClusterService.HistoryChanged event) {
+        event.chatRoomIds().forEach(this::invalidate);
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public int getRoomCount() {
+        return rings.size();
+    }
+
+    public double getHitRatio() {
+        double hits = hitCounter.count();
+        double total = hits + missCounter.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    // Its bytes leave the total once, under the ring's monitor, so a writer that still
+    // holds the ring can't count them back in
+    private void drop(RoomRing ring) {
+        synchronized (ring) {
+            ring.dropped = true;
+            totalBytes.addAndGet(-ring.bytes);
+        }
+    }
+
+    // Drops rooms least recently used first, never the one just written; one evicting
+    // thread at a time, others go on
+    private void evictOverBudget(Long keep) {
+        if (totalBytes.get() <= maxBytes || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long target = maxBytes - maxBytes / 10;
+            // Access times keep moving, so sort a snapshot of them
+            List<Candidate> byAccess = new ArrayList<>(rings.size());
+            rings.forEach((chatRoomId, ring) -> byAccess.add(new Candidate(chatRoomId, ring, ring.accessedAt)));
+            byAccess.sort(Comparator.comparingLong(Candidate::accessedAt));
+            for (Candidate eldest : byAccess) {
+                if (totalBytes.get() <= target) {
+                    break;
+                }
+                if (eldest.chatRoomId().equals(keep)) {
+                    continue;
+                }
+                evictions.incrementAndGet();
+                if (rings.remove(eldest.chatRoomId(), eldest.ring())) {
+                    drop(eldest.ring());
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    // Circular buffer ordered by message id; guarded by its own monitor except for
+    // accessedAt
+    private static class RoomRing {
+        private final MessageSnapshot[] slots;
+        private int head;
+        private int size;
+        private long bytes;
+        // Set once the oldest entry has been overwritten
+        private boolean truncated;
+        // True when the ring holds the room's entire history
+        private boolean complete;
+        // Set once the ring has left the map; writers then start a fresh one
+        private boolean dropped;
+        private volatile long accessedAt = System.nanoTime();
+
+        RoomRing(int capacity) {
+            this.slots = new MessageSnapshot[capacity];
+        }
+
+        void touch() {
+            long now = System.nanoTime();
+            if (now - accessedAt > ACCESS_RESOLUTION_NANOS) {
+                accessedAt = now;
+            }
+        }
+
+        private MessageSnapshot get(int i) {
+            return slots[(head + i) % slots.length];
+        }
+
+        private void set(int i, MessageSnapshot message) {
+            slots[(head + i) % slots.length] = message;
+        }
+
+        void add(MessageSnapshot message) {
+            // Find the insert position from the tail; appends are almost always in id order
+            int pos = size;
+            while (pos > 0 && get(pos - 1).id() >= message.id()) {
+                if (get(pos - 1).id().equals(message.id())) {
+                    return;
+                }
+                pos--;
+            }
+            if (size == slots.length) {
+                if (pos == 0) {
+                    // Older than everything in a full ring
+                    truncated = true;
+                    complete = false;
+                    return;
+                }
+                bytes -= get(0).estimatedBytes();
+                set(0, null);
+                head = (head + 1) % slots.length;
+                size--;
+                pos--;
+                truncated = true;
+                complete = false;
+            }
+            for (int i = size; i > pos; i--) {
+                set(i, get(i - 1));
+            }
+            set(pos, message);
+            size++;
+            bytes += message.estimatedBytes();
+        }
+
+        // Index of the first entry with id >= the given id
+        private int lowerBound(long id) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (get(mid).id() < id) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        ChatService.MessageHistory read(Long beforeId, Long afterId, int size) {
+            if (afterId != null) {
+                // Everything newer than afterId is here only if afterId is inside the window
+                if (!complete && (this.size == 0 || afterId < get(0).id())) {
+                    return null;
+                }
+                int from = lowerBound(afterId + 1);
+                int to = Math.min(this.size, from + size);
+                return new ChatService.MessageHistory(copy(from, to), true, to < this.size);
+            }
+
+            int available = beforeId != null ? lowerBound(beforeId) : this.size;
+            if (available < size && !complete) {
+                return null;
+            }
+            if (beforeId != null && !complete && beforeId <= get(0).id()) {
+                return null;
+            }
+            int from = Math.max(0, available - size);
+            boolean hasOlder = from > 0 || !complete;
+            return new ChatService.MessageHistory(copy(from, available), hasOlder, beforeId != null);
+        }
+
+        private List<MessageSnapshot> copy(int from, int to) {
+            List<MessageSnapshot> result = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                result.add(get(i));
+            }
+            return result;
+        }
+    }
+}
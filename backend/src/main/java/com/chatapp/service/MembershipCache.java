@@ -0,0 +1,175 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.util.LongHashSet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Room id -> member user ids, used for permission checks on the message hot path so
+// that sending does not load the room's participants. Sets are copy-on-write: readers
+// never see a set that is being modified. Reads take no lock; each entry keeps a coarse
+// last-access time, and once the map grows past max-rooms one pass drops the least
+// recently used tenth. Changes made on another node drop the room's entry here, and it is
+// reloaded on the next check.
+@Service
+public class MembershipCache {
+
+    // Hits within this long of the last recorded access don't write it again, so a busy
+    // room's entry isn't written by every sender
+    private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final class Entry {
+        volatile LongHashSet members;
+        volatile long accessedAt;
+
+        Entry(LongHashSet members) {
+            this.members = members;
+            this.accessedAt = System.nanoTime();
+        }
+    }
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.membership-cache.max-rooms:10000}")
+    private int maxRooms;
+
+    private final ConcurrentHashMap<Long, Entry> rooms = new ConcurrentHashMap<>();
+
+    // Bumped before every membership change so a load that raced with a change is not cached
+    private final AtomicLong modifications = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private Counter hitCounter;
+    private Counter missCounter;
+    private Counter evictionCounter;
+
+    @PostConstruct
+    public void init() {
+        hitCounter = Counter.builder("chat.membership.cache.hits").register(meterRegistry);
+        missCounter = Counter.builder("chat.membership.cache.misses").register(meterRegistry);
+        evictionCounter = Counter.builder("chat.membership.cache.evictions").register(meterRegistry);
+        Gauge.builder("chat.membership.cache.rooms", this, MembershipCache::size).register(meterRegistry);
+    }
+
+    public boolean isMember(Long chatRoomId, Long userId) {
+        if (chatRoomId == null || userId == null) {
+            return false;
+        }
+        return getMembers(chatRoomId).contains(userId);
+    }
+
+    // Returns the cached member set, loading member ids (not entities) on a miss
+    public LongHashSet getMembers(Long chatRoomId) {
+        Entry entry = rooms.get(chatRoomId);
+        if (entry != null) {
+            long now = System.nanoTime();
+            if (now - entry.accessedAt > ACCESS_RESOLUTION_NANOS) {
+                entry.accessedAt = now;
+            }
+            hitCounter.increment();
+            return entry.members;
+        }
+        missCounter.increment();
+
+        long version = modifications.get();
+        Collection<Long> ids = chatRoomRepository.findParticipantIds(chatRoomId);
+        LongHashSet loaded = new LongHashSet(ids.size());
+        for (Long id : ids) {
+            loaded.add(id);
+        }
+
+        Entry cached = rooms.compute(chatRoomId, (id, current) -> {
+            if (current != null) {
+                return current;
+            }
+            return modifications.get() == version ? new Entry(loaded) : null;
+        });
+        if (cached != null && rooms.size() > maxRooms) {
+            evict();
+        }
+        return cached != null ? cached.members : loaded;
+    }
+
+    public void addMember(Long chatRoomId, Long userId) {
+        addMembers(chatRoomId, List.of(userId));
+    }
+
+    public void addMembers(Long chatRoomId, Collection<Long> userIds) {
+        modifications.incrementAndGet();
+        rooms.computeIfPresent(chatRoomId, (id, entry) -> {
+            LongHashSet updated = new LongHashSet(entry.members);
+            for (Long userId : userIds) {
+                updated.add(userId);
+            }
+            entry.members = updated;
+            return entry;
+        });
+    }
+
+    public void removeMember(Long chatRoomId, Long userId) {
+        removeMembers(chatRoomId, List.of(userId));
+    }
+
+    public void removeMembers(Long chatRoomId, Collection<Long> userIds) {
+        modifications.incrementAndGet();
+        rooms.computeIfPresent(chatRoomId, (id, entry) -> {
+            LongHashSet updated = new LongHashSet(entry.members);
+            for (Long userId : userIds) {
+                updated.remove(userId);
+            }
+            entry.members = updated;
+            return entry;
+        });
+    }
+
+    public void invalidate(Long chatRoomId) {
+        modifications.incrementAndGet();
+        rooms.remove(chatRoomId);
+    }
+
+    @EventListener
+    public void onMembershipChanged(ClusterService.MembershipChanged event) {
+        invalidate(event.chatRoomId());
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+
+    // Drops the least recently used tenth; one evicting thread at a time, others go on
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (rooms.size() <= maxRooms) {
+                return;
+            }
+            long[] accessTimes = rooms.values().stream().mapToLong(entry -> entry.accessedAt).sorted().toArray();
+            long cutoff = accessTimes[Math.max(0, accessTimes.length / 10 - 1)];
+            int before = rooms.size();
+            rooms.values().removeIf(entry -> entry.accessedAt <= cutoff);
+            evictionCounter.increment(Math.max(0, before - rooms.size()));
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.store.MessageStore;
+import com.chatapp.util.LongHashSet;
+import com.chatapp.util.LongLongHashMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-process inverted index over message content: term -> sorted message ids, plus
+// message id -> room id for scoping. Persisted messages are queued after commit and
+// indexed in batches by a single indexer thread, so neither sending nor persistence
+// waits on it. On startup the indexer first backfills from the message store. In cluster
+// mode every node keeps a full index: messages persisted here are also relayed to the
+// other nodes' indexers.
+@Service
+public class MessageSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageSearchIndex.class);
+
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int BACKFILL_PAGE = 1000;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.search.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${chat.search.batch-size:500}")
+    private int batchSize;
+
+    @Value("${chat.search.max-scan:100000}")
+    private int maxScan;
+
+    // A term and where it occurs in the text
+    public record Token(String term, int start, int end) {
+    }
+
+    // Matching message ids, newest first. resumeBelow is set when the scan budget ran out
+    // before the page filled: the next page should continue below that id instead of
+    // below the last match.
+    public record Matches(List<Long> messageIds, boolean hasMore, Long resumeBelow) {
+    }
+
+    private record Document(long id, long chatRoomId, String content) {
+    }
+
+    // Ascending message ids for one term
+    private static class Postings {
+        long[] ids = new long[4];
+        int size;
+
+        void add(long id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+            }
+            if (size == 0 || ids[size - 1] < id) {
+                ids[size++] = id;
+                return;
+            }
+            // Out-of-order id (e.g. from another sequence block); keep the list sorted
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        boolean contains(long id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        // Index of the last id below the given one, or -1
+        int lastIndexBelow(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            return (index >= 0 ? index : -index - 1) - 1;
+        }
+    }
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final LongLongHashMap rooms = new LongLongHashMap();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private BlockingQueue<List<Document>> queue;
+    private Thread indexer;
+    private volatile boolean running;
+
+    private Timer batchTimer;
+    private Timer queryTimer;
+    private Counter indexedCounter;
+    private Counter droppedCounter;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        batchTimer = Timer.builder("chat.search.index.batch").register(meterRegistry);
+        queryTimer = Timer.builder("chat.search.query").register(meterRegistry);
+        indexedCounter = Counter.builder("chat.search.indexed").register(meterRegistry);
+        droppedCounter = Counter.builder("chat.search.dropped").register(meterRegistry);
+        Gauge.builder("chat.search.index.terms", this, MessageSearchIndex::getTermCount).register(meterRegistry);
+        Gauge.builder("chat.search.index.documents", this, MessageSearchIndex::getDocumentCount).register(meterRegistry);
+        Gauge.builder("chat.search.queue.depth", queue, BlockingQueue::size).register(meterRegistry);
+
+        running = true;
+        indexer = new Thread(this::indexLoop, "message-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        indexer.interrupt();
+        indexer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    // Queue persisted messages for indexing once their transaction commits. Never blocks;
+    // if the indexer is this far behind the batch is dropped and counted.
+    public void enqueue(List<MessageSnapshot> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<Document> documents = new ArrayList<>(messages.size());
+        List<ClusterService.SearchDocument> relayed = new ArrayList<>(messages.size());
+        for (MessageSnapshot message : messages) {
+            documents.add(new Document(message.id(), message.chatRoomId(), message.content()));
+            relayed.add(new ClusterService.SearchDocument(message.id(), message.chatRoomId(), message.content()));
+        }
+        Runnable offer = () -> {
+            offer(documents);
+            clusterService.relayMessagesIndexed(relayed);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    offer.run();
+                }
+            });
+        } else {
+            offer.run();
+        }
+    }
+
+    // Messages persisted on another node
+    @EventListener
+    public void onMessagesIndexed(ClusterService.MessagesIndexed event) {
+        List<Document> documents = new ArrayList<>(event.documents().size());
+        for (ClusterService.SearchDocument document : event.documents()) {
+            documents.add(new Document(document.id(), document.chatRoomId(), document.content()));
+        }
+        offer(documents);
+    }
+
+    // Messages containing every query term, in the given rooms, newest first, strictly
+    // below beforeId when set
+    public Matches search(List<String> terms, LongHashSet chatRoomIds, Long beforeId, int size) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            Postings[] lists = new Postings[terms.size()];
+            for (int i = 0; i < terms.size(); i++) {
+                lists[i] = postings.get(terms.get(i));
+                if (lists[i] == null) {
+                    return new Matches(List.of(), false, null);
+                }
+            }
+            // Drive the intersection from the rarest term
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+            Postings driver = lists[0];
+
+            // One extra match tells whether there is another page
+            List<Long> ids = new ArrayList<>(size + 1);
+            int index = beforeId != null ? driver.lastIndexBelow(beforeId) : driver.size - 1;
+            int scanned = 0;
+            for (; index >= 0 && ids.size() <= size; index--) {
+                long id = driver.ids[index];
+                if (++scanned > maxScan) {
+                    // Let the client continue from here rather than scanning the whole index
+                    return new Matches(ids, true, id + 1);
+                }
+                if (chatRoomIds.contains(rooms.get(id, 0)) && containsAll(lists, id)) {
+                    ids.add(id);
+                }
+            }
+            boolean hasMore = ids.size() > size;
+            return new Matches(hasMore ? ids.subList(0, size) : ids, hasMore, null);
+        } finally {
+            lock.readLock().unlock();
+            queryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Lower-cased runs of letters and digits, with their offsets in the original text
+    public static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int codePoint = text.codePointAt(i);
+            if (!Character.isLetterOrDigit(codePoint)) {
+                i += Character.charCount(codePoint);
+                continue;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(codePoint = text.codePointAt(i))) {
+                i += Character.charCount(codePoint);
+            }
+            if (i - start <= MAX_TERM_LENGTH) {
+                tokens.add(new Token(text.substring(start, i).toLowerCase(Locale.ROOT), start, i));
+            }
+        }
+        return tokens;
+    }
+
+    // Distinct query terms in order
+    public static List<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (Token token : tokenize(query)) {
+            terms.add(token.term());
+        }
+        return new ArrayList<>(terms);
+    }
+
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return rooms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean containsAll(Postings[] lists, long id) {
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void offer(List<Document> documents) {
+        if (!queue.offer(documents)) {
+            droppedCounter.increment(documents.size());
+            log.warn("Search index queue is full, {} messages will not be searchable", documents.size());
+        }
+    }
+
+    private void indexLoop() {
+        try {
+            backfill();
+        } catch (Exception e) {
+            log.error("Failed to backfill the search index", e);
+        }
+
+        List<Document> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                List<Document> first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.addAll(first);
+                List<Document> next;
+                while (batch.size() < batchSize && (next = queue.poll()) != null) {
+                    batch.addAll(next);
+                }
+                index(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Failed to index {} messages", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Index what is already stored, a page at a time by id
+    private void backfill() {
+        long start = System.nanoTime();
+        long afterId = 0;
+        int total = 0;
+        while (running) {
+            List<Document> page = new ArrayList<>(BACKFILL_PAGE);
+            for (MessageSnapshot message : messageStore.scan(afterId, BACKFILL_PAGE)) {
+                page.add(new Document(message.id(), message.chatRoomId(), message.content()));
+            }
+            if (page.isEmpty()) {
+                break;
+            }
+            index(page);
+            total += page.size();
+            afterId = page.get(page.size() - 1).id();
+        }
+        log.info("Backfilled search index with {} messages in {} ms", total,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void index(List<Document> documents) {
+        // Tokenize outside the lock; only the postings update holds it
+        List<List<Token>> tokens = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            tokens.add(tokenize(document.content()));
+        }
+
+        long start = System.nanoTime();
+        int indexed = 0;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                // Messages can reach both the backfill and the queue
+                if (rooms.containsKey(document.id())) {
+                    continue;
+                }
+                rooms.put(document.id(), document.chatRoomId());
+                for (Token token : tokens.get(i)) {
+                    postings.computeIfAbsent(token.term(), term -> new Postings()).add(document.id());
+                }
+                indexed++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        indexedCounter.increment(indexed);
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
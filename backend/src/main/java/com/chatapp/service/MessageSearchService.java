@@ -0,0 +1,101 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.MessageSearchHit;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.store.MessageStore;
+import com.chatapp.util.LongHashSet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Message search over MessageSearchIndex, limited to rooms the user is in
+@Service
+public class MessageSearchService {
+
+    private static final int MAX_PAGE_SIZE = 50;
+    private static final int MAX_TERMS = 8;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private MembershipCache membershipCache;
+
+    // nextBeforeId is where the next page starts (exclusive), or null on the last page
+    public record SearchPage(List<MessageSearchHit> hits, boolean hasMore, Long nextBeforeId) {
+    }
+
+    // Messages containing every term of the query, newest first; chatRoomId narrows the
+    // search to one room
+    @Transactional(readOnly = true)
+    public SearchPage search(Long userId, String query, Long chatRoomId, Long beforeId, int size) {
+        List<String> terms = MessageSearchIndex.queryTerms(query);
+        if (terms.isEmpty()) {
+            throw new RuntimeException("Search query must not be empty");
+        }
+        if (terms.size() > MAX_TERMS) {
+            throw new RuntimeException("Search query has too many terms");
+        }
+
+        LongHashSet rooms = new LongHashSet();
+        if (chatRoomId != null) {
+            if (!membershipCache.isMember(chatRoomId, userId)) {
+                throw new RuntimeException("User is not a participant in this chat");
+            }
+            rooms.add(chatRoomId);
+        } else {
+            chatRoomRepository.findRoomIdsByParticipantId(userId).forEach(rooms::add);
+        }
+
+        size = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        MessageSearchIndex.Matches matches = messageSearchIndex.search(terms, rooms, beforeId, size);
+
+        // The index only holds ids; load the page's messages in one lookup
+        Map<Long, MessageSnapshot> messages = new HashMap<>();
+        if (!matches.messageIds().isEmpty()) {
+            for (MessageSnapshot message : messageStore.findByIds(matches.messageIds())) {
+                messages.put(message.id(), message);
+            }
+        }
+        Set<String> termSet = new HashSet<>(terms);
+        List<MessageSearchHit> hits = new ArrayList<>(matches.messageIds().size());
+        for (Long id : matches.messageIds()) {
+            MessageSnapshot message = messages.get(id);
+            if (message != null) {
+                hits.add(toHit(message, termSet));
+            }
+        }
+
+        Long nextBeforeId = null;
+        if (matches.resumeBelow() != null) {
+            nextBeforeId = matches.resumeBelow();
+        } else if (matches.hasMore()) {
+            nextBeforeId = matches.messageIds().get(matches.messageIds().size() - 1);
+        }
+        return new SearchPage(hits, matches.hasMore(), nextBeforeId);
+    }
+
+    private static MessageSearchHit toHit(MessageSnapshot message, Set<String> terms) {
+        List<MessageSearchHit.Highlight> highlights = new ArrayList<>();
+        for (MessageSearchIndex.Token token : MessageSearchIndex.tokenize(message.content())) {
+            if (terms.contains(token.term())) {
+                highlights.add(new MessageSearchHit.Highlight(token.start(), token.end()));
+            }
+        }
+        return new MessageSearchHit(message.id(), message.chatRoomId(), message.content(),
+            message.timestamp(), message.senderId(), message.senderUsername(), highlights);
+    }
+}
@@ -0,0 +1,45 @@
+package com.chatapp.service;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+
+import java.time.LocalDateTime;
+
+// Immutable, detached copy of a message and its sender as served by the history endpoints.
+// The sender's presence is not part of it: snapshots live on in the hot cache and the
+// message log, so responses take presence from PresenceService when they are built.
+public record MessageSnapshot(Long id,
+                              Long chatRoomId,
+                              String content,
+                              String messageType,
+                              LocalDateTime timestamp,
+                              Long senderId,
+                              String senderUsername,
+                              String senderName,
+                              String senderPhoneNumber) {
+
+    public static MessageSnapshot from(Message message) {
+        User sender = message.getSender();
+        return new MessageSnapshot(
+            message.getId(),
+            message.getChatRoom().getId(),
+            message.getContent(),
+            message.getMessageType(),
+            message.getTimestamp(),
+            sender.getId(),
+            sender.getUsername(),
+            sender.getName(),
+            sender.getPhoneNumber()
+        );
+    }
+
+    // Rough heap footprint, used for the hot-history memory budget
+    public long estimatedBytes() {
+        return 160L + 2L * (length(content) + length(messageType) + length(senderUsername)
+            + length(senderName) + length(senderPhoneNumber));
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+}
@@ -0,0 +1,276 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.repository.UserRepository;
+import com.chatapp.store.MessageStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Write-behind stage for real-time messages: the WebSocket handler broadcasts first and
+// then enqueues here; a single drainer thread persists the queue in batches. A batch that
+// fails is persisted again one message per transaction, so a message that can't be
+// stored doesn't take the rest of its batch with it.
+@Service
+public class MessageWriteBehindService {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageWriteBehindService.class);
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private MembershipCache membershipCache;
+
+    @Autowired
+    private HotMessageCache hotMessageCache;
+
+    @Autowired
+    private RoomSummaryService roomSummaryService;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.persistence.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${chat.persistence.batch-size:100}")
+    private int batchSize;
+
+    @Value("${chat.persistence.linger-ms:50}")
+    private long lingerMs;
+
+    @Value("${chat.persistence.offer-timeout-ms:100}")
+    private long offerTimeoutMs;
+
+    private BlockingQueue<QueuedMessage> queue;
+    private Thread drainer;
+    private volatile boolean running;
+
+    private Timer flushTimer;
+    private Counter persistedCounter;
+    private Counter rejectedCounter;
+    private Counter failedCounter;
+
+    // A message accepted from the WebSocket path; either chatRoomId or targetUser is set
+    public record QueuedMessage(String senderUsername, Long chatRoomId, String targetUser,
+                                String content, String messageType, long timestamp) {
+    }
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Gauge.builder("chat.persistence.queue.depth", queue, BlockingQueue::size).register(meterRegistry);
+        flushTimer = Timer.builder("chat.persistence.flush").register(meterRegistry);
+        persistedCounter = Counter.builder("chat.persistence.persisted").register(meterRegistry);
+        rejectedCounter = Counter.builder("chat.persistence.rejected").register(meterRegistry);
+        failedCounter = Counter.builder("chat.persistence.failed").register(meterRegistry);
+
+        running = true;
+        drainer = new Thread(this::drainLoop, "message-write-behind");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        drainer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    // Queue a message for persistence. Blocks the caller for up to offer-timeout-ms when
+    // the buffer is full and returns false if it is still full after that, or right away
+    // if the message could not be stored.
+    public boolean enqueue(QueuedMessage message) {
+        if (message.content() == null || message.content().length() > Message.MAX_CONTENT_LENGTH) {
+            rejectedCounter.increment();
+            log.warn("Dropping message from {} without content or longer than {} characters",
+                message.senderUsername(), Message.MAX_CONTENT_LENGTH);
+            return false;
+        }
+        try {
+            if (queue.offer(message, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejectedCounter.increment();
+        log.warn("Message persistence queue is full, dropping message from {}", message.senderUsername());
+        return false;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void drainLoop() {
+        List<QueuedMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                QueuedMessage first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Wait up to linger-ms for the batch to fill
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    QueuedMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<QueuedMessage> batch) {
+        long start = System.nanoTime();
+        try {
+            List<MessageSnapshot> saved;
+            try {
+                saved = transactionTemplate.execute(status -> persist(batch));
+            } catch (Exception e) {
+                // The log store keeps what it appended, so retrying could store messages twice
+                if (batch.size() == 1 || !messageStore.isTransactional()) {
+                    failedCounter.increment(batch.size());
+                    log.error("Failed to persist batch of {} messages", batch.size(), e);
+                    return;
+                }
+                log.warn("Failed to persist batch of {} messages, retrying one at a time", batch.size(), e);
+                saved = persistEach(batch);
+            }
+            persistedCounter.increment(saved.size());
+            // Only committed messages go into the hot history; other nodes drop theirs
+            saved.forEach(hotMessageCache::append);
+            clusterService.relayHistoryChanged(saved.stream().map(MessageSnapshot::chatRoomId).distinct().toList());
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private List<MessageSnapshot> persistEach(List<QueuedMessage> batch) {
+        List<MessageSnapshot> saved = new ArrayList<>(batch.size());
+        for (QueuedMessage queued : batch) {
+            try {
+                saved.addAll(transactionTemplate.execute(status -> persist(List.of(queued))));
+            } catch (Exception e) {
+                failedCounter.increment();
+                log.error("Failed to persist message from {}", queued.senderUsername(), e);
+            }
+        }
+        return saved;
+    }
+
+    private List<MessageSnapshot> persist(List<QueuedMessage> batch) {
+        // Resolve every sender and recipient in the batch with one query
+        Set<String> usernames = new HashSet<>();
+        for (QueuedMessage queued : batch) {
+            usernames.add(queued.senderUsername());
+            if (queued.chatRoomId() == null && queued.targetUser() != null) {
+                usernames.add(queued.targetUser());
+            }
+        }
+
+        Map<String, User> users = new HashMap<>();
+        for (User user : userRepository.findByUsernameIn(usernames)) {
+            users.put(user.getUsername(), user);
+        }
+        Map<String, Long> privateChats = new HashMap<>();
+
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (QueuedMessage queued : batch) {
+            User sender = users.get(queued.senderUsername());
+            if (sender == null) {
+                log.debug("Skipping message from unknown user {}", queued.senderUsername());
+                continue;
+            }
+
+            Long chatRoomId = queued.chatRoomId();
+            if (chatRoomId == null) {
+                User target = users.get(queued.targetUser());
+                if (target == null) {
+                    continue;
+                }
+                String key = Math.min(sender.getId(), target.getId()) + ":" + Math.max(sender.getId(), target.getId());
+                chatRoomId = privateChats.computeIfAbsent(key,
+                        k -> chatService.createOrGetPrivateChat(sender.getId(), target.getId()).getId());
+            }
+
+            if (!membershipCache.isMember(chatRoomId, sender.getId())) {
+                log.debug("Skipping message from {} to a room they are not part of", queued.senderUsername());
+                continue;
+            }
+
+            ChatRoom chatRoom = chatRoomRepository.getReferenceById(chatRoomId);
+            Message message = new Message(sender, chatRoom, queued.content(), queued.messageType());
+            message.setTimestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(queued.timestamp()), ZoneId.systemDefault()));
+            messages.add(message);
+        }
+
+        List<MessageSnapshot> saved = messageStore.saveAll(messages);
+        roomSummaryService.messagesPersisted(saved);
+        messageSearchIndex.enqueue(saved);
+        return saved;
+    }
+}
@@ -0,0 +1,449 @@
+package com.chatapp.service;
+
+import com.chatapp.broker.SlowConsumerGuard;
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.config.ChatPrincipal;
+import com.chatapp.dto.PresenceDelta;
+import com.chatapp.repository.UserRepository;
+import com.chatapp.util.LongHashSet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Source of truth for who is online. Driven by STOMP session connect/disconnect events:
+// a user is online while at least one of their sessions is open. Changes are coalesced
+// and published every batch interval as deltas to the online users that have the
+// changed user as a contact; the User.isOnline column is updated in the same batch.
+// In cluster mode each node also sends its local changes to the other nodes and merges
+// theirs: a user is online while they have a session on any node, and each node
+// notifies only the watchers connected to it.
+@Service
+public class PresenceService {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    private static final String PRESENCE_DESTINATION = "/user/queue/presence";
+
+    // Upper bound on ids in a single IN clause
+    private static final int QUERY_CHUNK = 1000;
+
+    private static final LocalDateTime NEVER_SEEN = LocalDateTime.MIN;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ContactGraph contactGraph;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.presence.batch-interval-ms:1000}")
+    private long batchIntervalMs;
+
+    @Value("${chat.presence.last-seen-max-users:100000}")
+    private int lastSeenMaxUsers;
+
+    // Open sessions per online user; a user is removed when the count drops to zero
+    private final Map<Long, OnlineUser> onlineUsers = new ConcurrentHashMap<>();
+    // Session id -> user id, so duplicate disconnect events are ignored
+    private final Map<String, Long> sessions = new ConcurrentHashMap<>();
+
+    // Users whose online state changed, and users that opened a session and need a
+    // snapshot, since the last batch; guarded by pendingLock
+    private final Object pendingLock = new Object();
+    private LongHashSet pendingChanges = new LongHashSet();
+    private LongHashSet pendingSnapshots = new LongHashSet();
+
+    // Users whose sessions on this node came or went since the last batch (id -> username),
+    // for the other nodes; guarded by pendingLock. Only these are written to the
+    // User.isOnline column by this node.
+    private Map<Long, String> pendingLocal = new HashMap<>();
+
+    // Users online on other nodes, by node id
+    private final Map<String, RemoteNode> remoteNodes = new ConcurrentHashMap<>();
+
+    // Last seen time by user, loaded from the User table on first use and then kept
+    // current from offline transitions here and on other nodes; NEVER_SEEN for a user
+    // that has never gone offline. Cleared when it outgrows last-seen-max-users.
+    private final Map<Long, LocalDateTime> lastSeen = new ConcurrentHashMap<>();
+
+    // Online set as last published; only touched by the batch thread
+    private final LongHashSet published = new LongHashSet();
+
+    private ScheduledExecutorService scheduler;
+
+    private Timer batchTimer;
+    private Counter deltaCounter;
+
+    // A user's presence as of now
+    public record Presence(boolean online, LocalDateTime lastSeen) {
+    }
+
+    private static class OnlineUser {
+        final String username;
+        int sessions;
+
+        OnlineUser(String username) {
+            this.username = username;
+        }
+    }
+
+    private static class RemoteNode {
+        final Map<Long, String> users = new ConcurrentHashMap<>();
+        final Set<String> usernames = ConcurrentHashMap.newKeySet();
+    }
+
+    @PostConstruct
+    public void start() {
+        batchTimer = Timer.builder("chat.presence.batch").register(meterRegistry);
+        deltaCounter = Counter.builder("chat.presence.deltas").register(meterRegistry);
+        Gauge.builder("chat.presence.online", onlineUsers, Map::size).register(meterRegistry);
+        Gauge.builder("chat.presence.sessions", sessions, Map::size).register(meterRegistry);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::publishSafely, batchIntervalMs, batchIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+    }
+
+    @EventListener
+    public void onSessionConnected(SessionConnectedEvent event) {
+        if (!(event.getUser() instanceof ChatPrincipal principal)) {
+            return;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (sessionId == null || sessions.putIfAbsent(sessionId, principal.userId()) != null) {
+            return;
+        }
+        boolean[] cameOnline = new boolean[1];
+        onlineUsers.compute(principal.userId(), (id, user) -> {
+            if (user == null) {
+                user = new OnlineUser(principal.username());
+                cameOnline[0] = true;
+            }
+            user.sessions++;
+            return user;
+        });
+        synchronized (pendingLock) {
+            if (cameOnline[0]) {
+                pendingChanges.add(principal.userId());
+                pendingLocal.put(principal.userId(), principal.username());
+            }
+            pendingSnapshots.add(principal.userId());
+        }
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        Long userId = sessions.remove(event.getSessionId());
+        if (userId == null) {
+            return;
+        }
+        String[] wentOffline = new String[1];
+        onlineUsers.computeIfPresent(userId, (id, user) -> {
+            if (--user.sessions > 0) {
+                return user;
+            }
+            wentOffline[0] = user.username;
+            return null;
+        });
+        if (wentOffline[0] != null) {
+            lastSeen.put(userId, LocalDateTime.now());
+            synchronized (pendingLock) {
+                pendingChanges.add(userId);
+                pendingLocal.put(userId, wentOffline[0]);
+            }
+        }
+    }
+
+    // A slow client lost a presence frame; send it a fresh snapshot in the next batch
+    @EventListener
+    public void onFrameDiscarded(SlowConsumerGuard.FrameDiscardedEvent event) {
+        if (PRESENCE_DESTINATION.equals(event.destination()) && event.user() instanceof ChatPrincipal principal) {
+            synchronized (pendingLock) {
+                pendingSnapshots.add(principal.userId());
+            }
+        }
+    }
+    
+    // Presence changes on another node
+    @EventListener
+    public void onPresenceReceived(ClusterService.PresenceReceived event) {
+        RemoteNode node = remoteNodes.computeIfAbsent(event.origin(), id -> new RemoteNode());
+        ClusterService.PresenceUpdate update = event.update();
+        LongHashSet changed = new LongHashSet();
+        if (update.full()) {
+            node.users.keySet().forEach(changed::add);
+            node.users.clear();
+            node.usernames.clear();
+        }
+        for (ClusterService.PresenceEntry entry : update.online()) {
+            node.users.put(entry.userId(), entry.username());
+            node.usernames.add(entry.username());
+            changed.add(entry.userId());
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (ClusterService.PresenceEntry entry : update.offline()) {
+            lastSeen.put(entry.userId(), now);
+            node.users.remove(entry.userId());
+            node.usernames.remove(entry.username());
+            changed.add(entry.userId());
+        }
+        synchronized (pendingLock) {
+            for (long id : changed.toArray()) {
+                pendingChanges.add(id);
+            }
+        }
+    }
+
+    // Users of a node that left are offline there; a node that joined gets our users
+    @EventListener
+    public void onNodesChanged(ClusterService.NodesChanged event) {
+        for (String nodeId : event.left()) {
+            RemoteNode node = remoteNodes.remove(nodeId);
+            if (node != null) {
+                LocalDateTime now = LocalDateTime.now();
+                node.users.keySet().forEach(id -> lastSeen.put(id, now));
+                synchronized (pendingLock) {
+                    node.users.keySet().forEach(pendingChanges::add);
+                }
+            }
+        }
+        if (!event.joined().isEmpty()) {
+            List<ClusterService.PresenceEntry> online = new ArrayList<>(onlineUsers.size());
+            onlineUsers.forEach((id, user) -> online.add(new ClusterService.PresenceEntry(id, user.username)));
+            ClusterService.PresenceUpdate snapshot = new ClusterService.PresenceUpdate(online, List.of(), true);
+            event.joined().forEach(nodeId -> clusterService.sendPresence(nodeId, snapshot));
+        }
+    }
+
+    public boolean isOnline(Long userId) {
+        if (onlineUsers.containsKey(userId)) {
+            return true;
+        }
+        for (RemoteNode node : remoteNodes.values()) {
+            if (node.users.containsKey(userId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Current presence of the given users, for responses built from cached data
+    public Map<Long, Presence> getPresence(Collection<Long> userIds) {
+        List<Long> missing = new ArrayList<>();
+        for (Long id : userIds) {
+            if (!lastSeen.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            if (lastSeen.size() + missing.size() > lastSeenMaxUsers) {
+                lastSeen.clear();
+            }
+            // A transition seen meanwhile is newer than what the table had
+            forEachChunk(missing, ids -> {
+                for (Object[] row : userRepository.findLastSeen(ids)) {
+                    lastSeen.putIfAbsent((Long) row[0], row[1] != null ? (LocalDateTime) row[1] : NEVER_SEEN);
+                }
+            });
+        }
+
+        Map<Long, Presence> presence = new HashMap<>(userIds.size() * 2);
+        for (Long id : userIds) {
+            LocalDateTime seen = lastSeen.get(id);
+            presence.put(id, new Presence(isOnline(id), seen != null && seen != NEVER_SEEN ? seen : null));
+        }
+        return presence;
+    }
+
+    public int getOnlineCount() {
+        if (remoteNodes.isEmpty()) {
+            return onlineUsers.size();
+        }
+        LongHashSet online = new LongHashSet(onlineUsers.size());
+        onlineUsers.keySet().forEach(online::add);
+        remoteNodes.values().forEach(node -> node.users.keySet().forEach(online::add));
+        return online.size();
+    }
+
+    public List<String> getOnlineUsernames() {
+        Set<String> usernames = new LinkedHashSet<>(onlineUsers.size());
+        onlineUsers.values().forEach(user -> usernames.add(user.username));
+        remoteNodes.values().forEach(node -> usernames.addAll(node.usernames));
+        return new ArrayList<>(usernames);
+    }
+
+    // Other nodes where the user has at least one session
+    public List<String> getRemoteNodes(String username) {
+        List<String> nodes = new ArrayList<>(1);
+        remoteNodes.forEach((nodeId, node) -> {
+            if (node.usernames.contains(username)) {
+                nodes.add(nodeId);
+            }
+        });
+        return nodes;
+    }
+
+    private void publishSafely() {
+        try {
+            publish();
+        } catch (Exception e) {
+            log.error("Failed to publish presence batch", e);
+        }
+    }
+
+    // Runs on the batch thread only
+    void publish() {
+        LongHashSet changes;
+        LongHashSet snapshots;
+        Map<Long, String> local;
+        synchronized (pendingLock) {
+            if (pendingChanges.isEmpty() && pendingSnapshots.isEmpty()) {
+                return;
+            }
+            changes = pendingChanges;
+            snapshots = pendingSnapshots;
+            local = pendingLocal;
+            pendingChanges = new LongHashSet();
+            pendingSnapshots = new LongHashSet();
+            pendingLocal = new HashMap<>();
+        }
+
+        batchTimer.record(() -> {
+            if (!local.isEmpty()) {
+                List<ClusterService.PresenceEntry> cameOnline = new ArrayList<>();
+                List<ClusterService.PresenceEntry> wentOffline = new ArrayList<>();
+                local.forEach((id, username) -> (onlineUsers.containsKey(id) ? cameOnline : wentOffline)
+                    .add(new ClusterService.PresenceEntry(id, username)));
+                clusterService.sendPresence(null, new ClusterService.PresenceUpdate(cameOnline, wentOffline, false));
+            }
+
+            // A user that connected and disconnected within one batch nets out to no change
+            List<Long> joined = new ArrayList<>();
+            List<Long> left = new ArrayList<>();
+            for (long id : changes.toArray()) {
+                if (isOnline(id)) {
+                    if (published.add(id)) {
+                        joined.add(id);
+                    }
+                } else if (published.remove(id)) {
+                    left.add(id);
+                }
+            }
+
+            Map<Long, List<Long>> joinedByWatcher = new HashMap<>();
+            Map<Long, List<Long>> leftByWatcher = new HashMap<>();
+            Map<Long, List<Long>> snapshotByUser = new HashMap<>();
+
+            transactionTemplate.executeWithoutResult(status -> {
+                LocalDateTime now = LocalDateTime.now();
+                forEachChunk(joined.stream().filter(local::containsKey).toList(), userRepository::markOnline);
+                forEachChunk(left.stream().filter(local::containsKey).toList(), ids -> userRepository.markOffline(ids, now));
+
+                List<Long> changed = new ArrayList<>(joined.size() + left.size());
+                changed.addAll(joined);
+                changed.addAll(left);
+                forEachChunk(changed, ids -> {
+                    for (Object[] pair : userRepository.findContactOwnerPairs(ids)) {
+                        Long watcher = (Long) pair[0];
+                        Long contact = (Long) pair[1];
+                        // Watchers getting a snapshot in this batch don't need the delta
+                        if (!onlineUsers.containsKey(watcher) || snapshots.contains(watcher)) {
+                            continue;
+                        }
+                        Map<Long, List<Long>> target = published.contains(contact) ? joinedByWatcher : leftByWatcher;
+                        target.computeIfAbsent(watcher, id -> new ArrayList<>()).add(contact);
+                    }
+                });
+
+            });
+
+            List<Long> snapshotUsers = new ArrayList<>(snapshots.size());
+            for (long id : snapshots.toArray()) {
+                if (onlineUsers.containsKey(id)) {
+                    snapshotUsers.add(id);
+                }
+            }
+            contactGraph.getContacts(snapshotUsers).forEach((userId, contacts) -> {
+                List<Long> online = new ArrayList<>();
+                for (long contact : contacts) {
+                    if (published.contains(contact)) {
+                        online.add(contact);
+                    }
+                }
+                snapshotByUser.put(userId, online);
+            });
+
+            snapshotByUser.forEach((userId, online) -> send(userId, new PresenceDelta(online, List.of(), true)));
+            LongHashSet watchers = new LongHashSet();
+            joinedByWatcher.keySet().forEach(watchers::add);
+            leftByWatcher.keySet().forEach(watchers::add);
+            for (long watcher : watchers.toArray()) {
+                send(watcher, new PresenceDelta(
+                    joinedByWatcher.getOrDefault(watcher, List.of()),
+                    leftByWatcher.getOrDefault(watcher, List.of()),
+                    false));
+            }
+        });
+    }
+
+    private void send(Long userId, PresenceDelta delta) {
+        OnlineUser user = onlineUsers.get(userId);
+        if (user != null) {
+            messagingTemplate.convertAndSendToUser(user.username, "/queue/presence", delta);
+            deltaCounter.increment();
+        }
+    }
+
+    private static void forEachChunk(List<Long> ids, Consumer<List<Long>> action) {
+        for (int from = 0; from < ids.size(); from += QUERY_CHUNK) {
+            action.accept(ids.subList(from, Math.min(ids.size(), from + QUERY_CHUNK)));
+        }
+    }
+}
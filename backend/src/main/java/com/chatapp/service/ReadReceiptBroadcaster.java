@@ -0,0 +1,101 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.ReadReceiptEvent;
+import com.chatapp.util.LongLongHashMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Debounces read receipts: reads are collected per room and each room with new reads
+// gets one RECEIPT frame per interval, carrying only each member's latest position.
+@Service
+public class ReadReceiptBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadReceiptBroadcaster.class);
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.read-state.receipt-debounce-ms:500}")
+    private long debounceMs;
+
+    // Room id -> user id -> last read message id, since the last flush; guarded by pendingLock
+    private Map<Long, LongLongHashMap> pending = new HashMap<>();
+    private final Object pendingLock = new Object();
+
+    private ScheduledExecutorService scheduler;
+    private Counter receiptCounter;
+    private Counter frameCounter;
+
+    @PostConstruct
+    public void start() {
+        receiptCounter = Counter.builder("chat.read-state.receipts").register(meterRegistry);
+        frameCounter = Counter.builder("chat.read-state.receipt.frames").register(meterRegistry);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "read-receipts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushSafely, debounceMs, debounceMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+    }
+
+    public void read(long chatRoomId, long userId, long lastReadMessageId) {
+        receiptCounter.increment();
+        synchronized (pendingLock) {
+            pending.computeIfAbsent(chatRoomId, id -> new LongLongHashMap()).put(userId, lastReadMessageId);
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to publish read receipts", e);
+        }
+    }
+
+    private void flush() {
+        Map<Long, LongLongHashMap> batch;
+        synchronized (pendingLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+        }
+
+        long timestamp = System.currentTimeMillis();
+        batch.forEach((chatRoomId, reads) -> {
+            List<ReadReceiptEvent.Receipt> receipts = new ArrayList<>(reads.size());
+            reads.forEach((userId, messageId) -> receipts.add(new ReadReceiptEvent.Receipt(userId, messageId)));
+            // Private chats have no room topic; the broker drops frames nobody subscribed to
+            messagingTemplate.convertAndSend("/topic/group/" + chatRoomId,
+                new ReadReceiptEvent("RECEIPT", timestamp, chatRoomId, receipts));
+            frameCounter.increment();
+        });
+    }
+}
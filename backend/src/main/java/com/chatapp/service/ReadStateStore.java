@@ -0,0 +1,415 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.model.ReadMarker;
+import com.chatapp.model.RoomSummary;
+import com.chatapp.repository.ReadMarkerRepository;
+import com.chatapp.repository.RoomSummaryRepository;
+import com.chatapp.util.LongHashSet;
+import com.chatapp.util.LongLongHashMap;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Read state held in memory: each room's message count and last message id, and per
+// member how many of those messages they have read. Unread is the difference, so a
+// send only bumps the room's count. Rooms are spread over lock stripes by id. Changed
+// markers are written to read_markers in coalesced batches every checkpoint interval,
+// and the store is reloaded from read_markers and chat_room_summaries on startup.
+//
+// In cluster mode every node keeps the whole store. Counts and markers moved on another
+// node arrive as absolute values and are applied only where they move forward; each
+// node checkpoints the markers moved on it, and a checkpoint never moves a marker back.
+@Service
+public class ReadStateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadStateStore.class);
+
+    private static final int STRIPES = 64;
+
+    @Autowired
+    private RoomSummaryRepository roomSummaryRepository;
+
+    @Autowired
+    private ReadMarkerRepository readMarkerRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.read-state.checkpoint-interval-ms:2000}")
+    private long checkpointIntervalMs;
+
+    @Value("${chat.read-state.checkpoint-batch-size:500}")
+    private int checkpointBatchSize;
+
+    // A member's position: how many of the room's messages they have read, and the id of
+    // the last of those (0 if none)
+    public record ReadPosition(long readCount, long lastReadMessageId) {
+    }
+
+    private static class RoomState {
+        long messageCount;
+        long lastMessageId;
+        final LongLongHashMap readCounts = new LongLongHashMap();
+        final LongLongHashMap lastReadIds = new LongLongHashMap();
+        // Members whose marker changed since the last checkpoint
+        final LongHashSet dirty = new LongHashSet();
+    }
+
+    private static class Stripe {
+        final Map<Long, RoomState> rooms = new HashMap<>();
+        final LongHashSet dirtyRooms = new LongHashSet();
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private ScheduledExecutorService scheduler;
+    private Timer checkpointTimer;
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        recover();
+
+        checkpointTimer = Timer.builder("chat.read-state.checkpoint").register(meterRegistry);
+        Gauge.builder("chat.read-state.rooms", this, ReadStateStore::getRoomCount).register(meterRegistry);
+        Gauge.builder("chat.read-state.dirty", this, ReadStateStore::getDirtyCount).register(meterRegistry);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "read-state-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkpointSafely, checkpointIntervalMs, checkpointIntervalMs,
+            TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+        checkpointSafely();
+    }
+
+    // Called once the room is committed; a lookup may have loaded it from the tables first
+    public void roomCreated(long chatRoomId, Collection<Long> memberIds) {
+        Stripe stripe = stripeFor(chatRoomId);
+        synchronized (stripe) {
+            RoomState state = stripe.rooms.computeIfAbsent(chatRoomId, id -> new RoomState());
+            for (Long memberId : memberIds) {
+                if (!state.readCounts.containsKey(memberId)) {
+                    state.readCounts.put(memberId, 0);
+                }
+            }
+        }
+    }
+
+    // The room's message count and last message id: where a member who has read
+    // everything stands
+    public ReadPosition latest(long chatRoomId) {
+        Stripe stripe = loadedStripe(chatRoomId);
+        synchronized (stripe) {
+            RoomState state = stripe.rooms.get(chatRoomId);
+            return new ReadPosition(state.messageCount, state.lastMessageId);
+        }
+    }
+
+    // Called once the change is committed; new members start at the position their
+    // marker was inserted with
+    public void membersChanged(long chatRoomId, Collection<Long> added, Collection<Long> removed,
+                               ReadPosition position) {
+        Stripe stripe = loadedStripe(chatRoomId);
+        synchronized (stripe) {
+            RoomState state = stripe.rooms.get(chatRoomId);
+            for (Long userId : added) {
+                state.readCounts.put(userId, position.readCount());
+                state.lastReadIds.put(userId, position.lastReadMessageId());
+            }
+            for (Long userId : removed) {
+                state.readCounts.remove(userId);
+                state.lastReadIds.remove(userId);
+                state.dirty.remove(userId);
+            }
+        }
+    }
+
+    // Count newly persisted messages; returns the room's message count before them
+    public long recordMessages(long chatRoomId, int count, long lastMessageId) {
+        Stripe stripe = loadedStripe(chatRoomId);
+        synchronized (stripe) {
+            RoomState state = stripe.rooms.get(chatRoomId);
+            long before = state.messageCount;
+            state.messageCount += count;
+            state.lastMessageId = lastMessageId;
+            return before;
+        }
+    }
+
+    // Markers only move forward; returns false if the member was already at or past it
+    public boolean advance(long userId, long chatRoomId, long readCount, long messageId) {
+        Stripe stripe = loadedStripe(chatRoomId);
+        synchronized (stripe) {
+            RoomState state = stripe.rooms.get(chatRoomId);
+            if (!move(state, userId, readCount, messageId)) {
+                return false;
+            }
+            state.dirty.add(userId);
+            stripe.dirtyRooms.add(chatRoomId);
+            return true;
+        }
+    }
+
+    // Counts and markers moved on another node, which also checkpoints those markers
+    @EventListener
+    public void onReadStateChanged(ClusterService.ReadStateChanged event) {
+        for (ClusterService.RoomCount room : event.rooms()) {
+            Stripe stripe = loadedStripe(room.chatRoomId());
+            synchronized (stripe) {
+                RoomState state = stripe.rooms.get(room.chatRoomId());
+                if (room.messageCount() > state.messageCount) {
+                    state.messageCount = room.messageCount();
+                    state.lastMessageId = room.lastMessageId();
+                }
+            }
+        }
+        for (ClusterService.ReadPosition marker : event.markers()) {
+            Stripe stripe = loadedStripe(marker.chatRoomId());
+            synchronized (stripe) {
+                move(stripe.rooms.get(marker.chatRoomId()), marker.userId(), marker.readCount(),
+                    marker.lastReadMessageId());
+            }
+        }
+    }
+
+    // Members added or removed on another node; their markers are committed by then
+    @EventListener
+    public void onMembershipChanged(ClusterService.MembershipChanged event) {
+        long chatRoomId = event.chatRoomId();
+        Stripe stripe = stripeFor(chatRoomId);
+        synchronized (stripe) {
+            if (!stripe.rooms.containsKey(chatRoomId)) {
+                return;
+            }
+        }
+        List<ReadMarker> markers = readMarkerRepository.findByChatRoomId(chatRoomId);
+        synchronized (stripe) {
+            RoomState state = stripe.rooms.get(chatRoomId);
+            if (state == null) {
+                return;
+            }
+            LongHashSet members = new LongHashSet();
+            for (ReadMarker marker : markers) {
+                members.add(marker.getUserId());
+                if (!state.readCounts.containsKey(marker.getUserId())) {
+                    state.readCounts.put(marker.getUserId(), marker.getReadCount());
+                    state.lastReadIds.put(marker.getUserId(),
+                        marker.getLastReadMessageId() != null ? marker.getLastReadMessageId() : 0);
+                }
+            }
+            LongHashSet removed = new LongHashSet();
+            state.readCounts.forEach((userId, readCount) -> {
+                if (!members.contains(userId)) {
+                    removed.add(userId);
+                }
+            });
+            for (long userId : removed.toArray()) {
+                state.readCounts.remove(userId);
+                state.lastReadIds.remove(userId);
+                state.dirty.remove(userId);
+            }
+        }
+    }
+
+    // Move the member to the room's latest message; null if nothing changed
+    public ReadPosition markRead(long userId, long chatRoomId) {
+        Stripe stripe = loadedStripe(chatRoomId);
+        synchronized (stripe) {
+            RoomState state = stripe.rooms.get(chatRoomId);
+            ReadPosition position = new ReadPosition(state.messageCount, state.lastMessageId);
+            return advance(userId, chatRoomId, position.readCount(), position.lastReadMessageId()) ? position : null;
+        }
+    }
+
+    // Unread count, or fallback if the member is unknown here
+    public long unreadCount(long userId, long chatRoomId, long fallback) {
+        Stripe stripe = loadedStripe(chatRoomId);
+        synchronized (stripe) {
+            RoomState state = stripe.rooms.get(chatRoomId);
+            if (!state.readCounts.containsKey(userId)) {
+                return fallback;
+            }
+            return Math.max(0, state.messageCount - state.readCounts.get(userId, 0));
+        }
+    }
+
+    public int getRoomCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.rooms.size();
+            }
+        }
+        return count;
+    }
+
+    public int getDirtyCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (long chatRoomId : stripe.dirtyRooms.toArray()) {
+                    count += stripe.rooms.get(chatRoomId).dirty.size();
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean move(RoomState state, long userId, long readCount, long messageId) {
+        if (!state.readCounts.containsKey(userId) || state.readCounts.get(userId, 0) >= readCount) {
+            return false;
+        }
+        state.readCounts.put(userId, readCount);
+        state.lastReadIds.put(userId, messageId);
+        return true;
+    }
+
+    private void checkpointSafely() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            log.error("Failed to checkpoint read state", e);
+        }
+    }
+
+    // Write every marker changed since the last checkpoint, latest value only. A row
+    // another node already moved further is left alone.
+    void checkpoint() {
+        List<long[]> rows = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (long chatRoomId : stripe.dirtyRooms.toArray()) {
+                    RoomState state = stripe.rooms.get(chatRoomId);
+                    for (long userId : state.dirty.toArray()) {
+                        rows.add(new long[] {userId, chatRoomId,
+                            state.readCounts.get(userId, 0), state.lastReadIds.get(userId, 0)});
+                    }
+                    state.dirty.clear();
+                }
+                stripe.dirtyRooms.clear();
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            jdbcTemplate.batchUpdate(
+                "UPDATE read_markers SET read_count = ?, last_read_message_id = ? "
+                    + "WHERE user_id = ? AND chat_room_id = ? AND read_count < ?",
+                rows, checkpointBatchSize, (statement, row) -> {
+                    statement.setLong(1, row[2]);
+                    if (row[3] != 0) {
+                        statement.setLong(2, row[3]);
+                    } else {
+                        statement.setNull(2, Types.BIGINT);
+                    }
+                    statement.setLong(3, row[0]);
+                    statement.setLong(4, row[1]);
+                    statement.setLong(5, row[2]);
+                });
+        } catch (RuntimeException e) {
+            // Put them back so the next checkpoint retries
+            for (long[] row : rows) {
+                Stripe stripe = stripeFor(row[1]);
+                synchronized (stripe) {
+                    RoomState state = stripe.rooms.get(row[1]);
+                    if (state != null && state.readCounts.containsKey(row[0])) {
+                        state.dirty.add(row[0]);
+                        stripe.dirtyRooms.add(row[1]);
+                    }
+                }
+            }
+            throw e;
+        } finally {
+            checkpointTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        log.debug("Checkpointed {} read markers", rows.size());
+    }
+
+    private void recover() {
+        long start = System.nanoTime();
+        int[] markers = new int[1];
+        jdbcTemplate.query("SELECT chat_room_id, message_count, last_message_id FROM chat_room_summaries", row -> {
+            RoomState state = new RoomState();
+            state.messageCount = row.getLong(2);
+            state.lastMessageId = row.getLong(3);
+            stripeFor(row.getLong(1)).rooms.put(row.getLong(1), state);
+        });
+        jdbcTemplate.query("SELECT user_id, chat_room_id, read_count, last_read_message_id FROM read_markers", row -> {
+            RoomState state = stripeFor(row.getLong(2)).rooms.get(row.getLong(2));
+            if (state != null) {
+                state.readCounts.put(row.getLong(1), row.getLong(3));
+                state.lastReadIds.put(row.getLong(1), row.getLong(4));
+                markers[0]++;
+            }
+        });
+        log.info("Recovered read state for {} rooms and {} members in {} ms",
+            getRoomCount(), markers[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // Rooms are all loaded on startup or registered on creation; a miss loads from the
+    // checkpoint tables. The load runs outside the stripe lock and is installed only if
+    // nobody installed the room meanwhile. Rooms are never dropped, so the returned
+    // stripe holds the room.
+    private Stripe loadedStripe(long chatRoomId) {
+        Stripe stripe = stripeFor(chatRoomId);
+        synchronized (stripe) {
+            if (stripe.rooms.containsKey(chatRoomId)) {
+                return stripe;
+            }
+        }
+        RoomState state = new RoomState();
+        RoomSummary summary = roomSummaryRepository.findById(chatRoomId).orElse(null);
+        if (summary != null) {
+            state.messageCount = summary.getMessageCount();
+            state.lastMessageId = summary.getLastMessageId() != null ? summary.getLastMessageId() : 0;
+        }
+        for (ReadMarker marker : readMarkerRepository.findByChatRoomId(chatRoomId)) {
+            state.readCounts.put(marker.getUserId(), marker.getReadCount());
+            state.lastReadIds.put(marker.getUserId(),
+                marker.getLastReadMessageId() != null ? marker.getLastReadMessageId() : 0);
+        }
+        synchronized (stripe) {
+            stripe.rooms.putIfAbsent(chatRoomId, state);
+        }
+        return stripe;
+    }
+
+    private Stripe stripeFor(long chatRoomId) {
+        return stripes[(Long.hashCode(chatRoomId) & Integer.MAX_VALUE) % STRIPES];
+    }
+}
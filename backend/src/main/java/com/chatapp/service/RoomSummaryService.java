@@ -0,0 +1,190 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.dto.InboxRoom;
+import com.chatapp.model.RoomSummary;
+import com.chatapp.repository.RoomSummaryRepository;
+import com.chatapp.util.InboxCursor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps the inbox tables in step with rooms, members and messages. The room's summary
+// row changes incrementally as messages are persisted, so the inbox is one paged query
+// however many rooms a user is in. Read positions live in ReadStateStore and reach
+// read_markers at its checkpoints; unread counts in the inbox are taken from the store.
+// Counts and markers moved here are relayed to the other nodes' stores.
+@Service
+public class RoomSummaryService {
+
+    private static final int MAX_PAGE_SIZE = 100;
+
+    @Autowired
+    private RoomSummaryRepository roomSummaryRepository;
+
+    @Autowired
+    private ReadStateStore readStateStore;
+
+    @Autowired
+    private ReadReceiptBroadcaster readReceiptBroadcaster;
+
+    @Autowired
+    private MembershipCache membershipCache;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${chat.inbox.snippet-length:100}")
+    private int snippetLength;
+
+    @Value("${chat.group.insert-batch-size:500}")
+    private int batchSize;
+
+    // A member's read position for messages they sent themselves
+    private record SenderPosition(long readCount, Long messageId) {
+    }
+
+    @Transactional
+    public void roomCreated(Long chatRoomId, Collection<Long> memberIds, LocalDateTime createdAt) {
+        roomSummaryRepository.save(new RoomSummary(chatRoomId, memberIds.size(), createdAt));
+        insertMarkers(chatRoomId, memberIds, 0);
+        afterCommit(() -> readStateStore.roomCreated(chatRoomId, memberIds));
+    }
+
+    // New members start with everything already in the room marked as read; the store
+    // follows once the change is committed
+    @Transactional
+    public void membersChanged(Long chatRoomId, List<Long> added, List<Long> removed) {
+        ReadStateStore.ReadPosition position = readStateStore.latest(chatRoomId);
+        insertMarkers(chatRoomId, added, position.readCount());
+        jdbcTemplate.batchUpdate("DELETE FROM read_markers WHERE chat_room_id = ? AND user_id = ?",
+            removed, batchSize, (statement, userId) -> {
+                statement.setLong(1, chatRoomId);
+                statement.setLong(2, userId);
+            });
+        roomSummaryRepository.adjustParticipantCount(chatRoomId, added.size() - removed.size());
+        afterCommit(() -> readStateStore.membersChanged(chatRoomId, added, removed, position));
+    }
+
+    // Called in the transaction that persisted the messages (chronological order). Each
+    // room's summary is updated once per batch, and senders have read their own messages.
+    @Transactional
+    public void messagesPersisted(List<MessageSnapshot> messages) {
+        Map<Long, List<MessageSnapshot>> byRoom = new LinkedHashMap<>();
+        for (MessageSnapshot message : messages) {
+            byRoom.computeIfAbsent(message.chatRoomId(), id -> new ArrayList<>()).add(message);
+        }
+
+        byRoom.forEach((chatRoomId, roomMessages) -> {
+            MessageSnapshot last = roomMessages.get(roomMessages.size() - 1);
+            roomSummaryRepository.recordMessages(chatRoomId, roomMessages.size(), last.id(), snippet(last.content()),
+                last.senderId(), last.senderUsername(), last.timestamp());
+        });
+
+        // The in-memory counts follow only once the messages are committed
+        afterCommit(() -> {
+            List<ClusterService.RoomCount> counts = new ArrayList<>(byRoom.size());
+            List<ClusterService.ReadPosition> markers = new ArrayList<>();
+            byRoom.forEach((chatRoomId, roomMessages) -> {
+                MessageSnapshot last = roomMessages.get(roomMessages.size() - 1);
+                long position = readStateStore.recordMessages(chatRoomId, roomMessages.size(), last.id());
+                counts.add(new ClusterService.RoomCount(chatRoomId, position + roomMessages.size(), last.id()));
+                Map<Long, SenderPosition> senders = new HashMap<>();
+                for (MessageSnapshot message : roomMessages) {
+                    senders.put(message.senderId(), new SenderPosition(++position, message.id()));
+                }
+                senders.forEach((senderId, sent) -> {
+                    if (readStateStore.advance(senderId, chatRoomId, sent.readCount(), sent.messageId())) {
+                        markers.add(new ClusterService.ReadPosition(senderId, chatRoomId, sent.readCount(),
+                            sent.messageId()));
+                    }
+                });
+            });
+            clusterService.relayReadStateChanged(counts, markers);
+        });
+    }
+
+    // Mark everything persisted in the room so far as read; the room hears about it in the
+    // next debounced receipt
+    public void markRead(Long chatRoomId, Long userId) {
+        if (!membershipCache.isMember(chatRoomId, userId)) {
+            throw new RuntimeException("User is not a participant in this chat");
+        }
+        ReadStateStore.ReadPosition position = readStateStore.markRead(userId, chatRoomId);
+        if (position == null) {
+            return;
+        }
+        clusterService.relayReadStateChanged(List.of(), List.of(new ClusterService.ReadPosition(userId, chatRoomId,
+            position.readCount(), position.lastReadMessageId())));
+        if (position.lastReadMessageId() != 0) {
+            readReceiptBroadcaster.read(chatRoomId, userId, position.lastReadMessageId());
+        }
+    }
+
+    // Rooms the user is in, most recently active first
+    @Transactional(readOnly = true)
+    public Slice<InboxRoom> getInbox(Long userId, InboxCursor.Position after, int size) {
+        PageRequest page = PageRequest.of(0, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+        Slice<InboxRoom> rooms = after == null
+            ? roomSummaryRepository.findInbox(userId, page)
+            : roomSummaryRepository.findInboxAfter(userId, after.lastActivityAt(), after.chatRoomId(), page);
+        // read_markers may be a checkpoint behind
+        return rooms.map(room -> {
+            long unread = readStateStore.unreadCount(userId, room.id(), room.unreadCount());
+            return unread == room.unreadCount() ? room : new InboxRoom(room.id(), room.name(), room.type(),
+                room.description(), room.lastMessageId(), room.lastMessageSnippet(), room.lastSenderId(),
+                room.lastSenderUsername(), room.lastActivityAt(), unread, room.participantCount());
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void insertMarkers(Long chatRoomId, Collection<Long> userIds, long readCount) {
+        jdbcTemplate.batchUpdate("INSERT INTO read_markers (user_id, chat_room_id, read_count) VALUES (?, ?, ?)",
+            userIds, batchSize, (statement, userId) -> {
+                statement.setLong(1, userId);
+                statement.setLong(2, chatRoomId);
+                statement.setLong(3, readCount);
+            });
+    }
+
+    private String snippet(String content) {
+        if (content == null || content.length() <= snippetLength) {
+            return content;
+        }
+        int end = snippetLength;
+        // Don't split a surrogate pair
+        if (Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return content.substring(0, end);
+    }
+}
@@ -0,0 +1,457 @@
+package com.chatapp.service;
+
+import com.chatapp.model.User;
+import com.chatapp.repository.UserRepository;
+import com.chatapp.util.LongLongHashMap;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory typeahead index over usernames, names and phone numbers (digits only).
+// Prefix matches come from sorted token tables: a binary search finds the range and the
+// first K live entries are the answer, so common prefixes cost the same as rare ones.
+// Matches are ranked exact username, username prefix, name prefix (any word), phone
+// prefix, then substring; ties break alphabetically. Substring matches are only looked
+// up when the prefix tiers leave room, by intersecting trigram postings and scanning at
+// most max-candidates documents. Each user is a document; a changed user gets a new
+// document and the old one is tombstoned.
+@Service
+public class UserSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(UserSearchIndex.class);
+
+    private static final int LOAD_PAGE = 10000;
+
+    // Live additions kept in a sorted buffer before they are merged into a table
+    private static final int MERGE_THRESHOLD = 4096;
+
+    private static final int SCORE_EXACT = 100;
+    private static final int SCORE_USERNAME_PREFIX = 80;
+    private static final int SCORE_NAME_PREFIX = 60;
+    private static final int SCORE_PHONE_PREFIX = 50;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.user-search.max-results:20}")
+    private int maxResults;
+
+    @Value("${chat.user-search.max-candidates:1000}")
+    private int maxCandidates;
+
+    public record Match(long userId, int score) {
+    }
+
+    private record Entry(String token, int doc) {
+    }
+
+    private static final Comparator<Entry> ENTRY_ORDER =
+        Comparator.comparing(Entry::token).thenComparingInt(Entry::doc);
+
+    // Sorted (token, doc) pairs: a large base array plus a small sorted buffer
+    private class TokenTable {
+        Entry[] base = new Entry[0];
+        final List<Entry> recent = new ArrayList<>();
+
+        // Keeps the buffer sorted; only used once the initial load is sealed
+        void insert(String token, int doc) {
+            Entry entry = new Entry(token, doc);
+            int at = Collections.binarySearch(recent, entry, ENTRY_ORDER);
+            recent.add(at < 0 ? -at - 1 : at, entry);
+            if (recent.size() > MERGE_THRESHOLD) {
+                seal();
+            }
+        }
+
+        // Merges the buffer into the base, dropping entries of tombstoned documents
+        void seal() {
+            recent.sort(ENTRY_ORDER);
+            List<Entry> merged = new ArrayList<>(base.length + recent.size());
+            int i = 0;
+            int j = 0;
+            while (i < base.length || j < recent.size()) {
+                Entry next = j == recent.size() || (i < base.length && ENTRY_ORDER.compare(base[i], recent.get(j)) <= 0)
+                    ? base[i++] : recent.get(j++);
+                if (userIds[next.doc()] != 0) {
+                    merged.add(next);
+                }
+            }
+            base = merged.toArray(Entry[]::new);
+            recent.clear();
+        }
+
+        // Adds up to k live, not yet collected documents whose token starts with prefix
+        void collect(String prefix, int score, List<Match> out, IntPredicate fresh, int k) {
+            int i = lowerBound(prefix);
+            int j = recentLowerBound(prefix);
+            while (out.size() < k) {
+                Entry a = i < base.length && base[i].token().startsWith(prefix) ? base[i] : null;
+                Entry b = j < recent.size() && recent.get(j).token().startsWith(prefix) ? recent.get(j) : null;
+                Entry next;
+                if (a == null && b == null) {
+                    return;
+                } else if (b == null || (a != null && ENTRY_ORDER.compare(a, b) <= 0)) {
+                    next = a;
+                    i++;
+                } else {
+                    next = b;
+                    j++;
+                }
+                int doc = next.doc();
+                if (userIds[doc] != 0 && fresh.test(doc)) {
+                    out.add(new Match(userIds[doc], next.token().length() == prefix.length() && score == SCORE_USERNAME_PREFIX
+                        ? SCORE_EXACT : score));
+                }
+            }
+        }
+
+        private int lowerBound(String prefix) {
+            int lo = 0;
+            int hi = base.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (base[mid].token().compareTo(prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private int recentLowerBound(String prefix) {
+            int at = Collections.binarySearch(recent, new Entry(prefix, -1), ENTRY_ORDER);
+            return at < 0 ? -at - 1 : at;
+        }
+    }
+
+    // Ascending document numbers for one trigram
+    private static class Postings {
+        int[] docs = new int[2];
+        int size;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size << 1);
+            }
+            docs[size++] = doc;
+        }
+
+        boolean contains(int doc) {
+            return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+        }
+    }
+
+    private record Candidate(int doc, int score) {
+    }
+
+    // Documents by number; userIds[doc] == 0 marks a tombstone
+    private long[] userIds = new long[1024];
+    private String[] usernames = new String[1024];
+    private String[] names = new String[1024];
+    private String[] phones = new String[1024];
+    private int docCount;
+
+    private final TokenTable usernameTable = new TokenTable();
+    // Every suffix of the name that starts a word, so "maria gar" matches "Maria Garcia"
+    private final TokenTable nameTable = new TokenTable();
+    private final TokenTable phoneTable = new TokenTable();
+
+    private final LongLongHashMap docsByUser = new LongLongHashMap();
+    private final Map<Long, Postings> trigrams = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Until the initial load is sealed, tokens are appended unsorted and sorted once
+    private boolean loading = true;
+
+    private Timer queryTimer;
+
+    @PostConstruct
+    public void load() {
+        queryTimer = Timer.builder("chat.user-search.query").register(meterRegistry);
+        Gauge.builder("chat.user-search.users", this, UserSearchIndex::size).register(meterRegistry);
+
+        long start = System.nanoTime();
+        long afterId = 0;
+        while (true) {
+            List<Object[]> page = userRepository.findSearchFieldsAfter(afterId, PageRequest.of(0, LOAD_PAGE));
+            for (Object[] row : page) {
+                index((Long) row[0], (String) row[1], (String) row[2], (String) row[3]);
+            }
+            if (page.size() < LOAD_PAGE) {
+                break;
+            }
+            afterId = (Long) page.get(page.size() - 1)[0];
+        }
+        seal();
+        log.info("Indexed {} users for search in {} ms", size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // Call after a user is created or their searchable fields change
+    public void index(User user) {
+        index(user.getId(), user.getUsername(), user.getName(), user.getPhoneNumber());
+    }
+
+    public void index(long userId, String username, String name, String phoneNumber) {
+        String usernameKey = normalizeText(username);
+        String nameKey = normalizeText(name);
+        String phoneKey = digits(phoneNumber);
+
+        lock.writeLock().lock();
+        try {
+            long previous = docsByUser.get(userId, -1);
+            if (previous >= 0) {
+                int old = (int) previous;
+                userIds[old] = 0;
+                usernames[old] = names[old] = phones[old] = null;
+            }
+            int doc = docCount++;
+            if (doc == userIds.length) {
+                int capacity = doc << 1;
+                userIds = Arrays.copyOf(userIds, capacity);
+                usernames = Arrays.copyOf(usernames, capacity);
+                names = Arrays.copyOf(names, capacity);
+                phones = Arrays.copyOf(phones, capacity);
+            }
+            userIds[doc] = userId;
+            usernames[doc] = usernameKey;
+            names[doc] = nameKey;
+            phones[doc] = phoneKey;
+            docsByUser.put(userId, doc);
+
+            addToken(usernameTable, usernameKey, doc);
+            for (int from = 0; from < nameKey.length(); from = nameKey.indexOf(' ', from) + 1) {
+                addToken(nameTable, nameKey.substring(from), doc);
+                if (nameKey.indexOf(' ', from) < 0) {
+                    break;
+                }
+            }
+            addToken(phoneTable, phoneKey, doc);
+            addTrigrams(usernameKey, doc);
+            addTrigrams(nameKey, doc);
+            addTrigrams(phoneKey, doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Best matches first, at most min(limit, max-results). Phone-like queries match on digits.
+    public List<Match> search(String query, int limit) {
+        String q = isPhoneLike(query) ? digits(query) : normalizeText(query);
+        int k = Math.max(1, Math.min(limit, maxResults));
+        if (q.isEmpty()) {
+            return List.of();
+        }
+
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            List<Match> matches = new ArrayList<>(k);
+            // k is small, so a linear check for documents already collected is enough
+            int[] collected = new int[k];
+            IntPredicate fresh = doc -> {
+                for (int i = 0; i < matches.size(); i++) {
+                    if (collected[i] == doc) {
+                        return false;
+                    }
+                }
+                collected[matches.size()] = doc;
+                return true;
+            };
+            usernameTable.collect(q, SCORE_USERNAME_PREFIX, matches, fresh, k);
+            nameTable.collect(q, SCORE_NAME_PREFIX, matches, fresh, k);
+            phoneTable.collect(q, SCORE_PHONE_PREFIX, matches, fresh, k);
+            if (matches.size() < k && q.length() >= 3) {
+                for (int doc : substringMatches(q, k - matches.size(), Arrays.copyOf(collected, matches.size()))) {
+                    matches.add(new Match(userIds[doc], score(doc, q)));
+                }
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+            queryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docsByUser.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void seal() {
+        lock.writeLock().lock();
+        try {
+            usernameTable.seal();
+            nameTable.seal();
+            phoneTable.seal();
+            loading = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addToken(TokenTable table, String token, int doc) {
+        if (token.isEmpty()) {
+            return;
+        }
+        if (loading) {
+            table.recent.add(new Entry(token, doc));
+        } else {
+            table.insert(token, doc);
+        }
+    }
+
+    // Best substring-only matches, ranked by field, then shorter username, then user id
+    private List<Integer> substringMatches(String q, int k, int[] exclude) {
+        Set<Long> keys = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            keys.add(pack(q, i));
+        }
+        Postings[] lists = new Postings[keys.size()];
+        int n = 0;
+        for (Long key : keys) {
+            Postings postings = trigrams.get(key);
+            if (postings == null) {
+                return List.of();
+            }
+            lists[n++] = postings;
+        }
+        Arrays.sort(lists, Comparator.comparingInt(postings -> postings.size));
+
+        // Min-heap on rank, so the weakest of the current top K is at the head
+        Comparator<Candidate> rank = Comparator.comparingInt(Candidate::score)
+            .thenComparingInt(candidate -> -usernames[candidate.doc()].length())
+            .thenComparingLong(candidate -> -userIds[candidate.doc()]);
+        PriorityQueue<Candidate> top = new PriorityQueue<>(k + 1, rank);
+        Postings driver = lists[0];
+        int scanned = Math.min(driver.size, maxCandidates);
+        for (int i = 0; i < scanned; i++) {
+            int doc = driver.docs[i];
+            if (userIds[doc] == 0 || !containsAll(lists, doc) || contains(exclude, doc)) {
+                continue;
+            }
+            int score = score(doc, q);
+            if (score > 0) {
+                top.add(new Candidate(doc, score));
+                if (top.size() > k) {
+                    top.poll();
+                }
+            }
+        }
+
+        List<Integer> docs = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            docs.add(top.poll().doc());
+        }
+        Collections.reverse(docs);
+        return docs;
+    }
+
+    private int score(int doc, String q) {
+        if (usernames[doc].contains(q)) {
+            return 30;
+        }
+        if (names[doc].contains(q)) {
+            return 20;
+        }
+        return phones[doc].contains(q) ? 10 : 0;
+    }
+
+    private static boolean containsAll(Postings[] lists, int doc) {
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].contains(doc)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(int[] docs, int doc) {
+        for (int value : docs) {
+            if (value == doc) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addTrigrams(String text, int doc) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.computeIfAbsent(pack(text, i), key -> new Postings()).add(doc);
+        }
+    }
+
+    // Three UTF-16 units in the low 48 bits
+    private static long pack(String text, int from) {
+        return ((long) text.charAt(from) << 32) | ((long) text.charAt(from + 1) << 16) | text.charAt(from + 2);
+    }
+
+    // Lower case, single spaces, no leading or trailing space
+    private static String normalizeText(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String digits(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isPhoneLike(String query) {
+        boolean digit = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digit = true;
+            } else if ("+-() .".indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return digit;
+    }
+}
@@ -0,0 +1,67 @@
+package com.chatapp.store;
+
+import com.chatapp.model.Message;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.service.MessageSnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Messages in the messages table, paged by keyset over the (chat_room_id, id) index
+@Component
+@ConditionalOnProperty(name = "chat.message-store.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaMessageStore implements MessageStore {
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Override
+    public List<MessageSnapshot> saveAll(List<Message> messages) {
+        return toSnapshots(messageRepository.saveAll(messages));
+    }
+
+    @Override
+    public Window latest(long chatRoomId, int size) {
+        return toWindow(messageRepository.findByChatRoomIdOrderByIdDesc(chatRoomId, PageRequest.of(0, size)));
+    }
+
+    @Override
+    public Window before(long chatRoomId, long beforeId, int size) {
+        return toWindow(messageRepository.findByChatRoomIdAndIdLessThanOrderByIdDesc(chatRoomId, beforeId,
+            PageRequest.of(0, size)));
+    }
+
+    @Override
+    public Window after(long chatRoomId, long afterId, int size) {
+        return toWindow(messageRepository.findByChatRoomIdAndIdGreaterThanOrderByIdAsc(chatRoomId, afterId,
+            PageRequest.of(0, size)));
+    }
+
+    @Override
+    public List<MessageSnapshot> findByIds(Collection<Long> ids) {
+        return toSnapshots(messageRepository.findByIdIn(ids));
+    }
+
+    @Override
+    public List<MessageSnapshot> scan(long afterId, int limit) {
+        return toSnapshots(messageRepository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, limit)).getContent());
+    }
+
+    private static Window toWindow(Slice<Message> slice) {
+        return new Window(toSnapshots(slice.getContent()), slice.hasNext());
+    }
+
+    private static List<MessageSnapshot> toSnapshots(List<Message> messages) {
+        List<MessageSnapshot> snapshots = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            snapshots.add(MessageSnapshot.from(message));
+        }
+        return snapshots;
+    }
+}
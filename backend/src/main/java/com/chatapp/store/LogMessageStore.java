@@ -0,0 +1,199 @@
+package com.chatapp.store;
+
+import com.chatapp.model.Message;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.service.MessageSnapshot;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Messages in a MessageLog under chat.message-store.log.dir. Message ids come from the
+// log, continuing after the highest id recovered on startup. The fsync policy decides
+// when appended records are forced to disk: after every appended batch (BATCH, so one
+// write-behind batch is one group commit), every fsync-interval-ms (INTERVAL), or
+// whenever the OS writes the pages back (NONE). Rooms live in the database, so the log
+// refuses to open against a database that does not have the rooms it holds (a recreated
+// or in-memory one), where new rooms would take over old rooms' histories.
+@Component
+@ConditionalOnProperty(name = "chat.message-store.engine", havingValue = "log")
+public class LogMessageStore implements MessageStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LogMessageStore.class);
+
+    public enum FsyncPolicy { BATCH, INTERVAL, NONE }
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.message-store.log.dir:data/messages}")
+    private String directory;
+
+    @Value("${chat.message-store.log.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${chat.message-store.log.index-interval:32}")
+    private int indexInterval;
+
+    @Value("${chat.message-store.log.fsync:BATCH}")
+    private FsyncPolicy fsyncPolicy;
+
+    @Value("${chat.message-store.log.fsync-interval-ms:1000}")
+    private long fsyncIntervalMs;
+
+    // 0 keeps messages regardless of age or total size
+    @Value("${chat.message-store.log.retention-hours:0}")
+    private long retentionHours;
+
+    @Value("${chat.message-store.log.retention-bytes:0}")
+    private long retentionBytes;
+
+    @Value("${chat.message-store.log.retention-check-interval-ms:60000}")
+    private long retentionCheckIntervalMs;
+
+    private MessageLog messageLog;
+    private ScheduledExecutorService scheduler;
+    private Timer appendTimer;
+    private Timer syncTimer;
+
+    @PostConstruct
+    public void open() throws IOException {
+        long start = System.nanoTime();
+        messageLog = new MessageLog(Path.of(directory), segmentBytes, indexInterval);
+        messageLog.open();
+        long highestRoomId = chatRoomRepository.findHighestId();
+        if (messageLog.getHighestChatRoomId() > highestRoomId) {
+            messageLog.close();
+            throw new IllegalStateException("The message log in " + directory + " holds rooms up to id "
+                + messageLog.getHighestChatRoomId() + " but the database only has rooms up to id " + highestRoomId
+                + "; it belongs to another database. Point chat.message-store.log.dir at an empty directory or "
+                + "restore the matching database.");
+        }
+        log.info("Opened message log in {} with {} messages in {} rooms ({} segments) in {} ms", directory,
+            messageLog.getRecordCount(), messageLog.getRoomCount(), messageLog.getSegmentCount(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        appendTimer = Timer.builder("chat.message-store.log.append").register(meterRegistry);
+        syncTimer = Timer.builder("chat.message-store.log.sync").register(meterRegistry);
+        Gauge.builder("chat.message-store.log.bytes", messageLog, MessageLog::getSize).register(meterRegistry);
+        Gauge.builder("chat.message-store.log.segments", messageLog, MessageLog::getSegmentCount).register(meterRegistry);
+        Gauge.builder("chat.message-store.log.messages", messageLog, MessageLog::getRecordCount).register(meterRegistry);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-log-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                } catch (Exception e) {
+                    log.error("Failed to sync the message log", e);
+                }
+            }, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (retentionHours > 0 || retentionBytes > 0) {
+            scheduler.scheduleWithFixedDelay(this::applyRetention, retentionCheckIntervalMs, retentionCheckIntervalMs,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        scheduler.shutdown();
+        messageLog.close();
+    }
+
+    @Override
+    public List<MessageSnapshot> saveAll(List<Message> messages) {
+        List<MessageSnapshot> snapshots = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            snapshots.add(MessageSnapshot.from(message));
+        }
+        long start = System.nanoTime();
+        List<MessageSnapshot> appended;
+        try {
+            appended = messageLog.append(snapshots);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to the message log", e);
+        }
+        appendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (fsyncPolicy == FsyncPolicy.BATCH) {
+            sync();
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            messages.get(i).setId(appended.get(i).id());
+        }
+        return appended;
+    }
+
+    @Override
+    public Window latest(long chatRoomId, int size) {
+        return messageLog.latest(chatRoomId, size);
+    }
+
+    @Override
+    public Window before(long chatRoomId, long beforeId, int size) {
+        return messageLog.before(chatRoomId, beforeId, size);
+    }
+
+    @Override
+    public Window after(long chatRoomId, long afterId, int size) {
+        return messageLog.after(chatRoomId, afterId, size);
+    }
+
+    @Override
+    public List<MessageSnapshot> findByIds(Collection<Long> ids) {
+        return messageLog.findByIds(ids);
+    }
+
+    @Override
+    public List<MessageSnapshot> scan(long afterId, int limit) {
+        return messageLog.scan(afterId, limit);
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    private void sync() {
+        long start = System.nanoTime();
+        messageLog.sync();
+        syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void applyRetention() {
+        try {
+            LocalDateTime cutoff = retentionHours > 0 ? LocalDateTime.now().minusHours(retentionHours) : null;
+            int deleted = messageLog.retain(cutoff, retentionBytes);
+            if (deleted > 0) {
+                log.info("Deleted {} message log segments past retention", deleted);
+            }
+        } catch (Exception e) {
+            log.error("Failed to apply message log retention", e);
+        }
+    }
+}
@@ -0,0 +1,697 @@
+package com.chatapp.store;
+
+import com.chatapp.service.MessageSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Append-only message log in memory-mapped segment files. Records are appended in id
+// order to the active segment; a full segment is truncated to what was written and the
+// next one starts at the following log position, so positions run on across segments.
+// Every record points back at the previous record of its chat room, which makes each
+// room's history a chain through the log, and a sparse per-room index of every
+// index-interval'th record lets reads start close to any message id. A second sparse
+// index over all records serves lookups by id. The indexes are only kept in memory and
+// are rebuilt by scanning the segments on open; the first torn or corrupt record ends
+// the log. Not durable until sync() is called.
+public class MessageLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageLog.class);
+
+    private static final String SUFFIX = ".log";
+    // Record length and CRC32C of the record body
+    private static final int HEADER_BYTES = 8;
+    // id, chat room, previous record of the room, timestamp, sender, then 9 unused bytes
+    // (once the sender's last seen and online flag) so existing logs stay readable
+    private static final int FIXED_BYTES = 6 * Long.BYTES + 1;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final long NONE = -1;
+    private static final int UNUSED_BYTES = Long.BYTES + 1;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int indexInterval;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Long, RoomIndex> rooms = new HashMap<>();
+    private final SparseIndex idIndex = new SparseIndex();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object writeMutex = new Object();
+    private final CRC32C crc = new CRC32C();
+
+    private Segment active;
+    private long nextId = 1;
+    private long records;
+
+    private static final class Segment {
+        final long base;
+        final Path path;
+        final FileChannel channel;
+        volatile MappedByteBuffer buffer;
+        // Bytes of valid records
+        volatile int size;
+        // Newest record timestamp, as epoch nanos
+        long newest = Long.MIN_VALUE;
+
+        Segment(long base, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.base = base;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        long end() {
+            return base + size;
+        }
+    }
+
+    // Ascending (message id, log position) pairs
+    private static class SparseIndex {
+        long[] ids = new long[4];
+        long[] positions = new long[4];
+        int size;
+
+        void add(long id, long position) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+                positions = Arrays.copyOf(positions, size << 1);
+            }
+            ids[size] = id;
+            positions[size] = position;
+            size++;
+        }
+
+        // Index of the first entry with an id >= the given one, or size
+        int lowerBound(long id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] < id) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Drops the entries that point before the given position
+        void trim(long start) {
+            int first = 0;
+            while (first < size && positions[first] < start) {
+                first++;
+            }
+            if (first > 0) {
+                System.arraycopy(ids, first, ids, 0, size - first);
+                System.arraycopy(positions, first, positions, 0, size - first);
+                size -= first;
+            }
+        }
+    }
+
+    private static final class RoomIndex extends SparseIndex {
+        long last = NONE;
+        long count;
+    }
+
+    private record Record(MessageSnapshot message, long previous, int length) {
+    }
+
+    public MessageLog(Path directory, int segmentBytes, int indexInterval) {
+        // A segment must hold the largest record, or rolling to a new one can't make room
+        if (segmentBytes < HEADER_BYTES + MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Message log segments must be at least "
+                + (HEADER_BYTES + MAX_RECORD_BYTES) + " bytes");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = Math.max(1, indexInterval);
+    }
+
+    // Maps the existing segments and rebuilds the indexes from them
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+
+        long expected = NONE;
+        for (int i = 0; i < files.size(); i++) {
+            Path path = files.get(i);
+            long base = Long.parseLong(path.getFileName().toString().replace(SUFFIX, ""));
+            if (expected != NONE && base != expected) {
+                log.error("Message log segment {} does not start where the previous one ended ({})", path, expected);
+                quarantine(files.subList(i, files.size()));
+                break;
+            }
+            boolean last = i == files.size() - 1;
+            Segment segment = map(base, path, last);
+            segments.add(segment);
+            boolean intact = recover(segment);
+            expected = segment.end();
+            if (!intact) {
+                log.error("Message log ends at a corrupt or torn record in {} at offset {}", path, segment.size);
+                if (!last) {
+                    quarantine(files.subList(i + 1, files.size()));
+                }
+                break;
+            }
+        }
+
+        if (segments.isEmpty()) {
+            active = create(0);
+            segments.add(active);
+        } else {
+            Segment tail = segments.get(segments.size() - 1);
+            if (tail.buffer.isReadOnly()) {
+                // The segments after it were moved aside; reopen it for appends
+                Segment reopened = map(tail.base, tail.path, true);
+                reopened.size = tail.size;
+                reopened.newest = tail.newest;
+                tail.channel.close();
+                segments.set(segments.size() - 1, reopened);
+            }
+            active = segments.get(segments.size() - 1);
+            clearTail(active);
+        }
+    }
+
+    // Appends messages in order and returns them with their assigned ids
+    public List<MessageSnapshot> append(List<MessageSnapshot> messages) throws IOException {
+        List<MessageSnapshot> appended = new ArrayList<>(messages.size());
+        synchronized (writeMutex) {
+            lock.writeLock().lock();
+            try {
+                for (MessageSnapshot message : messages) {
+                    appended.add(append(message));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return appended;
+    }
+
+    // Forces appended records to disk
+    public void sync() {
+        synchronized (writeMutex) {
+            active.buffer.force();
+        }
+    }
+
+    // Newest first
+    public MessageStore.Window latest(long chatRoomId, int size) {
+        lock.readLock().lock();
+        try {
+            RoomIndex room = rooms.get(chatRoomId);
+            if (room == null) {
+                return new MessageStore.Window(List.of(), false);
+            }
+            return walkBack(room.last, Long.MAX_VALUE, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Newest first, ids below beforeId
+    public MessageStore.Window before(long chatRoomId, long beforeId, int size) {
+        lock.readLock().lock();
+        try {
+            RoomIndex room = rooms.get(chatRoomId);
+            if (room == null) {
+                return new MessageStore.Window(List.of(), false);
+            }
+            // Start at the first indexed record at or above beforeId; at most
+            // index-interval records are skipped before the window begins
+            int entry = room.lowerBound(beforeId);
+            long start = entry < room.size ? room.positions[entry] : room.last;
+            return walkBack(start, beforeId, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Oldest first, ids above afterId
+    public MessageStore.Window after(long chatRoomId, long afterId, int size) {
+        lock.readLock().lock();
+        try {
+            RoomIndex room = rooms.get(chatRoomId);
+            if (room == null) {
+                return new MessageStore.Window(List.of(), false);
+            }
+            // Walk back from an indexed record far enough past afterId to cover the
+            // window, then keep the oldest size records
+            int entry = room.lowerBound(afterId + 1) + (size + indexInterval - 1) / indexInterval;
+            long start = entry < room.size ? room.positions[entry] : room.last;
+            List<MessageSnapshot> newestFirst = new ArrayList<>();
+            long position = start;
+            while (position >= startPosition()) {
+                Record record = read(position);
+                if (record.message().id() <= afterId) {
+                    break;
+                }
+                newestFirst.add(record.message());
+                position = record.previous();
+            }
+            List<MessageSnapshot> messages = new ArrayList<>(Math.min(size, newestFirst.size()));
+            for (int i = newestFirst.size() - 1; i >= 0 && messages.size() < size; i--) {
+                messages.add(newestFirst.get(i));
+            }
+            return new MessageStore.Window(messages, newestFirst.size() > size || start != room.last);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<MessageSnapshot> findByIds(Collection<Long> ids) {
+        List<MessageSnapshot> found = new ArrayList<>(ids.size());
+        lock.readLock().lock();
+        try {
+            for (Long id : ids) {
+                long position = seek(id);
+                while (position < active.end()) {
+                    Record record = read(position);
+                    long recordId = record.message().id();
+                    if (recordId >= id) {
+                        if (recordId == id) {
+                            found.add(record.message());
+                        }
+                        break;
+                    }
+                    position += HEADER_BYTES + record.length();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    // Messages of every room in id order, starting after afterId
+    public List<MessageSnapshot> scan(long afterId, int limit) {
+        List<MessageSnapshot> messages = new ArrayList<>(limit);
+        lock.readLock().lock();
+        try {
+            long position = seek(afterId + 1);
+            while (position < active.end() && messages.size() < limit) {
+                Record record = read(position);
+                if (record.message().id() > afterId) {
+                    messages.add(record.message());
+                }
+                position += HEADER_BYTES + record.length();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    // Deletes the oldest sealed segments whose newest record is older than minTimestamp,
+    // then more of them while the log is larger than maxBytes (0 for no limit). Returns
+    // the number of segments deleted.
+    public int retain(LocalDateTime minTimestamp, long maxBytes) throws IOException {
+        long oldestKept = minTimestamp != null ? epochNanos(minTimestamp) : Long.MIN_VALUE;
+        List<Segment> deleted = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            while (segments.size() > 1) {
+                Segment oldest = segments.get(0);
+                boolean expired = oldest.newest < oldestKept;
+                boolean oversized = maxBytes > 0 && active.end() - oldest.base > maxBytes;
+                if (!expired && !oversized) {
+                    break;
+                }
+                segments.remove(0);
+                deleted.add(oldest);
+            }
+            if (deleted.isEmpty()) {
+                return 0;
+            }
+            long start = startPosition();
+            idIndex.trim(start);
+            rooms.values().removeIf(room -> {
+                room.trim(start);
+                return room.last < start;
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Segment segment : deleted) {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        }
+        return deleted.size();
+    }
+
+    public long getNextId() {
+        lock.readLock().lock();
+        try {
+            return nextId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getRecordCount() {
+        lock.readLock().lock();
+        try {
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getRoomCount() {
+        lock.readLock().lock();
+        try {
+            return rooms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Highest chat room id with a record in the log, or 0
+    public long getHighestChatRoomId() {
+        lock.readLock().lock();
+        try {
+            return rooms.keySet().stream().mapToLong(Long::longValue).max().orElse(0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bytes of records currently kept
+    public long getSize() {
+        lock.readLock().lock();
+        try {
+            return active.end() - startPosition();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeMutex) {
+            lock.writeLock().lock();
+            try {
+                if (active != null) {
+                    active.buffer.force();
+                }
+                for (Segment segment : segments) {
+                    segment.channel.close();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Called under the write lock
+    private MessageSnapshot append(MessageSnapshot message) throws IOException {
+        long id = message.id() != null ? message.id() : nextId;
+        if (id < nextId) {
+            throw new IllegalArgumentException("Message id " + id + " is not above the log's last id");
+        }
+        MessageSnapshot stored = new MessageSnapshot(id, message.chatRoomId(), message.content(), message.messageType(),
+            message.timestamp(), message.senderId(), message.senderUsername(), message.senderName(),
+            message.senderPhoneNumber());
+
+        RoomIndex room = rooms.computeIfAbsent(stored.chatRoomId(), key -> new RoomIndex());
+        byte[] body = encode(stored, room.last);
+        if (active.size + HEADER_BYTES + body.length > segmentBytes) {
+            roll();
+        }
+
+        crc.reset();
+        crc.update(body);
+        int offset = active.size;
+        active.buffer.putInt(offset, body.length);
+        active.buffer.putInt(offset + 4, (int) crc.getValue());
+        active.buffer.put(offset + HEADER_BYTES, body);
+
+        long position = active.base + offset;
+        index(room, stored, position);
+        active.size = offset + HEADER_BYTES + body.length;
+        active.newest = Math.max(active.newest, epochNanos(stored.timestamp()));
+        return stored;
+    }
+
+    private void index(RoomIndex room, MessageSnapshot message, long position) {
+        if (room.count % indexInterval == 0) {
+            room.add(message.id(), position);
+        }
+        room.count++;
+        room.last = position;
+        if (records % indexInterval == 0) {
+            idIndex.add(message.id(), position);
+        }
+        records++;
+        nextId = message.id() + 1;
+    }
+
+    // Seals the active segment at its written size and starts the next one
+    private void roll() throws IOException {
+        Segment sealed = active;
+        sealed.buffer.force();
+        sealed.channel.truncate(sealed.size);
+        sealed.buffer = sealed.channel.map(FileChannel.MapMode.READ_ONLY, 0, sealed.size);
+        active = create(sealed.end());
+        segments.add(active);
+    }
+
+    private Segment create(long base) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", base, SUFFIX));
+        return map(base, path, true);
+    }
+
+    private Segment map(long base, Path path, boolean writable) throws IOException {
+        FileChannel channel = writable
+            ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(path, StandardOpenOption.READ);
+        MappedByteBuffer buffer = writable
+            ? channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, channel.size()))
+            : channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        return new Segment(base, path, channel, buffer);
+    }
+
+    // Indexes a segment's records; returns false if it ends at a bad record
+    private boolean recover(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length == 0 && buffer.getInt(offset + 4) == 0) {
+                segment.size = offset;
+                return true;
+            }
+            if (length < FIXED_BYTES || length > MAX_RECORD_BYTES || offset + HEADER_BYTES + length > buffer.capacity()) {
+                segment.size = offset;
+                return false;
+            }
+            byte[] body = new byte[length];
+            buffer.get(offset + HEADER_BYTES, body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                segment.size = offset;
+                return false;
+            }
+            Record record = decode(ByteBuffer.wrap(body), length);
+            MessageSnapshot message = record.message();
+            if (message.id() < nextId) {
+                segment.size = offset;
+                return false;
+            }
+            index(rooms.computeIfAbsent(message.chatRoomId(), key -> new RoomIndex()), message, segment.base + offset);
+            segment.newest = Math.max(segment.newest, epochNanos(message.timestamp()));
+            offset += HEADER_BYTES + length;
+        }
+        segment.size = offset;
+        return true;
+    }
+
+    // Zeroes whatever follows the last valid record of the active segment
+    private void clearTail(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        byte[] zeros = new byte[8192];
+        int offset = segment.size;
+        boolean dirty = false;
+        while (offset < buffer.capacity()) {
+            int length = Math.min(zeros.length, buffer.capacity() - offset);
+            for (int i = 0; i < length && !dirty; i++) {
+                dirty = buffer.get(offset + i) != 0;
+            }
+            if (!dirty) {
+                // Bytes past a clean region were never written
+                return;
+            }
+            buffer.put(offset, zeros, 0, length);
+            offset += length;
+        }
+        buffer.force();
+    }
+
+    private void quarantine(List<Path> files) throws IOException {
+        for (Path path : files) {
+            Path target = path.resolveSibling(path.getFileName() + ".corrupt");
+            Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
+            log.error("Moved message log segment {} aside as {}", path, target);
+        }
+    }
+
+    // Called under the read lock; walks a room's chain back from a record, skipping ids
+    // at or above beforeId
+    private MessageStore.Window walkBack(long position, long beforeId, int size) {
+        List<MessageSnapshot> messages = new ArrayList<>(size);
+        long start = startPosition();
+        while (position >= start) {
+            Record record = read(position);
+            if (record.message().id() < beforeId) {
+                if (messages.size() == size) {
+                    return new MessageStore.Window(messages, true);
+                }
+                messages.add(record.message());
+            }
+            position = record.previous();
+        }
+        return new MessageStore.Window(messages, false);
+    }
+
+    // Position of the last indexed record below id, from where a forward scan finds it
+    private long seek(long id) {
+        int entry = idIndex.lowerBound(id) - 1;
+        return entry >= 0 ? idIndex.positions[entry] : startPosition();
+    }
+
+    private long startPosition() {
+        return segments.get(0).base;
+    }
+
+    private Record read(long position) {
+        Segment segment = segmentFor(position);
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = (int) (position - segment.base);
+        int length = buffer.getInt(offset);
+        byte[] body = new byte[length];
+        buffer.get(offset + HEADER_BYTES, body);
+        return decode(ByteBuffer.wrap(body), length);
+    }
+
+    private Segment segmentFor(long position) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).base <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return segments.get(low);
+    }
+
+    private static byte[] encode(MessageSnapshot message, long previous) {
+        byte[][] strings = {
+            utf8(message.content()), utf8(message.messageType()), utf8(message.senderUsername()),
+            utf8(message.senderName()), utf8(message.senderPhoneNumber())
+        };
+        int length = FIXED_BYTES;
+        for (byte[] value : strings) {
+            length += Integer.BYTES + (value != null ? value.length : 0);
+        }
+        if (length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Message is too large for the log");
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.putLong(message.id());
+        body.putLong(message.chatRoomId());
+        body.putLong(previous);
+        body.putLong(epochNanos(message.timestamp()));
+        body.putLong(message.senderId());
+        body.position(body.position() + UNUSED_BYTES);
+        for (byte[] value : strings) {
+            body.putInt(value != null ? value.length : -1);
+            if (value != null) {
+                body.put(value);
+            }
+        }
+        return body.array();
+    }
+
+    private static Record decode(ByteBuffer body, int length) {
+        long id = body.getLong();
+        long chatRoomId = body.getLong();
+        long previous = body.getLong();
+        LocalDateTime timestamp = fromEpochNanos(body.getLong());
+        long senderId = body.getLong();
+        body.position(body.position() + UNUSED_BYTES);
+        String content = string(body);
+        String messageType = string(body);
+        String senderUsername = string(body);
+        String senderName = string(body);
+        String senderPhoneNumber = string(body);
+        MessageSnapshot message = new MessageSnapshot(id, chatRoomId, content, messageType, timestamp, senderId,
+            senderUsername, senderName, senderPhoneNumber);
+        return new Record(message, previous, length);
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static String string(ByteBuffer body) {
+        int length = body.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(body.array(), body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+
+    // Local date-times are stored as if they were UTC, which round-trips them exactly
+    private static long epochNanos(LocalDateTime value) {
+        return value.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + value.getNano();
+    }
+
+    private static LocalDateTime fromEpochNanos(long nanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+            (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+}
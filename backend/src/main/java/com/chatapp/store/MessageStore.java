@@ -0,0 +1,40 @@
+package com.chatapp.store;
+
+import com.chatapp.model.Message;
+import com.chatapp.service.MessageSnapshot;
+
+import java.util.Collection;
+import java.util.List;
+
+// Where message history is kept, chosen by chat.message-store.engine: the messages table
+// (jpa, the default) or the file-backed message log (log). Messages passed to saveAll
+// must have their sender loaded; the store assigns their ids. The log store writes
+// immediately and is not rolled back with a surrounding transaction.
+public interface MessageStore {
+
+    // A window of one room's history and whether more follows in the read direction
+    record Window(List<MessageSnapshot> messages, boolean hasMore) {
+    }
+
+    List<MessageSnapshot> saveAll(List<Message> messages);
+
+    // Newest first
+    Window latest(long chatRoomId, int size);
+
+    // Newest first, ids below beforeId
+    Window before(long chatRoomId, long beforeId, int size);
+
+    // Oldest first, ids above afterId
+    Window after(long chatRoomId, long afterId, int size);
+
+    // In no particular order; unknown ids are skipped
+    List<MessageSnapshot> findByIds(Collection<Long> ids);
+
+    // Messages of every room in id order, starting after afterId
+    List<MessageSnapshot> scan(long afterId, int limit);
+
+    // Whether saveAll is undone when the surrounding transaction rolls back
+    default boolean isTransactional() {
+        return true;
+    }
+}
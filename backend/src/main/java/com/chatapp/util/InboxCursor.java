@@ -0,0 +1,43 @@
+package com.chatapp.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+// Opaque paging cursor for the inbox: the activity time and id of the last room returned
+public final class InboxCursor {
+
+    private static final String PREFIX = "r:";
+
+    public record Position(LocalDateTime lastActivityAt, Long chatRoomId) {
+    }
+
+    private InboxCursor() {
+    }
+
+    public static String encode(LocalDateTime lastActivityAt, Long chatRoomId) {
+        if (lastActivityAt == null || chatRoomId == null) {
+            return null;
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + chatRoomId + "@" + lastActivityAt).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public static Position decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            int at = raw.indexOf('@');
+            if (!raw.startsWith(PREFIX) || at < 0) {
+                throw new RuntimeException("Invalid cursor");
+            }
+            return new Position(LocalDateTime.parse(raw.substring(at + 1)),
+                    Long.parseLong(raw.substring(PREFIX.length(), at)));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new RuntimeException("Invalid cursor");
+        }
+    }
+}
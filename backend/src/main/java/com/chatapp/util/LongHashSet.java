@@ -0,0 +1,159 @@
+package com.chatapp.util;
+
+import java.util.Arrays;
+
+// Open-addressing hash set of primitive longs (linear probing, no boxing).
+// Not thread-safe; callers publish copies when sharing across threads.
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] table;
+    private int size;
+    private boolean containsZero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        table = new long[tableSizeFor(expectedSize)];
+    }
+
+    public LongHashSet(LongHashSet other) {
+        this.table = other.table.clone();
+        this.size = other.size;
+        this.containsZero = other.containsZero;
+    }
+
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = value;
+        size++;
+        if (size > table.length * LOAD_FACTOR) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    public boolean remove(long value) {
+        if (value == EMPTY) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == value) {
+                table[index] = EMPTY;
+                size--;
+                // Re-insert the rest of the probe run so lookups don't stop early
+                int next = (index + 1) & mask;
+                while (table[next] != EMPTY) {
+                    long moved = table[next];
+                    table[next] = EMPTY;
+                    size--;
+                    add(moved);
+                    next = (next + 1) & mask;
+                }
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        size = 0;
+        containsZero = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long[] toArray() {
+        long[] result = new long[size];
+        int i = 0;
+        if (containsZero) {
+            result[i++] = EMPTY;
+        }
+        for (long value : table) {
+            if (value != EMPTY) {
+                result[i++] = value;
+            }
+        }
+        return result;
+    }
+
+    // Approximate heap footprint of the backing table
+    public long sizeInBytes() {
+        return 16L + (long) table.length * Long.BYTES;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] old = table;
+        table = new long[newCapacity];
+        size = containsZero ? 1 : 0;
+        for (long value : old) {
+            if (value != EMPTY) {
+                add(value);
+            }
+        }
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        return Math.max(capacity, 8);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
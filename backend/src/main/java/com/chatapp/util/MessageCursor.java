@@ -0,0 +1,37 @@
+package com.chatapp.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Opaque paging cursors for message history. A cursor wraps a message id so clients
+// can't depend on its format.
+public final class MessageCursor {
+
+    private static final String PREFIX = "m:";
+
+    private MessageCursor() {
+    }
+
+    public static String encode(Long messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + messageId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public static Long decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            if (!raw.startsWith(PREFIX)) {
+                throw new RuntimeException("Invalid cursor");
+            }
+            return Long.parseLong(raw.substring(PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid cursor");
+        }
+    }
+}
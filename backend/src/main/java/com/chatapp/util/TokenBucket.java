@@ -0,0 +1,53 @@
+package com.chatapp.util;
+
+// Token bucket refilled continuously at a fixed rate up to its burst size. A take can be
+// asked to leave a reserve in the bucket, so callers of lower priority are turned away
+// while higher-priority callers still get tokens. Thread-safe.
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long refilledAt;
+
+    public TokenBucket(double tokensPerSecond, double burst) {
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    // Takes one token if at least reserve tokens would be left. Returns 0 when taken,
+    // otherwise the nanoseconds until it could be.
+    public synchronized long tryTake(double reserve) {
+        refill();
+        double missing = reserve + 1 - tokens;
+        if (missing <= 0) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil(missing / tokensPerNano);
+    }
+
+    // Gives back a token taken for work that was turned away after all
+    public synchronized void refund() {
+        refill();
+        tokens = Math.min(burst, tokens + 1);
+    }
+
+    public double getBurst() {
+        return burst;
+    }
+
+    public synchronized double getTokens() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,115 @@
+package com.chatapp.broker;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// /topic fan-out throughput of Spring's SimpleBroker against ShardedBrokerMessageHandler,
+// for many small rooms, a few large ones and many two-person rooms. Four publisher
+// threads send to rooms round-robin; the outbound channel only counts deliveries, so
+// this measures matching and dispatch, not socket writes. Prints deliveries per second.
+@Tag("benchmark")
+class BrokerFanOutBenchmark {
+
+    private static final int PUBLISHERS = 4;
+    private static final int LANES = 4;
+    private static final int LANE_CAPACITY = 10000;
+
+    // rooms, subscribers per room, messages. Past 1024 destinations SimpleBroker's
+    // resolution cache misses and it scans every subscription per message, hence the
+    // smaller message count for the last scenario.
+    private static final int[][] SCENARIOS = {
+        {1000, 5, 200000},
+        {100, 500, 20000},
+        {5000, 2, 20000}
+    };
+
+    @Test
+    void simpleBrokerVersusShardedBroker() throws Exception {
+        for (int[] scenario : SCENARIOS) {
+            int rooms = scenario[0];
+            int perRoom = scenario[1];
+            int messages = scenario[2];
+            // Warm up both before measuring
+            run(false, rooms, perRoom, messages / 4);
+            run(true, rooms, perRoom, messages / 4);
+            double simple = run(false, rooms, perRoom, messages);
+            double sharded = run(true, rooms, perRoom, messages);
+            System.out.printf("broker rooms=%d perRoom=%d simple=%.0f/s sharded=%.0f/s (x%.2f)%n",
+                rooms, perRoom, simple, sharded, sharded / simple);
+        }
+    }
+
+    // Deliveries per second
+    private double run(boolean sharded, int rooms, int perRoom, int messages) throws Exception {
+        AtomicLong delivered = new AtomicLong();
+        MessageChannel outbound = (message, timeout) -> {
+            delivered.incrementAndGet();
+            return true;
+        };
+        ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        AbstractBrokerMessageHandler broker = sharded
+            ? new ShardedBrokerMessageHandler(inbound, outbound, brokerChannel, List.of("/topic"), LANES, LANE_CAPACITY)
+            : new SimpleBrokerMessageHandler(inbound, outbound, brokerChannel, List.of("/topic"));
+        broker.start();
+
+        int session = 0;
+        for (int room = 0; room < rooms; room++) {
+            for (int i = 0; i < perRoom; i++) {
+                String sessionId = "s" + session++;
+                broker.handleMessage(message(SimpMessageType.CONNECT, sessionId, null, null));
+                broker.handleMessage(message(SimpMessageType.SUBSCRIBE, sessionId, "sub-0", "/topic/group/" + room));
+            }
+        }
+        delivered.set(0);
+
+        long expected = (long) messages * perRoom;
+        ExecutorService publishers = Executors.newFixedThreadPool(PUBLISHERS);
+        long start = System.nanoTime();
+        for (int p = 0; p < PUBLISHERS; p++) {
+            int first = p;
+            publishers.submit(() -> {
+                for (int i = first; i < messages; i += PUBLISHERS) {
+                    broker.handleMessage(message(SimpMessageType.MESSAGE, null, null, "/topic/group/" + (i % rooms)));
+                }
+            });
+        }
+        publishers.shutdown();
+        publishers.awaitTermination(5, TimeUnit.MINUTES);
+        // The sharded broker's lanes may still be draining
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (delivered.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(0, 100_000);
+        }
+        long elapsed = System.nanoTime() - start;
+        broker.stop();
+
+        assertThat(delivered.get()).isEqualTo(expected);
+        return expected / (elapsed / 1e9);
+    }
+
+    private static Message<byte[]> message(SimpMessageType type, String sessionId, String subscriptionId,
+                                           String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[200], accessor.getMessageHeaders());
+    }
+}
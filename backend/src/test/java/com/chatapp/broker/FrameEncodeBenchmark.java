@@ -0,0 +1,91 @@
+package com.chatapp.broker;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.util.MimeTypeUtils;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// CPU time and bytes allocated per delivered frame when one group message fans out to
+// every subscriber of a room: Spring's StompEncoder encodes the whole frame per session,
+// SharedFrameStompEncoder encodes the shared part once per message. Headers are built
+// up front, as the broker has them, so only encoding is measured. Prints per-frame figures.
+@Tag("benchmark")
+class FrameEncodeBenchmark {
+
+    private static final int SUBSCRIBERS = 2000;
+    private static final int MESSAGES = 10;
+    private static final int ROUNDS = 5;
+
+    private static final byte[] PAYLOAD = ("{\"username\":\"alice\",\"content\":\"" + "x".repeat(300)
+        + "\",\"messageType\":\"CHAT\",\"chatRoomId\":42,\"isGroup\":true,\"timestamp\":1792258937608}")
+        .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void perSessionEncodeVersusSharedFrame() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        StompEncoder[] encoders = {new StompEncoder(), new SharedFrameStompEncoder()};
+
+        // The first round is warm-up
+        for (int round = 0; round < ROUNDS; round++) {
+            for (StompEncoder encoder : encoders) {
+                // Fresh shared frames, so every message is encoded from scratch once
+                List<List<MessageHeaders>> messages = fanOut();
+                long bytes = 0;
+                long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+                long cpuBefore = threads.getCurrentThreadCpuTime();
+                for (List<MessageHeaders> subscribers : messages) {
+                    for (MessageHeaders headers : subscribers) {
+                        bytes += encoder.encode(headers, PAYLOAD).length;
+                    }
+                }
+                long frames = (long) MESSAGES * SUBSCRIBERS;
+                System.out.printf("encode %s cpu=%.0fns/frame allocated=%.0fB/frame frame=%dB%n",
+                    encoder.getClass().getSimpleName(),
+                    (threads.getCurrentThreadCpuTime() - cpuBefore) / (double) frames,
+                    (threads.getCurrentThreadAllocatedBytes() - allocatedBefore) / (double) frames,
+                    bytes / frames);
+            }
+        }
+
+        // Both produce the same frame
+        MessageHeaders headers = fanOut().get(0).get(7);
+        StompDecoder decoder = new StompDecoder();
+        assertThat(decoder.decode(ByteBuffer.wrap(new SharedFrameStompEncoder().encode(headers, PAYLOAD))).get(0)
+            .getHeaders().get(StompHeaderAccessor.NATIVE_HEADERS))
+            .isEqualTo(decoder.decode(ByteBuffer.wrap(new StompEncoder().encode(headers, PAYLOAD))).get(0)
+                .getHeaders().get(StompHeaderAccessor.NATIVE_HEADERS));
+    }
+
+    // Per-subscriber headers of MESSAGES messages, one shared frame per message
+    private static List<List<MessageHeaders>> fanOut() {
+        List<List<MessageHeaders>> messages = new ArrayList<>(MESSAGES);
+        for (int m = 0; m < MESSAGES; m++) {
+            SharedFrameStompEncoder.SharedFrame frame = new SharedFrameStompEncoder.SharedFrame();
+            List<MessageHeaders> subscribers = new ArrayList<>(SUBSCRIBERS);
+            for (int s = 0; s < SUBSCRIBERS; s++) {
+                StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+                accessor.setSessionId("s" + s);
+                accessor.setSubscriptionId("sub-0");
+                accessor.setDestination("/topic/group/42");
+                accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+                accessor.setNativeHeader(StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER, "s" + s + "-" + m);
+                accessor.setHeader(SharedFrameStompEncoder.SharedFrame.HEADER, frame);
+                subscribers.add(accessor.getMessageHeaders());
+            }
+            messages.add(subscribers);
+        }
+        return messages;
+    }
+}
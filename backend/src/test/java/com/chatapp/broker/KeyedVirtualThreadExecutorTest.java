@@ -0,0 +1,113 @@
+package com.chatapp.broker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyedVirtualThreadExecutorTest {
+
+    private static final int KEYS = 4;
+    private static final int TASKS_PER_KEY = 200;
+
+    private KeyedVirtualThreadExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        // A small per-key queue so submitters also block and wake up during the test
+        executor = new KeyedVirtualThreadExecutor(MessageOrderingKeys::inbound, 4);
+        executor.setThreadNamePrefix("keyed-test-");
+        executor.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void runsEachKeysTasksInSubmitOrder() throws InterruptedException {
+        Map<String, List<Integer>> ran = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(KEYS * TASKS_PER_KEY);
+        for (int i = 0; i < TASKS_PER_KEY; i++) {
+            for (int k = 0; k < KEYS; k++) {
+                String room = "room-" + k;
+                int index = i;
+                Message<byte[]> message = send("s" + ThreadLocalRandom.current().nextInt(10),
+                    "{\"username\":\"alice\",\"chatRoomId\":\"" + room + "\"}");
+                executor.execute(runnable(message, () -> {
+                    // Uneven task lengths so an unordered executor would reorder them
+                    if (ThreadLocalRandom.current().nextInt(8) == 0) {
+                        Thread.yield();
+                    }
+                    ran.computeIfAbsent(room, r -> Collections.synchronizedList(new ArrayList<>())).add(index);
+                    done.countDown();
+                }));
+            }
+        }
+
+        assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(ran).hasSize(KEYS);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < TASKS_PER_KEY; i++) {
+            expected.add(i);
+        }
+        ran.values().forEach(indexes -> assertThat(indexes).containsExactlyElementsOf(expected));
+    }
+
+    @Test
+    void retiresDrainedKeys() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(runnable(send("s1", "{\"chatRoomId\":\"1\"}"), done::countDown));
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (executor.getActiveKeyCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(executor.getActiveKeyCount()).isZero();
+    }
+
+    static Message<byte[]> send(String sessionId, String body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination("/app/chat.sendMessage");
+        accessor.setSessionId(sessionId);
+        return MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private static MessageHandlingRunnable runnable(Message<?> message, Runnable work) {
+        return new MessageHandlingRunnable() {
+            @Override
+            public Message<?> getMessage() {
+                return message;
+            }
+
+            @Override
+            public MessageHandler getMessageHandler() {
+                return m -> work.run();
+            }
+
+            @Override
+            public void run() {
+                work.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,58 @@
+package com.chatapp.broker;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.chatapp.broker.KeyedVirtualThreadExecutorTest.send;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageOrderingKeysTest {
+
+    @Test
+    void ordersGroupMessagesPerRoomAcrossSessions() {
+        Object key = MessageOrderingKeys.inbound(send("s1", "{\"username\":\"alice\",\"chatRoomId\":\"7\"}"));
+        assertThat(MessageOrderingKeys.inbound(send("s2", "{\"chatRoomId\":7,\"username\":\"bob\"}"))).isEqualTo(key);
+        assertThat(MessageOrderingKeys.inbound(send("s1", "{\"username\":\"alice\",\"chatRoomId\":\"8\"}")))
+            .isNotEqualTo(key);
+    }
+
+    @Test
+    void ordersPrivateMessagesPerPairInEitherDirection() {
+        Object key = MessageOrderingKeys.inbound(send("s1", "{\"username\":\"alice\",\"targetUser\":\"bob\"}"));
+        assertThat(MessageOrderingKeys.inbound(send("s2", "{\"username\":\"bob\",\"targetUser\":\"alice\"}")))
+            .isEqualTo(key);
+        assertThat(MessageOrderingKeys.inbound(send("s3", "{\"username\":\"alice\",\"targetUser\":\"carol\"}")))
+            .isNotEqualTo(key);
+
+        // A target user wins over a room, as in ChatController.sendMessage
+        assertThat(MessageOrderingKeys.inbound(send("s1",
+            "{\"username\":\"alice\",\"chatRoomId\":\"7\",\"targetUser\":\"bob\",\"meta\":{\"chatRoomId\":\"9\"}}")))
+            .isEqualTo(key);
+    }
+
+    @Test
+    void sharesOneKeyForThePublicChannel() {
+        Object key = MessageOrderingKeys.inbound(send("s1", "{\"username\":\"alice\",\"content\":\"hi\"}"));
+        assertThat(MessageOrderingKeys.inbound(send("s2", "{\"username\":\"bob\"}"))).isEqualTo(key);
+        assertThat(key).isNotEqualTo("s1");
+    }
+
+    @Test
+    void fallsBackToTheSession() {
+        assertThat(MessageOrderingKeys.inbound(send("s1", "not json"))).isEqualTo("s1");
+        assertThat(MessageOrderingKeys.inbound(send("s1", "[1, 2]"))).isEqualTo("s1");
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination("/app/chat.typing");
+        accessor.setSessionId("s2");
+        Message<byte[]> typing = MessageBuilder.createMessage("{\"chatRoomId\":\"7\"}".getBytes(StandardCharsets.UTF_8),
+            accessor.getMessageHeaders());
+        assertThat(MessageOrderingKeys.inbound(typing)).isEqualTo("s2");
+        assertThat(MessageOrderingKeys.outbound(send("s3", "{\"chatRoomId\":\"7\"}"))).isEqualTo("s3");
+    }
+}
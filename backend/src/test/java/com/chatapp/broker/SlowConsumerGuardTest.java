@@ -0,0 +1,152 @@
+package com.chatapp.broker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// The outbound channel handler stands in for the STOMP protocol handler: it encodes each
+// frame with SharedFrameStompEncoder and queues it, like the transport's send buffer;
+// the test writes queued frames to the session to play a consumer catching up.
+class SlowConsumerGuardTest {
+
+    private static final String PRESENCE = "/user/queue/presence";
+    private static final String CHAT = "/user/queue/private";
+
+    private final WebSocketSession session = mock(WebSocketSession.class);
+    private final ExecutorSubscribableChannel outboundChannel = new ExecutorSubscribableChannel();
+    private final SharedFrameStompEncoder encoder = new SharedFrameStompEncoder();
+    private final List<TextMessage> unsent = new ArrayList<>();
+    private final List<String> handled = new ArrayList<>();
+    private SlowConsumerGuard guard;
+    private WebSocketSession counting;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(session.getId()).thenReturn("s1");
+        guard = new SlowConsumerGuard();
+        ReflectionTestUtils.setField(guard, "clientOutboundChannel", outboundChannel);
+        ReflectionTestUtils.setField(guard, "eventPublisher", mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(guard, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(guard, "softLimit", 4);
+        ReflectionTestUtils.setField(guard, "hardLimit", 8);
+        ReflectionTestUtils.setField(guard, "policy", SlowConsumerGuard.NonCriticalPolicy.COALESCE);
+        ReflectionTestUtils.setField(guard, "nonCriticalDestinations", List.of(PRESENCE));
+        ReflectionTestUtils.setField(guard, "sampleIntervalMs", 3_600_000L);
+        guard.init();
+
+        outboundChannel.addInterceptor(guard);
+        outboundChannel.subscribe(message -> {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+            handled.add(accessor.getDestination());
+            // A frame the protocol handler decides not to write (here: empty payload)
+            if (((byte[]) message.getPayload()).length > 0) {
+                unsent.add(new TextMessage(encoder.encode(accessor.getMessageHeaders(), (byte[]) message.getPayload())));
+            }
+        });
+
+        WebSocketHandler handler = mock(WebSocketHandler.class);
+        doAnswer(invocation -> counting = invocation.getArgument(0)).when(handler).afterConnectionEstablished(any());
+        guard.decorate(handler).afterConnectionEstablished(session);
+    }
+
+    @AfterEach
+    void tearDown() {
+        guard.stop();
+    }
+
+    @Test
+    void countsChannelFramesUntilWritten() throws Exception {
+        send(CHAT, "a");
+        send(CHAT, "b");
+        assertThat(guard.getMaxDepth()).isEqualTo(2);
+
+        writeNext();
+        assertThat(guard.getMaxDepth()).isEqualTo(1);
+        writeNext();
+        assertThat(guard.getMaxDepth()).isZero();
+    }
+
+    @Test
+    void framesWrittenOutsideTheChannelDoNotCount() throws Exception {
+        send(CHAT, "a");
+        send(CHAT, "b");
+
+        // Written by the protocol handler itself (an ERROR frame, a heartbeat)
+        counting.sendMessage(new TextMessage("\n"));
+        counting.sendMessage(new TextMessage("ERROR\nmessage:bad frame\n\n\0"));
+
+        assertThat(guard.getMaxDepth()).isEqualTo(2);
+    }
+
+    @Test
+    void frameTheHandlerDoesNotWriteIsReleased() {
+        send(CHAT, "");
+        assertThat(guard.getMaxDepth()).isZero();
+    }
+
+    @Test
+    void coalescesNonCriticalFramesPastTheSoftLimitAndReleasesTheLatest() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            send(CHAT, "m" + i);
+        }
+        send(PRESENCE, "old");
+        send(PRESENCE, "new");
+        assertThat(handled).doesNotContain(PRESENCE);
+
+        // Catching up to half the soft limit releases the latest held frame
+        writeNext();
+        writeNext();
+        assertThat(handled).containsOnlyOnce(PRESENCE);
+        assertThat(new String(unsent.get(unsent.size() - 1).asBytes())).contains("new");
+    }
+
+    @Test
+    void disconnectsAtTheHardLimit() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            send(CHAT, "m" + i);
+        }
+        verify(session, never()).close(any());
+
+        send(CHAT, "over");
+        verify(session).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    private void send(String destination, String body) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setSessionId("s1");
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination(destination);
+        accessor.setHeader(SimpMessageHeaderAccessor.MESSAGE_TYPE_HEADER, SimpMessageType.MESSAGE);
+        Message<byte[]> message = MessageBuilder.createMessage(body.getBytes(), accessor.getMessageHeaders());
+        outboundChannel.send(message);
+    }
+
+    private void writeNext() throws Exception {
+        counting.sendMessage(unsent.remove(0));
+    }
+}
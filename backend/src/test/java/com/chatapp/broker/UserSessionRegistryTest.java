@@ -0,0 +1,140 @@
+package com.chatapp.broker;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.config.ChatPrincipal;
+import com.chatapp.dto.ChatEvent;
+import com.chatapp.service.CatchUpService;
+import com.chatapp.service.PresenceService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserSessionRegistryTest {
+
+    private static final ChatPrincipal ALICE = new ChatPrincipal(1L, "alice");
+    private static final ChatPrincipal BOB = new ChatPrincipal(2L, "bob");
+    private static final ChatEvent EVENT = ChatEvent.privateMessage("bob", "hi", "CHAT", 0L, "alice");
+
+    private final List<Message<?>> outbound = new ArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CatchUpService catchUpService = mock(CatchUpService.class);
+    private UserSessionRegistry registry;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ClusterService clusterService = mock(ClusterService.class);
+        when(clusterService.isLocalInbox(anyString())).thenReturn(true);
+        // The inbox assigns the seq and hands back the body once per user
+        doAnswer(invocation -> {
+            ((Consumer<byte[]>) invocation.getArgument(2))
+                .accept(("{\"to\":\"" + invocation.getArgument(0) + "\"}").getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(catchUpService).publishUserEvent(anyString(), any(), any());
+
+        registry = new UserSessionRegistry();
+        ReflectionTestUtils.setField(registry, "clientOutboundChannel", (MessageChannel) (message, timeout) -> outbound.add(message));
+        ReflectionTestUtils.setField(registry, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(registry, "clusterService", clusterService);
+        ReflectionTestUtils.setField(registry, "presenceService", mock(PresenceService.class));
+        ReflectionTestUtils.setField(registry, "catchUpService", catchUpService);
+        registry.init();
+    }
+
+    @Test
+    void deliversOncePerSessionAndSkipsTheOrigin() {
+        subscribe(ALICE, "a1", "sub-0");
+        subscribe(ALICE, "a2", "sub-3");
+        subscribe(BOB, "b1", "sub-0");
+        subscribe(BOB, "b2", "sub-0");
+
+        int delivered = registry.deliver(EVENT, List.of("bob", "alice", "bob"), "b1", null);
+
+        assertThat(delivered).isEqualTo(3);
+        assertThat(outbound).extracting(message -> SimpMessageHeaderAccessor.getSessionId(message.getHeaders()))
+            .containsExactly("b2", "a1", "a2");
+        assertThat(outbound).extracting(message -> SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders()))
+            .containsExactly("sub-0", "sub-0", "sub-3");
+        // One encode per user: Alice's sessions share a frame, Bob's has its own
+        assertThat(sharedFrame(outbound.get(1))).isSameAs(sharedFrame(outbound.get(2)))
+            .isNotSameAs(sharedFrame(outbound.get(0)));
+        assertThat(outbound).allSatisfy(message ->
+            assertThat(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))
+                .isEqualTo(UserSessionRegistry.PRIVATE_DESTINATION));
+    }
+
+    @Test
+    void ignoresOtherDestinations() {
+        subscribe(ALICE, "a1", "sub-0", "/topic/group/1");
+
+        assertThat(registry.deliver(EVENT, List.of("alice"), null, null)).isZero();
+        assertThat(meterRegistry.counter("chat.delivery.private.undelivered").count()).isEqualTo(1);
+    }
+
+    @Test
+    void unsubscribeAndDisconnectRemoveSessions() {
+        subscribe(ALICE, "a1", "sub-0");
+        subscribe(ALICE, "a2", "sub-0");
+        subscribe(ALICE, "a3", "sub-0");
+
+        registry.onUnsubscribe(new SessionUnsubscribeEvent(this, frame(SimpMessageType.UNSUBSCRIBE, "a1", "sub-0", null), ALICE));
+        registry.onDisconnect(new SessionDisconnectEvent(this, frame(SimpMessageType.DISCONNECT, "a2", null, null), "a2",
+            CloseStatus.NORMAL, ALICE));
+
+        assertThat(registry.deliver(EVENT, List.of("alice"), null, null)).isEqualTo(1);
+        assertThat(SimpMessageHeaderAccessor.getSessionId(outbound.get(0).getHeaders())).isEqualTo("a3");
+    }
+
+    @Test
+    void userWithoutSessionsStillGetsAnInboxEntry() {
+        assertThat(registry.deliver(EVENT, List.of("alice"), null, null)).isZero();
+
+        verify(catchUpService).publishUserEvent(eq("alice"), any(), any());
+        assertThat(meterRegistry.counter("chat.delivery.private.undelivered").count()).isEqualTo(1);
+    }
+
+    private void subscribe(ChatPrincipal user, String sessionId, String subscriptionId) {
+        subscribe(user, sessionId, subscriptionId, UserSessionRegistry.PRIVATE_DESTINATION);
+    }
+
+    private void subscribe(ChatPrincipal user, String sessionId, String subscriptionId, String destination) {
+        registry.onSubscribe(new SessionSubscribeEvent(this,
+            frame(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination), user));
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Object sharedFrame(Message<?> message) {
+        return message.getHeaders().get(SharedFrameStompEncoder.SharedFrame.HEADER);
+    }
+}
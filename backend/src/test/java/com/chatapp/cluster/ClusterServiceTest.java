@@ -0,0 +1,131 @@
+package com.chatapp.cluster;
+
+import com.chatapp.dto.MembershipEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ClusterServiceTest {
+
+    private final ClusterTransport transport = mock(ClusterTransport.class);
+    private final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ClusterService clusterService;
+    private ClusterTransport.Listener listener;
+
+    @BeforeEach
+    void setUp() {
+        clusterService = new ClusterService();
+        ReflectionTestUtils.setField(clusterService, "transport", transport);
+        ReflectionTestUtils.setField(clusterService, "eventPublisher", eventPublisher);
+        ReflectionTestUtils.setField(clusterService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(clusterService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(clusterService, "enabled", true);
+        ReflectionTestUtils.setField(clusterService, "nodeId", "a");
+        ReflectionTestUtils.setField(clusterService, "virtualNodes", 128);
+        clusterService.init();
+        clusterService.join();
+
+        ArgumentCaptor<ClusterTransport.Listener> captor = ArgumentCaptor.forClass(ClusterTransport.Listener.class);
+        verify(transport).join(eq("a"), captor.capture());
+        listener = captor.getValue();
+        listener.onMembersChanged(Set.of("a", "b", "c"));
+    }
+
+    @Test
+    void persistsEachConversationOnOneNode() {
+        // Both directions of every conversation agree on the node
+        for (int i = 0; i < 100; i++) {
+            String alice = "alice" + i;
+            String bob = "bob" + i;
+            assertThat(clusterService.conversationNodeOf(alice, bob))
+                .isEqualTo(clusterService.conversationNodeOf(bob, alice));
+            assertThat(clusterService.isLocalConversation(alice, bob))
+                .isEqualTo("a".equals(clusterService.conversationNodeOf(alice, bob)));
+        }
+
+        String remote = null;
+        for (int i = 0; remote == null; i++) {
+            if (!clusterService.isLocalConversation("alice", "user" + i)) {
+                remote = "user" + i;
+            }
+        }
+        ClusterService.PrivateMessage message = new ClusterService.PrivateMessage("alice", remote, "hi", "CHAT", 1L);
+        clusterService.forwardPrivateMessage(message);
+        ArgumentCaptor<ClusterEnvelope> envelope = ArgumentCaptor.forClass(ClusterEnvelope.class);
+        verify(transport).send(eq(clusterService.conversationNodeOf(remote, "alice")), envelope.capture());
+        assertThat(envelope.getValue().type()).isEqualTo(ClusterEnvelope.Type.PRIVATE);
+
+        // On the receiving node it becomes an event
+        listener.onEnvelope(envelope.getValue());
+        verify(eventPublisher).publishEvent(new ClusterService.PrivateMessageReceived(message));
+    }
+
+    @Test
+    void handsMembershipNoticesToTheRoomsOwner() {
+        long chatRoomId = 1;
+        while (clusterService.isLocal(chatRoomId)) {
+            chatRoomId++;
+        }
+        MembershipEvent event = new MembershipEvent(1L, "1 member(s) added, 0 removed", "MEMBERSHIP", 1L, chatRoomId,
+            List.of(2L), List.of(), 3L, null);
+        clusterService.forwardRoomMembership(event);
+        ArgumentCaptor<ClusterEnvelope> envelope = ArgumentCaptor.forClass(ClusterEnvelope.class);
+        verify(transport).send(eq(clusterService.ownerOf(chatRoomId)), envelope.capture());
+        assertThat(envelope.getValue().type()).isEqualTo(ClusterEnvelope.Type.ROOM_MEMBERSHIP);
+
+        listener.onEnvelope(envelope.getValue());
+        verify(eventPublisher).publishEvent(new ClusterService.RoomMembershipReceived(event));
+    }
+
+    @Test
+    void relaysCommittedChangesToEveryOtherNode() {
+        clusterService.relayMembershipChanged(7L);
+        clusterService.relayHistoryChanged(List.of(7L, 8L));
+        clusterService.relayHistoryChanged(List.of());
+        clusterService.relayContactChanged(1L, 2L, false);
+        List<ClusterService.RoomCount> counts = List.of(new ClusterService.RoomCount(7L, 12, 120));
+        List<ClusterService.ReadPosition> markers = List.of(new ClusterService.ReadPosition(1L, 7L, 12, 120));
+        clusterService.relayReadStateChanged(counts, markers);
+        clusterService.relayReadStateChanged(List.of(), List.of());
+        List<ClusterService.SearchDocument> documents = List.of(new ClusterService.SearchDocument(120, 7L, "hi"));
+        clusterService.relayMessagesIndexed(documents);
+
+        ArgumentCaptor<ClusterEnvelope> envelopes = ArgumentCaptor.forClass(ClusterEnvelope.class);
+        verify(transport, times(5)).broadcast(envelopes.capture());
+        assertThat(envelopes.getAllValues()).extracting(ClusterEnvelope::type).containsExactly(
+            ClusterEnvelope.Type.MEMBERSHIP, ClusterEnvelope.Type.HISTORY, ClusterEnvelope.Type.CONTACT,
+            ClusterEnvelope.Type.READ_STATE, ClusterEnvelope.Type.SEARCH);
+
+        envelopes.getAllValues().forEach(listener::onEnvelope);
+        verify(eventPublisher).publishEvent(new ClusterService.MembershipChanged(7L));
+        verify(eventPublisher).publishEvent(new ClusterService.HistoryChanged(List.of(7L, 8L)));
+        verify(eventPublisher).publishEvent(new ClusterService.ContactChanged(1L, 2L, false));
+        verify(eventPublisher).publishEvent(new ClusterService.ReadStateChanged(counts, markers));
+        verify(eventPublisher).publishEvent(new ClusterService.MessagesIndexed(documents));
+    }
+
+    @Test
+    void relaysNothingWhenDisabled() {
+        ReflectionTestUtils.setField(clusterService, "enabled", false);
+        clusterService.relayMembershipChanged(7L);
+        clusterService.relayContactChanged(1L, 2L, true);
+        assertThat(clusterService.isLocalConversation("alice", "bob")).isTrue();
+        verify(transport, never()).broadcast(any());
+    }
+}
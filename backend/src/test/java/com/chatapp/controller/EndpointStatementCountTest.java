@@ -0,0 +1,99 @@
+package com.chatapp.controller;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.chatapp.service.AuthService;
+import com.chatapp.service.ChatService;
+import com.chatapp.service.ContactService;
+import com.chatapp.support.SqlStatementCounter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Lazy contacts/participants with entity graphs: the statements an endpoint runs must
+// not grow with the caller's contacts, rooms or messages. Each endpoint is called cold
+// (nothing cached for the user yet) for a small and a ten times larger account.
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class EndpointStatementCountTest {
+
+    // Upper bound for any of these endpoints, cold
+    private static final int MAX_STATEMENTS = 3;
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Test
+    void statementCountDoesNotGrowWithTheAccount() throws Exception {
+        Map<String, Integer> small = countStatements(createAccount(5, 1));
+        Map<String, Integer> large = countStatements(createAccount(50, 10));
+
+        assertThat(large).isEqualTo(small);
+        assertThat(small.values()).allSatisfy(count -> assertThat(count).isLessThanOrEqualTo(MAX_STATEMENTS));
+    }
+
+    private record Account(Long userId, Long roomId) {
+    }
+
+    // A user with the given number of contacts and group rooms, each room with its
+    // contacts as members and a few messages
+    private Account createAccount(int contacts, int rooms) {
+        User owner = signup();
+        List<Long> contactIds = new ArrayList<>();
+        for (int i = 0; i < contacts; i++) {
+            User contact = signup();
+            contactService.addContactByPhone(owner.getId(), contact.getPhoneNumber());
+            contactIds.add(contact.getId());
+        }
+        Long roomId = null;
+        for (int r = 0; r < rooms; r++) {
+            ChatRoom room = chatService.createGroupChat("room-" + r, "", owner.getId(), contactIds);
+            for (int m = 0; m < 5; m++) {
+                chatService.sendMessage(room.getId(), contactIds.get(m % contactIds.size()), "hello " + m, "CHAT");
+            }
+            roomId = room.getId();
+        }
+        return new Account(owner.getId(), roomId);
+    }
+
+    private User signup() {
+        int n = SEQUENCE.incrementAndGet();
+        return authService.signup("stmt-user-" + n, "Statement User " + n, "+2000" + n, "secret");
+    }
+
+    private Map<String, Integer> countStatements(Account account) throws Exception {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String path : List.of("/api/chat/rooms", "/api/chat/rooms/summary", "/api/chat/contacts",
+                "/api/chat/rooms/" + account.roomId() + "/messages")) {
+            SqlStatementCounter.reset();
+            mockMvc.perform(get(path).header("User-Id", account.userId())).andExpect(status().isOk());
+            counts.put(path.replace(String.valueOf(account.roomId()), "{id}"), SqlStatementCounter.count());
+        }
+        return counts;
+    }
+}
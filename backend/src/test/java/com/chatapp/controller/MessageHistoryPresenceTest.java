@@ -0,0 +1,85 @@
+package com.chatapp.controller;
+
+import com.chatapp.config.ChatPrincipal;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.chatapp.service.AuthService;
+import com.chatapp.service.ChatService;
+import com.chatapp.service.PresenceService;
+import com.jayway.jsonpath.JsonPath;
+import org.hamcrest.Matcher;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// History is served from memory, but a sender's presence in it must be current
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class MessageHistoryPresenceTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Test
+    void senderPresenceFollowsSessions() throws Exception {
+        User reader = authService.signup("presence-reader", "Reader", "+3000001", "secret");
+        User sender = authService.signup("presence-sender", "Sender", "+3000002", "secret");
+        ChatRoom room = chatService.createGroupChat("presence", "", reader.getId(), List.of(sender.getId()));
+        chatService.sendMessage(room.getId(), sender.getId(), "hello", "CHAT");
+        String path = "/api/chat/rooms/" + room.getId() + "/messages";
+        String senderJson = "$.users['" + sender.getId() + "']";
+
+        String signedUp = JsonPath.read(mockMvc.perform(get(path).header("User-Id", reader.getId()))
+            .andReturn().getResponse().getContentAsString(), senderJson + ".lastSeen");
+        expectPresence(path, reader, senderJson, false, equalTo(signedUp));
+
+        ChatPrincipal principal = new ChatPrincipal(sender.getId(), sender.getUsername());
+        presenceService.onSessionConnected(new SessionConnectedEvent(this, stompMessage("s1"), principal));
+        expectPresence(path, reader, senderJson, true, equalTo(signedUp));
+
+        presenceService.onSessionDisconnect(
+            new SessionDisconnectEvent(this, stompMessage("s1"), "s1", CloseStatus.NORMAL, principal));
+        expectPresence(path, reader, senderJson, false, greaterThan(signedUp));
+    }
+
+    private void expectPresence(String path, User reader, String senderJson, boolean online,
+                                Matcher<String> lastSeen) throws Exception {
+        mockMvc.perform(get(path).header("User-Id", reader.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath(senderJson + ".isOnline").value(online))
+            .andExpect(jsonPath(senderJson + ".lastSeen", lastSeen));
+    }
+
+    private static Message<byte[]> stompMessage(String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create();
+        headers.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+}
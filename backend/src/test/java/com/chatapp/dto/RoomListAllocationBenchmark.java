@@ -0,0 +1,109 @@
+package com.chatapp.dto;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Bytes allocated and CPU time to write the /rooms response for 1k rooms x 100
+// participants drawn from 5k users: the old shape (a HashMap per room and per
+// participant, reflected over by Jackson) against ChatRoomsResponse's streaming
+// serializer with users written once. Prints per-response figures.
+@Tag("benchmark")
+class RoomListAllocationBenchmark {
+
+    private static final int ROOMS = 1000;
+    private static final int PARTICIPANTS = 100;
+    private static final int USERS = 5000;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 10;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Test
+    void hashMapResponseVersusStreamingSerializer() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<ChatRoom> rooms = rooms();
+
+        // The first round is warm-up
+        for (int round = 0; round < ROUNDS; round++) {
+            for (boolean streaming : new boolean[] {false, true}) {
+                long bytes = 0;
+                long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+                long cpuBefore = threads.getCurrentThreadCpuTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    Object response = streaming ? new ChatRoomsResponse(rooms) : hashMapResponse(rooms);
+                    bytes += objectMapper.writeValueAsBytes(response).length;
+                }
+                System.out.printf("rooms %s cpu=%.1fms allocated=%.1fMB body=%.1fMB%n",
+                    streaming ? "streaming" : "hashmap",
+                    (threads.getCurrentThreadCpuTime() - cpuBefore) / 1e6 / ITERATIONS,
+                    (threads.getCurrentThreadAllocatedBytes() - allocatedBefore) / 1e6 / ITERATIONS,
+                    bytes / 1e6 / ITERATIONS);
+            }
+        }
+    }
+
+    private static List<ChatRoom> rooms() {
+        List<User> users = new ArrayList<>(USERS);
+        for (int u = 0; u < USERS; u++) {
+            User user = new User("user" + u, "User " + u, "+1555" + u, "secret");
+            user.setId((long) u);
+            user.setLastSeen(LocalDateTime.now());
+            users.add(user);
+        }
+        List<ChatRoom> rooms = new ArrayList<>(ROOMS);
+        for (int r = 0; r < ROOMS; r++) {
+            ChatRoom room = new ChatRoom("room " + r, ChatRoom.ChatType.GROUP, users.get(r));
+            room.setId((long) r);
+            Set<User> participants = new LinkedHashSet<>();
+            for (int p = 0; p < PARTICIPANTS; p++) {
+                participants.add(users.get((r * 7 + p * 31) % USERS));
+            }
+            room.setParticipants(participants);
+            rooms.add(room);
+        }
+        return rooms;
+    }
+
+    // The response shape ChatController used to build
+    private static Map<String, Object> hashMapResponse(List<ChatRoom> rooms) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("chatRooms", rooms.stream().map(RoomListAllocationBenchmark::roomMap).toList());
+        return response;
+    }
+
+    private static Map<String, Object> roomMap(ChatRoom chatRoom) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("id", chatRoom.getId());
+        response.put("name", chatRoom.getName());
+        response.put("type", chatRoom.getType());
+        response.put("description", chatRoom.getDescription());
+        response.put("createdAt", chatRoom.getCreatedAt());
+        response.put("participants", chatRoom.getParticipants().stream().map(RoomListAllocationBenchmark::userMap).toList());
+        return response;
+    }
+
+    private static Map<String, Object> userMap(User user) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("id", user.getId());
+        response.put("username", user.getUsername());
+        response.put("name", user.getName());
+        response.put("phoneNumber", user.getPhoneNumber());
+        response.put("isOnline", user.isOnline());
+        response.put("lastSeen", user.getLastSeen());
+        return response;
+    }
+}
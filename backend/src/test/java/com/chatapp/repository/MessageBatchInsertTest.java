@@ -0,0 +1,66 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Pooled sequences and hibernate.jdbc.batch_size: saving many messages costs one
+// sequence call and one batched insert per 50 rows, not a round trip per row
+@SpringBootTest
+@ActiveProfiles("test")
+class MessageBatchInsertTest {
+
+    private static final int MESSAGES = 10_000;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void savesTenThousandMessagesInBatches() {
+        User sender = userRepository.save(new User("batch-sender", "Batch Sender", "+100000001", "secret"));
+        ChatRoom room = new ChatRoom();
+        room.setName("batch-room");
+        room.setType(ChatRoom.ChatType.GROUP);
+        ChatRoom savedRoom = chatRoomRepository.save(room);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Message> messages = new ArrayList<>(MESSAGES);
+            for (int i = 0; i < MESSAGES; i++) {
+                messages.add(new Message(sender, savedRoom, "message " + i, "CHAT"));
+            }
+            messageRepository.saveAll(messages);
+        });
+
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(MESSAGES);
+        // About one statement per 50 rows (202 when written); one per row without batching
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(MESSAGES / 50 * 2);
+    }
+}
@@ -0,0 +1,103 @@
+package com.chatapp.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdmissionServiceTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void eachClassHasItsOwnUserBucket() {
+        AdmissionService admissionService = service(1000, 1000);
+        for (int i = 0; i < 3; i++) {
+            admissionService.admit(AdmissionService.Priority.CONNECT, 1L);
+        }
+        assertThatThrownBy(() -> admissionService.admit(AdmissionService.Priority.CONNECT, 1L))
+            .isInstanceOf(AdmissionService.RejectedException.class);
+
+        // Retrying connects leaves the user's catch-up and other users alone
+        admissionService.admit(AdmissionService.Priority.SYNC, 1L);
+        admissionService.admit(AdmissionService.Priority.CONNECT, 2L);
+    }
+
+    @Test
+    void aRejectedUserDoesNotUseUpNodeTokens() {
+        AdmissionService admissionService = service(0.001, 10);
+        for (int i = 0; i < 3; i++) {
+            admissionService.admit(AdmissionService.Priority.SYNC, 1L);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertThatThrownBy(() -> admissionService.admit(AdmissionService.Priority.SYNC, 1L))
+                .isInstanceOf(AdmissionService.RejectedException.class);
+        }
+        assertThat(tokens()).isBetween(7.0, 7.1);
+    }
+
+    @Test
+    void newSessionsLeaveAQuarterOfTheNodeBucketToCatchUp() {
+        AdmissionService admissionService = service(0.001, 8);
+        for (long userId = 1; userId <= 6; userId++) {
+            admissionService.admit(AdmissionService.Priority.CONNECT, userId);
+        }
+        assertThatThrownBy(() -> admissionService.admit(AdmissionService.Priority.CONNECT, 7L))
+            .isInstanceOf(AdmissionService.RejectedException.class);
+
+        // A node out of tokens turns the user away before charging its bucket
+        admissionService.admit(AdmissionService.Priority.SYNC, 1L);
+        admissionService.admit(AdmissionService.Priority.SYNC, 2L);
+        assertThatThrownBy(() -> admissionService.admit(AdmissionService.Priority.SYNC, 3L))
+            .isInstanceOf(AdmissionService.RejectedException.class);
+        assertThat(tokens()).isBetween(0.0, 0.1);
+        assertThat(meterRegistry.get("chat.admission.rejected").tag("priority", "sync").counter().count())
+            .isEqualTo(1);
+    }
+
+    @Test
+    void sendsGetThroughWhileBackfillIsThrottled() {
+        AdmissionService admissionService = service(0.001, 20);
+        for (long userId = 1; userId <= 10; userId++) {
+            admissionService.admit(AdmissionService.Priority.BACKFILL, userId);
+        }
+        // Backfill stops at half the burst
+        assertThatThrownBy(() -> admissionService.admit(AdmissionService.Priority.BACKFILL, 11L))
+            .isInstanceOf(AdmissionService.RejectedException.class);
+        for (int i = 0; i < 8; i++) {
+            admissionService.admit(AdmissionService.Priority.SEND, null);
+        }
+        assertThatThrownBy(() -> admissionService.admit(AdmissionService.Priority.CONNECT, 12L))
+            .isInstanceOf(AdmissionService.RejectedException.class);
+
+        // Sends leave a tenth for catch-up instead of running the bucket into debt
+        assertThatThrownBy(() -> admissionService.admit(AdmissionService.Priority.SEND, null))
+            .isInstanceOf(AdmissionService.RejectedException.class);
+        assertThat(tokens()).isBetween(2.0, 2.1);
+        admissionService.admit(AdmissionService.Priority.SYNC, 1L);
+        admissionService.admit(AdmissionService.Priority.SYNC, 2L);
+        assertThat(tokens()).isBetween(0.0, 0.1);
+    }
+
+    private AdmissionService service(double nodeRate, double nodeBurst) {
+        AdmissionService admissionService = new AdmissionService();
+        ReflectionTestUtils.setField(admissionService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(admissionService, "enabled", true);
+        ReflectionTestUtils.setField(admissionService, "nodeRate", nodeRate);
+        ReflectionTestUtils.setField(admissionService, "nodeBurst", nodeBurst);
+        ReflectionTestUtils.setField(admissionService, "userRate", 0.001);
+        ReflectionTestUtils.setField(admissionService, "userBurst", 3.0);
+        ReflectionTestUtils.setField(admissionService, "maxUsers", 100);
+        ReflectionTestUtils.setField(admissionService, "jitterMs", 0L);
+        ReflectionTestUtils.setField(admissionService, "maxRetryMs", 30000L);
+        admissionService.init();
+        return admissionService;
+    }
+
+    private double tokens() {
+        return meterRegistry.get("chat.admission.tokens").gauge().value();
+    }
+}
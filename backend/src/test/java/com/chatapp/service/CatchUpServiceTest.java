@@ -0,0 +1,172 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.dto.ChatEvent;
+import com.chatapp.dto.MembershipEvent;
+import com.chatapp.dto.SyncResponse;
+import com.chatapp.model.User;
+import com.chatapp.repository.UserRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CatchUpServiceTest {
+
+    private static final long USER_ID = 1L;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MembershipCache membershipCache = mock(MembershipCache.class);
+    private CatchUpService catchUpService;
+
+    @BeforeEach
+    void setUp() {
+        User user = new User("alice", "Alice", "+1000", "secret");
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findById(USER_ID)).thenReturn(Optional.of(user));
+        when(membershipCache.isMember(anyLong(), eq(USER_ID))).thenReturn(true);
+        ClusterService clusterService = mock(ClusterService.class);
+        when(clusterService.isLocal(any())).thenReturn(true);
+        when(clusterService.isLocalInbox(anyString())).thenReturn(true);
+
+        catchUpService = new CatchUpService();
+        ReflectionTestUtils.setField(catchUpService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(catchUpService, "membershipCache", membershipCache);
+        ReflectionTestUtils.setField(catchUpService, "userRepository", userRepository);
+        ReflectionTestUtils.setField(catchUpService, "clusterService", clusterService);
+        ReflectionTestUtils.setField(catchUpService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(catchUpService, "roomEvents", 4);
+        ReflectionTestUtils.setField(catchUpService, "userEvents", 4);
+        ReflectionTestUtils.setField(catchUpService, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(catchUpService, "maxRoomsPerRequest", 2);
+        catchUpService.init();
+    }
+
+    @Test
+    void returnsTheEventsAfterTheClientsSeq() throws IOException {
+        List<Long> seqs = publishRoom(10L, 3);
+        assertThat(seqs.get(1)).isEqualTo(seqs.get(0) + 1);
+        assertThat(seqs.get(2)).isEqualTo(seqs.get(1) + 1);
+
+        SyncResponse.StreamDelta delta = syncRoom(10L, seqs.get(0));
+        assertThat(delta.reset()).isFalse();
+        assertThat(delta.seq()).isEqualTo(seqs.get(2));
+        assertThat(delta.events()).hasSize(2);
+        assertThat(objectMapper.readTree(delta.events().get(0).rawValue().toString()).get("content").asText())
+            .isEqualTo("message 1");
+
+        SyncResponse.StreamDelta upToDate = syncRoom(10L, seqs.get(2));
+        assertThat(upToDate.reset()).isFalse();
+        assertThat(upToDate.events()).isEmpty();
+    }
+
+    @Test
+    void resetsWhenTheMissedEventsAreNoLongerBuffered() {
+        List<Long> seqs = publishRoom(10L, 6);
+
+        // The ring holds the last 4; a client at the seq just before them misses nothing
+        assertThat(syncRoom(10L, seqs.get(1)).events()).hasSize(4);
+        SyncResponse.StreamDelta evicted = syncRoom(10L, seqs.get(0));
+        assertThat(evicted.reset()).isTrue();
+        assertThat(evicted.seq()).isEqualTo(seqs.get(5));
+        assertThat(evicted.events()).isEmpty();
+
+        // Seqs from an earlier run or ahead of the stream
+        assertThat(syncRoom(10L, 5L).reset()).isTrue();
+        assertThat(syncRoom(10L, seqs.get(5) + 1).reset()).isTrue();
+
+        // A stream nothing was published to yet starts now; the client reloads once
+        SyncResponse.StreamDelta fresh = syncRoom(11L, null);
+        assertThat(fresh.reset()).isTrue();
+        assertThat(syncRoom(11L, fresh.seq()).reset()).isFalse();
+    }
+
+    @Test
+    void sequencesMembershipNoticesWithTheRoomsMessages() throws IOException {
+        List<Long> seqs = publishRoom(10L, 1);
+        catchUpService.publishRoomEvent(10L, new MembershipEvent(USER_ID, "1 member(s) added, 0 removed", "MEMBERSHIP",
+            2L, 10L, List.of(2L), List.of(), 5L, null), payload -> seqs.add(readSeq(payload)));
+        seqs.addAll(publishRoom(10L, 1));
+        assertThat(seqs).containsExactly(seqs.get(0), seqs.get(0) + 1, seqs.get(0) + 2);
+
+        SyncResponse.StreamDelta delta = syncRoom(10L, seqs.get(0));
+        assertThat(delta.events()).hasSize(2);
+        JsonNode notice = objectMapper.readTree(delta.events().get(0).rawValue().toString());
+        assertThat(notice.get("messageType").asText()).isEqualTo("MEMBERSHIP");
+        assertThat(notice.get("membershipVersion").asLong()).isEqualTo(5);
+        assertThat(notice.get("seq").asLong()).isEqualTo(seqs.get(1));
+    }
+
+    @Test
+    void skipsRoomsTheUserIsNotInAndServesTheInbox() {
+        when(membershipCache.isMember(20L, USER_ID)).thenReturn(false);
+        publishRoom(20L, 1);
+        List<Long> inboxSeqs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            catchUpService.publishUserEvent("alice",
+                ChatEvent.privateMessage("bob", "private " + i, "CHAT", i, "alice"),
+                payload -> inboxSeqs.add(readSeq(payload)));
+        }
+
+        Map<Long, Long> rooms = new HashMap<>();
+        rooms.put(20L, null);
+        rooms.put(21L, null);
+        SyncResponse response = catchUpService.catchUp(USER_ID, rooms, inboxSeqs.get(0));
+        assertThat(response.rooms()).extracting(SyncResponse.StreamDelta::chatRoomId).containsExactly(21L);
+        assertThat(response.inbox().reset()).isFalse();
+        assertThat(response.inbox().seq()).isEqualTo(inboxSeqs.get(1));
+        assertThat(response.inbox().events()).hasSize(1);
+
+        // No inbox seq, no inbox delta
+        assertThat(catchUpService.catchUp(USER_ID, Map.of(21L, 0L), null).inbox()).isNull();
+    }
+
+    @Test
+    void limitsRoomsPerRequest() {
+        Map<Long, Long> rooms = Map.of(1L, 0L, 2L, 0L, 3L, 0L);
+        assertThatThrownBy(() -> catchUpService.catchUp(USER_ID, rooms, null))
+            .hasMessageContaining("At most 2 rooms");
+    }
+
+    private List<Long> publishRoom(long chatRoomId, int count) {
+        List<Long> seqs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            catchUpService.publishRoomEvent(chatRoomId,
+                ChatEvent.groupMessage("bob", "message " + i, "CHAT", i, chatRoomId),
+                payload -> seqs.add(readSeq(payload)));
+        }
+        return seqs;
+    }
+
+    private SyncResponse.StreamDelta syncRoom(long chatRoomId, Long since) {
+        Map<Long, Long> rooms = new HashMap<>();
+        rooms.put(chatRoomId, since);
+        return catchUpService.catchUp(USER_ID, rooms, null).rooms().get(0);
+    }
+
+    private long readSeq(byte[] payload) {
+        try {
+            return objectMapper.readTree(payload).get("seq").asLong();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.chatapp.service;
+
+import com.chatapp.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// ContactGraph with 100k cached users x 100 contacts: retained heap per edge against
+// boxed HashSet<Long> adjacency (what the contact sets cost as collections of ids, before
+// entities), and the time per areContacts check and per online filter over one user's
+// contacts. Prints the figures.
+@Tag("benchmark")
+class ContactGraphBenchmark {
+
+    private static final int USERS = 100_000;
+    private static final int CONTACTS = 100;
+    private static final int CHECKS = 2_000_000;
+    private static final int FILTERS = 200_000;
+
+    @Test
+    void memoryPerEdgeAndCheckSpeed() {
+        long[][] adjacency = adjacency();
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findContactPairs(anyCollection())).thenAnswer(invocation -> {
+            List<Object[]> pairs = new ArrayList<>();
+            for (Long userId : invocation.<Collection<Long>>getArgument(0)) {
+                for (long contactId : adjacency[userId.intValue()]) {
+                    pairs.add(new Object[] {userId, contactId});
+                }
+            }
+            return pairs;
+        });
+
+        long heapBefore = usedHeap();
+        ContactGraph graph = new ContactGraph();
+        ReflectionTestUtils.setField(graph, "userRepository", userRepository);
+        ReflectionTestUtils.setField(graph, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(graph, "maxUsers", USERS);
+        graph.init();
+        List<Long> userIds = new ArrayList<>(USERS);
+        for (long userId = 0; userId < USERS; userId++) {
+            userIds.add(userId);
+        }
+        for (int from = 0; from < USERS; from += 10_000) {
+            graph.getContacts(userIds.subList(from, from + 10_000));
+        }
+        long graphBytes = usedHeap() - heapBefore;
+
+        heapBefore = usedHeap();
+        Map<Long, Set<Long>> boxed = new HashMap<>();
+        for (int userId = 0; userId < USERS; userId++) {
+            Set<Long> contacts = new HashSet<>();
+            for (long contactId : adjacency[userId]) {
+                contacts.add(contactId);
+            }
+            boxed.put((long) userId, contacts);
+        }
+        long boxedBytes = usedHeap() - heapBefore;
+        long edges = graph.edgeCount();
+        System.out.printf("edges=%d graph=%.1f bytes/edge (%.0fMB) boxed sets=%.1f bytes/edge (%.0fMB)%n",
+            edges, graphBytes / (double) edges, graphBytes / 1e6, boxedBytes / (double) edges, boxedBytes / 1e6);
+
+        // Half of the checks hit a contact
+        Random random = new Random(7);
+        long[][] checks = new long[CHECKS][];
+        for (int i = 0; i < CHECKS; i++) {
+            int userId = random.nextInt(USERS);
+            checks[i] = new long[] {userId, i % 2 == 0
+                ? adjacency[userId][random.nextInt(CONTACTS)] : random.nextInt(USERS)};
+        }
+        boolean[] online = new boolean[USERS];
+        for (int userId = 0; userId < USERS; userId++) {
+            online[userId] = random.nextInt(10) == 0;
+        }
+
+        // The first round is warm-up
+        for (int round = 0; round < 3; round++) {
+            int found = 0;
+            long start = System.nanoTime();
+            for (long[] check : checks) {
+                if (graph.areContacts(check[0], check[1])) {
+                    found++;
+                }
+            }
+            double checkNanos = (System.nanoTime() - start) / (double) CHECKS;
+
+            int onlineContacts = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < FILTERS; i++) {
+                onlineContacts += graph.filterContacts(i % USERS, contactId -> online[(int) contactId]).length;
+            }
+            double filterNanos = (System.nanoTime() - start) / (double) FILTERS;
+            System.out.printf("areContacts=%.0fns (%d found) online filter=%.0fns (%.1f online per user)%n",
+                checkNanos, found, filterNanos, onlineContacts / (double) FILTERS);
+        }
+        // Keep both reachable until here so the retained figures hold
+        System.out.println("users " + graph.size() + " / " + boxed.size());
+    }
+
+    // Each user has CONTACTS distinct random contacts
+    private static long[][] adjacency() {
+        Random random = new Random(42);
+        long[][] adjacency = new long[USERS][];
+        for (int userId = 0; userId < USERS; userId++) {
+            Set<Long> contacts = new HashSet<>();
+            while (contacts.size() < CONTACTS) {
+                int contactId = random.nextInt(USERS);
+                if (contactId != userId) {
+                    contacts.add((long) contactId);
+                }
+            }
+            adjacency[userId] = contacts.stream().mapToLong(Long::longValue).toArray();
+        }
+        return adjacency;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,118 @@
+package com.chatapp.service;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.support.JdbcExecutionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class GroupChatCreationTest {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private MembershipCache membershipCache;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void resolvesMembersInBulkAndSkipsUnknownAndDuplicateIds() {
+        User owner = signup();
+        List<Long> members = signupMany(3);
+        List<Long> requested = new ArrayList<>(members);
+        requested.add(members.get(0));
+        requested.add(owner.getId());
+        requested.add(Long.MAX_VALUE);
+        requested.add(null);
+
+        ChatRoom room = chatService.createGroupChat("bulk", "", owner.getId(), requested);
+
+        List<Long> expected = new ArrayList<>(members);
+        expected.add(owner.getId());
+        assertThat(room.getParticipants()).extracting(User::getId).containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(chatRoomRepository.findParticipantIds(room.getId())).containsExactlyInAnyOrderElementsOf(expected);
+        // Members can post right away
+        chatService.sendMessage(room.getId(), members.get(2), "hi", "CHAT");
+    }
+
+    @Test
+    void statementsGrowWithBatchesNotMembers() {
+        User owner = signup();
+        List<Long> few = signupMany(10);
+        List<Long> many = signupMany(2000);
+
+        JdbcExecutionCounter.reset();
+        chatService.createGroupChat("few", "", owner.getId(), few);
+        int forFew = JdbcExecutionCounter.count();
+
+        JdbcExecutionCounter.reset();
+        ChatRoom room = chatService.createGroupChat("many", "", owner.getId(), many);
+        int forMany = JdbcExecutionCounter.count();
+
+        assertThat(room.getParticipants()).hasSize(2001);
+        // One more id lookup per 1000 ids; join rows and room summaries in batches of 500
+        assertThat(forMany - forFew).isLessThanOrEqualTo(2000 / 1000 + 2 * (2000 / 500));
+        for (String step : List.of("resolve", "insert-room", "insert-participants", "load", "total")) {
+            assertThat(meterRegistry.get("chat.group.create").tag("step", step).timer().count()).isPositive();
+        }
+    }
+
+    @Test
+    void membersCachedBeforeTheCommitAreDroppedAfterIt() {
+        User owner = signup();
+        User member = signup();
+        ChatRoom[] rooms = new ChatRoom[2];
+        transactionTemplate.executeWithoutResult(status -> {
+            rooms[0] = chatService.createGroupChat("cached early", "", owner.getId(), List.of(member.getId()));
+            rooms[1] = chatService.createOrGetPrivateChat(owner.getId(), member.getId());
+            // Another request looks the rooms up before they are committed
+            for (ChatRoom room : rooms) {
+                assertThat(CompletableFuture.supplyAsync(() -> membershipCache.isMember(room.getId(), member.getId()))
+                    .join()).isFalse();
+            }
+        });
+        for (ChatRoom room : rooms) {
+            assertThat(membershipCache.isMember(room.getId(), member.getId())).isTrue();
+        }
+    }
+
+    private List<Long> signupMany(int count) {
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(signup().getId());
+        }
+        return ids;
+    }
+
+    private User signup() {
+        int n = SEQUENCE.incrementAndGet();
+        return authService.signup("group-create-" + n, "Group Create " + n, "+4000" + n, "secret");
+    }
+}
@@ -0,0 +1,113 @@
+package com.chatapp.service;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.support.JdbcExecutionCounter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class GroupMembershipBulkTest {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Test
+    void changesOnlyRowsThatChangeAndBumpsTheVersionOnce() {
+        User owner = signup();
+        List<Long> users = signupMany(4);
+        Long kept = users.get(0);
+        Long leaving = users.get(1);
+        Long joining = users.get(2);
+        Long outsider = users.get(3);
+        ChatRoom room = chatService.createGroupChat("bulk", "", owner.getId(), List.of(kept, leaving));
+        long version = chatRoomRepository.findMembershipVersion(room.getId());
+
+        ChatService.MembershipChange change = chatService.updateGroupParticipants(room.getId(),
+            List.of(joining, kept, Long.MAX_VALUE), List.of(leaving, outsider), owner.getId());
+
+        assertThat(change.added()).containsExactly(joining);
+        assertThat(change.removed()).containsExactly(leaving);
+        assertThat(change.membershipVersion()).isEqualTo(version + 1);
+        assertThat(chatRoomRepository.findParticipantIds(room.getId()))
+            .containsExactlyInAnyOrder(owner.getId(), kept, joining);
+
+        // Permission checks see the change
+        chatService.sendMessage(room.getId(), joining, "hello", "CHAT");
+        assertThatThrownBy(() -> chatService.sendMessage(room.getId(), leaving, "bye", "CHAT"))
+            .hasMessageContaining("not a participant");
+
+        // Nothing to do: no write, no new version
+        ChatService.MembershipChange none = chatService.updateGroupParticipants(room.getId(),
+            List.of(kept), List.of(outsider), owner.getId());
+        assertThat(none.isEmpty()).isTrue();
+        assertThat(chatRoomRepository.findMembershipVersion(room.getId())).isEqualTo(version + 1);
+    }
+
+    @Test
+    void rejectsInvalidChanges() {
+        User owner = signup();
+        List<Long> users = signupMany(2);
+        ChatRoom room = chatService.createGroupChat("rules", "", owner.getId(), List.of(users.get(0)));
+
+        assertThatThrownBy(() -> chatService.updateGroupParticipants(room.getId(), List.of(owner.getId()),
+            List.of(), users.get(1)))
+            .hasMessageContaining("permission");
+        assertThatThrownBy(() -> chatService.updateGroupParticipants(room.getId(), List.of(users.get(1)),
+            List.of(users.get(1)), owner.getId()))
+            .hasMessageContaining("both added and removed");
+    }
+
+    @Test
+    void statementsGrowWithBatchesNotMembers() {
+        User owner = signup();
+        List<Long> members = signupMany(1000);
+        List<Long> joining = signupMany(1000);
+        ChatRoom room = chatService.createGroupChat("roster", "", owner.getId(), members);
+
+        JdbcExecutionCounter.reset();
+        chatService.updateGroupParticipants(room.getId(), joining.subList(0, 1), members.subList(0, 1), owner.getId());
+        int forOne = JdbcExecutionCounter.count();
+
+        JdbcExecutionCounter.reset();
+        chatService.updateGroupParticipants(room.getId(), joining.subList(1, 1000), members.subList(1, 1000),
+            owner.getId());
+        int forMany = JdbcExecutionCounter.count();
+        // Join row inserts and deletes, and room summary changes, in batches of 500
+        assertThat(forMany - forOne).isLessThanOrEqualTo(3 * (1000 / 500));
+        assertThat(chatRoomRepository.findParticipantIds(room.getId())).hasSize(1001).contains(owner.getId())
+            .containsAll(joining).doesNotContainAnyElementsOf(members);
+    }
+
+    private List<Long> signupMany(int count) {
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(signup().getId());
+        }
+        return ids;
+    }
+
+    private User signup() {
+        int n = SEQUENCE.incrementAndGet();
+        return authService.signup("group-bulk-" + n, "Group Bulk " + n, "+5000" + n, "secret");
+    }
+}
@@ -0,0 +1,113 @@
+package com.chatapp.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotMessageCacheTest {
+
+    private static final int PER_ROOM = 10;
+
+    @Test
+    void roomsAppendedConcurrentlyKeepTheirOrderAndSize() throws Exception {
+        HotMessageCache cache = cache(Long.MAX_VALUE);
+        int rooms = 8;
+        int perRoom = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(rooms);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (long room = 1; room <= rooms; room++) {
+                long chatRoomId = room;
+                writers.add(executor.submit(() -> {
+                    for (int i = 1; i <= perRoom; i++) {
+                        cache.append(message(chatRoomId * 10_000 + i, chatRoomId));
+                        cache.read(chatRoomId, null, null, PER_ROOM);
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        long bytes = 0;
+        for (long room = 1; room <= rooms; room++) {
+            ChatService.MessageHistory history = cache.read(room, null, null, PER_ROOM);
+            List<Long> expected = new ArrayList<>();
+            for (int i = perRoom - PER_ROOM + 1; i <= perRoom; i++) {
+                expected.add(room * 10_000 + i);
+            }
+            assertThat(history.messages()).extracting(MessageSnapshot::id).containsExactlyElementsOf(expected);
+            bytes += history.messages().stream().mapToLong(MessageSnapshot::estimatedBytes).sum();
+        }
+        assertThat(cache.getTotalBytes()).isEqualTo(bytes);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedRooms() throws InterruptedException {
+        long roomBytes = PER_ROOM * message(1, 1L).estimatedBytes();
+        HotMessageCache cache = cache(roomBytes * 7 / 2);
+        for (long room = 1; room <= 3; room++) {
+            fill(cache, room);
+            Thread.sleep(5);
+        }
+        // Room 1 is read, so room 2 is now the one used longest ago
+        assertThat(cache.read(1L, null, null, PER_ROOM)).isNotNull();
+        Thread.sleep(5);
+
+        fill(cache, 4L);
+        assertThat(cache.getRoomCount()).isEqualTo(3);
+        assertThat(cache.read(2L, null, null, PER_ROOM)).isNull();
+        for (long room : new long[] {1, 3, 4}) {
+            assertThat(cache.read(room, null, null, PER_ROOM)).isNotNull();
+        }
+        assertThat(cache.getTotalBytes()).isEqualTo(3 * roomBytes);
+    }
+
+    @Test
+    void skipsASeedLoadedAcrossAnInvalidation() {
+        HotMessageCache cache = cache(Long.MAX_VALUE);
+        List<MessageSnapshot> latest = List.of(message(1, 5L), message(2, 5L));
+        long version = cache.seedVersion();
+        cache.invalidate(6L);
+        cache.seed(5L, latest, false, version);
+        assertThat(cache.read(5L, null, null, PER_ROOM)).isNull();
+
+        cache.seed(5L, latest, false, cache.seedVersion());
+        assertThat(cache.read(5L, null, null, PER_ROOM).messages()).containsExactlyElementsOf(latest);
+        cache.invalidate(5L);
+        assertThat(cache.getTotalBytes()).isZero();
+        assertThat(cache.getRoomCount()).isZero();
+    }
+
+    private static void fill(HotMessageCache cache, long chatRoomId) {
+        for (int i = 1; i <= PER_ROOM; i++) {
+            cache.append(message(chatRoomId * 100 + i, chatRoomId));
+        }
+    }
+
+    private static HotMessageCache cache(long maxBytes) {
+        HotMessageCache cache = new HotMessageCache();
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "messagesPerRoom", PER_ROOM);
+        ReflectionTestUtils.setField(cache, "maxBytes", maxBytes);
+        cache.init();
+        return cache;
+    }
+
+    private static MessageSnapshot message(long id, Long chatRoomId) {
+        return new MessageSnapshot(id, chatRoomId, "message", "CHAT", LocalDateTime.of(2024, 1, 1, 0, 0), 1L,
+            "alice", "Alice", "+1000");
+    }
+}
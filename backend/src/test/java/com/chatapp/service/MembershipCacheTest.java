@@ -0,0 +1,78 @@
+package com.chatapp.service;
+
+import com.chatapp.repository.ChatRoomRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MembershipCacheTest {
+
+    private final ChatRoomRepository chatRoomRepository = mock(ChatRoomRepository.class);
+    private final AtomicInteger loads = new AtomicInteger();
+    private MembershipCache cache;
+
+    @BeforeEach
+    void setUp() {
+        when(chatRoomRepository.findParticipantIds(anyLong())).thenAnswer(invocation -> {
+            loads.incrementAndGet();
+            long roomId = invocation.getArgument(0);
+            return List.of(roomId * 10, roomId * 10 + 1);
+        });
+        cache = new MembershipCache();
+        ReflectionTestUtils.setField(cache, "chatRoomRepository", chatRoomRepository);
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxRooms", 100);
+        cache.init();
+    }
+
+    @Test
+    void loadsOnceAndAppliesChanges() {
+        assertThat(cache.isMember(1L, 10L)).isTrue();
+        assertThat(cache.isMember(1L, 12L)).isFalse();
+
+        cache.addMember(1L, 12L);
+        cache.removeMember(1L, 10L);
+
+        assertThat(cache.isMember(1L, 12L)).isTrue();
+        assertThat(cache.isMember(1L, 10L)).isFalse();
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void invalidateReloads() {
+        cache.isMember(1L, 10L);
+        cache.invalidate(1L);
+        cache.isMember(1L, 10L);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedPastMaxRooms() throws InterruptedException {
+        for (long room = 1; room <= 100; room++) {
+            cache.isMember(room, 0L);
+        }
+        Thread.sleep(5);
+        // Rooms 1-50 used again, so the eviction takes from 51-100
+        for (long room = 1; room <= 50; room++) {
+            cache.isMember(room, 0L);
+        }
+        cache.isMember(101L, 0L);
+
+        assertThat(cache.size()).isLessThanOrEqualTo(100);
+        int before = loads.get();
+        for (long room = 1; room <= 50; room++) {
+            cache.isMember(room, 0L);
+        }
+        assertThat(loads).hasValue(before);
+    }
+}
@@ -0,0 +1,154 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.store.MessageStore;
+import com.chatapp.util.LongHashSet;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+class MessageSearchIndexTest {
+
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final ClusterService clusterService = mock(ClusterService.class);
+    private MessageSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        when(messageStore.scan(anyLong(), anyInt())).thenReturn(List.of());
+        index = new MessageSearchIndex();
+        ReflectionTestUtils.setField(index, "messageStore", messageStore);
+        ReflectionTestUtils.setField(index, "clusterService", clusterService);
+        ReflectionTestUtils.setField(index, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(index, "queueCapacity", 100);
+        ReflectionTestUtils.setField(index, "batchSize", 500);
+        ReflectionTestUtils.setField(index, "maxScan", 100_000);
+        index.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        index.stop();
+    }
+
+    @Test
+    void matchesEveryTermNewestFirst() throws InterruptedException {
+        index(message(1, 10, "Lunch at noon?"),
+            message(2, 10, "lunch is late"),
+            message(3, 10, "NOON lunch, then"),
+            message(4, 10, "noon"));
+
+        assertThat(search("lunch noon", rooms(10), null, 10).messageIds()).containsExactly(3L, 1L);
+        assertThat(search("LUNCH", rooms(10), null, 10).messageIds()).containsExactly(3L, 2L, 1L);
+        assertThat(search("lunch dinner", rooms(10), null, 10).messageIds()).isEmpty();
+    }
+
+    @Test
+    void scopesToRooms() throws InterruptedException {
+        index(message(1, 10, "deploy"), message(2, 20, "deploy"), message(3, 30, "deploy"));
+
+        assertThat(search("deploy", rooms(10, 30), null, 10).messageIds()).containsExactly(3L, 1L);
+        assertThat(search("deploy", rooms(40), null, 10).messageIds()).isEmpty();
+    }
+
+    @Test
+    void pagesBelowTheLastMatch() throws InterruptedException {
+        List<MessageSnapshot> messages = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) {
+            messages.add(message(id, 10, "release " + id));
+        }
+        // Out of id order, as from another node's sequence block
+        index(messages.get(3), messages.get(4), messages.get(0), messages.get(2), messages.get(1));
+
+        MessageSearchIndex.Matches first = search("release", rooms(10), null, 2);
+        assertThat(first.messageIds()).containsExactly(5L, 4L);
+        assertThat(first.hasMore()).isTrue();
+        MessageSearchIndex.Matches second = search("release", rooms(10), 4L, 2);
+        assertThat(second.messageIds()).containsExactly(3L, 2L);
+        MessageSearchIndex.Matches last = search("release", rooms(10), 2L, 2);
+        assertThat(last.messageIds()).containsExactly(1L);
+        assertThat(last.hasMore()).isFalse();
+    }
+
+    @Test
+    void stopsScanningAtTheBudget() throws InterruptedException {
+        ReflectionTestUtils.setField(index, "maxScan", 3);
+        index(message(1, 10, "status ok"), message(2, 20, "status"), message(3, 20, "status"),
+            message(4, 20, "status"), message(5, 10, "status ok"));
+
+        MessageSearchIndex.Matches matches = search("status", rooms(10), null, 10);
+        assertThat(matches.messageIds()).containsExactly(5L);
+        assertThat(matches.hasMore()).isTrue();
+        // The next page continues below the last id scanned
+        assertThat(matches.resumeBelow()).isEqualTo(3L);
+        assertThat(search("status", rooms(10), matches.resumeBelow(), 10).messageIds()).containsExactly(1L);
+    }
+
+    @Test
+    void tokenizesWithOffsets() {
+        assertThat(MessageSearchIndex.tokenize("Hi, Zoë-42!")).containsExactly(
+            new MessageSearchIndex.Token("hi", 0, 2),
+            new MessageSearchIndex.Token("zoë", 4, 7),
+            new MessageSearchIndex.Token("42", 8, 10));
+        assertThat(MessageSearchIndex.queryTerms("go GO went go")).containsExactly("go", "went");
+    }
+
+    @Test
+    void sharesMessagesWithTheOtherNodes() throws InterruptedException {
+        index(message(1, 10, "release notes"));
+        verify(clusterService).relayMessagesIndexed(List.of(new ClusterService.SearchDocument(1, 10, "release notes")));
+
+        // Persisted on another node
+        index.onMessagesIndexed(new ClusterService.MessagesIndexed(
+            List.of(new ClusterService.SearchDocument(2, 10, "release date"))));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (index.getDocumentCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(search("release", rooms(10), null, 10).messageIds()).containsExactly(2L, 1L);
+        verifyNoMoreInteractions(clusterService);
+    }
+
+    private MessageSearchIndex.Matches search(String query, LongHashSet rooms, Long beforeId, int size) {
+        return index.search(MessageSearchIndex.queryTerms(query), rooms, beforeId, size);
+    }
+
+    private void index(MessageSnapshot... messages) throws InterruptedException {
+        int before = index.getDocumentCount();
+        for (MessageSnapshot message : messages) {
+            index.enqueue(List.of(message));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (index.getDocumentCount() < before + messages.length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(index.getDocumentCount()).isEqualTo(before + messages.length);
+    }
+
+    private static LongHashSet rooms(long... ids) {
+        LongHashSet rooms = new LongHashSet();
+        for (long id : ids) {
+            rooms.add(id);
+        }
+        return rooms;
+    }
+
+    private static MessageSnapshot message(long id, long chatRoomId, String content) {
+        return new MessageSnapshot(id, chatRoomId, content, "CHAT", LocalDateTime.now(), 1L, "sender", "Sender",
+            "+1");
+    }
+}
@@ -0,0 +1,123 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.MessageSearchHit;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class MessageSearchServiceTest {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private MessageSearchService messageSearchService;
+
+    @Test
+    void searchesOnlyRoomsTheUserIsIn() throws InterruptedException {
+        User alice = signup();
+        User bob = signup();
+        ChatRoom shared = chatService.createGroupChat("shared", "", alice.getId(), List.of(bob.getId()));
+        ChatRoom aliceOnly = chatService.createGroupChat("private", "", alice.getId(), List.of());
+        // A term no other test uses, since the index is shared
+        String term = "quokka" + SEQUENCE.incrementAndGet();
+        Message visible = chatService.sendMessage(shared.getId(), alice.getId(), "a " + term, "CHAT");
+        Message hidden = chatService.sendMessage(aliceOnly.getId(), alice.getId(), term + " b", "CHAT");
+        awaitIndexed(alice.getId(), term, 2);
+
+        assertThat(ids(messageSearchService.search(bob.getId(), term, null, null, 10).hits()))
+            .containsExactly(visible.getId());
+        assertThat(ids(messageSearchService.search(alice.getId(), term, null, null, 10).hits()))
+            .containsExactly(hidden.getId(), visible.getId());
+        assertThat(ids(messageSearchService.search(alice.getId(), term, shared.getId(), null, 10).hits()))
+            .containsExactly(visible.getId());
+        assertThatThrownBy(() -> messageSearchService.search(bob.getId(), term, aliceOnly.getId(), null, 10))
+            .hasMessageContaining("not a participant");
+        assertThatThrownBy(() -> messageSearchService.search(bob.getId(), " ?! ", null, null, 10))
+            .hasMessageContaining("must not be empty");
+    }
+
+    @Test
+    void highlightsEveryMatchedTerm() throws InterruptedException {
+        User alice = signup();
+        ChatRoom room = chatService.createGroupChat("highlights", "", alice.getId(), List.of());
+        String term = "wombat" + SEQUENCE.incrementAndGet();
+        String content = "Ship the " + term.toUpperCase() + " build, then ship docs";
+        chatService.sendMessage(room.getId(), alice.getId(), content, "CHAT");
+        awaitIndexed(alice.getId(), term, 1);
+
+        MessageSearchHit hit = messageSearchService.search(alice.getId(), "ship " + term, null, null, 10)
+            .hits().get(0);
+        assertThat(hit.content()).isEqualTo(content);
+        assertThat(hit.senderUsername()).isEqualTo(alice.getUsername());
+        List<String> highlighted = new ArrayList<>();
+        for (MessageSearchHit.Highlight highlight : hit.highlights()) {
+            highlighted.add(content.substring(highlight.start(), highlight.end()));
+        }
+        assertThat(highlighted).containsExactly("Ship", term.toUpperCase(), "ship");
+    }
+
+    @Test
+    void pagesWithTheNextCursor() throws InterruptedException {
+        User alice = signup();
+        ChatRoom room = chatService.createGroupChat("paging", "", alice.getId(), List.of());
+        String term = "numbat" + SEQUENCE.incrementAndGet();
+        List<Long> sent = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            sent.add(chatService.sendMessage(room.getId(), alice.getId(), term + " " + i, "CHAT").getId());
+        }
+        awaitIndexed(alice.getId(), term, 5);
+
+        List<Long> found = new ArrayList<>();
+        Long beforeId = null;
+        int pages = 0;
+        do {
+            MessageSearchService.SearchPage page = messageSearchService.search(alice.getId(), term, null, beforeId, 2);
+            found.addAll(ids(page.hits()));
+            beforeId = page.nextBeforeId();
+            assertThat(page.hasMore()).isEqualTo(beforeId != null);
+            pages++;
+        } while (beforeId != null);
+
+        assertThat(pages).isEqualTo(3);
+        Collections.reverse(sent);
+        assertThat(found).containsExactlyElementsOf(sent);
+    }
+
+    // Indexing happens after commit on the indexer thread
+    private void awaitIndexed(Long userId, String term, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (messageSearchService.search(userId, term, null, null, 50).hits().size() < count
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    private static List<Long> ids(List<MessageSearchHit> hits) {
+        return hits.stream().map(MessageSearchHit::id).toList();
+    }
+
+    private User signup() {
+        int n = SEQUENCE.incrementAndGet();
+        return authService.signup("search-user-" + n, "Search User " + n, "+8000" + n, "secret");
+    }
+}
@@ -0,0 +1,116 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.repository.UserRepository;
+import com.chatapp.store.MessageStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageWriteBehindServiceTest {
+
+    private static final long ROOM_ID = 10L;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final HotMessageCache hotMessageCache = mock(HotMessageCache.class);
+    private final List<String> stored = new ArrayList<>();
+    private MessageWriteBehindService writeBehind;
+
+    @BeforeEach
+    void setUp() {
+        User alice = new User("alice", "Alice", "+1000", "secret");
+        alice.setId(1L);
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsernameIn(anyCollection())).thenReturn(List.of(alice));
+        MembershipCache membershipCache = mock(MembershipCache.class);
+        when(membershipCache.isMember(anyLong(), anyLong())).thenReturn(true);
+        ChatRoom room = new ChatRoom("room", ChatRoom.ChatType.GROUP, alice);
+        room.setId(ROOM_ID);
+        ChatRoomRepository chatRoomRepository = mock(ChatRoomRepository.class);
+        when(chatRoomRepository.getReferenceById(ROOM_ID)).thenReturn(room);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+            invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+
+        // Stands in for a row the database refuses, which rolls back the whole transaction
+        AtomicLong ids = new AtomicLong();
+        when(messageStore.isTransactional()).thenReturn(true);
+        when(messageStore.saveAll(any())).thenAnswer(invocation -> {
+            List<Message> messages = invocation.getArgument(0);
+            if (messages.stream().anyMatch(message -> message.getContent().equals("poison"))) {
+                throw new IllegalStateException("value too long");
+            }
+            List<MessageSnapshot> saved = new ArrayList<>();
+            for (Message message : messages) {
+                stored.add(message.getContent());
+                saved.add(new MessageSnapshot(ids.incrementAndGet(), ROOM_ID, message.getContent(), "CHAT",
+                    message.getTimestamp(), 1L, "alice", "Alice", "+1000"));
+            }
+            return saved;
+        });
+
+        writeBehind = new MessageWriteBehindService();
+        ReflectionTestUtils.setField(writeBehind, "messageStore", messageStore);
+        ReflectionTestUtils.setField(writeBehind, "chatRoomRepository", chatRoomRepository);
+        ReflectionTestUtils.setField(writeBehind, "userRepository", userRepository);
+        ReflectionTestUtils.setField(writeBehind, "membershipCache", membershipCache);
+        ReflectionTestUtils.setField(writeBehind, "hotMessageCache", hotMessageCache);
+        ReflectionTestUtils.setField(writeBehind, "roomSummaryService", mock(RoomSummaryService.class));
+        ReflectionTestUtils.setField(writeBehind, "messageSearchIndex", mock(MessageSearchIndex.class));
+        ReflectionTestUtils.setField(writeBehind, "clusterService", mock(ClusterService.class));
+        ReflectionTestUtils.setField(writeBehind, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(writeBehind, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(writeBehind, "queueCapacity", 10);
+        ReflectionTestUtils.setField(writeBehind, "batchSize", 10);
+        ReflectionTestUtils.setField(writeBehind, "lingerMs", 500L);
+        ReflectionTestUtils.setField(writeBehind, "offerTimeoutMs", 100L);
+        writeBehind.start();
+    }
+
+    @Test
+    void aFailedBatchOnlyLosesTheMessageThatFailed() throws InterruptedException {
+        for (String content : List.of("first", "poison", "third")) {
+            assertThat(writeBehind.enqueue(message(content))).isTrue();
+        }
+        writeBehind.stop();
+
+        assertThat(stored).containsExactly("first", "third");
+        assertThat(meterRegistry.get("chat.persistence.persisted").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("chat.persistence.failed").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void refusesContentTheColumnCannotHold() throws InterruptedException {
+        assertThat(writeBehind.enqueue(message("x".repeat(Message.MAX_CONTENT_LENGTH + 1)))).isFalse();
+        assertThat(writeBehind.enqueue(message("x".repeat(Message.MAX_CONTENT_LENGTH)))).isTrue();
+        writeBehind.stop();
+
+        assertThat(stored).hasSize(1);
+        assertThat(meterRegistry.get("chat.persistence.rejected").counter().count()).isEqualTo(1);
+    }
+
+    private static MessageWriteBehindService.QueuedMessage message(String content) {
+        return new MessageWriteBehindService.QueuedMessage("alice", ROOM_ID, null, content, "CHAT",
+            System.currentTimeMillis());
+    }
+}
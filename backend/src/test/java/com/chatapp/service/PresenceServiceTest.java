@@ -0,0 +1,174 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.config.ChatPrincipal;
+import com.chatapp.dto.PresenceDelta;
+import com.chatapp.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PresenceServiceTest {
+
+    private static final ChatPrincipal ALICE = new ChatPrincipal(1L, "alice");
+    private static final ChatPrincipal BOB = new ChatPrincipal(2L, "bob");
+    private static final ChatPrincipal CAROL = new ChatPrincipal(3L, "carol");
+
+    // Alice and Carol have Bob as a contact; Bob has Alice
+    private static final Map<Long, long[]> CONTACTS = Map.of(1L, new long[] {2L}, 2L, new long[] {1L},
+        3L, new long[] {2L});
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final ContactGraph contactGraph = mock(ContactGraph.class);
+    private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private final Map<String, List<PresenceDelta>> sent = new HashMap<>();
+    private PresenceService presenceService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        when(userRepository.findContactOwnerPairs(any())).thenAnswer(invocation -> {
+            List<Object[]> pairs = new ArrayList<>();
+            for (Long contact : (Collection<Long>) invocation.getArgument(0)) {
+                CONTACTS.forEach((owner, contacts) -> {
+                    for (long id : contacts) {
+                        if (id == contact) {
+                            pairs.add(new Object[] {owner, contact});
+                        }
+                    }
+                });
+            }
+            return pairs;
+        });
+        when(contactGraph.getContacts(anyList())).thenAnswer(invocation -> {
+            Map<Long, long[]> contacts = new HashMap<>();
+            for (Long id : (List<Long>) invocation.getArgument(0)) {
+                contacts.put(id, CONTACTS.getOrDefault(id, new long[0]));
+            }
+            return contacts;
+        });
+        doAnswer(invocation -> {
+            ((Consumer<Object>) invocation.getArgument(0)).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        doAnswer(invocation -> {
+            sent.computeIfAbsent(invocation.getArgument(0), user -> new ArrayList<>()).add(invocation.getArgument(2));
+            return null;
+        }).when(messagingTemplate).convertAndSendToUser(anyString(), eq("/queue/presence"), any(Object.class));
+
+        presenceService = new PresenceService();
+        ReflectionTestUtils.setField(presenceService, "userRepository", userRepository);
+        ReflectionTestUtils.setField(presenceService, "contactGraph", contactGraph);
+        ReflectionTestUtils.setField(presenceService, "clusterService", mock(ClusterService.class));
+        ReflectionTestUtils.setField(presenceService, "messagingTemplate", messagingTemplate);
+        ReflectionTestUtils.setField(presenceService, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(presenceService, "meterRegistry", new SimpleMeterRegistry());
+        // Batches are published by the test
+        ReflectionTestUtils.setField(presenceService, "batchIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(presenceService, "lastSeenMaxUsers", 100);
+        presenceService.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        presenceService.stop();
+    }
+
+    @Test
+    void onlineWhileAnySessionIsOpen() {
+        connect(BOB, "b1");
+        connect(BOB, "b2");
+        disconnect(BOB, "b1");
+        assertThat(presenceService.isOnline(BOB.userId())).isTrue();
+
+        // A repeated disconnect event for the same session is ignored
+        disconnect(BOB, "b1");
+        assertThat(presenceService.isOnline(BOB.userId())).isTrue();
+
+        disconnect(BOB, "b2");
+        assertThat(presenceService.isOnline(BOB.userId())).isFalse();
+    }
+
+    @Test
+    void newSessionGetsSnapshotThenDeltasForItsContacts() {
+        connect(ALICE, "a1");
+        presenceService.publish();
+        assertThat(sent.remove("alice")).containsExactly(new PresenceDelta(List.of(), List.of(), true));
+
+        connect(BOB, "b1");
+        presenceService.publish();
+        assertThat(sent.remove("alice")).containsExactly(new PresenceDelta(List.of(2L), List.of(), false));
+        assertThat(sent.remove("bob")).containsExactly(new PresenceDelta(List.of(1L), List.of(), true));
+
+        disconnect(BOB, "b1");
+        presenceService.publish();
+        assertThat(sent.remove("alice")).containsExactly(new PresenceDelta(List.of(), List.of(2L), false));
+        assertThat(sent).isEmpty();
+    }
+
+    @Test
+    void onlyContactsThatAreOnlineHearAboutAChange() {
+        connect(ALICE, "a1");
+        presenceService.publish();
+        sent.clear();
+
+        // Carol watches Bob too but is offline
+        connect(BOB, "b1");
+        presenceService.publish();
+        assertThat(sent).containsOnlyKeys("alice", "bob");
+    }
+
+    @Test
+    void connectAndDisconnectWithinOneBatchCancelOut() {
+        connect(ALICE, "a1");
+        presenceService.publish();
+        sent.clear();
+
+        connect(BOB, "b1");
+        disconnect(BOB, "b1");
+        presenceService.publish();
+        assertThat(sent).doesNotContainKey("alice");
+    }
+
+    private void connect(ChatPrincipal principal, String sessionId) {
+        presenceService.onSessionConnected(new SessionConnectedEvent(this, stompMessage(sessionId), principal));
+    }
+
+    private void disconnect(ChatPrincipal principal, String sessionId) {
+        presenceService.onSessionDisconnect(
+            new SessionDisconnectEvent(this, stompMessage(sessionId), sessionId, CloseStatus.NORMAL, principal));
+    }
+
+    private static Message<byte[]> stompMessage(String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create();
+        headers.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+}
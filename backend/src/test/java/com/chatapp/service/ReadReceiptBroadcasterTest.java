@@ -0,0 +1,70 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.ReadReceiptEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ReadReceiptBroadcasterTest {
+
+    private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+    private ReadReceiptBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        broadcaster = new ReadReceiptBroadcaster();
+        ReflectionTestUtils.setField(broadcaster, "messagingTemplate", messagingTemplate);
+        ReflectionTestUtils.setField(broadcaster, "meterRegistry", new SimpleMeterRegistry());
+        // Flushed by hand below
+        ReflectionTestUtils.setField(broadcaster, "debounceMs", 3_600_000L);
+        broadcaster.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.stop();
+    }
+
+    @Test
+    void sendsOneFramePerRoomWithEachMembersLatestRead() {
+        broadcaster.read(10L, 1L, 100L);
+        broadcaster.read(10L, 1L, 105L);
+        broadcaster.read(10L, 2L, 101L);
+        broadcaster.read(20L, 1L, 200L);
+
+        ReflectionTestUtils.invokeMethod(broadcaster, "flush");
+
+        ArgumentCaptor<ReadReceiptEvent> room10 = ArgumentCaptor.forClass(ReadReceiptEvent.class);
+        verify(messagingTemplate).convertAndSend(eq("/topic/group/10"), room10.capture());
+        assertThat(room10.getValue().messageType()).isEqualTo("RECEIPT");
+        assertThat(room10.getValue().receipts()).containsExactlyInAnyOrder(
+            new ReadReceiptEvent.Receipt(1L, 105L), new ReadReceiptEvent.Receipt(2L, 101L));
+        ArgumentCaptor<ReadReceiptEvent> room20 = ArgumentCaptor.forClass(ReadReceiptEvent.class);
+        verify(messagingTemplate).convertAndSend(eq("/topic/group/20"), room20.capture());
+        assertThat(room20.getValue().receipts()).containsExactly(new ReadReceiptEvent.Receipt(1L, 200L));
+    }
+
+    @Test
+    void quietIntervalsSendNothing() {
+        ReflectionTestUtils.invokeMethod(broadcaster, "flush");
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+
+        broadcaster.read(10L, 1L, 100L);
+        ReflectionTestUtils.invokeMethod(broadcaster, "flush");
+        ReflectionTestUtils.invokeMethod(broadcaster, "flush");
+        verify(messagingTemplate, times(1)).convertAndSend(anyString(), any(Object.class));
+    }
+}
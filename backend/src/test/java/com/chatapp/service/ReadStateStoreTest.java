@@ -0,0 +1,216 @@
+package com.chatapp.service;
+
+import com.chatapp.cluster.ClusterService;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.ReadMarker;
+import com.chatapp.model.User;
+import com.chatapp.repository.ReadMarkerRepository;
+import com.chatapp.repository.RoomSummaryRepository;
+import com.chatapp.support.JdbcExecutionCounter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class ReadStateStoreTest {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private RoomSummaryRepository roomSummaryRepository;
+
+    @Autowired
+    private ReadMarkerRepository readMarkerRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ReadStateStore readStateStore;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final List<ReadStateStore> stores = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        stores.forEach(ReadStateStore::stop);
+    }
+
+    @Test
+    void checkpointWritesOnlyTheLatestMarkers() {
+        User owner = signup();
+        User member = signup();
+        ChatRoom room = chatService.createGroupChat("checkpoint", "", owner.getId(), List.of(member.getId()));
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(chatService.sendMessage(room.getId(), owner.getId(), "message " + i, "CHAT"));
+        }
+        // Started after the sends, so it recovers them; nothing is checkpointed on a timer
+        ReadStateStore store = startStore();
+        assertThat(store.unreadCount(member.getId(), room.getId(), -1)).isEqualTo(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(store.advance(member.getId(), room.getId(), i + 1, messages.get(i).getId())).isTrue();
+        }
+        assertThat(store.advance(member.getId(), room.getId(), 2, messages.get(1).getId())).isFalse();
+        assertThat(store.markRead(member.getId(), room.getId())).isNull();
+        assertThat(store.unreadCount(member.getId(), room.getId(), -1)).isZero();
+        assertThat(store.getDirtyCount()).isEqualTo(1);
+        assertThat(marker(member.getId(), room.getId()).getReadCount()).isZero();
+
+        JdbcExecutionCounter.reset();
+        store.checkpoint();
+        assertThat(JdbcExecutionCounter.count()).isEqualTo(1);
+        assertThat(store.getDirtyCount()).isZero();
+        ReadMarker marker = marker(member.getId(), room.getId());
+        assertThat(marker.getReadCount()).isEqualTo(3);
+        assertThat(marker.getLastReadMessageId()).isEqualTo(messages.get(2).getId());
+
+        // Nothing changed since: no write
+        JdbcExecutionCounter.reset();
+        store.checkpoint();
+        assertThat(JdbcExecutionCounter.count()).isZero();
+    }
+
+    @Test
+    void recoversFromCheckpointTablesOnStart() {
+        User owner = signup();
+        User member = signup();
+        ChatRoom room = chatService.createGroupChat("recovery", "", owner.getId(), List.of(member.getId()));
+        for (int i = 0; i < 4; i++) {
+            chatService.sendMessage(room.getId(), owner.getId(), "message " + i, "CHAT");
+        }
+        ReadStateStore store = startStore();
+        ReadStateStore.ReadPosition position = store.markRead(member.getId(), room.getId());
+        assertThat(position.readCount()).isEqualTo(4);
+        assertThat(position.lastReadMessageId())
+            .isEqualTo(roomSummaryRepository.findById(room.getId()).orElseThrow().getLastMessageId());
+        // A marker moved after the last checkpoint is written when the store stops
+        store.stop();
+        stores.remove(store);
+
+        ReadStateStore restarted = startStore();
+        assertThat(restarted.unreadCount(member.getId(), room.getId(), -1)).isZero();
+        assertThat(restarted.unreadCount(signup().getId(), room.getId(), -1)).isEqualTo(-1);
+
+        long lastId = chatService.sendMessage(room.getId(), owner.getId(), "later", "CHAT").getId();
+        restarted.recordMessages(room.getId(), 1, lastId);
+        assertThat(restarted.unreadCount(member.getId(), room.getId(), -1)).isEqualTo(1);
+    }
+
+    @Test
+    void followsAnotherNodeAndNeverMovesCheckpointedMarkersBack() {
+        User owner = signup();
+        User member = signup();
+        ChatRoom room = chatService.createGroupChat("two nodes", "", owner.getId(), List.of(member.getId()));
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(chatService.sendMessage(room.getId(), owner.getId(), "message " + i, "CHAT"));
+        }
+        ReadStateStore node = startStore();
+        ReadStateStore otherNode = startStore();
+
+        // The member reads everything on one node while the other still has an older move
+        assertThat(otherNode.advance(member.getId(), room.getId(), 1, messages.get(0).getId())).isTrue();
+        assertThat(node.markRead(member.getId(), room.getId()).readCount()).isEqualTo(3);
+        node.checkpoint();
+        otherNode.checkpoint();
+        ReadMarker marker = marker(member.getId(), room.getId());
+        assertThat(marker.getReadCount()).isEqualTo(3);
+        assertThat(marker.getLastReadMessageId()).isEqualTo(messages.get(2).getId());
+
+        // Relayed counts and markers only move forward
+        otherNode.onReadStateChanged(new ClusterService.ReadStateChanged(
+            List.of(new ClusterService.RoomCount(room.getId(), 5, messages.get(2).getId() + 2)),
+            List.of(new ClusterService.ReadPosition(member.getId(), room.getId(), 3, messages.get(2).getId()))));
+        assertThat(otherNode.unreadCount(member.getId(), room.getId(), -1)).isEqualTo(2);
+        otherNode.onReadStateChanged(new ClusterService.ReadStateChanged(
+            List.of(new ClusterService.RoomCount(room.getId(), 4, messages.get(2).getId() + 1)), List.of()));
+        assertThat(otherNode.unreadCount(member.getId(), room.getId(), -1)).isEqualTo(2);
+
+        // Members changed elsewhere are picked up from read_markers
+        User joined = signup();
+        chatService.updateGroupParticipants(room.getId(), List.of(joined.getId()), List.of(member.getId()),
+            owner.getId());
+        otherNode.onMembershipChanged(new ClusterService.MembershipChanged(room.getId()));
+        assertThat(otherNode.unreadCount(joined.getId(), room.getId(), -1)).isEqualTo(2);
+        assertThat(otherNode.unreadCount(member.getId(), room.getId(), -1)).isEqualTo(-1);
+    }
+
+    @Test
+    void followsOnlyCommittedRoomsAndMembers() {
+        User owner = signup();
+        User member = signup();
+        ChatRoom rolledBack = transactionTemplate.execute(status -> {
+            status.setRollbackOnly();
+            return chatService.createGroupChat("rolled back", "", owner.getId(), List.of(member.getId()));
+        });
+        assertThat(readStateStore.unreadCount(member.getId(), rolledBack.getId(), -1)).isEqualTo(-1);
+
+        ChatRoom room = chatService.createGroupChat("committed", "", owner.getId(), List.of(member.getId()));
+        chatService.sendMessage(room.getId(), owner.getId(), "hello", "CHAT");
+        assertThat(readStateStore.unreadCount(member.getId(), room.getId(), -1)).isEqualTo(1);
+
+        User joined = signup();
+        transactionTemplate.executeWithoutResult(status -> {
+            status.setRollbackOnly();
+            chatService.updateGroupParticipants(room.getId(), List.of(joined.getId()), List.of(member.getId()),
+                owner.getId());
+        });
+        assertThat(readStateStore.unreadCount(joined.getId(), room.getId(), -1)).isEqualTo(-1);
+        assertThat(readStateStore.unreadCount(member.getId(), room.getId(), -1)).isEqualTo(1);
+
+        chatService.updateGroupParticipants(room.getId(), List.of(joined.getId()), List.of(member.getId()),
+            owner.getId());
+        assertThat(readStateStore.unreadCount(joined.getId(), room.getId(), -1)).isZero();
+        assertThat(readStateStore.unreadCount(member.getId(), room.getId(), -1)).isEqualTo(-1);
+        assertThat(marker(joined.getId(), room.getId()).getReadCount()).isEqualTo(1);
+    }
+
+    // A second store over the same tables, with the timer out of the way
+    private ReadStateStore startStore() {
+        ReadStateStore store = new ReadStateStore();
+        ReflectionTestUtils.setField(store, "roomSummaryRepository", roomSummaryRepository);
+        ReflectionTestUtils.setField(store, "readMarkerRepository", readMarkerRepository);
+        ReflectionTestUtils.setField(store, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(store, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "checkpointIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(store, "checkpointBatchSize", 500);
+        store.start();
+        stores.add(store);
+        return store;
+    }
+
+    private ReadMarker marker(Long userId, Long chatRoomId) {
+        return readMarkerRepository.findByChatRoomId(chatRoomId).stream()
+            .filter(marker -> marker.getUserId().equals(userId))
+            .findFirst().orElseThrow();
+    }
+
+    private User signup() {
+        int n = SEQUENCE.incrementAndGet();
+        return authService.signup("read-state-" + n, "Read State " + n, "+7000" + n, "secret");
+    }
+}
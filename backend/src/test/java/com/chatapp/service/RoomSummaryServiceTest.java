@@ -0,0 +1,122 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.InboxRoom;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.chatapp.support.JdbcExecutionCounter;
+import com.chatapp.util.InboxCursor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Slice;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class RoomSummaryServiceTest {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private RoomSummaryService roomSummaryService;
+
+    @Test
+    void summaryFollowsTheLastMessage() {
+        User owner = signup();
+        User member = signup();
+        ChatRoom room = chatService.createGroupChat("summary", "", owner.getId(), List.of(member.getId()));
+
+        InboxRoom created = inbox(member.getId()).get(0);
+        assertThat(created.id()).isEqualTo(room.getId());
+        assertThat(created.lastMessageId()).isNull();
+        assertThat(created.unreadCount()).isZero();
+        assertThat(created.participantCount()).isEqualTo(2);
+
+        chatService.sendMessage(room.getId(), owner.getId(), "first", "CHAT");
+        String longContent = "x".repeat(150);
+        chatService.sendMessage(room.getId(), owner.getId(), longContent, "CHAT");
+
+        InboxRoom latest = inbox(member.getId()).get(0);
+        assertThat(latest.lastMessageSnippet()).isEqualTo(longContent.substring(0, 100));
+        assertThat(latest.lastSenderId()).isEqualTo(owner.getId());
+        assertThat(latest.lastSenderUsername()).isEqualTo(owner.getUsername());
+        assertThat(latest.lastActivityAt()).isAfterOrEqualTo(created.lastActivityAt());
+        assertThat(latest.unreadCount()).isEqualTo(2);
+        // Senders have read their own messages
+        assertThat(inbox(owner.getId()).get(0).unreadCount()).isZero();
+    }
+
+    @Test
+    void markReadClearsUnreadAndNewMembersStartCaughtUp() {
+        User owner = signup();
+        User member = signup();
+        User outsider = signup();
+        ChatRoom room = chatService.createGroupChat("unread", "", owner.getId(), List.of(member.getId()));
+        for (int i = 0; i < 3; i++) {
+            chatService.sendMessage(room.getId(), owner.getId(), "message " + i, "CHAT");
+        }
+        assertThat(inbox(member.getId()).get(0).unreadCount()).isEqualTo(3);
+
+        roomSummaryService.markRead(room.getId(), member.getId());
+        assertThat(inbox(member.getId()).get(0).unreadCount()).isZero();
+
+        chatService.sendMessage(room.getId(), owner.getId(), "after", "CHAT");
+        assertThat(inbox(member.getId()).get(0).unreadCount()).isEqualTo(1);
+
+        assertThatThrownBy(() -> roomSummaryService.markRead(room.getId(), outsider.getId()))
+            .hasMessageContaining("not a participant");
+        chatService.updateGroupParticipants(room.getId(), List.of(outsider.getId()), List.of(), owner.getId());
+        InboxRoom joined = inbox(outsider.getId()).get(0);
+        assertThat(joined.unreadCount()).isZero();
+        assertThat(joined.participantCount()).isEqualTo(3);
+    }
+
+    @Test
+    void pagesByActivityWithOneQueryPerPage() {
+        User owner = signup();
+        List<ChatRoom> rooms = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            rooms.add(chatService.createGroupChat("page " + i, "", owner.getId(), List.of()));
+        }
+        // The oldest room becomes the most recently active
+        chatService.sendMessage(rooms.get(0).getId(), owner.getId(), "bump", "CHAT");
+
+        Slice<InboxRoom> first = roomSummaryService.getInbox(owner.getId(), null, 3);
+        assertThat(first.hasNext()).isTrue();
+        InboxRoom last = first.getContent().get(2);
+        String cursor = InboxCursor.encode(last.lastActivityAt(), last.id());
+
+        JdbcExecutionCounter.reset();
+        Slice<InboxRoom> second = roomSummaryService.getInbox(owner.getId(), InboxCursor.decode(cursor), 3);
+        assertThat(JdbcExecutionCounter.count()).isEqualTo(1);
+        assertThat(second.hasNext()).isFalse();
+
+        List<Long> ids = new ArrayList<>();
+        first.forEach(room -> ids.add(room.id()));
+        second.forEach(room -> ids.add(room.id()));
+        assertThat(ids).containsExactly(rooms.get(0).getId(), rooms.get(4).getId(), rooms.get(3).getId(),
+            rooms.get(2).getId(), rooms.get(1).getId());
+    }
+
+    private List<InboxRoom> inbox(Long userId) {
+        return roomSummaryService.getInbox(userId, null, 50).getContent();
+    }
+
+    private User signup() {
+        int n = SEQUENCE.incrementAndGet();
+        return authService.signup("inbox-user-" + n, "Inbox User " + n, "+6000" + n, "secret");
+    }
+}
@@ -0,0 +1,133 @@
+package com.chatapp.service;
+
+import com.chatapp.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Typeahead over 1M synthetic users: time to build UserSearchIndex, the heap it retains,
+// and per-query latency for prefix, substring and phone queries against the scan the
+// old LIKE '%term%' queries did (here in memory, so a lower bound for the database).
+// Prints median and p99 per query.
+@Tag("benchmark")
+class UserSearchIndexBenchmark {
+
+    private static final int USERS = 1_000_000;
+    private static final int ITERATIONS = 200;
+    private static final int SCAN_ITERATIONS = 5;
+
+    private static final String[] FIRST = {"john", "maria", "ali", "wei", "fatima", "james", "sofia", "omar",
+        "lena", "raj", "chen", "anna", "david", "yuki", "carlos", "nina"};
+    private static final String[] LAST = {"smith", "garcia", "khan", "chen", "müller", "rossi", "kim", "silva",
+        "nguyen", "cohen", "ivanova", "brown", "tanaka", "okafor", "dubois", "larsen"};
+    private static final String[] QUERIES = {"j", "john", "smith", "maria gar", "mit", "chen99", "khan12", "+1555123"};
+
+    @Test
+    void indexVersusScan() {
+        String[][] users = users();
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findSearchFieldsAfter(anyLong(), any(Pageable.class))).thenAnswer(invocation -> {
+            long afterId = invocation.getArgument(0);
+            int size = invocation.<Pageable>getArgument(1).getPageSize();
+            List<Object[]> page = new ArrayList<>(size);
+            for (long id = afterId + 1; id <= USERS && page.size() < size; id++) {
+                String[] user = users[(int) id - 1];
+                page.add(new Object[] {id, user[0], user[1], user[2]});
+            }
+            return page;
+        });
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        UserSearchIndex index = new UserSearchIndex();
+        ReflectionTestUtils.setField(index, "userRepository", userRepository);
+        ReflectionTestUtils.setField(index, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(index, "maxResults", 20);
+        ReflectionTestUtils.setField(index, "maxCandidates", 1000);
+        index.load();
+        long buildMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("users=%d build=%dms retained=%.0fMB%n", USERS, buildMs,
+            (usedHeap() - heapBefore) / 1e6);
+
+        for (String query : QUERIES) {
+            long[] indexed = new long[ITERATIONS];
+            int results = 0;
+            for (int i = -ITERATIONS; i < ITERATIONS; i++) {
+                long begin = System.nanoTime();
+                results = index.search(query, 20).size();
+                if (i >= 0) {
+                    indexed[i] = System.nanoTime() - begin;
+                }
+            }
+            long[] scanned = new long[SCAN_ITERATIONS];
+            int scanResults = 0;
+            for (int i = -1; i < SCAN_ITERATIONS; i++) {
+                long begin = System.nanoTime();
+                scanResults = scan(users, query);
+                if (i >= 0) {
+                    scanned[i] = System.nanoTime() - begin;
+                }
+            }
+            System.out.printf("%-12s index p50=%.1fus p99=%.1fus (%d results)  scan p50=%.1fms (%d rows)%n",
+                "\"" + query + "\"", percentile(indexed, 50) / 1e3, percentile(indexed, 99) / 1e3, results,
+                percentile(scanned, 50) / 1e6, scanResults);
+        }
+        // Keep the index reachable until here so the retained figure holds
+        System.out.println("indexed " + index.size());
+    }
+
+    // The old queries: every user whose name or username contains the term, or whose
+    // phone number does; all rows, no ranking
+    private static int scan(String[][] users, String query) {
+        String term = query.toLowerCase(Locale.ROOT);
+        int count = 0;
+        for (String[] user : users) {
+            if (user[0].toLowerCase(Locale.ROOT).contains(term) || user[1].toLowerCase(Locale.ROOT).contains(term)
+                || user[2].contains(query)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String[][] users() {
+        Random random = new Random(42);
+        String[][] users = new String[USERS][];
+        for (int i = 0; i < USERS; i++) {
+            String first = FIRST[random.nextInt(FIRST.length)];
+            String last = LAST[random.nextInt(LAST.length)];
+            users[i] = new String[] {first + last + i,
+                Character.toUpperCase(first.charAt(0)) + first.substring(1) + " "
+                    + Character.toUpperCase(last.charAt(0)) + last.substring(1),
+                "+1555" + String.format("%07d", random.nextInt(10_000_000))};
+        }
+        return users;
+    }
+
+    private static long percentile(long[] values, double percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile / 100 * sorted.length) - 1)];
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
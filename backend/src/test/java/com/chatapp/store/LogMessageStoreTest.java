@@ -0,0 +1,80 @@
+package com.chatapp.store;
+
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.service.MessageSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LogMessageStoreTest {
+
+    private static final int SEGMENT_BYTES = 2 << 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void refusesALogWithRoomsTheDatabaseDoesNotHave() throws Exception {
+        try (MessageLog messageLog = new MessageLog(directory, SEGMENT_BYTES, 32)) {
+            messageLog.open();
+            messageLog.append(List.of(message(3L), message(7L)));
+            assertThat(messageLog.getHighestChatRoomId()).isEqualTo(7);
+        }
+
+        // A recreated database: room 7 is gone or would be a different room
+        assertThatThrownBy(() -> store(5).open())
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("rooms up to id 7");
+
+        LogMessageStore store = store(7);
+        store.open();
+        try {
+            assertThat(store.latest(7L, 10).messages()).hasSize(1);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void opensAnEmptyLogAgainstAnEmptyDatabase() throws Exception {
+        LogMessageStore store = store(0);
+        store.open();
+        store.close();
+    }
+
+    @Test
+    void rejectsSegmentsSmallerThanTheLargestRecord() {
+        assertThatThrownBy(() -> new MessageLog(directory, 1 << 20, 32))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("1048584");
+        new MessageLog(directory, (1 << 20) + 8, 32);
+    }
+
+    private LogMessageStore store(long highestRoomId) {
+        ChatRoomRepository chatRoomRepository = mock(ChatRoomRepository.class);
+        when(chatRoomRepository.findHighestId()).thenReturn(highestRoomId);
+        LogMessageStore store = new LogMessageStore();
+        ReflectionTestUtils.setField(store, "chatRoomRepository", chatRoomRepository);
+        ReflectionTestUtils.setField(store, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "segmentBytes", SEGMENT_BYTES);
+        ReflectionTestUtils.setField(store, "indexInterval", 32);
+        ReflectionTestUtils.setField(store, "fsyncPolicy", LogMessageStore.FsyncPolicy.NONE);
+        return store;
+    }
+
+    private static MessageSnapshot message(Long chatRoomId) {
+        return new MessageSnapshot(null, chatRoomId, "hello", "CHAT", LocalDateTime.now(), 1L, "sender", "Sender",
+            "+1000");
+    }
+}
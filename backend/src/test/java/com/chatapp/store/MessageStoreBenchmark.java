@@ -0,0 +1,139 @@
+package com.chatapp.store;
+
+import com.chatapp.ChatApplication;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.repository.UserRepository;
+import com.chatapp.service.MessageSnapshot;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// The message stores behind the write-behind batch and the history endpoints: 100k
+// messages of about 60 bytes over 100 rooms, appended in batches of 100, then history
+// pages of 50 (latest, before and after a random message) and findByIds of 20. Runs the
+// JPA store on in-memory and file H2 and the log store with BATCH and NONE fsync, each in
+// its own application context, then times reopening the log. Prints per-store figures;
+// the second pass of each is warm.
+@Tag("benchmark")
+class MessageStoreBenchmark {
+
+    private static final int ROOMS = 100;
+    private static final int USERS = 50;
+    private static final int BATCHES = 1000;
+    private static final int BATCH_SIZE = 100;
+    private static final int READS = 20000;
+    private static final int LOOKUPS = 2000;
+
+    @Test
+    void jpaVersusLog() throws Exception {
+        Path logs = Files.createTempDirectory("message-log-benchmark");
+        Path h2 = Files.createTempDirectory("h2-benchmark");
+        run("jpa h2-mem", "--spring.datasource.url=jdbc:h2:mem:store-jpa;DB_CLOSE_DELAY=-1");
+        run("jpa h2-file", "--spring.datasource.url=jdbc:h2:file:" + h2.resolve("db"));
+        run("log batch", "--spring.datasource.url=jdbc:h2:mem:store-log-batch;DB_CLOSE_DELAY=-1",
+            "--chat.message-store.engine=log", "--chat.message-store.log.dir=" + logs.resolve("batch"),
+            "--chat.message-store.log.fsync=BATCH");
+        run("log none", "--spring.datasource.url=jdbc:h2:mem:store-log-none;DB_CLOSE_DELAY=-1",
+            "--chat.message-store.engine=log", "--chat.message-store.log.dir=" + logs.resolve("none"),
+            "--chat.message-store.log.fsync=NONE");
+
+        long start = System.nanoTime();
+        try (MessageLog messageLog = new MessageLog(logs.resolve("batch"), 64 << 20, 32)) {
+            messageLog.open();
+            System.out.printf("log reopen: %d records (%.1f MB) in %.0f ms%n", messageLog.getRecordCount(),
+                messageLog.getSize() / 1e6, (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private void run(String label, String... properties) {
+        List<String> args = new ArrayList<>(List.of("--server.port=0", "--spring.jmx.enabled=false",
+            "--spring.main.banner-mode=off", "--logging.level.root=WARN"));
+        args.addAll(List.of(properties));
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(ChatApplication.class)
+                .run(args.toArray(new String[0]))) {
+            UserRepository userRepository = context.getBean(UserRepository.class);
+            ChatRoomRepository chatRoomRepository = context.getBean(ChatRoomRepository.class);
+            MessageStore store = context.getBean(MessageStore.class);
+            TransactionTemplate transactionTemplate = context.getBean(TransactionTemplate.class);
+
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < USERS; i++) {
+                users.add(userRepository.save(new User("bench" + i, "Bench " + i, "+9000" + i, "secret")));
+            }
+            List<Long> rooms = new ArrayList<>();
+            for (int i = 0; i < ROOMS; i++) {
+                rooms.add(chatRoomRepository.save(new ChatRoom("room " + i, ChatRoom.ChatType.GROUP, users.get(0)))
+                    .getId());
+            }
+
+            Random random = new Random(7);
+            List<Long> ids = new ArrayList<>();
+            Map<Long, List<Long>> idsByRoom = new HashMap<>();
+            for (int pass = 0; pass < 2; pass++) {
+                long start = System.nanoTime();
+                for (int b = 0; b < BATCHES / 2; b++) {
+                    List<MessageSnapshot> saved = transactionTemplate.execute(status -> {
+                        List<Message> batch = new ArrayList<>(BATCH_SIZE);
+                        for (int i = 0; i < BATCH_SIZE; i++) {
+                            batch.add(new Message(users.get(random.nextInt(USERS)),
+                                chatRoomRepository.getReferenceById(rooms.get(random.nextInt(ROOMS))),
+                                "message body number " + random.nextInt(1_000_000) + " with some text in it", "CHAT"));
+                        }
+                        return store.saveAll(batch);
+                    });
+                    for (MessageSnapshot message : saved) {
+                        ids.add(message.id());
+                        idsByRoom.computeIfAbsent(message.chatRoomId(), id -> new ArrayList<>()).add(message.id());
+                    }
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%-12s append pass %d: %.0f msg/s (%.2f ms per batch of %d)%n", label, pass,
+                    BATCHES / 2 * BATCH_SIZE / seconds, seconds * 1000 / (BATCHES / 2), BATCH_SIZE);
+            }
+
+            for (int pass = 0; pass < 2; pass++) {
+                long[] nanos = new long[3];
+                for (int i = 0; i < READS; i++) {
+                    long room = rooms.get(random.nextInt(ROOMS));
+                    List<Long> roomIds = idsByRoom.get(room);
+                    long pivot = roomIds.get(random.nextInt(roomIds.size()));
+                    long t0 = System.nanoTime();
+                    store.latest(room, 50);
+                    long t1 = System.nanoTime();
+                    store.before(room, pivot, 50);
+                    long t2 = System.nanoTime();
+                    store.after(room, pivot, 50);
+                    long t3 = System.nanoTime();
+                    nanos[0] += t1 - t0;
+                    nanos[1] += t2 - t1;
+                    nanos[2] += t3 - t2;
+                }
+                System.out.printf("%-12s reads pass %d (50 per page): latest %.1f us, before %.1f us, after %.1f us%n",
+                    label, pass, nanos[0] / 1e3 / READS, nanos[1] / 1e3 / READS, nanos[2] / 1e3 / READS);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                List<Long> page = new ArrayList<>(20);
+                for (int k = 0; k < 20; k++) {
+                    page.add(ids.get(random.nextInt(ids.size())));
+                }
+                store.findByIds(page);
+            }
+            System.out.printf("%-12s findByIds(20): %.1f us%n", label, (System.nanoTime() - start) / 1e3 / LOOKUPS);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.chatapp.support;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+// Counts JDBC statement executions on the current thread, JdbcTemplate included (a
+// batch counts once), by wrapping the test profile's DataSource. Unlike
+// SqlStatementCounter this sees SQL that doesn't go through Hibernate.
+@Component
+@Profile("test")
+public class JdbcExecutionCounter implements BeanPostProcessor {
+
+    private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+    public static void reset() {
+        COUNT.get()[0] = 0;
+    }
+
+    public static int count() {
+        return COUNT.get()[0];
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource) {
+            return wrap(DataSource.class, dataSource, (target, method, result) -> {
+                if (result instanceof Connection connection) {
+                    return wrap(Connection.class, connection, JdbcExecutionCounter::wrapStatement);
+                }
+                return result;
+            });
+        }
+        return bean;
+    }
+
+    private interface ResultMapper {
+        Object map(Object target, java.lang.reflect.Method method, Object result);
+    }
+
+    private static Object wrapStatement(Object target, java.lang.reflect.Method method, Object result) {
+        ResultMapper counting = (statement, called, value) -> {
+            if (called.getName().startsWith("execute")) {
+                COUNT.get()[0]++;
+            }
+            return value;
+        };
+        if (result instanceof CallableStatement statement) {
+            return wrap(CallableStatement.class, statement, counting);
+        }
+        if (result instanceof PreparedStatement statement) {
+            return wrap(PreparedStatement.class, statement, counting);
+        }
+        if (result instanceof Statement statement) {
+            return wrap(Statement.class, statement, counting);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T wrap(Class<T> type, T target, ResultMapper mapper) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            try {
+                return mapper.map(target, method, method.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+}
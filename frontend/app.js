@@ -8,10 +8,16 @@ class ChatApp {
         this.isTyping = false;
         this.currentChatType = 'public'; // 'public', 'private', 'group'
         this.currentChatTarget = null; // username for private, chatRoomId for group
-        this.onlineUsers = [];
+        this.onlineContactIds = new Set();
         this.contacts = [];
         this.chatRooms = [];
         
+        // Last seq seen per group room and for the private inbox, for catch-up on reconnect
+        this.syncSeqs = { rooms: {}, inbox: null };
+        this.reconnectAttempts = 0;
+        this.hasConnected = false;
+        this.closing = false;
+        
         this.initializeElements();
         this.attachEventListeners();
         this.checkAuthentication();
@@ -86,11 +92,7 @@ class ChatApp {
 
         // Handle browser close/refresh
         window.addEventListener('beforeunload', () => {
-            if (this.stompClient && this.stompClient.connected) {
-                this.stompClient.send("/app/chat.userOffline", {}, JSON.stringify({
-                    username: this.username
-                }));
-            }
+            this.disconnectWebSocket();
         });
     }
 
@@ -122,12 +124,8 @@ class ChatApp {
     }
 
     handleLogout() {
-        // Send offline message before disconnecting
-        if (this.stompClient && this.stompClient.connected) {
-            this.stompClient.send("/app/chat.userOffline", {}, JSON.stringify({
-                username: this.username
-            }));
-        }
+        // Closing the session takes the user offline
+        this.disconnectWebSocket();
         
         if (this.user && this.user.id) {
             // Call logout API
@@ -147,12 +145,8 @@ class ChatApp {
     }
 
     handleSwitchUser() {
-        // Send offline message before disconnecting
-        if (this.stompClient && this.stompClient.connected) {
-            this.stompClient.send("/app/chat.userOffline", {}, JSON.stringify({
-                username: this.username
-            }));
-        }
+        // Closing the session takes the user offline
+        this.disconnectWebSocket();
         
         // Clear local storage and redirect with logout parameter
         localStorage.removeItem('user');
@@ -173,9 +167,13 @@ class ChatApp {
         const socket = new SockJS(ENV_CONFIG.WS_BASE_URL);
         this.stompClient = Stomp.over(socket);
         
-        this.stompClient.connect({}, (frame) => {
+        // The server identifies the session's user from the user-id header
+        this.stompClient.connect({ 'user-id': this.user.id }, (frame) => {
             console.log('Connected: ' + frame);
-            this.addSystemMessage('Connected to chat server');
+            this.addSystemMessage(this.hasConnected ? 'Reconnected to chat server' : 'Connected to chat server');
+            const isReconnect = this.hasConnected;
+            this.hasConnected = true;
+            this.reconnectAttempts = 0;
             
             // Subscribe to public messages
             this.stompClient.subscribe('/topic/public', (message) => {
@@ -186,27 +184,143 @@ class ChatApp {
             // Subscribe to private messages
             this.stompClient.subscribe('/user/queue/private', (message) => {
                 const receivedMessage = JSON.parse(message.body);
-                this.receivePrivateMessage(receivedMessage);
+                if (this.acceptSeq(receivedMessage)) {
+                    this.receivePrivateMessage(receivedMessage);
+                }
+            });
+            
+            // Subscribe to contact presence changes
+            this.stompClient.subscribe('/user/queue/presence', (message) => {
+                this.applyPresence(JSON.parse(message.body));
             });
             
-            // Load user's chat data
-            this.loadUserData();
+            // Resubscribe to the open group after a reconnect
+            if (isReconnect && this.currentChatType === 'group') {
+                this.subscribeGroup(this.currentChatTarget);
+            }
+            
+            // Resume in stages: first what was missed while disconnected (or start the
+            // inbox seq), then the room list and contacts
+            this.syncMissed(isReconnect).then(() => this.loadUserData());
             
             // Send user join message
             this.stompClient.send("/app/chat.addUser", {}, JSON.stringify({
                 username: this.username
             }));
             
-            // Send user online message
-            this.stompClient.send("/app/chat.userOnline", {}, JSON.stringify({
-                username: this.username
-            }));
-            
         }, (error) => {
             console.error('WebSocket connection error:', error);
             this.addSystemMessage('Failed to connect to chat server');
+            // A server turning connections away says when to come back
+            const retryAfter = error && error.headers ? parseInt(error.headers['retry-after-ms'], 10) : NaN;
+            this.scheduleReconnect(isNaN(retryAfter) ? null : retryAfter);
         });
     }
+    
+    scheduleReconnect(retryAfterMs) {
+        if (this.closing || this.reconnectTimer) return;
+        
+        // Exponential backoff with jitter, so clients don't all come back at once
+        const base = Math.min(30000, 1000 * Math.pow(2, this.reconnectAttempts));
+        const delay = retryAfterMs !== null && retryAfterMs !== undefined
+            ? retryAfterMs
+            : base / 2 + Math.random() * base / 2;
+        this.reconnectAttempts++;
+        this.reconnectTimer = setTimeout(() => {
+            this.reconnectTimer = null;
+            this.connectWebSocket();
+        }, delay);
+    }
+    
+    // fetch() that waits and retries when the server is shedding load (429); the
+    // server's retry hint already includes jitter
+    async admittedFetch(url, options, attempts = 5) {
+        for (let attempt = 1; ; attempt++) {
+            const response = await fetch(url, options);
+            if (response.status !== 429 || attempt >= attempts) return response;
+            
+            const body = await response.json().catch(() => ({}));
+            const delay = body.retryAfterMs || 1000 * attempt * (0.5 + Math.random());
+            await new Promise(resolve => setTimeout(resolve, delay));
+        }
+    }
+    
+    // Drops an event already seen (seq at or below the last one) and records its seq
+    acceptSeq(message) {
+        if (message.seq === undefined) return true;
+        
+        // Group messages and membership notices share the room's stream
+        if (message.chatRoomId != null) {
+            const last = this.syncSeqs.rooms[message.chatRoomId];
+            if (last !== undefined && message.seq <= last) return false;
+            this.syncSeqs.rooms[message.chatRoomId] = message.seq;
+        } else {
+            if (this.syncSeqs.inbox !== null && message.seq <= this.syncSeqs.inbox) return false;
+            this.syncSeqs.inbox = message.seq;
+        }
+        return true;
+    }
+    
+    async syncMissed(isReconnect) {
+        try {
+            const response = await this.admittedFetch(`${ENV_CONFIG.API_BASE_URL}/api/chat/sync`, {
+                method: 'POST',
+                headers: {
+                    'Content-Type': 'application/json',
+                    'User-Id': this.user.id
+                },
+                body: JSON.stringify({
+                    rooms: this.syncSeqs.rooms,
+                    inbox: this.syncSeqs.inbox !== null ? this.syncSeqs.inbox : 0
+                })
+            });
+            
+            if (!response.ok) return;
+            const result = await response.json();
+            
+            // Private messages sent from this session are already shown
+            const inbox = result.inbox;
+            if (inbox && inbox.reset) {
+                this.syncSeqs.inbox = inbox.seq;
+            } else if (inbox) {
+                inbox.events.forEach(event => {
+                    if (this.acceptSeq(event) && event.username !== this.username) {
+                        this.receivePrivateMessage(event);
+                    }
+                });
+            }
+            
+            (result.rooms || []).forEach(room => {
+                const isOpen = this.currentChatType === 'group' && this.currentChatTarget === room.chatRoomId;
+                if (room.reset) {
+                    // Too much was missed to replay; only the open room is reloaded
+                    if (room.seq !== undefined) {
+                        this.syncSeqs.rooms[room.chatRoomId] = room.seq;
+                    }
+                    if (isOpen && isReconnect) {
+                        this.messagesContainer.innerHTML = '';
+                        this.loadChatHistory(room.chatRoomId);
+                    }
+                    return;
+                }
+                room.events.forEach(event => {
+                    if (this.acceptSeq(event) && isOpen) {
+                        this.displayMessage(event, event.username === this.username);
+                    }
+                });
+            });
+        } catch (error) {
+            console.error('Error syncing missed messages:', error);
+        }
+    }
+    
+    disconnectWebSocket() {
+        this.closing = true;
+        clearTimeout(this.reconnectTimer);
+        if (this.stompClient && this.stompClient.connected) {
+            this.stompClient.disconnect();
+        }
+    }
 
 
     sendMessage() {
@@ -258,9 +372,6 @@ class ChatApp {
 
     receiveMessage(message) {
         // Handle public messages and system messages
-        if (message.messageType === 'ONLINE' || message.messageType === 'OFFLINE') {
-            this.updateOnlineUsers(message.onlineUsers || []);
-        }
         this.displayMessage(message, false);
     }
     
@@ -272,9 +383,10 @@ class ChatApp {
     displayMessage(message, isOwnMessage) {
         const messageElement = document.createElement('div');
         
-        // Check if it's a system message (JOIN/LEAVE/ONLINE/OFFLINE)
+        // Check if it's a system message (JOIN/LEAVE/ONLINE/OFFLINE/MEMBERSHIP)
         if (message.messageType === 'JOIN' || message.messageType === 'LEAVE' || 
-            message.messageType === 'ONLINE' || message.messageType === 'OFFLINE') {
+            message.messageType === 'ONLINE' || message.messageType === 'OFFLINE' ||
+            message.messageType === 'MEMBERSHIP') {
             messageElement.className = 'system-message';
             messageElement.textContent = message.content;
             
@@ -356,7 +468,7 @@ class ChatApp {
         
         try {
             // Load contacts
-            const contactsResponse = await fetch(`${ENV_CONFIG.API_BASE_URL}/api/chat/contacts`, {
+            const contactsResponse = await this.admittedFetch(`${ENV_CONFIG.API_BASE_URL}/api/chat/contacts`, {
                 headers: {
                     'User-Id': this.user.id
                 }
@@ -366,10 +478,11 @@ class ChatApp {
                 const contactsResult = await contactsResponse.json();
                 this.contacts = contactsResult.contacts || [];
                 this.displayContacts();
+                this.updateOnlineUsers();
             }
             
-            // Load chat rooms
-            const roomsResponse = await fetch(`${ENV_CONFIG.API_BASE_URL}/api/chat/rooms`, {
+            // Load chat rooms with their latest message and unread count in one request
+            const roomsResponse = await this.admittedFetch(`${ENV_CONFIG.API_BASE_URL}/api/chat/rooms/summary?size=100`, {
                 headers: {
                     'User-Id': this.user.id
                 }
@@ -377,7 +490,7 @@ class ChatApp {
             
             if (roomsResponse.ok) {
                 const roomsResult = await roomsResponse.json();
-                this.chatRooms = roomsResult.chatRooms || [];
+                this.chatRooms = roomsResult.rooms || [];
                 this.displayChatRooms();
             }
         } catch (error) {
@@ -493,8 +606,8 @@ class ChatApp {
             chatElement.className = 'chat-item';
             chatElement.innerHTML = `
                 <div class="chat-info">
-                    <div class="chat-name">${room.name}</div>
-                    <div class="chat-type">Private Chat</div>
+                    <div class="chat-name">${room.name}${this.unreadBadge(room)}</div>
+                    <div class="chat-type">${this.roomPreview(room) || 'Private Chat'}</div>
                 </div>
                 <button class="btn-open" onclick="chatApp.openChatRoom(${room.id}, 'private')">
                     Open
@@ -512,9 +625,9 @@ class ChatApp {
             groupElement.className = 'group-item';
             groupElement.innerHTML = `
                 <div class="group-info">
-                    <div class="group-name">${room.name}</div>
-                    <div class="group-description">${room.description || ''}</div>
-                    <div class="group-participants">${room.participants.length} members</div>
+                    <div class="group-name">${room.name}${this.unreadBadge(room)}</div>
+                    <div class="group-description">${this.roomPreview(room) || room.description || ''}</div>
+                    <div class="group-participants">${room.participantCount} members</div>
                 </div>
                 <button class="btn-open" onclick="chatApp.openChatRoom(${room.id}, 'group')">
                     Open
@@ -524,19 +637,57 @@ class ChatApp {
         });
     }
     
+    applyReceipts(event) {
+        // Latest read position per member of the open group, for "seen by" counts
+        this.readReceipts = this.readReceipts || {};
+        event.receipts.forEach(receipt => {
+            if (receipt.userId !== this.user.id) {
+                this.readReceipts[receipt.userId] = receipt.lastReadMessageId;
+            }
+        });
+        const seenBy = Object.keys(this.readReceipts).length;
+        this.messageInput.placeholder = seenBy > 0 ? `Message group... (seen by ${seenBy})` : `Message group...`;
+    }
+    
+    unreadBadge(room) {
+        return room.unreadCount > 0 ? ` <span class="unread-count">${room.unreadCount}</span>` : '';
+    }
+    
+    roomPreview(room) {
+        if (!room.lastMessageSnippet) return '';
+        return this.escapeHtml(`${room.lastSenderUsername}: ${room.lastMessageSnippet}`);
+    }
+    
+    async markRoomRead(chatRoomId) {
+        try {
+            await fetch(`${ENV_CONFIG.API_BASE_URL}/api/chat/rooms/${chatRoomId}/read`, {
+                method: 'POST',
+                headers: {
+                    'User-Id': this.user.id
+                }
+            });
+            
+            const room = this.chatRooms.find(r => r.id === chatRoomId);
+            if (room) {
+                room.unreadCount = 0;
+                this.displayChatRooms();
+            }
+        } catch (error) {
+            console.error('Error marking chat as read:', error);
+        }
+    }
+    
     openChatRoom(chatRoomId, type) {
         this.currentChatType = type;
         this.currentChatTarget = chatRoomId;
         
         // Clear messages
         this.messagesContainer.innerHTML = '';
+        this.readReceipts = {};
         
         // Subscribe to group messages if it's a group chat
         if (type === 'group') {
-            this.stompClient.subscribe(`/topic/group/${chatRoomId}`, (message) => {
-                const receivedMessage = JSON.parse(message.body);
-                this.displayMessage(receivedMessage, receivedMessage.username === this.username);
-            });
+            this.subscribeGroup(chatRoomId);
             
             const room = this.chatRooms.find(r => r.id === chatRoomId);
             this.addSystemMessage(`Opened group: ${room ? room.name : 'Unknown Group'}`);
@@ -549,11 +700,25 @@ class ChatApp {
         
         // Load chat history
         this.loadChatHistory(chatRoomId);
+        this.markRoomRead(chatRoomId);
+    }
+    
+    subscribeGroup(chatRoomId) {
+        this.stompClient.subscribe(`/topic/group/${chatRoomId}`, (message) => {
+            const receivedMessage = JSON.parse(message.body);
+            if (receivedMessage.messageType === 'RECEIPT') {
+                this.applyReceipts(receivedMessage);
+                return;
+            }
+            if (this.acceptSeq(receivedMessage)) {
+                this.displayMessage(receivedMessage, receivedMessage.username === this.username);
+            }
+        });
     }
     
     async loadChatHistory(chatRoomId) {
         try {
-            const response = await fetch(`${ENV_CONFIG.API_BASE_URL}/api/chat/rooms/${chatRoomId}/messages`, {
+            const response = await this.admittedFetch(`${ENV_CONFIG.API_BASE_URL}/api/chat/rooms/${chatRoomId}/messages`, {
                 headers: {
                     'User-Id': this.user.id
                 }
@@ -562,14 +727,16 @@ class ChatApp {
             if (response.ok) {
                 const result = await response.json();
                 const messages = result.messages || [];
+                const users = result.users || {};
                 
                 messages.forEach(msg => {
+                    const sender = users[msg.senderId] || {};
                     this.displayMessage({
-                        username: msg.sender.username,
+                        username: sender.username,
                         content: msg.content,
                         messageType: msg.messageType,
                         timestamp: new Date(msg.timestamp).getTime()
-                    }, msg.sender.username === this.username);
+                    }, sender.username === this.username);
                 });
             }
         } catch (error) {
@@ -577,21 +744,27 @@ class ChatApp {
         }
     }
     
-    updateOnlineUsers(users) {
-        this.onlineUsers = users || [];
-        this.updateUserCount(this.onlineUsers.length);
-        
-        // Update users list display
+    applyPresence(delta) {
+        // A snapshot replaces the set; other deltas patch it
+        if (delta.snapshot) {
+            this.onlineContactIds = new Set(delta.joined || []);
+        } else {
+            (delta.joined || []).forEach(id => this.onlineContactIds.add(id));
+            (delta.left || []).forEach(id => this.onlineContactIds.delete(id));
+        }
+        this.updateOnlineUsers();
+    }
+    
+    updateOnlineUsers() {
+        // Update users list display with the contacts that are online
         this.usersList.innerHTML = '';
-        this.onlineUsers.forEach(username => {
-            const userElement = document.createElement('li');
-            userElement.textContent = username;
-            if (username === this.username) {
-                userElement.style.fontWeight = 'bold';
-                userElement.style.color = '#667eea';
-            }
-            this.usersList.appendChild(userElement);
-        });
+        this.contacts
+            .filter(contact => this.onlineContactIds.has(contact.id))
+            .forEach(contact => {
+                const userElement = document.createElement('li');
+                userElement.textContent = contact.username;
+                this.usersList.appendChild(userElement);
+            });
     }
     
     showCreateGroupModal() {
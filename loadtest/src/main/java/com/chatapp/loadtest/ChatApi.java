@@ -0,0 +1,151 @@
+package com.chatapp.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The REST calls the harnesses make, asynchronous. A 429 is retried after the server's
+// retryAfterMs, as the browser client does; a connection that can't be opened (the
+// server's accept queue is full) is retried a few times with backoff.
+public class ChatApi {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int MAX_RETRIES = 4;
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong rejections = new AtomicLong();
+
+    public ChatApi(HttpClient client, String baseUrl, ScheduledExecutorService scheduler) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.scheduler = scheduler;
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    // Returns the new user's id
+    public CompletableFuture<Long> signup(String username, String phoneNumber) {
+        String body = "{\"username\":\"" + username + "\",\"name\":\"" + username + "\",\"phoneNumber\":\""
+            + phoneNumber + "\",\"password\":\"secret\"}";
+        return send(post("/api/auth/signup", null, body))
+            .thenApply(json -> json.path("user").path("id").asLong());
+    }
+
+    // Returns the new room's id
+    public CompletableFuture<Long> createGroup(long userId, String name, List<Long> participantIds) {
+        String body = "{\"name\":\"" + name + "\",\"description\":\"\",\"participantIds\":" + participantIds + "}";
+        return send(post("/api/chat/group", userId, body))
+            .thenApply(json -> json.path("chatRoom").path("id").asLong());
+    }
+
+    // Signs up prefix-0 .. prefix-(count-1), at most concurrency at a time; returns their ids
+    public long[] signupAll(String prefix, int count, int concurrency) throws InterruptedException {
+        String phonePrefix = Long.toString(System.currentTimeMillis(), 36);
+        long[] userIds = new long[count];
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            inFlight.acquire();
+            signup(prefix + "-" + i, phonePrefix + "-" + i).whenComplete((id, error) -> {
+                if (error != null) {
+                    System.err.println("Signup failed: " + error.getMessage());
+                } else {
+                    userIds[index] = id;
+                }
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        return userIds;
+    }
+
+    public CompletableFuture<JsonNode> sync(long userId, long inboxSeq) {
+        return send(post("/api/chat/sync", userId, "{\"rooms\":{},\"inbox\":" + inboxSeq + "}"));
+    }
+
+    public CompletableFuture<JsonNode> roomSummaries(long userId) {
+        return send(get("/api/chat/rooms/summary?size=100", userId));
+    }
+
+    public CompletableFuture<JsonNode> contacts(long userId) {
+        return send(get("/api/chat/contacts", userId));
+    }
+
+    private HttpRequest get(String path, Long userId) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path)).GET();
+        if (userId != null) {
+            builder.header("User-Id", String.valueOf(userId));
+        }
+        return builder.build();
+    }
+
+    private HttpRequest post(String path, Long userId, String body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (userId != null) {
+            builder.header("User-Id", String.valueOf(userId));
+        }
+        return builder.build();
+    }
+
+    private CompletableFuture<JsonNode> send(HttpRequest request) {
+        return send(request, 0);
+    }
+
+    private CompletableFuture<JsonNode> send(HttpRequest request, int failures) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).handle((response, error) -> {
+            if (error != null) {
+                if (failures >= MAX_RETRIES) {
+                    return CompletableFuture.<JsonNode>failedFuture(error);
+                }
+                return retry(request, failures + 1, 1000L << failures);
+            }
+            try {
+                JsonNode json = response.body().length > 0 ? MAPPER.readTree(response.body()) : MAPPER.nullNode();
+                if (response.statusCode() == 429) {
+                    rejections.incrementAndGet();
+                    return retry(request, failures, json.path("retryAfterMs").asLong(1000));
+                }
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException(request.uri().getPath() + " returned " + response.statusCode()
+                        + ": " + json);
+                }
+                return CompletableFuture.completedFuture(json);
+            } catch (IOException e) {
+                return CompletableFuture.<JsonNode>failedFuture(e);
+            }
+        }).thenCompose(next -> next);
+    }
+
+    private CompletableFuture<JsonNode> retry(HttpRequest request, int failures, long delayMs) {
+        CompletableFuture<JsonNode> retried = new CompletableFuture<>();
+        scheduler.schedule(() -> send(request, failures).whenComplete((value, error) -> {
+            if (error != null) {
+                retried.completeExceptionally(error);
+            } else {
+                retried.complete(value);
+            }
+        }), delayMs, TimeUnit.MILLISECONDS);
+        return retried;
+    }
+}
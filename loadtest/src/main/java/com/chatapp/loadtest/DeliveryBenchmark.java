@@ -0,0 +1,243 @@
+package com.chatapp.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Delivery benchmark: --sessions users are split evenly over --groups group rooms, each
+// opens a STOMP session subscribed to its room's /topic/group/{id} and to
+// /user/queue/private, and one pacing thread drives /app/chat.sendMessage at --rate
+// messages per second from the sessions in turn, --private-share of them private to a
+// random other user. Every message carries its intended send time, so each delivery's
+// end-to-end latency is measured from when it should have gone out, and a stalled
+// sender shows up as latency rather than as a lower rate (no coordinated omission).
+// After --warmup-s, sends and deliveries are counted for --duration-s; latencies go into
+// an HdrHistogram. Without --url the backend is started in this JVM (EmbeddedServer).
+// The result is printed as JSON, and written to --output if given.
+public class DeliveryBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String MARKER = "bench:";
+
+    private final Map<String, String> options;
+    private final int sessions;
+    private final int groups;
+    private final double rate;
+    private final double privateShare;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final long drainNanos;
+    private final String output;
+
+    private final Recorder latencies = new Recorder(3);
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    public DeliveryBenchmark(Map<String, String> options) {
+        this.options = options;
+        this.sessions = Integer.parseInt(options.getOrDefault("sessions", "200"));
+        this.groups = Integer.parseInt(options.getOrDefault("groups", "10"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "100"));
+        this.privateShare = Double.parseDouble(options.getOrDefault("private-share", "0.2"));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup-s", "5")));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration-s", "20")));
+        this.drainNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("drain-s", "10")));
+        this.output = options.get("output");
+        if (groups < 1 || sessions < 2 * groups) {
+            throw new IllegalArgumentException("Need at least two sessions per group");
+        }
+    }
+
+    public void run() throws Exception {
+        EmbeddedServer server = options.containsKey("url") ? null : new EmbeddedServer(options);
+        String baseUrl = server != null ? server.getBaseUrl() : options.get("url");
+        URI webSocketUri = URI.create(baseUrl.replaceFirst("^http", "ws") + "/ws/websocket");
+
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ChatApi api = new ChatApi(httpClient, baseUrl, scheduler);
+
+        // Users and rooms; user i is in room i % groups
+        String prefix = "bench-" + Long.toString(System.currentTimeMillis(), 36);
+        long[] userIds = api.signupAll(prefix, sessions, 32);
+        long[] roomIds = new long[groups];
+        int[] roomSizes = new int[groups];
+        for (int g = 0; g < groups; g++) {
+            List<Long> members = new ArrayList<>();
+            for (int i = g + groups; i < sessions; i += groups) {
+                members.add(userIds[i]);
+            }
+            roomIds[g] = api.createGroup(userIds[g], prefix + "-room-" + g, members).get();
+            roomSizes[g] = members.size() + 1;
+        }
+
+        // One session per user
+        StompConnection[] connections = new StompConnection[sessions];
+        CountDownLatch connected = new CountDownLatch(sessions);
+        for (int i = 0; i < sessions; i++) {
+            int index = i;
+            StompConnection.connect(httpClient, webSocketUri, userIds[i], new StompConnection.Handler() {
+                @Override
+                public void onConnected(StompConnection connection) {
+                    connection.subscribe("private", "/user/queue/private");
+                    connection.subscribe("group", "/topic/group/" + roomIds[index % groups]);
+                    connections[index] = connection;
+                    connected.countDown();
+                }
+
+                @Override
+                public void onError(StompConnection connection, Map<String, String> headers, String message) {
+                    System.err.println("Session " + index + ": " + message);
+                }
+
+                @Override
+                public void onMessage(StompConnection connection, String destination, String body) {
+                    record(body);
+                }
+            });
+        }
+        if (!connected.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(connected.getCount() + " sessions did not connect");
+        }
+        System.err.printf("%d sessions in %d rooms; sending %.0f msg/s%n", sessions, groups, rate);
+
+        // Pace sends at their intended times; only those after the warmup are measured
+        long intervalNanos = (long) (1_000_000_000 / rate);
+        long start = System.nanoTime();
+        measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        long groupSent = 0;
+        long privateSent = 0;
+        long expected = 0;
+        for (long n = 0; ; n++) {
+            long intended = start + n * intervalNanos;
+            if (intended >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            int sender = (int) (n % sessions);
+            String content = MARKER + intended;
+            boolean measured = intended >= measureFrom;
+            if (ThreadLocalRandom.current().nextDouble() < privateShare) {
+                int target = (sender + 1 + ThreadLocalRandom.current().nextInt(sessions - 1)) % sessions;
+                connections[sender].sendJson("/app/chat.sendMessage", "{\"messageType\":\"CHAT\",\"content\":\""
+                    + content + "\",\"username\":\"" + prefix + "-" + sender + "\",\"targetUser\":\""
+                    + prefix + "-" + target + "\"}");
+                if (measured) {
+                    privateSent++;
+                    expected++;
+                }
+            } else {
+                connections[sender].sendJson("/app/chat.sendMessage", "{\"messageType\":\"CHAT\",\"content\":\""
+                    + content + "\",\"username\":\"" + prefix + "-" + sender + "\",\"chatRoomId\":"
+                    + roomIds[sender % groups] + "}");
+                if (measured) {
+                    groupSent++;
+                    expected += roomSizes[sender % groups];
+                }
+            }
+        }
+        long sendEnd = System.nanoTime();
+
+        // Let in-flight deliveries arrive
+        long drainUntil = sendEnd + drainNanos;
+        while (delivered.get() < expected && System.nanoTime() < drainUntil) {
+            Thread.sleep(50);
+        }
+        Histogram histogram = latencies.getIntervalHistogram();
+
+        double seconds = durationNanos / 1e9;
+        ObjectNode result = MAPPER.createObjectNode();
+        result.put("harness", "bench");
+        result.put("startedAt", Instant.now().toString());
+        result.put("server", server != null ? "embedded" : baseUrl);
+        ObjectNode config = result.putObject("config");
+        config.put("sessions", sessions);
+        config.put("groups", groups);
+        config.put("rate", rate);
+        config.put("privateShare", privateShare);
+        config.put("warmupS", TimeUnit.NANOSECONDS.toSeconds(warmupNanos));
+        config.put("durationS", TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+        result.put("sent", groupSent + privateSent);
+        result.put("groupSent", groupSent);
+        result.put("privateSent", privateSent);
+        result.put("expectedDeliveries", expected);
+        result.put("delivered", delivered.get());
+        result.put("lost", Math.max(0, expected - delivered.get()));
+        ObjectNode throughput = result.putObject("throughput");
+        throughput.put("sentPerS", (groupSent + privateSent) / seconds);
+        throughput.put("deliveredPerS", delivered.get() / seconds);
+        // Above 1 the pacing thread fell behind the configured rate
+        throughput.put("sendOverrun", (sendEnd - start) / (double) (end - start));
+        ObjectNode latency = result.putObject("latencyMs");
+        for (double percentile : new double[] {50, 90, 99, 99.9}) {
+            latency.put("p" + (percentile == 99.9 ? "999" : String.valueOf((int) percentile)),
+                histogram.getValueAtPercentile(percentile) / 1000.0);
+        }
+        latency.put("max", histogram.getMaxValue() / 1000.0);
+        latency.put("mean", Math.round(histogram.getMean()) / 1000.0);
+
+        String json = MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(result);
+        System.out.println(json);
+        if (output != null) {
+            writeOutput(json);
+        }
+
+        for (StompConnection connection : connections) {
+            connection.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+        System.exit(0);
+    }
+
+    private void record(String body) {
+        long receivedAt = System.nanoTime();
+        try {
+            JsonNode event = MAPPER.readTree(body);
+            String content = event.path("content").asText();
+            if (!content.startsWith(MARKER)) {
+                return;
+            }
+            long intended = Long.parseLong(content.substring(MARKER.length()));
+            if (intended >= measureFrom) {
+                latencies.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(receivedAt - intended)));
+                delivered.incrementAndGet();
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Unexpected message: " + body);
+        }
+    }
+
+    private void writeOutput(String json) throws IOException {
+        Path path = Path.of(output);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Files.writeString(path, json);
+    }
+}
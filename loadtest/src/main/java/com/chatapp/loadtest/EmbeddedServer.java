@@ -0,0 +1,45 @@
+package com.chatapp.loadtest;
+
+import com.chatapp.ChatApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// The chat backend started in this JVM on a free loopback port, so a harness can run
+// without a deployed server (in CI, offline). Options with a dot in their name
+// (--chat.admission.enabled=false, --logging.level.root=WARN, ...) are passed to it.
+public class EmbeddedServer implements AutoCloseable {
+
+    private final ConfigurableApplicationContext context;
+    private final int port;
+
+    public EmbeddedServer(Map<String, String> options) {
+        List<String> args = new ArrayList<>();
+        args.add("--server.port=0");
+        args.add("--server.address=127.0.0.1");
+        // Keep stdout for the harness's JSON
+        args.add("--spring.main.banner-mode=off");
+        args.add("--logging.level.root=ERROR");
+        args.add("--logging.level.com.chatapp=ERROR");
+        options.forEach((key, value) -> {
+            if (key.contains(".")) {
+                args.add("--" + key + "=" + value);
+            }
+        });
+        context = new SpringApplicationBuilder(ChatApplication.class).run(args.toArray(new String[0]));
+        port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + port;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
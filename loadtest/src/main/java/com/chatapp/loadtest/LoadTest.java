@@ -0,0 +1,40 @@
+package com.chatapp.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Entry point: java -jar realtime-chat-loadtest.jar <harness> [--option=value ...]
+//   bench  message delivery latency and throughput (see DeliveryBenchmark)
+//   storm  simultaneous reconnect of many clients (see ReconnectStorm)
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg);
+            }
+            int equals = arg.indexOf('=');
+            options.put(equals < 0 ? arg.substring(2) : arg.substring(2, equals),
+                equals < 0 ? "true" : arg.substring(equals + 1));
+        }
+        switch (args[0]) {
+            case "bench" -> new DeliveryBenchmark(options).run();
+            case "storm" -> new ReconnectStorm(options).run();
+            default -> usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -jar realtime-chat-loadtest.jar bench [--url=http://localhost:8080]"
+            + " [--sessions=200] [--groups=10] [--rate=100] [--private-share=0.2] [--warmup-s=5] [--duration-s=20]"
+            + " [--output=bench.json] [--chat.some.property=value ...]");
+        System.err.println("       java -jar realtime-chat-loadtest.jar storm [--url=http://localhost:8080]"
+            + " [--clients=50000] [--timeout-s=600]");
+    }
+}
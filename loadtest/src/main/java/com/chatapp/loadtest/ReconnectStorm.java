@@ -0,0 +1,195 @@
+package com.chatapp.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Reconnect storm: signs up --clients users, then has all of them connect at the same
+// moment and resume the way the browser client does after a reconnect (CONNECT,
+// subscribe to the private queue, catch-up sync, then room list and contacts). Clients
+// honour the server's retry hints: retry-after-ms on a STOMP ERROR, retryAfterMs on a
+// 429; a failed socket is retried with exponential backoff and jitter. Reports a
+// per-second timeline and the time until every client has resumed (steady state) as JSON.
+//
+// One source address can only hold about 28k connections to one port (the ephemeral
+// port range), and each connection is a file descriptor on both sides; raise ulimit -n
+// and run several harnesses for the full 50k.
+public class ReconnectStorm {
+
+    private final String baseUrl;
+    private final URI webSocketUri;
+    private final int clients;
+    private final long timeoutSeconds;
+    private final int signupConcurrency;
+
+    private final List<HttpClient> httpClients = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private ChatApi api;
+
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger resumed = new AtomicInteger();
+    private final AtomicLong connectAttempts = new AtomicLong();
+    private final AtomicLong connectRejections = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong resumeFailures = new AtomicLong();
+
+    public ReconnectStorm(Map<String, String> options) {
+        this.baseUrl = options.getOrDefault("url", "http://localhost:8080");
+        this.webSocketUri = URI.create(baseUrl.replaceFirst("^http", "ws") + "/ws/websocket");
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "50000"));
+        this.timeoutSeconds = Long.parseLong(options.getOrDefault("timeout-s", "600"));
+        this.signupConcurrency = Integer.parseInt(options.getOrDefault("signup-concurrency", "64"));
+    }
+
+    public void run() throws Exception {
+        // Several clients, each with its own selector thread
+        for (int i = 0; i < 8; i++) {
+            httpClients.add(HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build());
+        }
+        api = new ChatApi(httpClients.get(0), baseUrl, scheduler);
+
+        long[] userIds = api.signupAll("storm-" + Long.toString(System.currentTimeMillis(), 36), clients,
+            signupConcurrency);
+        System.err.printf("Signed up %d users; starting the storm%n", clients);
+
+        long start = System.nanoTime();
+        long[] resumedAt = new long[clients];
+        CountDownLatch done = new CountDownLatch(clients);
+        ArrayNode timeline = new ObjectMapper().createArrayNode();
+        scheduler.scheduleAtFixedRate(() -> {
+            ObjectNode sample = timeline.addObject();
+            sample.put("t", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / 1000.0);
+            sample.put("connected", connected.get());
+            sample.put("resumed", resumed.get());
+            sample.put("connectRejections", connectRejections.get());
+            sample.put("httpRejections", api.getRejections());
+            System.err.println(sample);
+        }, 1, 1, TimeUnit.SECONDS);
+
+        List<StompConnection> connections = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            new Client(i, userIds[i], start, resumedAt, done, connections).connect(0);
+        }
+        boolean steady = done.await(timeoutSeconds, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+        scheduler.shutdownNow();
+
+        long[] times = Arrays.stream(resumedAt).filter(t -> t > 0).sorted().toArray();
+        ObjectNode result = new ObjectMapper().createObjectNode();
+        result.put("harness", "storm");
+        result.put("clients", clients);
+        result.put("steadyState", steady);
+        result.put("timeToSteadyStateMs", steady ? TimeUnit.NANOSECONDS.toMillis(times[times.length - 1]) : -1);
+        result.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        result.put("resumed", times.length);
+        ObjectNode percentiles = result.putObject("resumeMs");
+        for (double p : new double[] {50, 90, 99, 100}) {
+            percentiles.put("p" + (int) p, times.length == 0 ? -1
+                : TimeUnit.NANOSECONDS.toMillis(times[(int) Math.min(times.length - 1, Math.ceil(p / 100 * times.length) - 1)]));
+        }
+        result.put("connectAttempts", connectAttempts.get());
+        result.put("connectRejections", connectRejections.get());
+        result.put("connectFailures", connectFailures.get());
+        result.put("httpRejections", api.getRejections());
+        result.put("resumeFailures", resumeFailures.get());
+        result.set("timeline", timeline);
+        System.out.println(new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(result));
+
+        synchronized (connections) {
+            connections.forEach(StompConnection::close);
+        }
+        System.exit(0);
+    }
+
+    private class Client implements StompConnection.Handler {
+        private final int index;
+        private final long userId;
+        private final long start;
+        private final long[] resumedAt;
+        private final CountDownLatch done;
+        private final List<StompConnection> connections;
+        private int attempt;
+        private volatile boolean established;
+
+        Client(int index, long userId, long start, long[] resumedAt, CountDownLatch done,
+               List<StompConnection> connections) {
+            this.index = index;
+            this.userId = userId;
+            this.start = start;
+            this.resumedAt = resumedAt;
+            this.done = done;
+            this.connections = connections;
+        }
+
+        void connect(long delayMs) {
+            Runnable open = () -> {
+                connectAttempts.incrementAndGet();
+                StompConnection.connect(httpClients.get(index % httpClients.size()), webSocketUri, userId, this);
+            };
+            if (delayMs == 0) {
+                open.run();
+            } else {
+                scheduler.schedule(open, delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void onConnected(StompConnection connection) {
+            established = true;
+            connected.incrementAndGet();
+            synchronized (connections) {
+                connections.add(connection);
+            }
+            connection.subscribe("private", "/user/queue/private");
+            // Staged like the browser client: catch-up first, then the room list and contacts
+            CompletableFuture<?> resume = api.sync(userId, 0)
+                .thenCompose(sync -> api.roomSummaries(userId))
+                .thenCompose(rooms -> api.contacts(userId));
+            resume.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    resumeFailures.incrementAndGet();
+                    System.err.println("Resume failed: " + error.getMessage());
+                } else {
+                    resumedAt[index] = System.nanoTime() - start;
+                    resumed.incrementAndGet();
+                }
+                done.countDown();
+            });
+        }
+
+        @Override
+        public void onError(StompConnection connection, Map<String, String> headers, String message) {
+            String retryAfter = headers.get("retry-after-ms");
+            if (retryAfter != null) {
+                connectRejections.incrementAndGet();
+                connect(Long.parseLong(retryAfter));
+                return;
+            }
+            if (established) {
+                // Dropped after connecting; the storm is over for this client
+                return;
+            }
+            if (connectFailures.incrementAndGet() <= 10) {
+                System.err.println("Connect failed: " + message);
+            }
+            long base = Math.min(30000, 1000L << Math.min(attempt++, 5));
+            connect(base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1));
+        }
+    }
+}
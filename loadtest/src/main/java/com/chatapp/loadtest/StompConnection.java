@@ -0,0 +1,145 @@
+package com.chatapp.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+// Minimal STOMP 1.2 client over a raw WebSocket (the SockJS endpoint's /websocket
+// transport), light enough to hold tens of thousands of sessions in one JVM. Frames are
+// handed to the Handler on the HttpClient's threads.
+public class StompConnection implements WebSocket.Listener {
+
+    public interface Handler {
+        void onConnected(StompConnection connection);
+
+        // ERROR frame or a failed/closed socket; headers is empty for the latter
+        void onError(StompConnection connection, Map<String, String> headers, String message);
+
+        default void onMessage(StompConnection connection, String destination, String body) {
+        }
+    }
+
+    private final Handler handler;
+    private final StringBuilder pending = new StringBuilder();
+    private volatile WebSocket webSocket;
+    private volatile boolean closed;
+
+    private StompConnection(Handler handler) {
+        this.handler = handler;
+    }
+
+    // Opens the socket and sends CONNECT with the given user-id header
+    public static void connect(HttpClient client, URI uri, long userId, Handler handler) {
+        StompConnection connection = new StompConnection(handler);
+        client.newWebSocketBuilder().buildAsync(uri, connection).whenComplete((webSocket, error) -> {
+            if (error != null) {
+                connection.fail("connect failed: " + error.getMessage());
+                return;
+            }
+            connection.webSocket = webSocket;
+            connection.send("CONNECT\naccept-version:1.2\nhost:localhost\nheart-beat:0,0\nuser-id:" + userId + "\n\n");
+        });
+    }
+
+    public void subscribe(String id, String destination) {
+        send("SUBSCRIBE\nid:" + id + "\ndestination:" + destination + "\n\n");
+    }
+
+    public void sendJson(String destination, String body) {
+        send("SEND\ndestination:" + destination + "\ncontent-type:application/json\n\n" + body);
+    }
+
+    public void close() {
+        closed = true;
+        WebSocket socket = webSocket;
+        if (socket != null) {
+            socket.abort();
+        }
+    }
+
+    private synchronized void send(String frame) {
+        // WebSocket allows one outstanding send; frames are small, so wait for each
+        webSocket.sendText(frame + "\0", true).join();
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        this.webSocket = webSocket;
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        pending.append(data);
+        int end;
+        while ((end = pending.indexOf("\0")) >= 0) {
+            String frame = pending.substring(0, end);
+            pending.delete(0, end + 1);
+            dispatch(frame);
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        fail("closed " + statusCode + " " + reason);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        fail(error.toString());
+    }
+
+    private void dispatch(String frame) {
+        // Heart-beat newlines between frames
+        int start = 0;
+        while (start < frame.length() && (frame.charAt(start) == '\n' || frame.charAt(start) == '\r')) {
+            start++;
+        }
+        if (start == frame.length()) {
+            return;
+        }
+        int headerEnd = frame.indexOf("\n\n", start);
+        String head = frame.substring(start, headerEnd < 0 ? frame.length() : headerEnd);
+        String body = headerEnd < 0 ? "" : frame.substring(headerEnd + 2);
+        String[] lines = head.split("\n");
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.putIfAbsent(lines[i].substring(0, colon), lines[i].substring(colon + 1));
+            }
+        }
+        switch (lines[0]) {
+            case "CONNECTED" -> handler.onConnected(this);
+            case "MESSAGE" -> handler.onMessage(this, headers.get("destination"), body);
+            case "ERROR" -> {
+                closed = true;
+                handler.onError(this, headers, headers.getOrDefault("message", body));
+                webSocket.abort();
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void fail(String message) {
+        if (!closed) {
+            closed = true;
+            handler.onError(this, Map.of(), message);
+        }
+    }
+}